@@ -30,9 +30,28 @@ public class LivePlayActivity extends AppCompatActivity implements PlayerManager
         player.setScaleType(PlayerManager.SCALETYPE_FILLPARENT);
         player.playInFullScreen(true);
         player.setPlayerStateListener(this);
+        player.live(true);
         player.play(url);
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        player.onPause();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        player.onResume();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        player.onDestroy();
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         if (player.gestureDetector.onTouchEvent(event))
@@ -0,0 +1,114 @@
+package com.utils.ijkplayer.common;
+
+/**
+ * Builds short overlay texts, times and percentages, in a {@code char[]} allocated once.
+ * <p>
+ * Gesture overlays change on every scroll event; formatting them with {@code String.format}
+ * or string concatenation creates a formatter, a builder and a string each time. Appending
+ * here only writes digits into the buffer, and the result goes to a view with
+ * {@code TextView.setText(getChars(), 0, length())}, which keeps wrapping the same array.
+ * Appending past the capacity throws {@link ArrayIndexOutOfBoundsException}.
+ */
+public class CharFormatter {
+    private final char[] mChars;
+    private int mLength;
+
+    public CharFormatter(int capacity) {
+        mChars = new char[capacity];
+    }
+
+    public CharFormatter clear() {
+        mLength = 0;
+        return this;
+    }
+
+    public CharFormatter append(char c) {
+        mChars[mLength++] = c;
+        return this;
+    }
+
+    public CharFormatter append(String s) {
+        int length = s.length();
+        if (mLength + length > mChars.length)
+            throw new ArrayIndexOutOfBoundsException(mLength + length);
+        s.getChars(0, length, mChars, mLength);
+        mLength += length;
+        return this;
+    }
+
+    public CharFormatter append(long value) {
+        return append(value, 1);
+    }
+
+    /**
+     * Appends {@code value} in decimal, zero-padded to at least {@code minDigits} digits.
+     */
+    public CharFormatter append(long value, int minDigits) {
+        if (value < 0)
+            append('-');
+        int start = mLength;
+        // digits of the negated value, so that Long.MIN_VALUE needs no special case
+        long rest = value < 0 ? value : -value;
+        do {
+            append((char) ('0' - rest % 10));
+            rest /= 10;
+        } while (rest != 0);
+        while (mLength - start < minDigits)
+            append('0');
+        reverse(start, mLength - 1);
+        return this;
+    }
+
+    /**
+     * Appends {@code value} with an explicit sign, e.g. {@code +12} or {@code -5}.
+     */
+    public CharFormatter appendSigned(long value) {
+        if (value >= 0)
+            append('+');
+        return append(value, 1);
+    }
+
+    /**
+     * Appends a position or duration as {@code mm:ss}, or {@code hh:mm:ss} from an hour on.
+     */
+    public CharFormatter appendTime(long timeMs) {
+        long totalSeconds = Math.max(0, timeMs / 1000);
+        long seconds = totalSeconds % 60;
+        long minutes = (totalSeconds / 60) % 60;
+        long hours = totalSeconds / 3600;
+        if (hours > 0)
+            append(hours, 2).append(':');
+        return append(minutes, 2).append(':').append(seconds, 2);
+    }
+
+    public CharFormatter appendPercent(long percent) {
+        return append(percent, 1).append('%');
+    }
+
+    /**
+     * @return the buffer, valid up to {@link #length()}
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * Allocates; for logs and tests, not for the per-event path.
+     */
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+
+    private void reverse(int from, int to) {
+        while (from < to) {
+            char c = mChars[from];
+            mChars[from++] = mChars[to];
+            mChars[to--] = c;
+        }
+    }
+}
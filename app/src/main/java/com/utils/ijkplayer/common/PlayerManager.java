@@ -1,10 +1,17 @@
 package com.utils.ijkplayer.common;
 
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.media.AudioManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.util.DisplayMetrics;
@@ -12,7 +19,6 @@ import android.util.Log;
 import android.util.TypedValue;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
-import android.view.OrientationEventListener;
 import android.view.Surface;
 import android.view.View;
 import android.view.ViewGroup;
@@ -20,11 +26,36 @@ import android.view.WindowManager;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import com.utils.ijkplayer.decoder.DecoderPolicy;
+import com.utils.ijkplayer.decoder.MediaCodecCapabilities;
+import com.utils.ijkplayer.decoder.SharedPreferencesStore;
+import com.utils.ijkplayer.decoder.VideoFormat;
+import com.utils.ijkplayer.hls.AbrController;
+import com.utils.ijkplayer.hls.HlsCacheProxy;
+import com.utils.ijkplayer.hls.SegmentMemoryCache;
+import com.utils.ijkplayer.live.LiveLatencyController;
+import com.utils.ijkplayer.stats.BandwidthEstimator;
+import com.utils.ijkplayer.stats.EventLog;
+import com.utils.ijkplayer.stats.LatencyHistogram;
+import com.utils.ijkplayer.stats.RenderStats;
+import com.utils.ijkplayer.stats.StallTracker;
+import com.utils.ijkplayer.stats.StartupTracer;
+import com.utils.ijkplayer.thumbnail.ThumbnailCache;
+import com.utils.ijkplayer.thumbnail.ThumbnailExtractor;
+import com.utils.ijkplayer.widget.media.MediaPlayerPool;
 import com.utils.ijkplayer.widget.media.IRenderView;
+import com.utils.ijkplayer.widget.media.IjkOptionProfile;
 import com.utils.ijkplayer.widget.media.IjkVideoView;
+import com.utils.ijkplayer.widget.media.PixelFormatPolicy;
+import com.utils.ijkplayer.widget.media.RetainedPlayer;
 import com.rayming.livevideo.R;
 
 import tv.danmaku.ijk.media.player.IMediaPlayer;
+import tv.danmaku.ijk.media.player.MediaInfo;
 import tv.danmaku.ijk.media.player.IjkMediaPlayer;
 
 public class PlayerManager {
@@ -63,6 +94,81 @@ public class PlayerManager {
     private final int STATUS_PAUSE=3;
     private final int STATUS_COMPLETED=4;
 
+    /**
+     * HLS磁盘缓存大小
+     */
+    private static final long HLS_CACHE_SIZE = 100 * 1024 * 1024;
+    private static final long HLS_MEMORY_CACHE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 拖动进度预览缩略图的磁盘和内存缓存大小
+     */
+    private static final long THUMBNAIL_CACHE_SIZE = 20 * 1024 * 1024;
+    private static final long THUMBNAIL_MEMORY_CACHE_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * 低延迟直播下检查直播延迟的间隔
+     */
+    private static final long LIVE_LATENCY_CHECK_INTERVAL = 500;
+    private static final long RENDER_SAMPLE_INTERVAL = 1000;
+
+    /**
+     * 手势提示文字在最后一次滑动后保留的时间
+     */
+    private static final long GESTURE_TEXT_HIDE_DELAY = 800;
+
+    /**
+     * 配置变化后新的Activity在这段时间内没有接回播放器就释放
+     */
+    private static final long RETAIN_TIMEOUT = 5000;
+
+    /**
+     * 本地HLS缓存代理,进程内共享,旋转屏幕或重建Activity后仍可复用缓存
+     */
+    private static HlsCacheProxy hlsCacheProxy;
+
+    /**
+     * 预创建的ijk播放器池,切换频道或出错重开时省去native播放器的构造
+     */
+    private static MediaPlayerPool playerPool;
+
+    /**
+     * 起播耗时统计,各阶段分位数在进程内累计
+     */
+    private static final StartupTracer startupTracer = new StartupTracer();
+
+    /**
+     * 带宽估计,来源为播放器上报的网速和HLS分片下载耗时
+     */
+    private static final BandwidthEstimator bandwidthEstimator = new BandwidthEstimator();
+
+    /**
+     * 直播回到前台重新打开到首帧的耗时
+     */
+    private static final LatencyHistogram liveResumeHistogram = new LatencyHistogram();
+
+    /**
+     * 播放事件环形日志,记录时不分配对象,出错时或按需导出
+     */
+    private static final EventLog eventLog = new EventLog();
+
+    /**
+     * 按码流格式和设备能力选择硬解或软解,结果持久化
+     */
+    private static DecoderPolicy decoderPolicy;
+
+    /**
+     * 点播拖动进度的预览缩略图,按url和时间分段缓存,进程内共享
+     */
+    private static ThumbnailCache thumbnailCache;
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable releaseRetainedTask = new Runnable() {
+        @Override
+        public void run() {
+            releaseRetainedSession();
+        }
+    };
+
     private final Activity activity;
     private final IjkVideoView videoView;
     private final AudioManager audioManager;
@@ -70,8 +176,17 @@ public class PlayerManager {
 
     private boolean playerSupport;
     private boolean isLive = false;//是否为直播
+    private boolean lowLatency = false;//直播低延迟模式
+    private IjkOptionProfile optionProfile;//ijk选项配置,为空时按是否低延迟直播选择
     private boolean fullScreenOnly;
     private boolean portrait;
+    private boolean hlsCacheEnabled = true;
+    private Map<String, String> headers;//请求头,经代理时由代理带给源站
+    private StallTracker stallTracker = new StallTracker();//卡顿统计,每次play()为一个会话,重建Activity时随会话保留
+    private final LiveLatencyController liveLatencyController = new LiveLatencyController();//直播延迟控制,倍速追赶或跳到直播点
+    private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy();//出错重连,指数退避,最长间隔为defaultRetryTime
+    private RenderStats renderStats = new RenderStats();//渲染格式、帧间隔和帧率统计,每次play()重新开始
+    private final int deviceClass;//设备档次,决定软解输出的像素格式
 
     private final int mMaxVolume;
     private int screenWidthPixels;
@@ -84,8 +199,86 @@ public class PlayerManager {
     private int volume=-1;
     private long newPosition = -1;
     private long defaultRetryTime=5000;
+    private int resumePosition;//点播重连后恢复到的位置
+    private boolean reconnectPending;//已安排重连,暂停时推迟到回到前台
+    private VideoFormat mediaCodecFormat;//正在硬解的格式,播放结束时记为硬解成功
+    private long liveResumeThreshold=3000;
+    private long resumeStartedAt;//直播回到前台重新打开的时间,0为不在统计中
+
+    private OnSeekPreviewListener onSeekPreviewListener;
+    private ThumbnailExtractor thumbnailExtractor;//当前点播的缩略图提取,拖动进度时按需创建
+    private int previewBucket = -1;//previewBitmap对应的时间分段
+    private int requestedBucket = -1;//最近一次向提取线程要的分段,同一分段拖动时不重复查询
+    private TextView gestureTextView;//滑动时显示进度、音量和亮度
+    private final CharFormatter gestureText = new CharFormatter(32);//手势提示文字,每次滑动改写同一个char[],不分配字符串
+    private Bitmap previewBitmap;//最近一次显示的预览图,解码下一张时复用
+
+    private final Runnable hideGestureTextTask = new Runnable() {
+        @Override
+        public void run() {
+            if (gestureTextView != null) {
+                gestureTextView.setVisibility(View.GONE);
+            }
+        }
+    };
+
+    /**
+     * 低延迟直播时定时检查缓冲时长,超出目标延迟时倍速追赶,超出阈值时重新打开回到直播点
+     */
+    private final Runnable liveLatencyTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!isLive || !lowLatency) {
+                return;
+            }
+            if (status == STATUS_PLAYING) {
+                switch (liveLatencyController.update(videoView.getCachedDuration())) {
+                    case LiveLatencyController.ACTION_SET_SPEED:
+                        eventLog.log(EventLog.EVENT_LIVE_SPEED, (int) (liveLatencyController.getSpeed() * 100),
+                                (int) liveLatencyController.getLatencyMs());
+                        videoView.setSpeed(liveLatencyController.getSpeed());
+                        break;
+                    case LiveLatencyController.ACTION_JUMP:
+                        jumpToLiveEdge();
+                        break;
+                }
+            }
+            videoView.postDelayed(this, LIVE_LATENCY_CHECK_INTERVAL);
+        }
+    };
 
-    private OrientationEventListener orientationEventListener;
+    /**
+     * 播放时每秒采样一次播放器的输出和解码帧率
+     */
+    private final Runnable renderSampleTask = new Runnable() {
+        @Override
+        public void run() {
+            if (status == STATUS_PLAYING) {
+                renderStats.onFpsSample(videoView.getVideoOutputFps(), videoView.getVideoDecodeFps());
+            }
+            videoView.postDelayed(this, RENDER_SAMPLE_INTERVAL);
+        }
+    };
+
+    /**
+     * 出错后按退避时间重新打开,点播回到出错时的位置,直播回到直播点
+     */
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            reconnectPending = false;
+            if (isLive) {
+                reopenAtLiveEdge();
+            } else {
+                videoView.release(false);
+                setPlayUrl(resolvePlayUrl(url));
+                if (resumePosition > 0) {
+                    videoView.seekTo(resumePosition);
+                }
+                videoView.start();
+            }
+        }
+    };
     private PlayerStateListener playerStateListener;
 
     public void setPlayerStateListener(PlayerStateListener playerStateListener) {
@@ -116,11 +309,13 @@ public class PlayerManager {
     };
 
     /**
-     * try to play when error(only for live video)
+     * try to play when error, the longest wait between two reconnect attempts after a network error; the first
+     * attempt waits about 500 millisecond and each further one twice as long
      * @param defaultRetryTime millisecond,0 will stop retry,default is 5000 millisecond
      */
     public void setDefaultRetryTime(long defaultRetryTime) {
         this.defaultRetryTime = defaultRetryTime;
+        reconnectPolicy.setMaxDelayMs(defaultRetryTime);
     }
 
     public PlayerManager(final Activity activity) {
@@ -135,17 +330,62 @@ public class PlayerManager {
         screenWidthPixels = activity.getResources().getDisplayMetrics().widthPixels;
 
         videoView = (IjkVideoView) activity.findViewById(R.id.video_view);
+        if (playerSupport) {
+            synchronized (PlayerManager.class) {
+                if (playerPool == null) {
+                    playerPool = new MediaPlayerPool();
+                }
+            }
+            playerPool.prewarm();
+            videoView.setPlayerPool(playerPool);
+        }
+        videoView.setStartupTracer(startupTracer);
+        videoView.setRenderStats(renderStats);
+        ActivityManager activityManager = (ActivityManager) activity.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean lowRamDevice = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice();
+        deviceClass = PixelFormatPolicy.classifyDevice(lowRamDevice, activityManager.getMemoryClass(),
+                Runtime.getRuntime().availableProcessors());
+        synchronized (PlayerManager.class) {
+            if (decoderPolicy == null) {
+                decoderPolicy = new DecoderPolicy(new MediaCodecCapabilities(), new SharedPreferencesStore(
+                        activity.getApplicationContext().getSharedPreferences("decoder_policy", Context.MODE_PRIVATE)));
+            }
+        }
+        //调试包输出native调试日志,发布包只输出警告和错误
+        boolean debuggable = (activity.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        videoView.setNativeLogLevel(debuggable ? IjkMediaPlayer.IJK_LOG_DEBUG : IjkMediaPlayer.IJK_LOG_WARN);
         videoView.setOnCompletionListener(new IMediaPlayer.OnCompletionListener() {
             @Override
             public void onCompletion(IMediaPlayer mp) {
+                eventLog.log(EventLog.EVENT_COMPLETE, (int) mp.getCurrentPosition(), 0);
+                //直播流不会结束,读到结尾是连接断了
+                if (isLive && scheduleReconnect(IMediaPlayer.MEDIA_ERROR_IO, 0)) {
+                    return;
+                }
                 statusChange(STATUS_COMPLETED);
+                endStallSession();
+                endDecoderOutcome();
                 onCompleteListener.onComplete();
             }
         });
         videoView.setOnErrorListener(new IMediaPlayer.OnErrorListener() {
             @Override
             public boolean onError(IMediaPlayer mp, int what, int extra) {
+                eventLog.log(EventLog.EVENT_ERROR, what, extra);
+                if (!isLive) {
+                    //还没起播的重连拿不到位置,保留上一次的
+                    int position = (int) mp.getCurrentPosition();
+                    if (position > 0) {
+                        resumePosition = position;
+                    }
+                }
+                if (fallBackToSoftwareDecoder(what, extra) || scheduleReconnect(what, extra)) {
+                    return true;
+                }
                 statusChange(STATUS_ERROR);
+                endStallSession();
+                Log.e("TAG", "play " + url + " failed " + what + "," + extra + ", reconnect " + reconnectPolicy.report()
+                        + "\n" + eventLog);
                 onErrorListener.onError(what,extra);
                 return true;
             }
@@ -153,18 +393,39 @@ public class PlayerManager {
         videoView.setOnInfoListener(new IMediaPlayer.OnInfoListener() {
             @Override
             public boolean onInfo(IMediaPlayer mp, int what, int extra) {
+                eventLog.log(EventLog.EVENT_INFO, what, extra);
                 switch (what) {
                     case IMediaPlayer.MEDIA_INFO_BUFFERING_START:
+                        stallTracker.onBufferingStart();
                         statusChange(STATUS_LOADING);
                         break;
                     case IMediaPlayer.MEDIA_INFO_BUFFERING_END:
+                        stallTracker.onBufferingEnd();
                         statusChange(STATUS_PLAYING);
                         break;
                     case IMediaPlayer.MEDIA_INFO_NETWORK_BANDWIDTH:
-                        //显示下载速度
-//                      Toast.show("download rate:" + extra);
+                        //extra为下载速度,单位kbps
+                        bandwidthEstimator.addRate(extra * 1000L);
                         break;
                     case IMediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START:
+                        stallTracker.onFirstFrame();
+                        //重连或换软解重新打开的停顿到这里结束
+                        stallTracker.onBufferingEnd();
+                        onVideoDecoderStarted();
+                        //首帧后开始在后台提取点播缩略图,拖动时多数已在缓存中
+                        if (onSeekPreviewListener != null) {
+                            startThumbnailExtractor();
+                        }
+                        if (reconnectPolicy.isReconnecting()) {
+                            reconnectPolicy.onRecovered();
+                            eventLog.log(EventLog.EVENT_RECONNECTED, reconnectPolicy.getRecoveredCount(),
+                                    (int) reconnectPolicy.getReconnectHistogram().getMax());
+                        }
+                        if (resumeStartedAt > 0) {
+                            long resumeMs = (System.nanoTime() - resumeStartedAt) / 1000000;
+                            resumeStartedAt = 0;
+                            liveResumeHistogram.record(resumeMs);
+                        }
                         statusChange(STATUS_PLAYING);
                         break;
                 }
@@ -188,14 +449,13 @@ public class PlayerManager {
     }
 
     private void statusChange(int newStatus) {
+        eventLog.log(EventLog.EVENT_STATUS, newStatus, status);
         status = newStatus;
         if (!isLive && newStatus==STATUS_COMPLETED) {
-            Log.d("TAG", "statusChange STATUS_COMPLETED...");
             if (playerStateListener != null){
                 playerStateListener.onComplete();
             }
         }else if (newStatus == STATUS_ERROR) {
-            Log.d("TAG", "statusChange STATUS_ERROR...");
             if (playerStateListener != null){
                 playerStateListener.onError();
             }
@@ -204,9 +464,7 @@ public class PlayerManager {
             if (playerStateListener != null){
                 playerStateListener.onLoading();
             }
-            Log.d("TAG", "statusChange STATUS_LOADING...");
         } else if (newStatus == STATUS_PLAYING) {
-            Log.d("TAG", "statusChange STATUS_PLAYING...");
             if (playerStateListener != null){
                 playerStateListener.onPlay();
             }
@@ -214,7 +472,17 @@ public class PlayerManager {
     }
 
     public void onPause() {
+        if (activity.isChangingConfigurations() && !reconnectPending) {
+            //Activity因配置变化重建,播放器交给新的Activity,不暂停
+            videoView.removeCallbacks(liveLatencyTask);
+            videoView.removeCallbacks(renderSampleTask);
+            return;
+        }
         pauseTime= System.currentTimeMillis();
+        stallTracker.onPause();
+        videoView.removeCallbacks(liveLatencyTask);
+        videoView.removeCallbacks(renderSampleTask);
+        videoView.removeCallbacks(reconnectTask);
         if (status==STATUS_PLAYING) {
             videoView.pause();
             if (!isLive) {
@@ -224,38 +492,506 @@ public class PlayerManager {
     }
 
     public void onResume() {
+        long pausedMs = pauseTime > 0 ? System.currentTimeMillis() - pauseTime : 0;
         pauseTime=0;
+        stallTracker.onResume();
         if (status==STATUS_PLAYING) {
             if (isLive) {
-                videoView.seekTo(0);
+                resumeLive(pausedMs);
             } else {
                 if (currentPosition>0) {
+                    stallTracker.onSeek();
                     videoView.seekTo(currentPosition);
                 }
+                videoView.start();
             }
+        }
+        if (reconnectPending) {
+            videoView.post(reconnectTask);
+        }
+        startLiveLatencyCheck();
+        startRenderSampling();
+    }
+
+    /**
+     * 直播回到前台:暂停时间短且播放器还在时直接继续,否则在直播点重新打开
+     */
+    private void resumeLive(long pausedMs) {
+        int state = videoView.getCurrentState();
+        if (pausedMs < liveResumeThreshold && state != IjkVideoView.STATE_IDLE && state != IjkVideoView.STATE_ERROR) {
             videoView.start();
+            return;
         }
+        eventLog.log(EventLog.EVENT_LIVE_REOPEN, (int) pausedMs, EventLog.REOPEN_RESUME);
+        resumeStartedAt = System.nanoTime();
+        reopenAtLiveEdge();
     }
 
     public void onDestroy() {
-        orientationEventListener.disable();
+        videoView.removeCallbacks(liveLatencyTask);
+        videoView.removeCallbacks(renderSampleTask);
+        closeThumbnailExtractor();
+        if (activity.isChangingConfigurations() && retainSession()) {
+            return;
+        }
+        cancelReconnect();
+        endStallSession();
+        endDecoderOutcome();
         videoView.stopPlayback();
     }
 
+    /**
+     * 配置变化重建Activity:不停止播放器,连同会话状态保留给新的PlayerManager
+     * @return false if there is nothing to keep
+     */
+    private boolean retainSession() {
+        if (!playerSupport || url == null || reconnectPending) {
+            return false;
+        }
+        RetainedPlayer player = videoView.detachPlayer();
+        if (player == null) {
+            return false;
+        }
+        releaseRetainedSession();
+        RetainedSession session = new RetainedSession();
+        session.player = player;
+        session.url = url;
+        session.status = status;
+        session.isLive = isLive;
+        session.lowLatency = lowLatency;
+        session.stallTracker = stallTracker;
+        session.renderStats = renderStats;
+        session.mediaCodecFormat = mediaCodecFormat;
+        RetainedSession.keep(session);
+        mainHandler.postDelayed(releaseRetainedTask, RETAIN_TIMEOUT);
+        eventLog.log(EventLog.EVENT_RETAIN, status, 0);
+        return true;
+    }
+
+    /**
+     * 接回上一个Activity保留的同一url的播放器,只需重新绑定surface
+     * @return false if no session was retained for url
+     */
+    private boolean reattachSession(String url) {
+        if (!playerSupport) {
+            return false;
+        }
+        RetainedSession session = RetainedSession.take(url);
+        if (session == null) {
+            return false;
+        }
+        mainHandler.removeCallbacks(releaseRetainedTask);
+        long detachedMs = session.player.getDetachedMs();
+        if (!videoView.attachPlayer(session.player)) {
+            return false;
+        }
+        this.url = url;
+        isLive = session.isLive;
+        lowLatency = session.lowLatency;
+        stallTracker = session.stallTracker;
+        renderStats = session.renderStats;
+        videoView.setRenderStats(renderStats);
+        mediaCodecFormat = session.mediaCodecFormat;
+        eventLog.log(EventLog.EVENT_REATTACH, (int) detachedMs, videoView.getCurrentState());
+        statusChange(session.status);
+        startLiveLatencyCheck();
+        startRenderSampling();
+        return true;
+    }
+
+    /**
+     * 保留的会话没有被接回,释放播放器并结束统计
+     */
+    private static void releaseRetainedSession() {
+        RetainedSession session = RetainedSession.take(null);
+        if (session == null) {
+            return;
+        }
+        mainHandler.removeCallbacks(releaseRetainedTask);
+        eventLog.log(EventLog.EVENT_RETAIN, session.status, 1);
+        if (session.stallTracker.isActive()) {
+            session.stallTracker.onSessionEnd();
+            Log.d("TAG", "qoe " + session.url + " " + session.stallTracker.report());
+        }
+        if (session.mediaCodecFormat != null) {
+            decoderPolicy.onOutcome(session.mediaCodecFormat, true);
+        }
+        session.player.release();
+    }
+
     public void play(String url) {
+        play(url, null);
+    }
+
+    /**
+     * play with ijk options for this url only
+     * @param url
+     * @param profile null uses the profile set by optionProfile(); play() without a profile of the url the Activity
+     *                played before it was recreated for a configuration change carries on with the running player
+     */
+    public void play(String url, IjkOptionProfile profile) {
+        if (profile == null && reattachSession(url)) {
+            return;
+        }
+        releaseRetainedSession();
+        endStallSession();
+        endDecoderOutcome();
+        cancelReconnect();
+        closeThumbnailExtractor();
         this.url = url;
+        resumePosition = 0;
+        eventLog.log(EventLog.EVENT_PLAY, isLive ? 1 : 0, lowLatency ? 1 : 0);
+        stallTracker.onSessionStart();
+        startupTracer.begin();
+        resumeStartedAt = 0;
         if (playerSupport) {
-            videoView.setVideoPath(url);
+            videoView.setOptionProfile(resolveOptionProfile(profile));
+            int decoder = decoderPolicy.choose(url);
+            eventLog.log(EventLog.EVENT_DECODER, decoder, decoderPolicy.getFormat(url) != null ? 1 : 0);
+            videoView.setUsingMediaCodec(decoder == DecoderPolicy.DECODER_MEDIACODEC);
+            videoView.setOverlayFormat(chooseOverlayFormat(url));
+            renderStats.reset();
+            liveLatencyController.reset();
+            setPlayUrl(resolvePlayUrl(url));
             videoView.start();
+            startLiveLatencyCheck();
+            startRenderSampling();
+        }
+    }
+
+    /**
+     * 可重试的错误按退避时间安排重连,出错到恢复计为一次播放卡顿
+     * @return false if the error is fatal, retrying is disabled or the attempts are used up
+     */
+    private boolean scheduleReconnect(int what, int extra) {
+        if (!playerSupport || url == null) {
+            return false;
+        }
+        long delay = reconnectPolicy.onError(what, extra);
+        if (delay < 0) {
+            return false;
+        }
+        eventLog.log(EventLog.EVENT_RECONNECT, reconnectPolicy.getAttempt(), (int) delay);
+        postReconnect(delay);
+        return true;
+    }
+
+    /**
+     * 硬解出了非网络错误时记为硬解失败,换软解在原位置重新打开
+     * @return false if not decoding with MediaCodec or the error is a network error
+     */
+    private boolean fallBackToSoftwareDecoder(int what, int extra) {
+        if (!playerSupport || url == null || !videoView.isUsingMediaCodec()
+                || !DecoderPolicy.isDecoderError(what, extra)) {
+            return false;
+        }
+        VideoFormat format = mediaCodecFormat;
+        if (format == null) {
+            //首帧前失败,格式取播放器已探测到的,没有则取上次记录的
+            format = probedVideoFormat();
+            if (format == null) {
+                format = decoderPolicy.getFormat(url);
+            }
+        }
+        if (format != null) {
+            decoderPolicy.onOutcome(format, false);
+        }
+        mediaCodecFormat = null;
+        eventLog.log(EventLog.EVENT_DECODER_FALLBACK, what, extra);
+        videoView.setUsingMediaCodec(false);
+        postReconnect(0);
+        return true;
+    }
+
+    private void postReconnect(long delay) {
+        stallTracker.onBufferingStart();
+        statusChange(STATUS_LOADING);
+        videoView.removeCallbacks(reconnectTask);
+        reconnectPending = true;
+        if (pauseTime == 0) {
+            videoView.postDelayed(reconnectTask, delay);
+        }
+    }
+
+    /**
+     * 首帧时记录码流格式;要求硬解但播放器自己退回了软解,记为硬解失败
+     */
+    private void onVideoDecoderStarted() {
+        VideoFormat format = probedVideoFormat();
+        if (format == null) {
+            return;
+        }
+        if (videoView.isUsingMediaCodec()) {
+            //硬解直接输出到surface,不经过overlay
+            renderStats.onFormat("none", 0, format.fps);
+        } else {
+            int overlayFormat = videoView.getOverlayFormat();
+            renderStats.onFormat(PixelFormatPolicy.name(overlayFormat),
+                    PixelFormatPolicy.frameBytes(overlayFormat, format.width, format.height), format.fps);
+        }
+        decoderPolicy.onFormat(url, format);
+        if (!videoView.isUsingMediaCodec()) {
+            return;
+        }
+        MediaInfo info = videoView.getMediaInfo();
+        if (info.mVideoDecoder != null && info.mVideoDecoder.trim().equalsIgnoreCase("MediaCodec")) {
+            mediaCodecFormat = format;
+        } else {
+            mediaCodecFormat = null;
+            decoderPolicy.onOutcome(format, false);
+        }
+    }
+
+    private VideoFormat probedVideoFormat() {
+        MediaInfo info = videoView.getMediaInfo();
+        return info != null && info.mMeta != null ? VideoFormat.from(info.mMeta.mVideoStream) : null;
+    }
+
+    /**
+     * 硬解播放到结束没有出错,记为硬解成功
+     */
+    private void endDecoderOutcome() {
+        if (mediaCodecFormat != null) {
+            decoderPolicy.onOutcome(mediaCodecFormat, true);
+            mediaCodecFormat = null;
+        }
+    }
+
+    private void cancelReconnect() {
+        videoView.removeCallbacks(reconnectTask);
+        reconnectPending = false;
+        reconnectPolicy.reset();
+    }
+
+    private IjkOptionProfile resolveOptionProfile(IjkOptionProfile profile) {
+        if (profile != null) {
+            return profile;
+        }
+        if (optionProfile != null) {
+            return optionProfile;
+        }
+        return isLive && lowLatency ? IjkOptionProfile.LOW_LATENCY_LIVE : IjkOptionProfile.DEFAULT;
+    }
+
+    /**
+     * 按上次记录的分辨率帧率、渲染view和设备档次选择软解输出的像素格式,首次播放按默认格式估计
+     */
+    private int chooseOverlayFormat(String url) {
+        VideoFormat format = decoderPolicy.getFormat(url);
+        if (format == null) {
+            format = DecoderPolicy.DEFAULT_FORMAT;
+        }
+        return PixelFormatPolicy.choose(format.width, format.height, format.fps, videoView.getRenderType(), deviceClass);
+    }
+
+    private void startRenderSampling() {
+        videoView.removeCallbacks(renderSampleTask);
+        if (playerSupport) {
+            videoView.postDelayed(renderSampleTask, RENDER_SAMPLE_INTERVAL);
+        }
+    }
+
+    private void startLiveLatencyCheck() {
+        videoView.removeCallbacks(liveLatencyTask);
+        if (playerSupport && isLive && lowLatency) {
+            videoView.postDelayed(liveLatencyTask, LIVE_LATENCY_CHECK_INTERVAL);
+        }
+    }
+
+    /**
+     * 延迟超出阈值,倍速追赶太慢,重新打开直播流回到直播点
+     */
+    private void jumpToLiveEdge() {
+        eventLog.log(EventLog.EVENT_LIVE_REOPEN, (int) liveLatencyController.getLatencyMs(), EventLog.REOPEN_LATENCY);
+        reopenAtLiveEdge();
+    }
+
+    /**
+     * 重新打开直播流,m3u8经代理时先预取播放列表和直播点的分片,播放器打开时直接从代理拿到
+     */
+    private void reopenAtLiveEdge() {
+        stallTracker.onSeek();
+        liveLatencyController.reset();
+        String playUrl = resolvePlayUrl(url);
+        if (hlsCacheProxy != null && !playUrl.equals(url)) {
+            hlsCacheProxy.warmUp(url, headers);
         }
+        //surface不在时openVideo不会释放旧播放器,先释放
+        videoView.release(false);
+        setPlayUrl(playUrl);
+        videoView.start();
+    }
+
+    /**
+     * m3u8地址经本地缓存代理播放,代理启动失败时直接播放原地址
+     */
+    private String resolvePlayUrl(String url) {
+        if (!hlsCacheEnabled || !HlsCacheProxy.isHlsUrl(url)) {
+            return url;
+        }
+        synchronized (PlayerManager.class) {
+            if (hlsCacheProxy == null) {
+                File cacheDir = new File(activity.getApplicationContext().getCacheDir(), "hls");
+                hlsCacheProxy = new HlsCacheProxy(cacheDir, HLS_CACHE_SIZE);
+                hlsCacheProxy.setMemoryCache(new SegmentMemoryCache(HLS_MEMORY_CACHE_SIZE));
+                hlsCacheProxy.setBandwidthEstimator(bandwidthEstimator);
+            }
+            try {
+                hlsCacheProxy.start();
+            } catch (IOException e) {
+                Log.e("TAG", "start hls cache proxy failed", e);
+                return url;
+            }
+        }
+        return hlsCacheProxy.getProxyUrl(url, headers);
+    }
+
+    /**
+     * 经代理播放时请求头已在代理的会话里,只有直接播放原地址时才交给播放器
+     */
+    private void setPlayUrl(String playUrl) {
+        videoView.setVideoPath(playUrl, playUrl.equals(url) ? headers : null);
+    }
+
+    /**
+     * play m3u8 through the local caching proxy
+     * @param enabled default is true
+     */
+    public void setHlsCacheEnabled(boolean enabled) {
+        this.hlsCacheEnabled = enabled;
+    }
+
+    /**
+     * get the time-to-first-frame stats, e.g. getStartupTracer().getTtffHistogram().getPercentile(90)
+     * @return
+     */
+    public static StartupTracer getStartupTracer() {
+        return startupTracer;
+    }
+
+    /**
+     * get the shared bandwidth estimate, getEstimate() is safe to call from any thread
+     * @return
+     */
+    public static BandwidthEstimator getBandwidthEstimator() {
+        return bandwidthEstimator;
+    }
+
+    /**
+     * get the variant selection of the current url, null unless it is a master m3u8 played through the cache proxy
+     * @return
+     */
+    public AbrController getAbrController() {
+        return hlsCacheProxy != null ? hlsCacheProxy.getAbrController(url) : null;
+    }
+
+    /**
+     * append the time-to-first-frame report to a file
+     * @param file
+     */
+    public void dumpStartupStats(File file) {
+        try {
+            startupTracer.dump(file);
+        } catch (IOException e) {
+            Log.e("TAG", "dump startup stats failed", e);
+        }
+    }
+
+    /**
+     * get the number of stalls during playback of the current url, not counting startup and seeks
+     * @return
+     */
+    public int getRebufferCount() {
+        return stallTracker.getStallCount(StallTracker.TYPE_PLAYBACK);
+    }
+
+    /**
+     * get the player event log, e.g. getEventLog().dump(file) after a problem report
+     * @return
+     */
+    public static EventLog getEventLog() {
+        return eventLog;
     }
 
-    private String generateTime(long time) {
-        int totalSeconds = (int) (time / 1000);
-        int seconds = totalSeconds % 60;
-        int minutes = (totalSeconds / 60) % 60;
-        int hours = totalSeconds / 3600;
-        return hours > 0 ? String.format("%02d:%02d:%02d", hours, minutes, seconds) : String.format("%02d:%02d", minutes, seconds);
+    /**
+     * append the player events kept in memory to a file, oldest first
+     * @param file
+     */
+    public void dumpEventLog(File file) {
+        try {
+            eventLog.dump(file);
+        } catch (IOException e) {
+            Log.e("TAG", "dump event log failed", e);
+        }
+    }
+
+    /**
+     * set the native ijkplayer log level, e.g. IjkMediaPlayer.IJK_LOG_DEBUG, applies from the next play()
+     * @param level default is IJK_LOG_DEBUG for debuggable apps and IJK_LOG_WARN otherwise
+     * @return
+     */
+    public PlayerManager nativeLogLevel(int level) {
+        videoView.setNativeLogLevel(level);
+        return this;
+    }
+
+    /**
+     * read local files through an IMediaDataSource instead of ffmpeg's file protocol, applies from the next play()
+     * @param type IjkVideoView.MEDIA_DATA_SOURCE_MAPPED maps the file, IjkVideoView.MEDIA_DATA_SOURCE_READ_AHEAD
+     *             loads blocks ahead of the demuxer on a background thread, default is IjkVideoView.MEDIA_DATA_SOURCE_NONE
+     * @return
+     */
+    public PlayerManager mediaDataSource(int type) {
+        videoView.setMediaDataSource(type);
+        return this;
+    }
+
+    /**
+     * get the stall stats of the current url, e.g. getStallTracker().getRebufferRatio()
+     * @return
+     */
+    public StallTracker getStallTracker() {
+        return stallTracker;
+    }
+
+    /**
+     * get the render stats of the current url: overlay format, bytes per frame, frame intervals and frame rates,
+     * e.g. getRenderStats().getBytesPerSecond()
+     * @return
+     */
+    public RenderStats getRenderStats() {
+        return renderStats;
+    }
+
+    /**
+     * 结束当前卡顿统计会话并输出报告
+     */
+    private void endStallSession() {
+        if (stallTracker.isActive()) {
+            stallTracker.onSessionEnd();
+            Log.d("TAG", "qoe " + url + " " + stallTracker.report());
+            Log.d("TAG", "render " + url + " " + renderStats.report());
+            //有关键帧索引和没有索引的seek耗时,本View内累计
+            if (videoView.getSeekHistogram().getCount() > 0 || videoView.getIndexedSeekHistogram().getCount() > 0) {
+                Log.d("TAG", "seek " + url + " plain " + videoView.getSeekHistogram().summary()
+                        + " indexed " + videoView.getIndexedSeekHistogram().summary());
+            }
+        }
+    }
+
+    /**
+     * 显示gestureText中的文字,直接传入char[],滑动过程中不创建字符串
+     */
+    private void showGestureText() {
+        if (gestureTextView == null) {
+            return;
+        }
+        gestureTextView.setText(gestureText.getChars(), 0, gestureText.length());
+        if (gestureTextView.getVisibility() != View.VISIBLE) {
+            gestureTextView.setVisibility(View.VISIBLE);
+        }
+        gestureTextView.removeCallbacks(hideGestureTextTask);
+        gestureTextView.postDelayed(hideGestureTextTask, GESTURE_TEXT_HIDE_DELAY);
     }
 
     private int getScreenOrientation() {
@@ -331,11 +1067,13 @@ public class PlayerManager {
         audioManager.setStreamVolume(AudioManager.STREAM_MUSIC, index, 0);
         // 变更进度条
         int i = (int) (index * 1.0 / mMaxVolume * 100);
-        String s = i + "%";
+        eventLog.log(EventLog.EVENT_VOLUME, i, index);
         if (i == 0) {
-            s = "off";
+            gestureText.clear().append("off");
+        } else {
+            gestureText.clear().appendPercent(i);
         }
-        Log.d("TAG", "onVolumeSlide:" + s);
+        showGestureText();
     }
 
     private void onProgressSlide(float percent) {
@@ -353,9 +1091,101 @@ public class PlayerManager {
         }
         int showDelta = (int) delta / 1000;
         if (showDelta != 0) {
-            String text = showDelta > 0 ? ("+" + showDelta) : "" + showDelta;
-            Log.d("TAG", "onProgressSlide:" + text);
+            eventLog.log(EventLog.EVENT_PROGRESS_SLIDE, showDelta, (int) newPosition);
         }
+        //例如 +12s 01:23/10:00
+        gestureText.clear().appendSigned(showDelta).append('s').append(' ')
+                .appendTime(newPosition).append('/').appendTime(duration);
+        showGestureText();
+        showSeekPreview(newPosition);
+    }
+
+    /**
+     * 显示拖动到的位置的缩略图,内存中没有时由提取线程优先加载或解码,完成后再回调
+     */
+    private void showSeekPreview(long position) {
+        if (onSeekPreviewListener == null || !startThumbnailExtractor()) {
+            return;
+        }
+        int bucket = thumbnailExtractor.bucketOf(position);
+        if (bucket >= 0 && bucket != previewBucket && bucket != requestedBucket) {
+            requestedBucket = bucket;
+            byte[] jpeg = thumbnailExtractor.request(position);
+            if (jpeg != null) {
+                decodePreview(bucket, jpeg);
+            }
+        }
+        //还没有当前分段的图时先显示上一张
+        onSeekPreviewListener.onSeekPreview(position, previewBitmap);
+    }
+
+    /**
+     * 创建当前点播url的缩略图提取,直播和不支持的地址不提取
+     * @return false if there is no extractor for the current url
+     */
+    private boolean startThumbnailExtractor() {
+        if (thumbnailExtractor != null) {
+            return true;
+        }
+        if (isLive || url == null || !ThumbnailExtractor.isSupported(url)) {
+            return false;
+        }
+        int duration = videoView.getDuration();
+        if (duration <= 0) {
+            return false;
+        }
+        synchronized (PlayerManager.class) {
+            if (thumbnailCache == null) {
+                File cacheDir = new File(activity.getApplicationContext().getCacheDir(), "thumbnails");
+                thumbnailCache = new ThumbnailCache(cacheDir, THUMBNAIL_MEMORY_CACHE_SIZE, THUMBNAIL_CACHE_SIZE);
+            }
+        }
+        final ThumbnailExtractor extractor = new ThumbnailExtractor(thumbnailCache, url, headers);
+        extractor.setCallback(new ThumbnailExtractor.Callback() {
+            @Override
+            public void onThumbnail(int bucket, byte[] jpeg) {
+                if (extractor != thumbnailExtractor || onSeekPreviewListener == null
+                        || bucket != extractor.bucketOf(newPosition)) {
+                    return;
+                }
+                decodePreview(bucket, jpeg);
+                onSeekPreviewListener.onSeekPreview(newPosition, previewBitmap);
+            }
+        });
+        extractor.start(duration);
+        thumbnailExtractor = extractor;
+        return true;
+    }
+
+    /**
+     * 解码预览图,尺寸相同时复用上一张的内存
+     */
+    private void decodePreview(int bucket, byte[] jpeg) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inBitmap = previewBitmap;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        } catch (IllegalArgumentException e) {
+            //尺寸不同不能复用
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        }
+        if (bitmap != null) {
+            previewBitmap = bitmap;
+            previewBucket = bucket;
+        }
+    }
+
+    private void closeThumbnailExtractor() {
+        if (thumbnailExtractor != null) {
+            thumbnailExtractor.close();
+            thumbnailExtractor = null;
+        }
+        previewBucket = -1;
+        requestedBucket = -1;
+        previewBitmap = null;
     }
 
     /**
@@ -372,7 +1202,7 @@ public class PlayerManager {
                 brightness = 0.01f;
             }
         }
-        Log.d("TAG", "brightness:" + brightness + ",percent:" + percent);
+        eventLog.log(EventLog.EVENT_BRIGHTNESS, (int) (brightness * 100), (int) (percent * 100));
         WindowManager.LayoutParams lpa = activity.getWindow().getAttributes();
         lpa.screenBrightness = brightness + percent;
         if (lpa.screenBrightness > 1.0f){
@@ -381,6 +1211,8 @@ public class PlayerManager {
             lpa.screenBrightness = 0.01f;
         }
         activity.getWindow().setAttributes(lpa);
+        gestureText.clear().appendPercent((int) (lpa.screenBrightness * 100));
+        showGestureText();
     }
 
     public void setFullScreenOnly(boolean fullScreenOnly) {
@@ -450,13 +1282,23 @@ public class PlayerManager {
     }
 
     public void start() {
+        eventLog.log(EventLog.EVENT_RESUME, videoView.getCurrentPosition(), 0);
+        stallTracker.onResume();
         videoView.start();
     }
 
     public void pause() {
+        eventLog.log(EventLog.EVENT_PAUSE, videoView.getCurrentPosition(), 0);
+        stallTracker.onPause();
         videoView.pause();
     }
 
+    public void seekTo(int msec) {
+        eventLog.log(EventLog.EVENT_SEEK, msec, videoView.getCurrentPosition());
+        stallTracker.onSeek();
+        videoView.seekTo(msec);
+    }
+
     public boolean onBackPressed() {
         if (!fullScreenOnly && getScreenOrientation() == ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE) {
             activity.setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
@@ -632,6 +1474,13 @@ public class PlayerManager {
     }
 
     public void stop(){
+        eventLog.log(EventLog.EVENT_STOP, videoView.getCurrentPosition(), 0);
+        videoView.removeCallbacks(liveLatencyTask);
+        videoView.removeCallbacks(renderSampleTask);
+        cancelReconnect();
+        endStallSession();
+        endDecoderOutcome();
+        closeThumbnailExtractor();
         videoView.stopPlayback();
     }
 
@@ -669,11 +1518,62 @@ public class PlayerManager {
         return this;
     }
 
+    /**
+     * show the seek target, volume or brightness while sliding, e.g. "+12s 01:23/10:00" or "50%"; the text is
+     * written into a reused char[] and set with setText(char[], int, int), so sliding creates no strings
+     * @param textView null shows nothing, hidden shortly after the last slide
+     * @return
+     */
+    public PlayerManager gestureText(TextView textView) {
+        if (gestureTextView != null) {
+            gestureTextView.removeCallbacks(hideGestureTextTask);
+        }
+        this.gestureTextView = textView;
+        return this;
+    }
+
+    /**
+     * show a thumbnail of the position while the user drags to seek a VOD video; thumbnails are decoded from the
+     * same url in the background at the lowest priority and cached on disk
+     * @param listener null stops extracting thumbnails from the next play()
+     * @return
+     */
+    public PlayerManager onSeekPreview(OnSeekPreviewListener listener) {
+        this.onSeekPreviewListener = listener;
+        return this;
+    }
+
     public PlayerManager onControlPanelVisibilityChange(OnControlPanelVisibilityChangeListener listener){
         this.onControlPanelVisibilityChangeListener = listener;
         return this;
     }
 
+    /**
+     * live video paused shorter than this continues where it was when resumed, longer pauses reopen at the live edge
+     * @param liveResumeThreshold millisecond,default is 3000 millisecond
+     */
+    public void setLiveResumeThreshold(long liveResumeThreshold) {
+        this.liveResumeThreshold = liveResumeThreshold;
+    }
+
+    /**
+     * get the time from resume to the first frame of live video reopened at the live edge
+     * @return
+     */
+    public static LatencyHistogram getLiveResumeHistogram() {
+        return liveResumeHistogram;
+    }
+
+    /**
+     * set the http request headers for all urls, e.g. Cookie, User-Agent or Referer, applies from the next play()
+     * @param headers null sends none
+     * @return
+     */
+    public PlayerManager headers(Map<String, String> headers) {
+        this.headers = headers;
+        return this;
+    }
+
     /**
      * set is live (can't seek forward)
      * @param isLive
@@ -684,6 +1584,53 @@ public class PlayerManager {
         return this;
     }
 
+    /**
+     * low-latency live mode: open with small buffers, speed up to catch up with the live edge and
+     * reopen when too far behind, only for live video, applies from the next play()
+     * @param lowLatency default is false
+     * @return
+     */
+    public PlayerManager lowLatency(boolean lowLatency) {
+        this.lowLatency = lowLatency;
+        return this;
+    }
+
+    /**
+     * set the ijk options for all urls, e.g. IjkOptionProfile.VOD_QUALITY or a copy with overrides,
+     * applies from the next play()
+     * @param profile null picks IjkOptionProfile.LOW_LATENCY_LIVE for low-latency live and IjkOptionProfile.DEFAULT otherwise
+     * @return
+     */
+    public PlayerManager optionProfile(IjkOptionProfile profile) {
+        this.optionProfile = profile;
+        return this;
+    }
+
+    /**
+     * get the MediaCodec or software decoder choice, shared by all players in the process, null before the first
+     * PlayerManager is created
+     * @return
+     */
+    public static DecoderPolicy getDecoderPolicy() {
+        return decoderPolicy;
+    }
+
+    /**
+     * get the reconnect policy to configure it or read its metrics, e.g. getReconnectPolicy().getSuccessRate()
+     * @return
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    /**
+     * get the live latency control to configure it, e.g. getLiveLatencyController().setTargetLatencyMs(2000)
+     * @return
+     */
+    public LiveLatencyController getLiveLatencyController() {
+        return liveLatencyController;
+    }
+
     public PlayerManager toggleAspectRatio(){
         if (videoView != null) {
             videoView.toggleAspectRatio();
@@ -713,4 +1660,12 @@ public class PlayerManager {
     public interface OnInfoListener{
         void onInfo(int what, int extra);
     }
+
+    public interface OnSeekPreviewListener{
+        /**
+         * @param thumbnail the nearest thumbnail decoded so far, null if none yet; the same bitmap is
+         *                  reused for the next thumbnail of the same size
+         */
+        void onSeekPreview(long position, Bitmap thumbnail);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,159 @@
+package com.utils.ijkplayer.common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.utils.ijkplayer.stats.ProfileComparison;
+import com.utils.ijkplayer.stats.StallTracker;
+import com.utils.ijkplayer.stats.StartupTracer;
+import com.utils.ijkplayer.widget.media.IjkOptionProfile;
+
+/**
+ * Plays the same test streams under each option profile on a real {@link PlayerManager} and
+ * collects startup time, stalls and CPU time into a {@link ProfileComparison}.
+ * <p>
+ * Profiles take turns on each stream and each round, so drift in network or device temperature
+ * over the run spreads evenly over them. Point it at local files or a local server to keep the
+ * network out of the comparison. Runs on the main thread; start it from an activity holding the
+ * player and keep the screen on.
+ */
+public class ProfileBenchmark {
+    private static final String TAG = "ProfileBenchmark";
+    private static final long POLL_INTERVAL_MS = 200;
+
+    public interface Callback {
+        void onFinished(ProfileComparison result);
+    }
+
+    private final PlayerManager mPlayer;
+    private final List<String> mStreams;
+    private final List<IjkOptionProfile> mProfiles;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ProfileComparison mResult = new ProfileComparison();
+    private long mPlayMs = 30000;
+    private long mStartupTimeoutMs = 15000;
+    private int mRounds = 1;
+
+    private Callback mCallback;
+    private int mRun;
+    private boolean mRunning;
+    // per run
+    private long mRunStartedAt;
+    private long mFirstFrameAt;
+    private long mCpuStartMs;
+    private long mSessionsBefore;
+
+    public ProfileBenchmark(PlayerManager player, List<String> streams, List<IjkOptionProfile> profiles) {
+        if (streams.isEmpty() || profiles.isEmpty())
+            throw new IllegalArgumentException("need at least one stream and one profile");
+        mPlayer = player;
+        mStreams = new ArrayList<String>(streams);
+        mProfiles = new ArrayList<IjkOptionProfile>(profiles);
+    }
+
+    /**
+     * @param playMs how long each stream plays after its first frame, default 30 s
+     */
+    public void setPlayMs(long playMs) {
+        mPlayMs = playMs;
+    }
+
+    public void setStartupTimeoutMs(long startupTimeoutMs) {
+        mStartupTimeoutMs = startupTimeoutMs;
+    }
+
+    /**
+     * @param rounds times every stream is played under every profile, default 1
+     */
+    public void setRounds(int rounds) {
+        mRounds = Math.max(1, rounds);
+    }
+
+    public void start(Callback callback) {
+        if (mRunning)
+            return;
+        mCallback = callback;
+        mRunning = true;
+        mRun = 0;
+        startRun();
+    }
+
+    public void cancel() {
+        if (!mRunning)
+            return;
+        mRunning = false;
+        mHandler.removeCallbacks(mPoll);
+        mPlayer.stop();
+    }
+
+    public ProfileComparison getResult() {
+        return mResult;
+    }
+
+    private int runCount() {
+        return mStreams.size() * mProfiles.size() * mRounds;
+    }
+
+    private IjkOptionProfile profile(int run) {
+        return mProfiles.get(run % mProfiles.size());
+    }
+
+    private String stream(int run) {
+        return mStreams.get(run / mProfiles.size() % mStreams.size());
+    }
+
+    private void startRun() {
+        if (mRun >= runCount()) {
+            mRunning = false;
+            Log.d(TAG, "\n" + mResult.report());
+            if (mCallback != null)
+                mCallback.onFinished(mResult);
+            return;
+        }
+        mSessionsBefore = PlayerManager.getStartupTracer().getSessionCount();
+        mFirstFrameAt = -1;
+        mRunStartedAt = System.nanoTime() / 1000000;
+        mCpuStartMs = Process.getElapsedCpuTime();
+        mPlayer.play(stream(mRun), profile(mRun));
+        mHandler.postDelayed(mPoll, POLL_INTERVAL_MS);
+    }
+
+    private final Runnable mPoll = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning)
+                return;
+            long now = System.nanoTime() / 1000000;
+            StartupTracer tracer = PlayerManager.getStartupTracer();
+            if (mFirstFrameAt < 0 && tracer.getSessionCount() > mSessionsBefore)
+                mFirstFrameAt = now;
+
+            if (mFirstFrameAt < 0 && now - mRunStartedAt > mStartupTimeoutMs) {
+                finishRun(-1);
+            } else if (mFirstFrameAt >= 0 && now - mFirstFrameAt >= mPlayMs) {
+                finishRun(tracer.getLastTtffMs());
+            } else {
+                mHandler.postDelayed(this, POLL_INTERVAL_MS);
+            }
+        }
+    };
+
+    private void finishRun(long startupMs) {
+        // stopping ends the stall session, its numbers stay readable until the next play()
+        mPlayer.stop();
+        long cpuMs = Process.getElapsedCpuTime() - mCpuStartMs;
+        StallTracker stalls = mPlayer.getStallTracker();
+        String profile = profile(mRun).getName();
+        mResult.addRun(profile, startupMs, stalls.getStallCount(StallTracker.TYPE_PLAYBACK),
+                stalls.getStallMs(StallTracker.TYPE_PLAYBACK), stalls.getPlayMs(), cpuMs);
+        Log.d(TAG, profile + " " + stream(mRun) + " startup=" + startupMs + "ms " + stalls.report()
+                + " cpu=" + cpuMs + "ms");
+        mRun++;
+        startRun();
+    }
+}
@@ -0,0 +1,256 @@
+package com.utils.ijkplayer.common;
+
+import com.utils.ijkplayer.stats.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.Random;
+
+import tv.danmaku.ijk.media.player.IMediaPlayer;
+
+/**
+ * Decides whether and when a failed stream is reopened.
+ * <p>
+ * Player errors are classified first: a stream the player can't demux or decode, or that the
+ * server refuses or doesn't have, fails the same way every time and is reported at once;
+ * everything else, including errors ijkplayer can't attribute, is taken for a network problem
+ * and retried. Retries back off exponentially from the base delay up to the maximum delay,
+ * with equal jitter (half the delay fixed, half random) so players that lost the same server
+ * don't come back in lockstep. After the maximum number of attempts the outage is given up.
+ * <p>
+ * An outage starts with the first retryable error and ends when a frame is rendered again or
+ * the policy gives up; outages recovered from, their length and the attempts they took are
+ * kept as metrics. A stream that fails again shortly after recovering continues the previous
+ * backoff instead of starting over, so a stream that keeps breaking still runs out of
+ * attempts. Scheduling the reopen is left to the caller.
+ */
+public class ReconnectPolicy {
+    public static final int ERROR_RETRYABLE = 0;
+    public static final int ERROR_FATAL = 1;
+
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 5000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+    /**
+     * An error this soon after recovering belongs to the same outage.
+     */
+    static final long STABLE_MS = 10000;
+
+    // ffmpeg error codes, AVERROR(errno) and FFERRTAG, which ijkplayer passes on as extra
+    private static final int AVERROR_ENOENT = -2;
+    private static final int AVERROR_EACCES = -13;
+    static final int AVERROR_INVALIDDATA = -tag('I', 'N', 'D', 'A');
+    private static final int AVERROR_DECODER_NOT_FOUND = -tag(0xF8, 'D', 'E', 'C');
+    private static final int AVERROR_DEMUXER_NOT_FOUND = -tag(0xF8, 'D', 'E', 'M');
+    private static final int AVERROR_PROTOCOL_NOT_FOUND = -tag(0xF8, 'P', 'R', 'O');
+    static final int AVERROR_HTTP_BAD_REQUEST = -tag(0xF8, '4', '0', '0');
+    private static final int AVERROR_HTTP_UNAUTHORIZED = -tag(0xF8, '4', '0', '1');
+    private static final int AVERROR_HTTP_FORBIDDEN = -tag(0xF8, '4', '0', '3');
+    static final int AVERROR_HTTP_NOT_FOUND = -tag(0xF8, '4', '0', '4');
+    static final int AVERROR_HTTP_SERVER_ERROR = -tag(0xF8, '5', 'X', 'X');
+
+    private final Random mRandom;
+    private long mBaseDelayMs = DEFAULT_BASE_DELAY_MS;
+    private long mMaxDelayMs = DEFAULT_MAX_DELAY_MS;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private long mOutageStartedAt = -1;
+    private int mAttempt;
+    private long mRecoveredAt = -1;
+    private int mRecoveredAttempt;
+
+    private int mRecoveredCount;
+    private int mGiveUpCount;
+    private int mFatalCount;
+    private long mAttemptCount;
+    private final LatencyHistogram mReconnectTimes = new LatencyHistogram();
+
+    public ReconnectPolicy() {
+        this(new Random());
+    }
+
+    ReconnectPolicy(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * @return {@link #ERROR_FATAL} for errors that retrying can't fix, {@link #ERROR_RETRYABLE}
+     * otherwise
+     */
+    public static int classify(int what, int extra) {
+        switch (what) {
+            case IMediaPlayer.MEDIA_ERROR_UNSUPPORTED:
+            case IMediaPlayer.MEDIA_ERROR_MALFORMED:
+            case IMediaPlayer.MEDIA_ERROR_NOT_VALID_FOR_PROGRESSIVE_PLAYBACK:
+                return ERROR_FATAL;
+        }
+        if (extra == AVERROR_ENOENT || extra == AVERROR_EACCES
+                || extra == AVERROR_INVALIDDATA
+                || extra == AVERROR_DECODER_NOT_FOUND
+                || extra == AVERROR_DEMUXER_NOT_FOUND
+                || extra == AVERROR_PROTOCOL_NOT_FOUND
+                || extra == AVERROR_HTTP_BAD_REQUEST
+                || extra == AVERROR_HTTP_UNAUTHORIZED
+                || extra == AVERROR_HTTP_FORBIDDEN
+                || extra == AVERROR_HTTP_NOT_FOUND)
+            return ERROR_FATAL;
+        return ERROR_RETRYABLE;
+    }
+
+    /**
+     * @param maxDelayMs longest wait between two attempts, 0 disables reconnecting
+     */
+    public synchronized void setMaxDelayMs(long maxDelayMs) {
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    public synchronized long getMaxDelayMs() {
+        return mMaxDelayMs;
+    }
+
+    /**
+     * @param baseDelayMs wait before the first attempt, doubled for each further one
+     */
+    public synchronized void setBaseDelayMs(long baseDelayMs) {
+        if (baseDelayMs <= 0)
+            throw new IllegalArgumentException("base delay must be positive");
+        mBaseDelayMs = baseDelayMs;
+    }
+
+    public synchronized void setMaxAttempts(int maxAttempts) {
+        mMaxAttempts = maxAttempts;
+    }
+
+    public synchronized int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    public long onError(int what, int extra) {
+        return onError(what, extra, now());
+    }
+
+    /**
+     * @return milliseconds to wait before reopening the stream, or -1 if the error is to be
+     * reported: it is fatal, reconnecting is disabled or the attempts are used up
+     */
+    synchronized long onError(int what, int extra, long now) {
+        if (classify(what, extra) == ERROR_FATAL) {
+            mFatalCount++;
+            endOutage();
+            return -1;
+        }
+        if (mMaxDelayMs <= 0 || mMaxAttempts <= 0) {
+            endOutage();
+            return -1;
+        }
+        if (mOutageStartedAt < 0) {
+            mOutageStartedAt = now;
+            mAttempt = mRecoveredAt >= 0 && now - mRecoveredAt < STABLE_MS ? mRecoveredAttempt : 0;
+        }
+        if (mAttempt >= mMaxAttempts) {
+            mGiveUpCount++;
+            endOutage();
+            return -1;
+        }
+        long delay = delay(mAttempt);
+        mAttempt++;
+        mAttemptCount++;
+        return delay;
+    }
+
+    long delay(int attempt) {
+        long delay = Math.min(mMaxDelayMs, mBaseDelayMs << Math.min(attempt, 30));
+        long half = delay / 2;
+        return delay - half + (long) (mRandom.nextDouble() * (half + 1));
+    }
+
+    public void onRecovered() {
+        onRecovered(now());
+    }
+
+    /**
+     * Called when the reopened stream renders its first frame.
+     */
+    synchronized void onRecovered(long now) {
+        if (mOutageStartedAt < 0)
+            return;
+        mReconnectTimes.record(now - mOutageStartedAt);
+        mRecoveredCount++;
+        mRecoveredAt = now;
+        mRecoveredAttempt = mAttempt;
+        mOutageStartedAt = -1;
+        mAttempt = 0;
+    }
+
+    /**
+     * Drops a running outage without counting it, e.g. when another stream is played.
+     */
+    public synchronized void reset() {
+        endOutage();
+    }
+
+    private void endOutage() {
+        mOutageStartedAt = -1;
+        mAttempt = 0;
+        mRecoveredAt = -1;
+    }
+
+    public synchronized boolean isReconnecting() {
+        return mOutageStartedAt >= 0;
+    }
+
+    /**
+     * @return attempts made in the running outage
+     */
+    public synchronized int getAttempt() {
+        return mAttempt;
+    }
+
+    /**
+     * @return time from the first error of an outage to the first frame after it
+     */
+    public LatencyHistogram getReconnectHistogram() {
+        return mReconnectTimes;
+    }
+
+    public synchronized int getRecoveredCount() {
+        return mRecoveredCount;
+    }
+
+    public synchronized int getGiveUpCount() {
+        return mGiveUpCount;
+    }
+
+    public synchronized int getFatalCount() {
+        return mFatalCount;
+    }
+
+    public synchronized long getAttemptCount() {
+        return mAttemptCount;
+    }
+
+    /**
+     * @return share of finished outages that were recovered from, 1 if there were none
+     */
+    public synchronized double getSuccessRate() {
+        int outages = mRecoveredCount + mGiveUpCount;
+        return outages > 0 ? (double) mRecoveredCount / outages : 1;
+    }
+
+    /**
+     * @return e.g. {@code recovered=3 gaveUp=1 fatal=0 attempts=9 success=75.0% p50=1800ms p90=6200ms}
+     */
+    public synchronized String report() {
+        return String.format(Locale.US, "recovered=%d gaveUp=%d fatal=%d attempts=%d success=%.1f%% p50=%dms p90=%dms",
+                mRecoveredCount, mGiveUpCount, mFatalCount, mAttemptCount, getSuccessRate() * 100,
+                mReconnectTimes.getPercentile(50), mReconnectTimes.getPercentile(90));
+    }
+
+    private static int tag(int a, int b, int c, int d) {
+        return a | (b << 8) | (c << 16) | (d << 24);
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,44 @@
+package com.utils.ijkplayer.common;
+
+import com.utils.ijkplayer.decoder.VideoFormat;
+import com.utils.ijkplayer.stats.RenderStats;
+import com.utils.ijkplayer.stats.StallTracker;
+import com.utils.ijkplayer.widget.media.RetainedPlayer;
+
+/**
+ * 配置变化时从旧Activity带到新Activity的播放器和会话状态,进程内同时只保留一个,
+ * 旧PlayerManager在onDestroy()时保留,新PlayerManager播放同一url时取走
+ */
+class RetainedSession {
+    RetainedPlayer player;
+    String url;
+    int status;
+    boolean isLive;
+    boolean lowLatency;
+    StallTracker stallTracker;
+    RenderStats renderStats;
+    VideoFormat mediaCodecFormat;
+
+    private static RetainedSession retained;
+
+    /**
+     * 保留会话,调用前先释放之前没有被接回的
+     */
+    static void keep(RetainedSession session) {
+        retained = session;
+    }
+
+    /**
+     * 取走保留的会话
+     * @param url null takes the session whatever url it plays
+     * @return null if no session was kept for url
+     */
+    static RetainedSession take(String url) {
+        RetainedSession session = retained;
+        if (session == null || (url != null && !url.equals(session.url))) {
+            return null;
+        }
+        retained = null;
+        return session;
+    }
+}
@@ -0,0 +1,63 @@
+package com.utils.ijkplayer.decoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hardware decoder capabilities given as a table instead of read from the device, for tests
+ * and for devices whose MediaCodecList is known to be wrong.
+ */
+public class CapabilityTable implements DecoderCapabilities {
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+
+    private static final class Entry {
+        final String mimeType;
+        final int maxWidth;
+        final int maxHeight;
+        final float maxFps;
+        final int[] profiles;
+
+        Entry(String mimeType, int maxWidth, int maxHeight, float maxFps, int[] profiles) {
+            this.mimeType = mimeType;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.maxFps = maxFps;
+            this.profiles = profiles;
+        }
+    }
+
+    /**
+     * Adds a decoder. Sizes are checked in either orientation.
+     *
+     * @param maxFps   0 for any frame rate
+     * @param profiles profiles decoded, none for any
+     */
+    public CapabilityTable add(String mimeType, int maxWidth, int maxHeight, float maxFps, int... profiles) {
+        mEntries.add(new Entry(mimeType, maxWidth, maxHeight, maxFps, profiles));
+        return this;
+    }
+
+    @Override
+    public boolean isSupported(String mimeType, int profile, int width, int height, float fps) {
+        for (Entry entry : mEntries) {
+            if (!entry.mimeType.equals(mimeType))
+                continue;
+            if (!(width <= entry.maxWidth && height <= entry.maxHeight)
+                    && !(height <= entry.maxWidth && width <= entry.maxHeight))
+                continue;
+            if (entry.maxFps > 0 && fps > entry.maxFps)
+                continue;
+            if (entry.profiles.length == 0 || contains(entry.profiles, profile))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int candidate : values) {
+            if (candidate == value)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,13 @@
+package com.utils.ijkplayer.decoder;
+
+/**
+ * Which video formats the device can decode in hardware.
+ */
+public interface DecoderCapabilities {
+    /**
+     * @param profile MediaCodecInfo.CodecProfileLevel profile, -1 if unknown
+     * @param fps     0 if unknown
+     * @return true if a hardware decoder takes the format
+     */
+    boolean isSupported(String mimeType, int profile, int width, int height, float fps);
+}
@@ -0,0 +1,210 @@
+package com.utils.ijkplayer.decoder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tv.danmaku.ijk.media.player.IMediaPlayer;
+
+/**
+ * Chooses between MediaCodec and ijkplayer's software decoders for each stream.
+ * <p>
+ * The stream's {@link VideoFormat} is looked up by url among the formats seen in earlier
+ * playbacks; a url played for the first time is assumed to be {@link #DEFAULT_FORMAT}.
+ * MediaCodec is chosen when the {@link DecoderCapabilities} list a hardware decoder for the
+ * format, unless MediaCodec has failed at least {@link #MIN_FAILURES} times and more often than
+ * it worked for formats of the same {@link VideoFormat#getOutcomeKey() class}. Callers report
+ * every MediaCodec playback's outcome: a failure, or ijkplayer having fallen back to software on
+ * its own, counts against the class. Counts are halved once they grow past
+ * {@link #MAX_OUTCOMES} so recent results outweigh old ones.
+ * <p>
+ * A class on software still gets MediaCodec every {@link #REPROBE_INTERVAL}th playback, so that
+ * a firmware update fixing the decoder is noticed; each success while failures outweigh
+ * successes halves the failure count, and a few good retries bring the class back.
+ * <p>
+ * Formats and outcomes are written to a {@link Store} and read back on construction, so the
+ * choice is right from the first frame of a later session.
+ */
+public class DecoderPolicy {
+    public static final int DECODER_SOFTWARE = 0;
+    public static final int DECODER_MEDIACODEC = 1;
+
+    /**
+     * Assumed for urls whose format isn't known yet.
+     */
+    public static final VideoFormat DEFAULT_FORMAT = new VideoFormat("h264", "High", 1920, 1080, 30);
+
+    static final int MAX_URLS = 64;
+    static final int MAX_OUTCOMES = 16;
+    static final int MIN_FAILURES = 2;
+    static final int REPROBE_INTERVAL = 8;
+    private static final String KEY_FORMATS = "formats";
+    private static final String KEY_OUTCOME = "outcome.";
+
+    // errno values ffmpeg reports as AVERROR(errno) for a broken connection
+    private static final int[] NETWORK_ERRNOS = {5, 11, 32, 100, 101, 104, 110, 111, 113};
+
+    /**
+     * Persistent string storage.
+     */
+    public interface Store {
+        /**
+         * @return the value, null if none
+         */
+        String get(String key);
+
+        void put(String key, String value);
+    }
+
+    private final DecoderCapabilities mCapabilities;
+    private final Store mStore;
+    private final LinkedHashMap<String, VideoFormat> mFormats =
+            new LinkedHashMap<String, VideoFormat>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, VideoFormat> eldest) {
+                    return size() > MAX_URLS;
+                }
+            };
+
+    public DecoderPolicy(DecoderCapabilities capabilities, Store store) {
+        mCapabilities = capabilities;
+        mStore = store;
+        loadFormats();
+    }
+
+    /**
+     * Call once per playback: a class moved to software counts the playbacks until its next
+     * MediaCodec retry.
+     *
+     * @return {@link #DECODER_MEDIACODEC} or {@link #DECODER_SOFTWARE} for the stream at {@code url}
+     */
+    public synchronized int choose(String url) {
+        VideoFormat format = mFormats.get(url);
+        return choose(format != null ? format : DEFAULT_FORMAT);
+    }
+
+    public synchronized int choose(VideoFormat format) {
+        String mimeType = format.getMimeType();
+        if (mimeType == null)
+            return DECODER_SOFTWARE;
+        if (!mCapabilities.isSupported(mimeType, format.getAndroidProfile(), format.width, format.height, format.fps))
+            return DECODER_SOFTWARE;
+        int[] outcome = outcome(format);
+        if (outcome[1] >= MIN_FAILURES && outcome[1] > outcome[0]) {
+            outcome[2]++;
+            boolean reprobe = outcome[2] >= REPROBE_INTERVAL;
+            if (reprobe)
+                outcome[2] = 0;
+            saveOutcome(format, outcome);
+            if (!reprobe)
+                return DECODER_SOFTWARE;
+        }
+        return DECODER_MEDIACODEC;
+    }
+
+    /**
+     * Remembers the format probed for {@code url}.
+     */
+    public synchronized void onFormat(String url, VideoFormat format) {
+        if (url.indexOf('\n') >= 0 || url.indexOf('\t') >= 0 || format.equals(mFormats.get(url)))
+            return;
+        mFormats.put(url, format);
+        saveFormats();
+    }
+
+    /**
+     * Reports how MediaCodec did with {@code format}: false if it failed to start, ijkplayer
+     * fell back to software or playback failed with a decoder error.
+     */
+    public synchronized void onOutcome(VideoFormat format, boolean success) {
+        int[] outcome = outcome(format);
+        // a retry that worked: the failures may be from firmware that has been fixed since
+        if (success && outcome[1] > outcome[0])
+            outcome[1] /= 2;
+        outcome[success ? 0 : 1]++;
+        if (outcome[0] + outcome[1] > MAX_OUTCOMES) {
+            outcome[0] /= 2;
+            outcome[1] /= 2;
+        }
+        saveOutcome(format, outcome);
+    }
+
+    /**
+     * @return the format last probed for {@code url}, null if never played
+     */
+    public synchronized VideoFormat getFormat(String url) {
+        return mFormats.get(url);
+    }
+
+    public synchronized int getSuccessCount(VideoFormat format) {
+        return outcome(format)[0];
+    }
+
+    public synchronized int getFailureCount(VideoFormat format) {
+        return outcome(format)[1];
+    }
+
+    /**
+     * @return true unless the error is a network error, which a different decoder won't fix
+     */
+    public static boolean isDecoderError(int what, int extra) {
+        if (what == IMediaPlayer.MEDIA_ERROR_IO || what == IMediaPlayer.MEDIA_ERROR_TIMED_OUT)
+            return false;
+        for (int errno : NETWORK_ERRNOS) {
+            if (extra == -errno)
+                return false;
+        }
+        // FFERRTAG(0xF8, '4' or '5', ...): an HTTP status
+        int tag = -extra;
+        return !((tag & 0xFF) == 0xF8 && (((tag >> 8) & 0xFF) == '4' || ((tag >> 8) & 0xFF) == '5'));
+    }
+
+    /**
+     * @return successes, failures and software playbacks since the last MediaCodec retry
+     */
+    private int[] outcome(VideoFormat format) {
+        int[] outcome = new int[3];
+        String value = mStore.get(KEY_OUTCOME + format.getOutcomeKey());
+        if (value != null) {
+            // older versions stored only "successes,failures"
+            String[] fields = value.split(",");
+            try {
+                for (int i = 0; i < fields.length && i < outcome.length; i++)
+                    outcome[i] = Integer.parseInt(fields[i]);
+            } catch (RuntimeException e) {
+                outcome[0] = outcome[1] = outcome[2] = 0;
+            }
+        }
+        return outcome;
+    }
+
+    private void saveOutcome(VideoFormat format, int[] outcome) {
+        mStore.put(KEY_OUTCOME + format.getOutcomeKey(), outcome[0] + "," + outcome[1] + "," + outcome[2]);
+    }
+
+    private void loadFormats() {
+        String value = mStore.get(KEY_FORMATS);
+        if (value == null)
+            return;
+        for (String line : value.split("\n")) {
+            int tab = line.indexOf('\t');
+            if (tab <= 0)
+                continue;
+            VideoFormat format = VideoFormat.decode(line.substring(tab + 1));
+            if (format != null)
+                mFormats.put(line.substring(0, tab), format);
+        }
+    }
+
+    private void saveFormats() {
+        StringBuilder sb = new StringBuilder();
+        Iterator<Map.Entry<String, VideoFormat>> it = mFormats.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, VideoFormat> entry = it.next();
+            sb.append(entry.getKey()).append('\t').append(entry.getValue().encode());
+            if (it.hasNext())
+                sb.append('\n');
+        }
+        mStore.put(KEY_FORMATS, sb.toString());
+    }
+}
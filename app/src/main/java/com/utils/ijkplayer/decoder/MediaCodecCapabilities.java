@@ -0,0 +1,100 @@
+package com.utils.ijkplayer.decoder;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hardware decoder capabilities read from the device's MediaCodecList.
+ * <p>
+ * Software decoders that ship with Android are skipped, since ijkplayer's own software
+ * decoding is the alternative to them anyway. The codec list is read on the first query and
+ * answers are cached, the list doesn't change while the process runs.
+ */
+public class MediaCodecCapabilities implements DecoderCapabilities {
+    private static final String TAG = "MediaCodecCapabilities";
+
+    private List<MediaCodecInfo> mDecoders;
+    private final Map<String, Boolean> mAnswers = new HashMap<String, Boolean>();
+
+    @Override
+    public synchronized boolean isSupported(String mimeType, int profile, int width, int height, float fps) {
+        String key = mimeType + "/" + profile + "/" + width + "x" + height + "@" + fps;
+        Boolean answer = mAnswers.get(key);
+        if (answer == null) {
+            answer = query(mimeType, profile, width, height, fps);
+            mAnswers.put(key, answer);
+        }
+        return answer;
+    }
+
+    private boolean query(String mimeType, int profile, int width, int height, float fps) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+            return false;
+        for (MediaCodecInfo info : decoders()) {
+            if (!supportsType(info, mimeType))
+                continue;
+            try {
+                MediaCodecInfo.CodecCapabilities capabilities = info.getCapabilitiesForType(mimeType);
+                if (capabilities == null || !supportsProfile(capabilities, profile))
+                    continue;
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+                    return true;
+                MediaCodecInfo.VideoCapabilities video = capabilities.getVideoCapabilities();
+                if (video == null || supportsSize(video, width, height, fps)
+                        || supportsSize(video, height, width, fps))
+                    return true;
+            } catch (RuntimeException e) {
+                // some vendor codecs throw for types they list
+                Log.w(TAG, info.getName() + ": " + e);
+            }
+        }
+        return false;
+    }
+
+    private List<MediaCodecInfo> decoders() {
+        if (mDecoders == null) {
+            mDecoders = new ArrayList<MediaCodecInfo>();
+            for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
+                MediaCodecInfo info = MediaCodecList.getCodecInfoAt(i);
+                if (!info.isEncoder() && !isSoftware(info.getName()))
+                    mDecoders.add(info);
+            }
+        }
+        return mDecoders;
+    }
+
+    static boolean isSoftware(String name) {
+        return name.startsWith("OMX.google.") || name.startsWith("c2.android.")
+                || name.startsWith("OMX.ffmpeg.") || name.contains(".sw.");
+    }
+
+    private static boolean supportsType(MediaCodecInfo info, String mimeType) {
+        for (String type : info.getSupportedTypes()) {
+            if (type.equalsIgnoreCase(mimeType))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean supportsProfile(MediaCodecInfo.CodecCapabilities capabilities, int profile) {
+        // an unknown profile or an empty list is left to the decoder to find out
+        if (profile < 0 || capabilities.profileLevels == null || capabilities.profileLevels.length == 0)
+            return true;
+        for (MediaCodecInfo.CodecProfileLevel level : capabilities.profileLevels) {
+            if (level.profile == profile)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean supportsSize(MediaCodecInfo.VideoCapabilities video, int width, int height, float fps) {
+        return fps > 0 ? video.areSizeAndRateSupported(width, height, fps) : video.isSizeSupported(width, height);
+    }
+}
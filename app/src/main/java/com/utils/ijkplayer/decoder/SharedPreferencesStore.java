@@ -0,0 +1,30 @@
+package com.utils.ijkplayer.decoder;
+
+import android.content.SharedPreferences;
+import android.os.Build;
+
+/**
+ * Keeps decoder decisions in SharedPreferences. Everything is dropped when the system build
+ * changes, since a firmware update can fix or break hardware decoders.
+ */
+public class SharedPreferencesStore implements DecoderPolicy.Store {
+    private static final String KEY_FINGERPRINT = "fingerprint";
+
+    private final SharedPreferences mPreferences;
+
+    public SharedPreferencesStore(SharedPreferences preferences) {
+        mPreferences = preferences;
+        if (!Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null)))
+            preferences.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+    }
+
+    @Override
+    public String get(String key) {
+        return mPreferences.getString(key, null);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        mPreferences.edit().putString(key, value).apply();
+    }
+}
@@ -0,0 +1,166 @@
+package com.utils.ijkplayer.decoder;
+
+import java.util.Locale;
+
+import tv.danmaku.ijk.media.player.IjkMediaMeta;
+
+/**
+ * What a decoder needs to know about a video stream: ffmpeg's codec and profile names, the
+ * coded size and the frame rate.
+ * <p>
+ * Formats are compared for decoder decisions by {@link #getOutcomeKey()}, which keeps the codec
+ * and profile but rounds the size up to a resolution class, so a 1920x800 and a 1920x1080 H.264
+ * High stream share their history.
+ */
+public class VideoFormat {
+    private static final int[] SIZE_CLASSES = {480, 720, 1080, 1440, 2160, 4320};
+
+    public final String codec;
+    public final String profile;
+    public final int width;
+    public final int height;
+    public final float fps;
+
+    /**
+     * @param codec   ffmpeg codec name, e.g. {@code h264}, {@code hevc}
+     * @param profile ffmpeg profile name, e.g. {@code High}, {@code Main 10}, null if unknown
+     * @param fps     0 if unknown
+     */
+    public VideoFormat(String codec, String profile, int width, int height, float fps) {
+        if (codec == null)
+            throw new IllegalArgumentException("null codec");
+        this.codec = codec;
+        this.profile = profile != null && profile.length() > 0 ? profile : null;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+    }
+
+    /**
+     * @return the format of the video stream ijkplayer probed, null if it has none
+     */
+    public static VideoFormat from(IjkMediaMeta.IjkStreamMeta stream) {
+        if (stream == null || stream.mCodecName == null)
+            return null;
+        float fps = stream.mFpsDen > 0 ? (float) stream.mFpsNum / stream.mFpsDen : 0;
+        return new VideoFormat(stream.mCodecName, stream.mCodecProfile, stream.mWidth, stream.mHeight, fps);
+    }
+
+    /**
+     * @return the MediaCodec mime type, null for codecs MediaCodec doesn't decode
+     */
+    public String getMimeType() {
+        if ("h264".equals(codec))
+            return "video/avc";
+        if ("hevc".equals(codec))
+            return "video/hevc";
+        if ("vp8".equals(codec))
+            return "video/x-vnd.on2.vp8";
+        if ("vp9".equals(codec))
+            return "video/x-vnd.on2.vp9";
+        if ("mpeg4".equals(codec))
+            return "video/mp4v-es";
+        if ("h263".equals(codec))
+            return "video/3gpp";
+        if ("mpeg2video".equals(codec))
+            return "video/mpeg2";
+        return null;
+    }
+
+    /**
+     * @return the MediaCodecInfo.CodecProfileLevel profile constant, -1 if unknown
+     */
+    public int getAndroidProfile() {
+        if (profile == null)
+            return -1;
+        if ("h264".equals(codec)) {
+            // decoders listing Baseline also take Constrained Baseline
+            if ("Baseline".equals(profile) || "Constrained Baseline".equals(profile))
+                return 0x01;
+            if ("Main".equals(profile))
+                return 0x02;
+            if ("Extended".equals(profile))
+                return 0x04;
+            if ("High".equals(profile))
+                return 0x08;
+            if ("High 10".equals(profile) || "High 10 Intra".equals(profile))
+                return 0x10;
+            if (profile.startsWith("High 4:2:2"))
+                return 0x20;
+            if (profile.startsWith("High 4:4:4"))
+                return 0x40;
+        } else if ("hevc".equals(codec)) {
+            if ("Main".equals(profile))
+                return 0x01;
+            if ("Main 10".equals(profile))
+                return 0x02;
+        } else if ("vp9".equals(codec)) {
+            if (profile.startsWith("Profile ") && profile.length() == 9) {
+                int number = profile.charAt(8) - '0';
+                if (number >= 0 && number <= 3)
+                    return 1 << number;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return codec, profile and resolution class, e.g. {@code h264/High/1080}
+     */
+    public String getOutcomeKey() {
+        int size = Math.min(width, height);
+        int sizeClass = 0;
+        for (int candidate : SIZE_CLASSES) {
+            sizeClass = candidate;
+            if (size <= candidate)
+                break;
+        }
+        return codec + "/" + (profile != null ? profile : "") + "/" + sizeClass;
+    }
+
+    String encode() {
+        return codec + "|" + (profile != null ? profile : "") + "|" + width + "|" + height + "|" + fps;
+    }
+
+    /**
+     * @return the format {@link #encode()}d into {@code value}, null if it isn't one
+     */
+    static VideoFormat decode(String value) {
+        String[] fields = value.split("\\|", -1);
+        if (fields.length != 5 || fields[0].length() == 0)
+            return null;
+        try {
+            return new VideoFormat(fields[0], fields[1], Integer.parseInt(fields[2]),
+                    Integer.parseInt(fields[3]), Float.parseFloat(fields[4]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof VideoFormat))
+            return false;
+        VideoFormat other = (VideoFormat) o;
+        return codec.equals(other.codec)
+                && (profile != null ? profile.equals(other.profile) : other.profile == null)
+                && width == other.width && height == other.height
+                && Float.compare(fps, other.fps) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = codec.hashCode();
+        result = 31 * result + (profile != null ? profile.hashCode() : 0);
+        result = 31 * result + width;
+        result = 31 * result + height;
+        return 31 * result + Float.floatToIntBits(fps);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s %s %dx%d@%.2f", codec, profile, width, height, fps);
+    }
+}
@@ -0,0 +1,173 @@
+package com.utils.ijkplayer.hls;
+
+/**
+ * Picks the variant of a master playlist to load the next segment from.
+ * <p>
+ * While the buffer is short the choice follows throughput: the highest bitrate fitting in
+ * {@link #SAFETY_FACTOR} of the bandwidth estimate. Once {@link #BOLA_ENTER_SECONDS} are
+ * buffered it switches to BOLA, which picks by buffer level alone and climbs towards the top
+ * variant as the buffer approaches {@link #BUFFER_TARGET_SECONDS}; up-switches are still capped
+ * at what throughput allows, so a full buffer on a slow link doesn't start a download that
+ * can't finish in time. Falling under {@link #MIN_BUFFER_SECONDS} returns to the throughput
+ * rule.
+ * <p>
+ * Entering BOLA seeds a placeholder buffer, as dash.js does, so that BOLA's first choice is the
+ * variant throughput picked rather than what a 12 s buffer alone would justify. The placeholder
+ * shrinks as the real buffer grows, so a rising buffer never switches down; a draining one does.
+ */
+public class AbrController {
+    static final double SAFETY_FACTOR = 0.9;
+    static final double MIN_BUFFER_SECONDS = 10;
+    static final double BUFFER_TARGET_SECONDS = 30;
+    static final double BOLA_ENTER_SECONDS = 12;
+
+    private final long[] mBitrates;
+    private final double[] mUtilities;
+    // BOLA's utility weight and the control parameter trading buffer against quality
+    private final double mGp;
+    private final double mVp;
+    private int mCurrent = -1;
+    private boolean mBolaMode;
+    // virtual seconds added to the buffer in BOLA mode, and the buffer level seen last
+    private double mPlaceholder;
+    private double mLastBuffer;
+    private int mUpSwitchCount;
+    private int mDownSwitchCount;
+
+    /**
+     * @param bitrates variant bitrates in bits per second, ascending
+     */
+    public AbrController(long[] bitrates) {
+        if (bitrates.length == 0)
+            throw new IllegalArgumentException("no variants");
+        for (int i = 0; i < bitrates.length; i++) {
+            if (bitrates[i] <= 0 || (i > 0 && bitrates[i] < bitrates[i - 1]))
+                throw new IllegalArgumentException("bitrates must be positive and ascending");
+        }
+        mBitrates = bitrates.clone();
+        mUtilities = new double[bitrates.length];
+        for (int i = 0; i < bitrates.length; i++)
+            mUtilities[i] = Math.log((double) bitrates[i] / bitrates[0]) + 1;
+        mGp = (mUtilities[bitrates.length - 1] - 1) / (BUFFER_TARGET_SECONDS / MIN_BUFFER_SECONDS - 1);
+        mVp = mGp > 0 ? MIN_BUFFER_SECONDS / mGp : 0;
+    }
+
+    /**
+     * Chooses the variant for the next segment and makes it current.
+     *
+     * @param bandwidth estimated bandwidth in bits per second
+     * @param bufferMs  media buffered ahead of the playhead
+     * @return index into the bitrates passed to the constructor
+     */
+    public synchronized int select(long bandwidth, long bufferMs) {
+        double buffer = bufferMs / 1000.0;
+        int throughput = throughputChoice(bandwidth);
+        if (mCurrent < 0 || mBitrates.length == 1) {
+            mCurrent = throughput;
+            return mCurrent;
+        }
+
+        if (!mBolaMode && buffer >= BOLA_ENTER_SECONDS) {
+            mBolaMode = true;
+            mPlaceholder = Math.max(0, placeholderLevel(mCurrent) - buffer);
+        } else if (mBolaMode && buffer < MIN_BUFFER_SECONDS) {
+            mBolaMode = false;
+            mPlaceholder = 0;
+        } else if (mBolaMode && buffer > mLastBuffer) {
+            // real buffer takes the place of the placeholder
+            mPlaceholder = Math.max(0, mPlaceholder - (buffer - mLastBuffer));
+        }
+        mLastBuffer = buffer;
+
+        int choice = throughput;
+        if (mBolaMode) {
+            choice = bolaChoice(buffer + mPlaceholder);
+            if (choice > mCurrent)
+                choice = Math.min(choice, Math.max(throughput, mCurrent));
+        }
+        if (choice > mCurrent)
+            mUpSwitchCount++;
+        else if (choice < mCurrent)
+            mDownSwitchCount++;
+        mCurrent = choice;
+        return choice;
+    }
+
+    int throughputChoice(long bandwidth) {
+        double budget = bandwidth * SAFETY_FACTOR;
+        int choice = 0;
+        for (int i = 1; i < mBitrates.length; i++) {
+            if (mBitrates[i] <= budget)
+                choice = i;
+        }
+        return choice;
+    }
+
+    int bolaChoice(double bufferSeconds) {
+        int best = 0;
+        double bestScore = -Double.MAX_VALUE;
+        for (int i = 0; i < mBitrates.length; i++) {
+            // bitrates stand in for segment sizes, all variants share the segment duration
+            double score = (mVp * (mUtilities[i] + mGp) - bufferSeconds) / mBitrates[i];
+            if (score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Buffer level at which BOLA starts to prefer variant {@code index} over every lower one.
+     */
+    double minBufferLevel(int index) {
+        double level = 0;
+        for (int i = index - 1; i >= 0; i--) {
+            if (mUtilities[i] < mUtilities[index]) {
+                level = Math.max(level, mVp * (mGp + (mBitrates[index] * mUtilities[i] - mBitrates[i] * mUtilities[index])
+                        / (mBitrates[index] - mBitrates[i])));
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Buffer level in the middle of the range where BOLA picks variant {@code index}, clear of
+     * the ties at its edges.
+     */
+    private double placeholderLevel(int index) {
+        double upper = index + 1 < mBitrates.length ? minBufferLevel(index + 1) : BUFFER_TARGET_SECONDS;
+        return (minBufferLevel(index) + Math.max(upper, minBufferLevel(index))) / 2;
+    }
+
+    /**
+     * @return the variant chosen last, -1 before the first selection
+     */
+    public synchronized int getCurrentIndex() {
+        return mCurrent;
+    }
+
+    public synchronized long getCurrentBitrate() {
+        return mCurrent >= 0 ? mBitrates[mCurrent] : 0;
+    }
+
+    public synchronized boolean isBolaMode() {
+        return mBolaMode;
+    }
+
+    public synchronized int getSwitchCount() {
+        return mUpSwitchCount + mDownSwitchCount;
+    }
+
+    public synchronized int getUpSwitchCount() {
+        return mUpSwitchCount;
+    }
+
+    public synchronized int getDownSwitchCount() {
+        return mDownSwitchCount;
+    }
+
+    public int getVariantCount() {
+        return mBitrates.length;
+    }
+}
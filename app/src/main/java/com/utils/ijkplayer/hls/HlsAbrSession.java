@@ -0,0 +1,165 @@
+package com.utils.ijkplayer.hls;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adaptive playback of one master playlist through the proxy.
+ * <p>
+ * The player is given a single media playlist whose segments are addressed by sequence number;
+ * each segment request is resolved to the variant {@link AbrController} picks at that moment,
+ * so quality changes at segment boundaries without the player noticing. This relies on the
+ * variants sharing sequence numbers, which HLS requires of variants meant for switching.
+ * <p>
+ * The buffer level the controller needs is estimated here, the proxy can't see the player's:
+ * media seconds served since the last seek minus wall time passed since then.
+ */
+final class HlsAbrSession {
+    private final HlsCacheProxy mProxy;
+    private final String mMasterUrl;
+    private final Map<String, String> mHeaders;
+    private final HlsPlaylist.Variant[] mVariants;
+    private final AbrController mController;
+    private final HlsPlaylist[] mPlaylists;
+    // variant whose playlist was handed to the player last, it lists every segment asked for
+    private int mServedIndex = -1;
+    private long mLastSequence = -1;
+    private HlsPlaylist.Segment mLastSegment;
+    private double mBufferedSeconds;
+    private long mClockStartNanos;
+
+    /**
+     * @param headers sent to the origin with the variant playlist requests, may be null
+     */
+    HlsAbrSession(HlsCacheProxy proxy, HlsPlaylist master, Map<String, String> headers) {
+        mProxy = proxy;
+        mMasterUrl = master.getUrl();
+        mHeaders = headers;
+        List<HlsPlaylist.Variant> variants = new ArrayList<HlsPlaylist.Variant>(master.getVariants());
+        Collections.sort(variants, new Comparator<HlsPlaylist.Variant>() {
+            @Override
+            public int compare(HlsPlaylist.Variant a, HlsPlaylist.Variant b) {
+                return a.bandwidth < b.bandwidth ? -1 : a.bandwidth == b.bandwidth ? 0 : 1;
+            }
+        });
+        mVariants = variants.toArray(new HlsPlaylist.Variant[variants.size()]);
+        long[] bitrates = new long[mVariants.length];
+        for (int i = 0; i < bitrates.length; i++)
+            // variants without BANDWIDTH sort first and get the lowest possible rate
+            bitrates[i] = Math.max(1, mVariants[i].bandwidth);
+        mController = new AbrController(bitrates);
+        mPlaylists = new HlsPlaylist[mVariants.length];
+    }
+
+    AbrController getController() {
+        return mController;
+    }
+
+    /**
+     * Reloads the media playlist of the current variant, choosing one by throughput if none
+     * has been chosen yet.
+     */
+    HlsPlaylist refresh(long bandwidth) throws IOException {
+        int index;
+        synchronized (this) {
+            index = mController.getCurrentIndex();
+            if (index < 0)
+                index = mController.select(bandwidth, 0);
+        }
+        HlsPlaylist playlist = load(index);
+        synchronized (this) {
+            mServedIndex = index;
+        }
+        return playlist;
+    }
+
+    /**
+     * Picks the variant for segment {@code sequence}.
+     *
+     * @return the segment in that variant, or in the served variant if the picked one doesn't
+     * have it; null if neither does
+     */
+    HlsPlaylist.Segment resolve(long sequence, long bandwidth) throws IOException {
+        int index;
+        int servedIndex;
+        synchronized (this) {
+            // a retry or range request for the same segment must get the same bytes
+            if (sequence == mLastSequence && mLastSegment != null)
+                return mLastSegment;
+            if (sequence != mLastSequence + 1) {
+                // a seek, or the first segment: nothing is buffered yet
+                mBufferedSeconds = 0;
+                mClockStartNanos = System.nanoTime();
+            }
+            mLastSequence = sequence;
+            index = mController.select(bandwidth, getBufferMs());
+            servedIndex = mServedIndex;
+        }
+
+        HlsPlaylist.Segment segment = find(index, sequence);
+        if (segment == null) {
+            // not loaded yet, or a live playlist that has moved on since
+            load(index);
+            segment = find(index, sequence);
+        }
+        if (segment == null && servedIndex >= 0 && servedIndex != index)
+            segment = find(servedIndex, sequence);
+        synchronized (this) {
+            if (mLastSequence == sequence)
+                mLastSegment = segment;
+        }
+        return segment;
+    }
+
+    /**
+     * Counts a segment the player has received towards the buffer.
+     */
+    synchronized void onSegmentServed(float duration) {
+        mBufferedSeconds += duration;
+    }
+
+    /**
+     * @return estimated media buffered by the player
+     */
+    synchronized long getBufferMs() {
+        long now = System.nanoTime();
+        double buffer = mBufferedSeconds - (now - mClockStartNanos) / 1e9;
+        if (buffer < 0) {
+            // the player ran dry, start counting again from here
+            mBufferedSeconds = 0;
+            mClockStartNanos = now;
+            return 0;
+        }
+        return (long) (buffer * 1000);
+    }
+
+    private HlsPlaylist load(int index) throws IOException {
+        HlsPlaylist playlist = mProxy.fetchPlaylist(mVariants[index].url, mHeaders);
+        if (playlist.isMaster())
+            throw new IOException("variant is a master playlist: " + mVariants[index].url);
+        synchronized (this) {
+            mPlaylists[index] = playlist;
+        }
+        return playlist;
+    }
+
+    private HlsPlaylist.Segment find(int index, long sequence) {
+        HlsPlaylist playlist;
+        synchronized (this) {
+            playlist = mPlaylists[index];
+        }
+        if (playlist == null)
+            return null;
+        List<HlsPlaylist.Segment> segments = playlist.getSegments();
+        if (segments.isEmpty())
+            return null;
+        int position = (int) (sequence - segments.get(0).sequence);
+        if (position < 0 || position >= segments.size())
+            return null;
+        return segments.get(position);
+    }
+}
@@ -0,0 +1,1043 @@
+package com.utils.ijkplayer.hls;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.utils.ijkplayer.stats.BandwidthEstimator;
+import com.utils.ijkplayer.widget.media.FileMediaDataSource;
+import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
+
+/**
+ * Loopback HTTP server that sits between the player and an HLS origin.
+ * <p>
+ * Playlists are fetched from the origin on every request, rewritten so that all URIs point
+ * back at the proxy, and kept on disk as a fallback when the origin can't be reached. Segments
+ * (and keys/init sections) are served from the {@link SegmentDiskCache}; a miss is streamed to
+ * the player while it is written to the cache, so playback never waits for a full download.
+ * <p>
+ * Segments following the one the player is reading are downloaded ahead of time by a
+ * {@link HlsSegmentPrefetcher}; the time each resource request waits before its response
+ * starts is recorded so the effect can be measured.
+ * <p>
+ * A master playlist is answered with the media playlist of one variant, whose segments are
+ * picked per request by an {@link HlsAbrSession}, so quality adapts at segment boundaries.
+ * Variants with encryption or init sections, and masters with separate renditions, can't be
+ * mixed that way: the variant is then chosen once when the playlist is first loaded.
+ * <p>
+ * Proxy URLs look like {@code http://127.0.0.1:port/<token>/p/<hex origin url>/<file name>},
+ * keeping the original file name so demuxers that look at the extension still recognise the
+ * stream. The token is random and names the session the URL was issued for, which holds the
+ * request headers (cookies, User-Agent, Referer) to send to the origin; requests with an
+ * unknown token are refused, so other apps on the device can't use the proxy to fetch
+ * arbitrary URLs, and only http and https origins are fetched.
+ * <p>
+ * Decryption keys are passed through from the origin on every request and never cached.
+ */
+public class HlsCacheProxy {
+    private static final String TAG = "HlsCacheProxy";
+
+    private static final String KIND_PLAYLIST = "p";
+    private static final String KIND_RESOURCE = "s";
+    private static final String KIND_VARIANT = "v";
+    private static final String KIND_KEY = "k";
+    private static final int MAX_ABR_SESSIONS = 4;
+    private static final int MAX_SESSIONS = 16;
+    private static final int TOKEN_BYTES = 16;
+    private static final long WARM_PLAYLIST_MIN_AGE_MS = 1000;
+    private static final String PLAYLIST_KEY_PREFIX = "playlist:";
+    private static final String MIME_PLAYLIST = "application/vnd.apple.mpegurl";
+    private static final String MIME_DEFAULT = "application/octet-stream";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final SegmentDiskCache mCache;
+    private int mConnectTimeout = 10000;
+    private int mReadTimeout = 10000;
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutor;
+    private volatile HlsSegmentPrefetcher mPrefetcher;
+    private volatile SegmentMemoryCache mMemoryCache;
+    private volatile BandwidthEstimator mBandwidthEstimator = new BandwidthEstimator();
+    private volatile boolean mRunning;
+    private boolean mPrefetchEnabled = true;
+    private volatile boolean mAbrEnabled = true;
+    private final Map<String, HlsAbrSession> mAbrSessions =
+            new LinkedHashMap<String, HlsAbrSession>(MAX_ABR_SESSIONS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, HlsAbrSession> eldest) {
+                    return size() > MAX_ABR_SESSIONS;
+                }
+            };
+
+    private final Map<String, WarmPlaylist> mWarmPlaylists = new HashMap<String, WarmPlaylist>();
+
+    // sessions by token, least recently used first
+    private final Map<String, Session> mSessions =
+            new LinkedHashMap<String, Session>(MAX_SESSIONS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            };
+    private final SecureRandom mRandom = new SecureRandom();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mOriginBytes = new AtomicLong();
+    private final AtomicLong mCacheBytes = new AtomicLong();
+    private final AtomicLong mSegmentWaitCount = new AtomicLong();
+    private final AtomicLong mSegmentWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxSegmentWaitNanos = new AtomicLong();
+
+    public HlsCacheProxy(File cacheDir, long maxCacheBytes) {
+        mCache = new SegmentDiskCache(cacheDir, maxCacheBytes);
+    }
+
+    public void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        mConnectTimeout = connectTimeoutMs;
+        mReadTimeout = readTimeoutMs;
+    }
+
+    public synchronized void start() throws IOException {
+        if (mRunning)
+            return;
+
+        mServerSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mPrefetcher = new HlsSegmentPrefetcher(this, mCache, HlsSegmentPrefetcher.DEFAULT_MAX_PARALLEL);
+        mPrefetcher.setEnabled(mPrefetchEnabled);
+        mRunning = true;
+        final ServerSocket serverSocket = mServerSocket;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop(serverSocket);
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (!mRunning)
+            return;
+
+        mRunning = false;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.w(TAG, "close server socket", e);
+        }
+        mExecutor.shutdownNow();
+        mPrefetcher.shutdown();
+        mServerSocket = null;
+        mExecutor = null;
+    }
+
+    public synchronized void setPrefetchEnabled(boolean enabled) {
+        mPrefetchEnabled = enabled;
+        if (mPrefetcher != null)
+            mPrefetcher.setEnabled(enabled);
+    }
+
+    /**
+     * Adapts the variant of master playlists to the bandwidth and buffer level. When off, masters
+     * are passed through and the player picks a variant itself.
+     */
+    public void setAbrEnabled(boolean enabled) {
+        mAbrEnabled = enabled;
+    }
+
+    /**
+     * @return the controller choosing variants for the master playlist at {@code url}, or null if
+     * it isn't being played adaptively
+     */
+    public AbrController getAbrController(String url) {
+        HlsAbrSession session = getAbrSession(url);
+        return session != null ? session.getController() : null;
+    }
+
+    private HlsAbrSession getAbrSession(String url) {
+        synchronized (mAbrSessions) {
+            return mAbrSessions.get(url);
+        }
+    }
+
+    public void warmUp(String url) {
+        warmUp(url, null);
+    }
+
+    /**
+     * Starts loading the playlist at {@code url} in the background, together with the segments
+     * at the live edge a player opening it starts from, so that a player (re)opening it right
+     * after doesn't wait for the origin. The player's playlist request picks up this fetch, or
+     * waits for it if it is still running, instead of making its own.
+     *
+     * @param headers sent to the origin with every request, may be null
+     */
+    public void warmUp(final String url, Map<String, String> headers) {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = mExecutor;
+        }
+        if (executor == null)
+            return;
+        final Map<String, String> originHeaders = copyHeaders(headers);
+        WarmPlaylist warm = new WarmPlaylist(new Callable<HlsPlaylist>() {
+            @Override
+            public HlsPlaylist call() throws IOException {
+                HlsPlaylist playlist = resolvePlaylist(url, originHeaders);
+                if (!playlist.isMaster() && !playlist.hasEndList())
+                    mPrefetcher.prefetchLiveEdge(playlist, originHeaders);
+                return playlist;
+            }
+        });
+        synchronized (mWarmPlaylists) {
+            mWarmPlaylists.put(url, warm);
+        }
+        try {
+            executor.execute(warm);
+        } catch (RuntimeException e) {
+            synchronized (mWarmPlaylists) {
+                mWarmPlaylists.remove(url);
+            }
+        }
+    }
+
+    /**
+     * @return the result of a {@link #warmUp} of {@code url} if it is recent enough to hand to
+     * the player, null otherwise
+     */
+    private HlsPlaylist takeWarmPlaylist(String url) {
+        WarmPlaylist warm;
+        synchronized (mWarmPlaylists) {
+            warm = mWarmPlaylists.remove(url);
+        }
+        if (warm == null)
+            return null;
+        try {
+            HlsPlaylist playlist = warm.get(mReadTimeout, TimeUnit.MILLISECONDS);
+            long ageMs = (System.nanoTime() - warm.mDoneAt) / 1000000;
+            // a live playlist younger than half a target duration hasn't missed a segment yet
+            if (!playlist.hasEndList() && ageMs > Math.max(WARM_PLAYLIST_MIN_AGE_MS, playlist.getTargetDuration() * 500))
+                return null;
+            return playlist;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } catch (TimeoutException e) {
+            return null;
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public synchronized int getPort() {
+        return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+    }
+
+    public SegmentDiskCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Keeps recently served resources in {@code cache} as well as on disk, for channels many
+     * players are on at once. Null turns the memory tier off.
+     */
+    public void setMemoryCache(SegmentMemoryCache cache) {
+        mMemoryCache = cache;
+    }
+
+    public SegmentMemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    /**
+     * Replaces the estimator fed with segment download timings, e.g. with one shared with the
+     * player's own bandwidth reports.
+     */
+    public void setBandwidthEstimator(BandwidthEstimator estimator) {
+        mBandwidthEstimator = estimator;
+    }
+
+    public BandwidthEstimator getBandwidthEstimator() {
+        return mBandwidthEstimator;
+    }
+
+    public String getProxyUrl(String url) {
+        return getProxyUrl(url, null);
+    }
+
+    /**
+     * @param headers sent to the origin with every request made for the returned URL and the
+     *                playlists and segments it leads to, may be null
+     * @return the loopback URL to hand to the player for the playlist at {@code url}
+     */
+    public String getProxyUrl(String url, Map<String, String> headers) {
+        return buildUrl(obtainSession(headers), KIND_PLAYLIST, url);
+    }
+
+    /**
+     * @return the session for {@code headers}, sessions with equal headers are shared
+     */
+    private Session obtainSession(Map<String, String> headers) {
+        Map<String, String> copy = copyHeaders(headers);
+        synchronized (mSessions) {
+            for (Session session : mSessions.values()) {
+                if (session.headers.equals(copy)) {
+                    // touch it, so it stays away from the eviction end
+                    mSessions.get(session.token);
+                    return session;
+                }
+            }
+            byte[] bytes = new byte[TOKEN_BYTES];
+            mRandom.nextBytes(bytes);
+            StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+            for (byte b : bytes) {
+                token.append(Character.forDigit((b >> 4) & 0xf, 16));
+                token.append(Character.forDigit(b & 0xf, 16));
+            }
+            Session session = new Session(token.toString(), copy);
+            mSessions.put(session.token, session);
+            return session;
+        }
+    }
+
+    private Session getSession(String token) {
+        synchronized (mSessions) {
+            return mSessions.get(token);
+        }
+    }
+
+    private static Map<String, String> copyHeaders(Map<String, String> headers) {
+        if (headers == null || headers.isEmpty())
+            return Collections.emptyMap();
+        return Collections.unmodifiableMap(new HashMap<String, String>(headers));
+    }
+
+    private static boolean isHttpUrl(String url) {
+        String lower = url.toLowerCase();
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+
+    public static boolean isHlsUrl(String url) {
+        if (url == null || !isHttpUrl(url))
+            return false;
+        String lower = url.toLowerCase();
+        int query = lower.indexOf('?');
+        String path = query >= 0 ? lower.substring(0, query) : lower;
+        return path.endsWith(".m3u8") || path.endsWith(".m3u");
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return bytes downloaded from the origin
+     */
+    public long getOriginBytes() {
+        return mOriginBytes.get();
+    }
+
+    /**
+     * @return bytes served to the player straight from the disk cache
+     */
+    public long getCacheBytes() {
+        return mCacheBytes.get();
+    }
+
+    public long getPrefetchCount() {
+        HlsSegmentPrefetcher prefetcher = mPrefetcher;
+        return prefetcher != null ? prefetcher.getPrefetchCount() : 0;
+    }
+
+    /**
+     * @return number of segment requests answered so far
+     */
+    public long getSegmentWaitCount() {
+        return mSegmentWaitCount.get();
+    }
+
+    /**
+     * @return mean time a segment request waited before its response started
+     */
+    public long getAverageSegmentWaitMs() {
+        long count = mSegmentWaitCount.get();
+        return count > 0 ? mSegmentWaitNanos.get() / count / 1000000 : 0;
+    }
+
+    public long getMaxSegmentWaitMs() {
+        return mMaxSegmentWaitNanos.get() / 1000000;
+    }
+
+    private void recordSegmentWait(Request request) {
+        long wait = System.nanoTime() - request.startNanos;
+        mSegmentWaitCount.incrementAndGet();
+        mSegmentWaitNanos.addAndGet(wait);
+        long max;
+        do {
+            max = mMaxSegmentWaitNanos.get();
+        } while (wait > max && !mMaxSegmentWaitNanos.compareAndSet(max, wait));
+    }
+
+    void onOriginBytes(long bytes) {
+        mOriginBytes.addAndGet(bytes);
+    }
+
+    private String buildUrl(Session session, String kind, String url) {
+        String name = url;
+        int query = name.indexOf('?');
+        if (query >= 0)
+            name = name.substring(0, query);
+        name = name.substring(name.lastIndexOf('/') + 1);
+        if (name.isEmpty())
+            name = KIND_PLAYLIST.equals(kind) ? "index.m3u8" : "data";
+        return "http://127.0.0.1:" + getPort() + "/" + session.token + "/" + kind + "/" + toHex(url) + "/" + name;
+    }
+
+    /**
+     * @return the URL of segment {@code sequence} of an adaptive session, with the extension of
+     * {@code segmentUrl}
+     */
+    private String buildVariantUrl(Session session, String masterUrl, long sequence, String segmentUrl) {
+        String name = segmentUrl;
+        int query = name.indexOf('?');
+        if (query >= 0)
+            name = name.substring(0, query);
+        name = name.substring(name.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        String extension = dot >= 0 ? name.substring(dot) : ".ts";
+        return "http://127.0.0.1:" + getPort() + "/" + session.token + "/" + KIND_VARIANT + "/"
+                + toHex(masterUrl) + "/" + sequence + extension;
+    }
+
+    //-------------------------
+    // Connection handling
+    //-------------------------
+
+    private void acceptLoop(ServerSocket serverSocket) {
+        while (mRunning) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (mRunning)
+                    Log.w(TAG, "accept failed", e);
+                return;
+            }
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            } catch (RuntimeException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(mReadTimeout);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            Request request = Request.read(in);
+            if (request == null) {
+                writeStatus(out, 400, "Bad Request");
+                return;
+            }
+
+            String[] parts = request.path.split("/");
+            // "", token, kind, hex url, name
+            Session session = parts.length >= 4 ? getSession(parts[1]) : null;
+            String url = session != null ? fromHex(parts[3]) : null;
+            if (session == null) {
+                writeStatus(out, 403, "Forbidden");
+            } else if (url == null) {
+                writeStatus(out, 404, "Not Found");
+            } else if (!isHttpUrl(url)) {
+                writeStatus(out, 400, "Bad Request");
+            } else if (KIND_PLAYLIST.equals(parts[2])) {
+                servePlaylist(session, url, request, out);
+            } else if (KIND_RESOURCE.equals(parts[2])) {
+                serveResource(url, session.headers, request, out);
+            } else if (KIND_KEY.equals(parts[2])) {
+                streamFromOrigin(url, session.headers, request, out, null);
+            } else if (KIND_VARIANT.equals(parts[2]) && parts.length >= 5) {
+                serveVariantSegment(url, session.headers, parts[4], request, out);
+            } else {
+                writeStatus(out, 404, "Not Found");
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the player closes connections it no longer needs, that is not an error
+            Log.d(TAG, "connection closed: " + e.getMessage());
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private void servePlaylist(final Session session, String url, Request request, OutputStream out)
+            throws IOException {
+        HlsPlaylist playlist = takeWarmPlaylist(url);
+        try {
+            if (playlist == null)
+                playlist = resolvePlaylist(url, session.headers);
+        } catch (IOException e) {
+            Log.w(TAG, "playlist unavailable: " + url, e);
+            writeStatus(out, 502, "Bad Gateway");
+            return;
+        }
+
+        HlsAbrSession abrSession = mAbrEnabled ? getAbrSession(url) : null;
+        final String masterUrl = url;
+        final Map<String, Long> sequences = new HashMap<String, Long>();
+        if (abrSession != null && !playlist.isEncrypted() && !playlist.hasInitSection()) {
+            for (HlsPlaylist.Segment segment : playlist.getSegments())
+                sequences.put(segment.url, segment.sequence);
+        }
+        byte[] body = playlist.rewrite(new HlsPlaylist.UrlRewriter() {
+            @Override
+            public String rewritePlaylist(String url) {
+                return buildUrl(session, KIND_PLAYLIST, url);
+            }
+
+            @Override
+            public String rewriteResource(String url) {
+                Long sequence = sequences.get(url);
+                return sequence != null ? buildVariantUrl(session, masterUrl, sequence, url)
+                        : buildUrl(session, KIND_RESOURCE, url);
+            }
+
+            @Override
+            public String rewriteKey(String url) {
+                return buildUrl(session, KIND_KEY, url);
+            }
+        }).getBytes("UTF-8");
+        writeHeader(out, 200, "OK", MIME_PLAYLIST, body.length, null);
+        if (!request.head)
+            out.write(body);
+    }
+
+    /**
+     * @return the playlist to answer a request for {@code url} with: the playlist itself, or for
+     * an adaptive master the media playlist of the current variant
+     */
+    private HlsPlaylist resolvePlaylist(String url, Map<String, String> headers) throws IOException {
+        HlsAbrSession session = mAbrEnabled ? getAbrSession(url) : null;
+        long bandwidth = mBandwidthEstimator.getEstimate();
+        // live reloads of an adaptive master go straight to the current variant
+        HlsPlaylist playlist = session != null ? session.refresh(bandwidth) : fetchPlaylist(url, headers);
+        if (session == null && mAbrEnabled && playlist.isMaster() && !playlist.hasRenditions()) {
+            session = new HlsAbrSession(this, playlist, headers);
+            synchronized (mAbrSessions) {
+                mAbrSessions.put(url, session);
+            }
+            playlist = session.refresh(bandwidth);
+        }
+        return playlist;
+    }
+
+    /**
+     * Fetches and parses the playlist at {@code url}, falling back to the last good copy when
+     * the origin can't be reached.
+     */
+    HlsPlaylist fetchPlaylist(String url, Map<String, String> headers) throws IOException {
+        String text;
+        String baseUrl = url;
+        try {
+            HttpURLConnection connection = openOrigin(url, null, headers);
+            try {
+                InputStream in = connection.getInputStream();
+                // redirects change the base that relative URIs resolve against
+                baseUrl = connection.getURL().toString();
+                text = readText(in);
+            } finally {
+                connection.disconnect();
+            }
+            storePlaylist(url, baseUrl, text);
+        } catch (IOException e) {
+            String[] cached = loadPlaylist(url);
+            if (cached == null)
+                throw e;
+            Log.w(TAG, "origin failed, serving cached playlist: " + url);
+            baseUrl = cached[0];
+            text = cached[1];
+        }
+
+        HlsPlaylist playlist = HlsPlaylist.parse(baseUrl, text);
+        mPrefetcher.onPlaylist(playlist, headers);
+        return playlist;
+    }
+
+    private void serveVariantSegment(String masterUrl, Map<String, String> headers, String name, Request request,
+                                     OutputStream out) throws IOException {
+        HlsAbrSession session = getAbrSession(masterUrl);
+        long sequence = -1;
+        try {
+            int dot = name.indexOf('.');
+            sequence = Long.parseLong(dot >= 0 ? name.substring(0, dot) : name);
+        } catch (NumberFormatException ignored) {
+        }
+        HlsPlaylist.Segment segment = null;
+        if (session != null && sequence >= 0) {
+            try {
+                segment = session.resolve(sequence, mBandwidthEstimator.getEstimate());
+            } catch (IOException e) {
+                Log.w(TAG, "variant playlist unavailable for " + masterUrl, e);
+            }
+        }
+        if (segment == null) {
+            writeStatus(out, 404, "Not Found");
+            return;
+        }
+        serveResource(segment.url, headers, request, out);
+        if (!request.head && request.rangeStart <= 0)
+            session.onSegmentServed(segment.duration);
+    }
+
+    private void serveResource(String url, Map<String, String> headers, Request request, OutputStream out)
+            throws IOException {
+        HlsSegmentPrefetcher prefetcher = mPrefetcher;
+        prefetcher.onSegmentRequested(url);
+        boolean served = serveCached(url, request, out);
+        if (!served) {
+            try {
+                // a prefetch of this segment is already under way, finishing it beats a second download
+                if (prefetcher.await(url, mReadTimeout))
+                    served = serveCached(url, request, out);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for " + url);
+            }
+        }
+        if (served)
+            return;
+        mMissCount.incrementAndGet();
+
+        if (request.rangeStart > 0 || request.rangeEnd >= 0 || !prefetcher.claim(url)) {
+            // partial fetches are passed through, only whole resources are worth caching
+            streamFromOrigin(url, headers, request, out, null);
+            return;
+        }
+
+        File temp = null;
+        long bytes = -1;
+        try {
+            temp = mCache.createTempFile(url);
+            long start = System.nanoTime();
+            bytes = streamFromOrigin(url, headers, request, out, temp);
+            if (bytes >= 0) {
+                mCache.commit(temp, url);
+                onCommitted(url);
+                prefetcher.onDownloaded(url, bytes, System.nanoTime() - start);
+            }
+        } finally {
+            prefetcher.release(url);
+            if (bytes < 0 && temp != null)
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+        }
+    }
+
+    /**
+     * Copies the origin response to the player and, if {@code temp} is given, to disk.
+     *
+     * @return bytes written to {@code temp} if the whole body was received, otherwise -1
+     */
+    private long streamFromOrigin(String url, Map<String, String> headers, Request request, OutputStream out,
+                                  File temp) throws IOException {
+        HttpURLConnection connection;
+        try {
+            connection = openOrigin(url, request.rangeHeader, headers);
+        } catch (IOException e) {
+            Log.w(TAG, "origin unavailable: " + url, e);
+            writeStatus(out, 502, "Bad Gateway");
+            return -1;
+        }
+
+        OutputStream file = null;
+        try {
+            int code = connection.getResponseCode();
+            InputStream in = connection.getInputStream();
+            long length = connection.getContentLength();
+            String type = connection.getContentType();
+            String contentRange = connection.getHeaderField("Content-Range");
+            recordSegmentWait(request);
+            writeHeader(out, code, code == 206 ? "Partial Content" : "OK",
+                    type != null ? type : MIME_DEFAULT, length, contentRange);
+            if (request.head)
+                return -1;
+
+            if (temp != null)
+                file = new FileOutputStream(temp);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long received = 0;
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                mOriginBytes.addAndGet(count);
+                received += count;
+                if (file != null)
+                    file.write(buffer, 0, count);
+                out.write(buffer, 0, count);
+            }
+            return file != null && (length < 0 || received == length) ? received : -1;
+        } finally {
+            if (file != null)
+                file.close();
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Serves {@code url} from the memory cache or, failing that, the disk cache.
+     *
+     * @return false on a miss in both
+     */
+    private boolean serveCached(String url, Request request, OutputStream out) throws IOException {
+        SegmentMemoryCache memoryCache = mMemoryCache;
+        if (memoryCache != null) {
+            SegmentMemoryCache.Entry entry = memoryCache.acquire(url);
+            if (entry != null) {
+                try {
+                    mHitCount.incrementAndGet();
+                    serveData(entry, request, out);
+                } finally {
+                    entry.close();
+                }
+                return true;
+            }
+        }
+
+        File file = mCache.get(url);
+        if (file == null)
+            return false;
+        mHitCount.incrementAndGet();
+        IMediaDataSource source = new FileMediaDataSource(file);
+        try {
+            serveData(source, request, out);
+        } finally {
+            source.close();
+        }
+        // keep it in memory for the next viewer of this channel
+        if (memoryCache != null)
+            onCommitted(url);
+        return true;
+    }
+
+    private void serveData(IMediaDataSource source, Request request, OutputStream out) throws IOException {
+        long total = source.getSize();
+        long start = Math.max(0, request.rangeStart);
+        long end = request.rangeEnd >= 0 ? Math.min(request.rangeEnd, total - 1) : total - 1;
+        boolean partial = request.rangeHeader != null;
+        if (partial && start >= total) {
+            writeHeader(out, 416, "Range Not Satisfiable", null, 0, "bytes */" + total);
+            return;
+        }
+
+        long length = end - start + 1;
+        recordSegmentWait(request);
+        writeHeader(out, partial ? 206 : 200, partial ? "Partial Content" : "OK", MIME_DEFAULT, length,
+                partial ? "bytes " + start + "-" + end + "/" + total : null);
+        if (request.head)
+            return;
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            int count = source.readAt(position, buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (count < 0)
+                break;
+            out.write(buffer, 0, count);
+            position += count;
+            remaining -= count;
+            mCacheBytes.addAndGet(count);
+        }
+    }
+
+    /**
+     * Called once a complete resource is on disk, by the proxy and by the prefetcher.
+     */
+    void onCommitted(String url) {
+        SegmentMemoryCache memoryCache = mMemoryCache;
+        if (memoryCache == null || memoryCache.contains(url))
+            return;
+        File file = mCache.get(url);
+        if (file == null)
+            return;
+        try {
+            memoryCache.put(url, file);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot keep " + url + " in memory", e);
+        }
+    }
+
+    /**
+     * @param headers sent along, may be null
+     */
+    HttpURLConnection openOrigin(String url, String range, Map<String, String> headers) throws IOException {
+        URLConnection urlConnection = new URL(url).openConnection();
+        if (!(urlConnection instanceof HttpURLConnection))
+            throw new IOException("not an http url: " + url);
+        HttpURLConnection connection = (HttpURLConnection) urlConnection;
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet())
+                connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        connection.setConnectTimeout(mConnectTimeout);
+        connection.setReadTimeout(mReadTimeout);
+        connection.setInstanceFollowRedirects(true);
+        if (range != null)
+            connection.setRequestProperty("Range", range);
+        int code = connection.getResponseCode();
+        if (code >= 400) {
+            connection.disconnect();
+            throw new IOException("HTTP " + code + " from " + url);
+        }
+        return connection;
+    }
+
+    //-------------------------
+    // Playlist fallback copies
+    //-------------------------
+
+    private void storePlaylist(String url, String baseUrl, String text) {
+        String key = PLAYLIST_KEY_PREFIX + url;
+        try {
+            File temp = mCache.createTempFile(key);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write((baseUrl + "\n" + text).getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            mCache.commit(temp, key);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot cache playlist " + url, e);
+        }
+    }
+
+    /**
+     * @return {base url, playlist text} of the last good copy of {@code url}, or null
+     */
+    String[] loadPlaylist(String url) {
+        File file = mCache.get(PLAYLIST_KEY_PREFIX + url);
+        if (file == null)
+            return null;
+        try {
+            InputStream in = new FileInputStream(file);
+            String text;
+            try {
+                text = readText(in);
+            } finally {
+                in.close();
+            }
+            int newline = text.indexOf('\n');
+            if (newline < 0)
+                return null;
+            return new String[]{text.substring(0, newline), text.substring(newline + 1)};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    //-------------------------
+    // HTTP helpers
+    //-------------------------
+
+    private static final class WarmPlaylist extends FutureTask<HlsPlaylist> {
+        volatile long mDoneAt;
+
+        WarmPlaylist(Callable<HlsPlaylist> callable) {
+            super(callable);
+        }
+
+        // stamped before the result is published, done() only runs after waiters are released
+        @Override
+        protected void set(HlsPlaylist playlist) {
+            mDoneAt = System.nanoTime();
+            super.set(playlist);
+        }
+    }
+
+    private static final class Session {
+        final String token;
+        final Map<String, String> headers;
+
+        Session(String token, Map<String, String> headers) {
+            this.token = token;
+            this.headers = headers;
+        }
+    }
+
+    private static final class Request {
+        final long startNanos = System.nanoTime();
+        String path;
+        boolean head;
+        String rangeHeader;
+        long rangeStart = -1;
+        long rangeEnd = -1;
+
+        static Request read(InputStream in) throws IOException {
+            String requestLine = readLine(in);
+            if (requestLine == null)
+                return null;
+            String[] parts = requestLine.split(" ");
+            if (parts.length < 2 || !(parts[0].equals("GET") || parts[0].equals("HEAD")))
+                return null;
+
+            Request request = new Request();
+            request.head = parts[0].equals("HEAD");
+            request.path = parts[1];
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Range"))
+                    request.parseRange(line.substring(colon + 1).trim());
+            }
+            return request;
+        }
+
+        private void parseRange(String value) {
+            if (!value.startsWith("bytes="))
+                return;
+            String spec = value.substring("bytes=".length());
+            int dash = spec.indexOf('-');
+            if (dash <= 0 || spec.indexOf(',') >= 0)
+                return;
+            try {
+                rangeStart = Long.parseLong(spec.substring(0, dash).trim());
+                String end = spec.substring(dash + 1).trim();
+                rangeEnd = end.isEmpty() ? -1 : Long.parseLong(end);
+                rangeHeader = value;
+            } catch (NumberFormatException e) {
+                rangeStart = -1;
+                rangeEnd = -1;
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n')
+                    return sb.toString();
+                if (c != '\r')
+                    sb.append((char) c);
+            }
+            return sb.length() > 0 ? sb.toString() : null;
+        }
+    }
+
+    private static void writeStatus(OutputStream out, int code, String reason) throws IOException {
+        writeHeader(out, code, reason, null, 0, null);
+    }
+
+    private static void writeHeader(OutputStream out, int code, String reason, String type, long length,
+                                    String contentRange) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(code).append(' ').append(reason).append("\r\n");
+        if (type != null)
+            sb.append("Content-Type: ").append(type).append("\r\n");
+        if (length >= 0)
+            sb.append("Content-Length: ").append(length).append("\r\n");
+        if (contentRange != null)
+            sb.append("Content-Range: ").append(contentRange).append("\r\n");
+        sb.append("Connection: close\r\n\r\n");
+        out.write(sb.toString().getBytes("UTF-8"));
+    }
+
+    private static String readText(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1)
+            out.write(buffer, 0, count);
+        return out.toString("UTF-8");
+    }
+
+    static String toHex(String value) {
+        try {
+            byte[] bytes = value.getBytes("UTF-8");
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String fromHex(String hex) {
+        if (hex.length() % 2 != 0)
+            return null;
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0)
+                return null;
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
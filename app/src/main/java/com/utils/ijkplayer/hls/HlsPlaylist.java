@@ -0,0 +1,290 @@
+package com.utils.ijkplayer.hls;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal m3u8 parser covering what the player needs: media segments, master playlist
+ * variants and the URI attributes of key/map/media tags. All URIs are resolved against the
+ * playlist URL.
+ */
+public class HlsPlaylist {
+    public static final String TAG_HEADER = "#EXTM3U";
+    private static final String TAG_TARGET_DURATION = "#EXT-X-TARGETDURATION:";
+    private static final String TAG_MEDIA_SEQUENCE = "#EXT-X-MEDIA-SEQUENCE:";
+    private static final String TAG_INF = "#EXTINF:";
+    private static final String TAG_STREAM_INF = "#EXT-X-STREAM-INF:";
+    private static final String TAG_ENDLIST = "#EXT-X-ENDLIST";
+    private static final String TAG_MEDIA = "#EXT-X-MEDIA:";
+    private static final String TAG_I_FRAME_STREAM_INF = "#EXT-X-I-FRAME-STREAM-INF:";
+    private static final String TAG_KEY = "#EXT-X-KEY:";
+    private static final String TAG_SESSION_KEY = "#EXT-X-SESSION-KEY:";
+    private static final String TAG_MAP = "#EXT-X-MAP:";
+    private static final String ATTR_URI = "URI=\"";
+
+    public static final class Segment {
+        public final String url;
+        public final float duration;
+        public final long sequence;
+
+        Segment(String url, float duration, long sequence) {
+            this.url = url;
+            this.duration = duration;
+            this.sequence = sequence;
+        }
+    }
+
+    public static final class Variant {
+        public final String url;
+        public final long bandwidth;
+        public final int width;
+        public final int height;
+        public final String codecs;
+
+        Variant(String url, long bandwidth, int width, int height, String codecs) {
+            this.url = url;
+            this.bandwidth = bandwidth;
+            this.width = width;
+            this.height = height;
+            this.codecs = codecs;
+        }
+    }
+
+    /**
+     * Maps absolute origin URLs to the URLs written into a rewritten playlist.
+     */
+    public interface UrlRewriter {
+        String rewritePlaylist(String url);
+
+        String rewriteResource(String url);
+
+        /**
+         * Called for the URIs of EXT-X-KEY and EXT-X-SESSION-KEY.
+         */
+        String rewriteKey(String url);
+    }
+
+    private final String mUrl;
+    private final String[] mLines;
+    private final List<Segment> mSegments = new ArrayList<Segment>();
+    private final List<Variant> mVariants = new ArrayList<Variant>();
+    private float mTargetDuration;
+    private long mMediaSequence;
+    private boolean mEndList;
+    private boolean mEncrypted;
+    private boolean mInitSection;
+    private boolean mRenditions;
+
+    private HlsPlaylist(String url, String[] lines) {
+        mUrl = url;
+        mLines = lines;
+    }
+
+    public static HlsPlaylist parse(String url, String text) throws IOException {
+        String[] lines = text.split("\r?\n");
+        if (lines.length == 0 || !lines[0].trim().startsWith(TAG_HEADER))
+            throw new IOException("not an m3u8 playlist: " + url);
+
+        HlsPlaylist playlist = new HlsPlaylist(url, lines);
+        float duration = 0;
+        Map<String, String> streamInf = null;
+        long sequence = -1;
+        for (String raw : lines) {
+            String line = raw.trim();
+            if (line.isEmpty())
+                continue;
+
+            if (line.startsWith(TAG_TARGET_DURATION)) {
+                playlist.mTargetDuration = parseFloat(line.substring(TAG_TARGET_DURATION.length()));
+            } else if (line.startsWith(TAG_MEDIA_SEQUENCE)) {
+                playlist.mMediaSequence = parseLong(line.substring(TAG_MEDIA_SEQUENCE.length()));
+            } else if (line.startsWith(TAG_INF)) {
+                String value = line.substring(TAG_INF.length());
+                int comma = value.indexOf(',');
+                duration = parseFloat(comma >= 0 ? value.substring(0, comma) : value);
+            } else if (line.startsWith(TAG_STREAM_INF)) {
+                streamInf = parseAttributes(line.substring(TAG_STREAM_INF.length()));
+            } else if (line.startsWith(TAG_ENDLIST)) {
+                playlist.mEndList = true;
+            } else if (line.startsWith(TAG_KEY)) {
+                String method = parseAttributes(line.substring(TAG_KEY.length())).get("METHOD");
+                if (method != null && !"NONE".equals(method))
+                    playlist.mEncrypted = true;
+            } else if (line.startsWith(TAG_MAP)) {
+                playlist.mInitSection = true;
+            } else if (line.startsWith(TAG_MEDIA)) {
+                if (parseAttributes(line.substring(TAG_MEDIA.length())).containsKey("URI"))
+                    playlist.mRenditions = true;
+            } else if (!line.startsWith("#")) {
+                String absolute = resolve(url, line);
+                if (streamInf != null) {
+                    int width = 0;
+                    int height = 0;
+                    String resolution = streamInf.get("RESOLUTION");
+                    if (resolution != null) {
+                        int x = resolution.indexOf('x');
+                        if (x > 0) {
+                            width = (int) parseLong(resolution.substring(0, x));
+                            height = (int) parseLong(resolution.substring(x + 1));
+                        }
+                    }
+                    String bandwidth = streamInf.get("BANDWIDTH");
+                    playlist.mVariants.add(new Variant(absolute, bandwidth != null ? parseLong(bandwidth) : 0,
+                            width, height, streamInf.get("CODECS")));
+                    streamInf = null;
+                } else {
+                    sequence = sequence < 0 ? playlist.mMediaSequence : sequence + 1;
+                    playlist.mSegments.add(new Segment(absolute, duration, sequence));
+                    duration = 0;
+                }
+            }
+        }
+        return playlist;
+    }
+
+    /**
+     * Returns the playlist text with every URI replaced by {@code rewriter}'s result.
+     */
+    public String rewrite(UrlRewriter rewriter) {
+        StringBuilder sb = new StringBuilder();
+        boolean nextIsPlaylist = false;
+        for (String raw : mLines) {
+            String line = raw.trim();
+            if (line.startsWith("#")) {
+                if (line.startsWith(TAG_STREAM_INF))
+                    nextIsPlaylist = true;
+                int start = line.indexOf(ATTR_URI);
+                int end = start < 0 ? -1 : line.indexOf('"', start + ATTR_URI.length());
+                if (end > 0) {
+                    String uri = resolve(mUrl, line.substring(start + ATTR_URI.length(), end));
+                    String rewritten;
+                    if (line.startsWith(TAG_MEDIA) || line.startsWith(TAG_I_FRAME_STREAM_INF))
+                        rewritten = rewriter.rewritePlaylist(uri);
+                    else if (line.startsWith(TAG_KEY) || line.startsWith(TAG_SESSION_KEY))
+                        rewritten = rewriter.rewriteKey(uri);
+                    else
+                        rewritten = rewriter.rewriteResource(uri);
+                    line = line.substring(0, start + ATTR_URI.length()) + rewritten + line.substring(end);
+                }
+            } else if (!line.isEmpty()) {
+                String uri = resolve(mUrl, line);
+                line = nextIsPlaylist ? rewriter.rewritePlaylist(uri) : rewriter.rewriteResource(uri);
+                nextIsPlaylist = false;
+            }
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public boolean isMaster() {
+        return !mVariants.isEmpty();
+    }
+
+    public List<Segment> getSegments() {
+        return Collections.unmodifiableList(mSegments);
+    }
+
+    public List<Variant> getVariants() {
+        return Collections.unmodifiableList(mVariants);
+    }
+
+    public float getTargetDuration() {
+        return mTargetDuration;
+    }
+
+    public long getMediaSequence() {
+        return mMediaSequence;
+    }
+
+    /**
+     * @return true for VOD playlists, false for live playlists that are still growing
+     */
+    public boolean hasEndList() {
+        return mEndList;
+    }
+
+    /**
+     * @return true if any segment is encrypted with EXT-X-KEY
+     */
+    public boolean isEncrypted() {
+        return mEncrypted;
+    }
+
+    /**
+     * @return true if segments need an EXT-X-MAP init section, as fMP4 streams do
+     */
+    public boolean hasInitSection() {
+        return mInitSection;
+    }
+
+    /**
+     * @return true if a master playlist has alternative renditions in playlists of their own,
+     * such as separate audio tracks
+     */
+    public boolean hasRenditions() {
+        return mRenditions;
+    }
+
+    public static String resolve(String base, String reference) {
+        try {
+            return new URL(new URL(base), reference).toString();
+        } catch (MalformedURLException e) {
+            return reference;
+        }
+    }
+
+    static Map<String, String> parseAttributes(String list) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        int i = 0;
+        int length = list.length();
+        while (i < length) {
+            int eq = list.indexOf('=', i);
+            if (eq < 0)
+                break;
+            String name = list.substring(i, eq).trim();
+            String value;
+            if (eq + 1 < length && list.charAt(eq + 1) == '"') {
+                int close = list.indexOf('"', eq + 2);
+                if (close < 0)
+                    close = length;
+                value = list.substring(eq + 2, close);
+                i = list.indexOf(',', close);
+            } else {
+                int comma = list.indexOf(',', eq + 1);
+                value = list.substring(eq + 1, comma < 0 ? length : comma);
+                i = comma;
+            }
+            attributes.put(name, value);
+            if (i < 0)
+                break;
+            i++;
+        }
+        return attributes;
+    }
+
+    private static float parseFloat(String value) {
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.utils.ijkplayer.hls;
+
+import android.util.Log;
+
+import com.utils.ijkplayer.stats.BandwidthEstimator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the segments after the one the player is reading downloading into the
+ * {@link SegmentDiskCache}, several at a time, so one slow segment doesn't stall playback.
+ * <p>
+ * The look-ahead window is sized from the segment duration ({@link #setLookaheadSeconds}) and
+ * the number of parallel downloads from the ratio between the proxy's
+ * {@link BandwidthEstimator} and the stream's bitrate: the closer the link is to the bitrate,
+ * the more segments are fetched in parallel. The proxy reports every playlist it serves and
+ * every segment the player asks for; downloads, including the proxy's own cache-miss
+ * downloads, are tracked in one in-flight map so a segment is never fetched twice at the same
+ * time. Before a live stream is reopened the proxy can also have the segments at the live edge
+ * fetched ahead of the player's first request. Segments are fetched with the request headers
+ * of the playlist that lists them.
+ */
+class HlsSegmentPrefetcher {
+    private static final String TAG = "HlsSegmentPrefetcher";
+
+    static final int DEFAULT_MAX_PARALLEL = 3;
+    static final int MAX_WINDOW = 8;
+    private static final float DEFAULT_LOOKAHEAD_SECONDS = 12;
+    private static final float DEFAULT_SEGMENT_SECONDS = 4;
+    private static final int MAX_PLAYLISTS = 4;
+    private static final double EWMA_WEIGHT = 0.3;
+    // ffmpeg starts live playlists this many segments from the end
+    static final int LIVE_START_SEGMENTS = 3;
+
+    private final HlsCacheProxy mProxy;
+    private final SegmentDiskCache mCache;
+    private final int mMaxParallel;
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Map<String, CountDownLatch> mInFlight = new HashMap<String, CountDownLatch>();
+    // media playlists by url, most recently refreshed last
+    private final LinkedHashMap<String, List<HlsPlaylist.Segment>> mPlaylists =
+            new LinkedHashMap<String, List<HlsPlaylist.Segment>>();
+    // origin request headers of the playlists in mPlaylists
+    private final Map<String, Map<String, String>> mHeaders = new HashMap<String, Map<String, String>>();
+    private String mPlayheadUrl;
+    // live edge segments fetched for a player that hasn't asked for anything yet
+    private final Set<String> mWarmUrls = new HashSet<String>();
+    private float mLookaheadSeconds = DEFAULT_LOOKAHEAD_SECONDS;
+    private boolean mEnabled = true;
+
+    private double mBitrate;
+    private long mPrefetchCount;
+    private long mPrefetchBytes;
+
+    HlsSegmentPrefetcher(HlsCacheProxy proxy, SegmentDiskCache cache, int maxParallel) {
+        mProxy = proxy;
+        mCache = cache;
+        mMaxParallel = maxParallel;
+        mExecutor = new ThreadPoolExecutor(maxParallel, maxParallel, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    synchronized void setLookaheadSeconds(float seconds) {
+        mLookaheadSeconds = seconds;
+    }
+
+    /**
+     * @param headers sent to the origin with the playlist's segment downloads, may be null
+     */
+    synchronized void onPlaylist(HlsPlaylist playlist, Map<String, String> headers) {
+        if (playlist.isMaster())
+            return;
+
+        mPlaylists.remove(playlist.getUrl());
+        mPlaylists.put(playlist.getUrl(), playlist.getSegments());
+        mHeaders.put(playlist.getUrl(), headers);
+        while (mPlaylists.size() > MAX_PLAYLISTS)
+            mHeaders.remove(removeEldest());
+        schedule();
+    }
+
+    private String removeEldest() {
+        String url = mPlaylists.keySet().iterator().next();
+        mPlaylists.remove(url);
+        return url;
+    }
+
+    synchronized void onSegmentRequested(String url) {
+        mPlayheadUrl = url;
+        mWarmUrls.clear();
+        schedule();
+    }
+
+    /**
+     * Downloads the segments a player opening the live {@code playlist} starts with, before it
+     * asks for them.
+     */
+    synchronized void prefetchLiveEdge(HlsPlaylist playlist, Map<String, String> headers) {
+        onPlaylist(playlist, headers);
+        if (!mEnabled)
+            return;
+        List<HlsPlaylist.Segment> segments = playlist.getSegments();
+        for (int i = Math.max(0, segments.size() - LIVE_START_SEGMENTS); i < segments.size(); i++) {
+            HlsPlaylist.Segment segment = segments.get(i);
+            mWarmUrls.add(segment.url);
+            submit(segment, headers);
+        }
+    }
+
+    /**
+     * Registers a download of {@code url}. Every successful claim must be paired with
+     * {@link #release(String)}.
+     *
+     * @return false if the resource is already being downloaded
+     */
+    synchronized boolean claim(String url) {
+        if (mInFlight.containsKey(url))
+            return false;
+        mInFlight.put(url, new CountDownLatch(1));
+        return true;
+    }
+
+    synchronized void release(String url) {
+        CountDownLatch latch = mInFlight.remove(url);
+        if (latch != null)
+            latch.countDown();
+    }
+
+    /**
+     * Blocks until a running download of {@code url} has finished.
+     *
+     * @return true if there was a download to wait for
+     */
+    boolean await(String url, long timeoutMs) throws InterruptedException {
+        CountDownLatch latch;
+        synchronized (this) {
+            latch = mInFlight.get(url);
+        }
+        if (latch == null)
+            return false;
+        latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    synchronized long getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    synchronized long getPrefetchBytes() {
+        return mPrefetchBytes;
+    }
+
+    /**
+     * @return smoothed stream bitrate in bytes per second, 0 before the first segment
+     */
+    synchronized double getBitrate() {
+        return mBitrate;
+    }
+
+    //-------------------------
+    // Scheduling
+    //-------------------------
+
+    private void schedule() {
+        if (!mEnabled || mPlayheadUrl == null)
+            return;
+
+        List<HlsPlaylist.Segment> segments = null;
+        Map<String, String> headers = null;
+        int playhead = -1;
+        for (Map.Entry<String, List<HlsPlaylist.Segment>> candidate : mPlaylists.entrySet()) {
+            int index = indexOf(candidate.getValue(), mPlayheadUrl);
+            if (index >= 0) {
+                segments = candidate.getValue();
+                headers = mHeaders.get(candidate.getKey());
+                playhead = index;
+            }
+        }
+        if (segments == null)
+            return;
+
+        int parallel = parallelism();
+        if (mExecutor.getCorePoolSize() != parallel) {
+            if (parallel > mExecutor.getMaximumPoolSize()) {
+                mExecutor.setMaximumPoolSize(parallel);
+                mExecutor.setCorePoolSize(parallel);
+            } else {
+                mExecutor.setCorePoolSize(parallel);
+                mExecutor.setMaximumPoolSize(parallel);
+            }
+        }
+
+        int window = window(segments.get(playhead).duration);
+        for (int i = playhead + 1; i <= playhead + window && i < segments.size(); i++)
+            submit(segments.get(i), headers);
+    }
+
+    private void submit(final HlsPlaylist.Segment segment, final Map<String, String> headers) {
+        if (mInFlight.containsKey(segment.url) || mCache.get(segment.url) != null)
+            return;
+        if (!claim(segment.url))
+            return;
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prefetch(segment, headers);
+                }
+            });
+        } catch (RuntimeException e) {
+            release(segment.url);
+        }
+    }
+
+    int window(float segmentDuration) {
+        float duration = segmentDuration > 0 ? segmentDuration : DEFAULT_SEGMENT_SECONDS;
+        int window = (int) Math.ceil(mLookaheadSeconds / duration);
+        return Math.max(1, Math.min(MAX_WINDOW, Math.max(window, parallelism())));
+    }
+
+    int parallelism() {
+        BandwidthEstimator estimator = mProxy.getBandwidthEstimator();
+        if (estimator.getSampleCount() == 0 || mBitrate <= 0)
+            return Math.min(2, mMaxParallel);
+        // one connection is enough while the link delivers comfortably more than the bitrate;
+        // as it approaches the bitrate, more segments go out in parallel
+        double ratio = estimator.getEstimate() / 8.0 / mBitrate;
+        int parallel = (int) Math.ceil(2.0 / ratio);
+        return Math.max(1, Math.min(mMaxParallel, parallel));
+    }
+
+    private boolean isWanted(String url) {
+        if (mEnabled && mWarmUrls.contains(url))
+            return true;
+        if (!mEnabled || mPlayheadUrl == null)
+            return false;
+        for (List<HlsPlaylist.Segment> segments : mPlaylists.values()) {
+            int playhead = indexOf(segments, mPlayheadUrl);
+            int index = indexOf(segments, url);
+            if (playhead >= 0 && index > playhead && index <= playhead + MAX_WINDOW)
+                return true;
+        }
+        return false;
+    }
+
+    private static int indexOf(List<HlsPlaylist.Segment> segments, String url) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).url.equals(url))
+                return i;
+        }
+        return -1;
+    }
+
+    //-------------------------
+    // Downloads
+    //-------------------------
+
+    private void prefetch(HlsPlaylist.Segment segment, Map<String, String> headers) {
+        try {
+            synchronized (this) {
+                // the player may have seeked away while this sat in the queue
+                if (!isWanted(segment.url))
+                    return;
+            }
+            download(segment, headers);
+        } catch (IOException e) {
+            Log.w(TAG, "prefetch failed: " + segment.url + ": " + e.getMessage());
+        } finally {
+            release(segment.url);
+        }
+    }
+
+    private void download(HlsPlaylist.Segment segment, Map<String, String> headers) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = mProxy.openOrigin(segment.url, null, headers);
+        File temp = mCache.createTempFile(segment.url);
+        boolean complete = false;
+        long received = 0;
+        try {
+            long length = connection.getContentLength();
+            InputStream in = connection.getInputStream();
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[16 * 1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                    received += count;
+                }
+            } finally {
+                out.close();
+            }
+            mProxy.onOriginBytes(received);
+            complete = length < 0 || received == length;
+            if (!complete)
+                throw new IOException("short read " + received + "/" + length);
+            // counted before the commit so a reader that finds the file also sees it counted
+            synchronized (this) {
+                mPrefetchCount++;
+                mPrefetchBytes += received;
+            }
+            mCache.commit(temp, segment.url);
+            mProxy.onCommitted(segment.url);
+        } finally {
+            connection.disconnect();
+            if (!complete)
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+        }
+        onDownloaded(segment.url, received, System.nanoTime() - start);
+    }
+
+    /**
+     * Feeds a finished download into the bandwidth and bitrate estimates; the proxy reports its
+     * own cache-miss downloads here too.
+     */
+    synchronized void onDownloaded(String url, long bytes, long elapsedNanos) {
+        if (bytes <= 0 || elapsedNanos <= 0)
+            return;
+        mProxy.getBandwidthEstimator().addSample(bytes, elapsedNanos);
+
+        float duration = 0;
+        for (List<HlsPlaylist.Segment> segments : mPlaylists.values()) {
+            int index = indexOf(segments, url);
+            if (index >= 0)
+                duration = segments.get(index).duration;
+        }
+        if (duration > 0) {
+            double bitrate = bytes / duration;
+            mBitrate = mBitrate <= 0 ? bitrate : mBitrate + EWMA_WEIGHT * (bitrate - mBitrate);
+        }
+    }
+}
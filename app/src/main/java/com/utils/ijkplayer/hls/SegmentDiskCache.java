@@ -0,0 +1,119 @@
+package com.utils.ijkplayer.hls;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Size-bounded directory of downloaded HLS resources keyed by origin URL. Entries are written
+ * to a temp file first and only become visible once complete; the least recently used files
+ * are deleted when the directory grows past its budget.
+ */
+public class SegmentDiskCache {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDir;
+    private final long mMaxBytes;
+
+    public SegmentDiskCache(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the complete cached file for {@code url}, or null on a miss
+     */
+    public synchronized File get(String url) {
+        File file = new File(mDir, keyFor(url));
+        if (!file.isFile())
+            return null;
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    public synchronized File createTempFile(String url) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs())
+            throw new IOException("cannot create cache dir " + mDir);
+        return File.createTempFile(keyFor(url), TEMP_SUFFIX, mDir);
+    }
+
+    /**
+     * Publishes a fully written temp file as the entry for {@code url}.
+     */
+    public synchronized void commit(File temp, String url) throws IOException {
+        File file = new File(mDir, keyFor(url));
+        if (file.exists() && !file.delete())
+            throw new IOException("cannot replace " + file);
+        if (!temp.renameTo(file))
+            throw new IOException("cannot commit " + temp);
+        trim();
+    }
+
+    public synchronized void remove(String url) {
+        //noinspection ResultOfMethodCallIgnored
+        new File(mDir, keyFor(url)).delete();
+    }
+
+    public synchronized long size() {
+        long total = 0;
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                total += file.length();
+        }
+        return total;
+    }
+
+    private void trim() {
+        File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        if (total <= mMaxBytes)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= mMaxBytes)
+                break;
+            // temp files belong to downloads still in flight
+            if (file.getName().endsWith(TEMP_SUFFIX))
+                continue;
+            long length = file.length();
+            if (file.delete())
+                total -= length;
+        }
+    }
+
+    public static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.utils.ijkplayer.hls;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
+
+/**
+ * In-memory cache of recently fetched HLS resources that lives outside the Java heap.
+ * <p>
+ * Memory comes from direct {@link ByteBuffer} arenas that are cut into fixed-size slabs; an
+ * entry is just the list of slabs holding its bytes, so a cached segment never becomes a
+ * {@code byte[]} and storing or evicting one produces no garbage beyond a few small objects.
+ * Arenas are allocated on demand up to the byte budget and kept for the lifetime of the
+ * cache, after which the least recently used entries give their slabs to new ones.
+ * <p>
+ * Readers pin an entry with {@link #acquire(String)} and unpin it with
+ * {@link Entry#close()}. An entry that is evicted or replaced while pinned stays readable,
+ * and its slabs return to the free list when the last reader lets go.
+ */
+public class SegmentMemoryCache {
+    public static final int DEFAULT_SLAB_SIZE = 64 * 1024;
+    private static final int SLABS_PER_ARENA = 16;
+
+    private final int mSlabSize;
+    private final int mMaxSlabs;
+    // one view per slab, created with its arena; a view's position is only touched under its own lock
+    private final ByteBuffer[] mViews;
+    private final List<ByteBuffer> mArenas = new ArrayList<ByteBuffer>();
+    private final int[] mFreeSlabs;
+    private int mFreeCount;
+    private int mAllocatedSlabs;
+
+    // access ordered, least recently used first
+    private final LinkedHashMap<String, Slabs> mEntries = new LinkedHashMap<String, Slabs>(16, 0.75f, true);
+    private long mUsedBytes;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    public SegmentMemoryCache(long maxBytes) {
+        this(maxBytes, DEFAULT_SLAB_SIZE);
+    }
+
+    public SegmentMemoryCache(long maxBytes, int slabSize) {
+        if (slabSize <= 0)
+            throw new IllegalArgumentException("slabSize must be positive");
+        long slabs = maxBytes / slabSize;
+        if (slabs < 1 || slabs > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("maxBytes must hold between 1 and 2^31 slabs");
+
+        mSlabSize = slabSize;
+        mMaxSlabs = (int) slabs;
+        mViews = new ByteBuffer[mMaxSlabs];
+        mFreeSlabs = new int[mMaxSlabs];
+    }
+
+    /**
+     * Pins the entry for {@code url}. The caller must close the returned entry.
+     *
+     * @return the entry, or null on a miss
+     */
+    public synchronized Entry acquire(String url) {
+        Slabs slabs = mEntries.get(url);
+        if (slabs == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        slabs.refs++;
+        return new Entry(slabs);
+    }
+
+    public synchronized boolean contains(String url) {
+        return mEntries.containsKey(url);
+    }
+
+    /**
+     * Copies {@code file} into slabs and publishes it as the entry for {@code url}, evicting
+     * unpinned entries if needed.
+     *
+     * @return false if the file is larger than the budget or everything else is pinned
+     */
+    public boolean put(String url, File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return put(url, in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    boolean put(String url, FileChannel channel) throws IOException {
+        long length = channel.size();
+        int count = (int) Math.max(1, (length + mSlabSize - 1) / mSlabSize);
+        if (length > (long) mMaxSlabs * mSlabSize)
+            return false;
+
+        int[] slabs;
+        synchronized (this) {
+            if (!reserve(count))
+                return false;
+            slabs = new int[count];
+            for (int i = 0; i < count; i++)
+                slabs[i] = mFreeSlabs[--mFreeCount];
+        }
+
+        // the entry isn't visible yet, so the copy runs without the cache lock
+        boolean filled = false;
+        try {
+            long position = 0;
+            for (int i = 0; i < count && position < length; i++) {
+                ByteBuffer slab = mViews[slabs[i]];
+                synchronized (slab) {
+                    slab.clear();
+                    slab.limit((int) Math.min(mSlabSize, length - position));
+                    while (slab.hasRemaining()) {
+                        int read = channel.read(slab, position + slab.position());
+                        if (read < 0)
+                            throw new IOException("file shrank while caching " + url);
+                    }
+                }
+                position += mSlabSize;
+            }
+            filled = true;
+        } finally {
+            if (!filled)
+                free(slabs);
+        }
+
+        synchronized (this) {
+            Slabs old = mEntries.put(url, new Slabs(url, slabs, length));
+            mUsedBytes += (long) count * mSlabSize;
+            if (old != null)
+                retire(old);
+        }
+        return true;
+    }
+
+    public synchronized void remove(String url) {
+        Slabs slabs = mEntries.remove(url);
+        if (slabs != null)
+            retire(slabs);
+    }
+
+    public synchronized void clear() {
+        for (Slabs slabs : mEntries.values())
+            retire(slabs);
+        mEntries.clear();
+    }
+
+    /**
+     * @return bytes held by live entries, rounded up to whole slabs
+     */
+    public synchronized long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    /**
+     * @return direct memory allocated so far, never more than the budget
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) mAllocatedSlabs * mSlabSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    //-------------------------
+    // Slab management, all under the cache lock
+    //-------------------------
+
+    private boolean reserve(int count) {
+        while (mFreeCount < count && mAllocatedSlabs < mMaxSlabs)
+            allocateArena();
+        Iterator<Slabs> lru = mEntries.values().iterator();
+        while (mFreeCount < count && lru.hasNext()) {
+            Slabs slabs = lru.next();
+            if (slabs.refs > 0)
+                continue;
+            lru.remove();
+            mEvictionCount++;
+            retire(slabs);
+        }
+        return mFreeCount >= count;
+    }
+
+    private void allocateArena() {
+        int count = Math.min(SLABS_PER_ARENA, mMaxSlabs - mAllocatedSlabs);
+        ByteBuffer arena = ByteBuffer.allocateDirect(count * mSlabSize);
+        mArenas.add(arena);
+        for (int i = 0; i < count; i++) {
+            arena.limit((i + 1) * mSlabSize);
+            arena.position(i * mSlabSize);
+            int id = mAllocatedSlabs++;
+            mViews[id] = arena.slice();
+            mFreeSlabs[mFreeCount++] = id;
+        }
+    }
+
+    /**
+     * Takes an entry out of service; its slabs are freed now or by the last reader.
+     */
+    private void retire(Slabs slabs) {
+        slabs.retired = true;
+        mUsedBytes -= (long) slabs.ids.length * mSlabSize;
+        if (slabs.refs == 0)
+            free(slabs.ids);
+    }
+
+    private synchronized void free(int[] ids) {
+        for (int id : ids)
+            mFreeSlabs[mFreeCount++] = id;
+    }
+
+    private static final class Slabs {
+        final String url;
+        final int[] ids;
+        final long length;
+        // guarded by the cache lock
+        int refs;
+        boolean retired;
+
+        Slabs(String url, int[] ids, long length) {
+            this.url = url;
+            this.ids = ids;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A reader's pin on a cache entry. Reads copy straight from the slabs into the caller's
+     * buffer, so it can be handed to the player as an {@link IMediaDataSource}; closing it
+     * unpins the entry.
+     */
+    public final class Entry implements IMediaDataSource {
+        private final Slabs mData;
+        private volatile boolean mClosed;
+
+        private Entry(Slabs data) {
+            mData = data;
+        }
+
+        public String getUrl() {
+            return mData.url;
+        }
+
+        public long length() {
+            return mData.length;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            if (mClosed)
+                throw new IOException("entry closed");
+            long length = mData.length;
+            if (size == 0)
+                return 0;
+            if (position >= length)
+                return -1;
+
+            int total = (int) Math.min(size, length - position);
+            int done = 0;
+            while (done < total) {
+                long at = position + done;
+                ByteBuffer slab = mViews[mData.ids[(int) (at / mSlabSize)]];
+                int inSlab = (int) (at % mSlabSize);
+                int count = Math.min(total - done, mSlabSize - inSlab);
+                synchronized (slab) {
+                    slab.limit(mSlabSize);
+                    slab.position(inSlab);
+                    slab.get(buffer, offset + done, count);
+                }
+                done += count;
+            }
+            return total;
+        }
+
+        @Override
+        public long getSize() throws IOException {
+            return mData.length;
+        }
+
+        @Override
+        public void close() {
+            synchronized (SegmentMemoryCache.this) {
+                if (mClosed)
+                    return;
+                mClosed = true;
+                if (--mData.refs == 0 && mData.retired)
+                    free(mData.ids);
+            }
+        }
+    }
+}
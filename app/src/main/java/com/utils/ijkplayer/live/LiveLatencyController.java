@@ -0,0 +1,176 @@
+package com.utils.ijkplayer.live;
+
+import com.utils.ijkplayer.stats.LatencyHistogram;
+
+/**
+ * Keeps live playback close to the live edge.
+ * <p>
+ * The distance from the edge is taken to be what the player has buffered: everything the
+ * origin has published has either been downloaded or is still on its way, so each stall adds
+ * its length to the buffer and therefore to the latency. Once the buffer exceeds the target
+ * by more than {@link #TOLERANCE_MS}, playback is sped up in proportion to the excess, between
+ * the minimum and maximum catch-up speed, until the target is reached again. Past the jump
+ * threshold catching up would take too long, and the stream is reopened at the live edge
+ * instead, at most once per {@link #MIN_JUMP_INTERVAL_MS}.
+ * <p>
+ * Samples are fed from the player's polling loop; the controller only decides, applying the
+ * speed or reopening is left to the caller.
+ */
+public class LiveLatencyController {
+    public static final long DEFAULT_TARGET_LATENCY_MS = 2500;
+    public static final long DEFAULT_JUMP_THRESHOLD_MS = 10000;
+    public static final float DEFAULT_MIN_SPEED = 1.05f;
+    public static final float DEFAULT_MAX_SPEED = 1.25f;
+
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_SET_SPEED = 1;
+    public static final int ACTION_JUMP = 2;
+
+    static final long TOLERANCE_MS = 500;
+    static final long MIN_JUMP_INTERVAL_MS = 10000;
+    // speed changes smaller than this aren't worth a call into the player
+    private static final float SPEED_STEP = 0.01f;
+
+    private long mTargetLatencyMs = DEFAULT_TARGET_LATENCY_MS;
+    private long mJumpThresholdMs = DEFAULT_JUMP_THRESHOLD_MS;
+    private float mMinSpeed = DEFAULT_MIN_SPEED;
+    private float mMaxSpeed = DEFAULT_MAX_SPEED;
+
+    private float mSpeed = 1;
+    private boolean mCatchingUp;
+    private long mLastJumpAt = -1;
+    private long mLastSampleAt = -1;
+    private long mLatencyMs = -1;
+    private long mCatchUpMs;
+    private int mJumpCount;
+    private final LatencyHistogram mLatencies = new LatencyHistogram();
+
+    /**
+     * @param targetLatencyMs latency to hold, e.g. 2000-3000 for interactive streams
+     */
+    public synchronized void setTargetLatencyMs(long targetLatencyMs) {
+        if (targetLatencyMs <= 0)
+            throw new IllegalArgumentException("target latency must be positive");
+        mTargetLatencyMs = targetLatencyMs;
+    }
+
+    public synchronized long getTargetLatencyMs() {
+        return mTargetLatencyMs;
+    }
+
+    /**
+     * @param jumpThresholdMs latency beyond which the stream is reopened at the live edge, 0 never
+     *                        jumps
+     */
+    public synchronized void setJumpThresholdMs(long jumpThresholdMs) {
+        mJumpThresholdMs = jumpThresholdMs;
+    }
+
+    public synchronized long getJumpThresholdMs() {
+        return mJumpThresholdMs;
+    }
+
+    /**
+     * @param minSpeed speed used just past the tolerance, e.g. 1.05
+     * @param maxSpeed speed used as the latency nears the jump threshold, e.g. 1.25
+     */
+    public synchronized void setCatchUpSpeeds(float minSpeed, float maxSpeed) {
+        if (minSpeed < 1 || maxSpeed < minSpeed)
+            throw new IllegalArgumentException("need 1 <= minSpeed <= maxSpeed");
+        mMinSpeed = minSpeed;
+        mMaxSpeed = maxSpeed;
+    }
+
+    /**
+     * Forgets the catch-up state, for a newly opened stream. Metrics are kept.
+     */
+    public synchronized void reset() {
+        mSpeed = 1;
+        mCatchingUp = false;
+        mLastSampleAt = -1;
+        mLatencyMs = -1;
+    }
+
+    public int update(long latencyMs) {
+        return update(latencyMs, System.nanoTime() / 1000000);
+    }
+
+    /**
+     * Takes a latency sample.
+     *
+     * @return {@link #ACTION_SET_SPEED} if {@link #getSpeed()} changed, {@link #ACTION_JUMP} if the
+     * stream should be reopened at the live edge, otherwise {@link #ACTION_NONE}
+     */
+    synchronized int update(long latencyMs, long now) {
+        if (mLastSampleAt >= 0 && mSpeed > 1)
+            mCatchUpMs += now - mLastSampleAt;
+        mLastSampleAt = now;
+        if (latencyMs < 0)
+            return ACTION_NONE;
+        mLatencyMs = latencyMs;
+        mLatencies.record(latencyMs);
+
+        if (mJumpThresholdMs > 0 && latencyMs > mJumpThresholdMs
+                && (mLastJumpAt < 0 || now - mLastJumpAt >= MIN_JUMP_INTERVAL_MS)) {
+            mLastJumpAt = now;
+            mJumpCount++;
+            mCatchingUp = false;
+            mSpeed = 1;
+            return ACTION_JUMP;
+        }
+
+        long excess = latencyMs - mTargetLatencyMs;
+        if (mCatchingUp && excess <= 0)
+            mCatchingUp = false;
+        else if (!mCatchingUp && excess > TOLERANCE_MS)
+            mCatchingUp = true;
+
+        float speed = 1;
+        if (mCatchingUp) {
+            long range = Math.max(TOLERANCE_MS, mJumpThresholdMs - mTargetLatencyMs);
+            float fraction = Math.min(1f, (float) excess / range);
+            speed = mMinSpeed + (mMaxSpeed - mMinSpeed) * fraction;
+            speed = Math.round(speed / SPEED_STEP) * SPEED_STEP;
+        }
+        if (Math.abs(speed - mSpeed) < SPEED_STEP / 2)
+            return ACTION_NONE;
+        mSpeed = speed;
+        return ACTION_SET_SPEED;
+    }
+
+    /**
+     * @return playback speed to apply, 1 when not catching up
+     */
+    public synchronized float getSpeed() {
+        return mSpeed;
+    }
+
+    public synchronized boolean isCatchingUp() {
+        return mCatchingUp;
+    }
+
+    /**
+     * @return the last latency sample, -1 before the first
+     */
+    public synchronized long getLatencyMs() {
+        return mLatencyMs;
+    }
+
+    /**
+     * @return distribution of all latency samples
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return mLatencies;
+    }
+
+    public synchronized int getJumpCount() {
+        return mJumpCount;
+    }
+
+    /**
+     * @return time spent playing faster than real time
+     */
+    public synchronized long getCatchUpMs() {
+        return mCatchUpMs;
+    }
+}
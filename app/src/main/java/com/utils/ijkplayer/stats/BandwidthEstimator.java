@@ -0,0 +1,146 @@
+package com.utils.ijkplayer.stats;
+
+/**
+ * Network bandwidth estimate combining our own download timings with the rates ijkplayer
+ * reports through {@code MEDIA_INFO_NETWORK_BANDWIDTH}.
+ * <p>
+ * Two exponentially weighted averages with different half-lives are kept, weighted by how
+ * long each sample took, and the lower of the two is the estimate: a drop shows up quickly
+ * through the fast average, a recovery only once the slow one follows. Samples too small to
+ * time reliably are ignored, and once the estimate has settled each sample is clamped to
+ * {@link #OUTLIER_FACTOR} times the current estimate either way, so a single cache-speed
+ * burst or stalled connection can't swing it.
+ * <p>
+ * Samples are added under a lock; {@link #getEstimate()} only reads a volatile and can be
+ * called from any thread as often as needed.
+ */
+public class BandwidthEstimator {
+    public static final long DEFAULT_ESTIMATE = 1000000;
+    static final double FAST_HALF_LIFE_SECONDS = 2;
+    static final double SLOW_HALF_LIFE_SECONDS = 5;
+    static final double OUTLIER_FACTOR = 4;
+    static final long MIN_SAMPLE_BYTES = 16 * 1024;
+    // samples needed before the averages are trusted over the default
+    static final long MIN_TOTAL_BYTES = 128 * 1024;
+    // weight given to a rate report, which comes without a duration
+    static final double REPORT_WEIGHT_SECONDS = 1;
+
+    private final Ewma mFast = new Ewma(FAST_HALF_LIFE_SECONDS);
+    private final Ewma mSlow = new Ewma(SLOW_HALF_LIFE_SECONDS);
+    private final long mDefaultEstimate;
+    private long mTotalBytes;
+    private long mSampleCount;
+    private long mClampedCount;
+    private volatile long mEstimate;
+
+    public BandwidthEstimator() {
+        this(DEFAULT_ESTIMATE);
+    }
+
+    /**
+     * @param defaultEstimate bits per second reported until enough has been measured
+     */
+    public BandwidthEstimator(long defaultEstimate) {
+        mDefaultEstimate = defaultEstimate;
+        mEstimate = defaultEstimate;
+    }
+
+    /**
+     * Adds a finished transfer, e.g. a segment download.
+     */
+    public synchronized void addSample(long bytes, long durationNanos) {
+        if (bytes < MIN_SAMPLE_BYTES || durationNanos <= 0)
+            return;
+        double seconds = durationNanos / 1e9;
+        add(bytes * 8 / seconds, seconds);
+        mTotalBytes += bytes;
+        publish();
+    }
+
+    /**
+     * Adds a rate measured elsewhere, such as ijkplayer's {@code MEDIA_INFO_NETWORK_BANDWIDTH}.
+     */
+    public synchronized void addRate(long bitsPerSecond) {
+        if (bitsPerSecond <= 0)
+            return;
+        add(bitsPerSecond, REPORT_WEIGHT_SECONDS);
+        mTotalBytes += (long) (bitsPerSecond / 8 * REPORT_WEIGHT_SECONDS);
+        publish();
+    }
+
+    public synchronized void reset() {
+        mFast.reset();
+        mSlow.reset();
+        mTotalBytes = 0;
+        mSampleCount = 0;
+        mClampedCount = 0;
+        mEstimate = mDefaultEstimate;
+    }
+
+    /**
+     * @return estimated bandwidth in bits per second
+     */
+    public long getEstimate() {
+        return mEstimate;
+    }
+
+    public synchronized long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @return samples that were clamped as outliers
+     */
+    public synchronized long getClampedCount() {
+        return mClampedCount;
+    }
+
+    private void add(double bitsPerSecond, double weight) {
+        if (mTotalBytes >= MIN_TOTAL_BYTES) {
+            double estimate = mEstimate;
+            double clamped = Math.max(estimate / OUTLIER_FACTOR, Math.min(estimate * OUTLIER_FACTOR, bitsPerSecond));
+            if (clamped != bitsPerSecond)
+                mClampedCount++;
+            bitsPerSecond = clamped;
+        }
+        mFast.add(bitsPerSecond, weight);
+        mSlow.add(bitsPerSecond, weight);
+        mSampleCount++;
+    }
+
+    private void publish() {
+        if (mTotalBytes < MIN_TOTAL_BYTES)
+            return;
+        mEstimate = (long) Math.min(mFast.get(), mSlow.get());
+    }
+
+    /**
+     * Exponentially weighted average where a sample's weight is its duration, with the bias
+     * towards the zero start corrected.
+     */
+    private static final class Ewma {
+        private final double mAlpha;
+        private double mEstimate;
+        private double mTotalWeight;
+
+        Ewma(double halfLife) {
+            mAlpha = Math.exp(Math.log(0.5) / halfLife);
+        }
+
+        void add(double value, double weight) {
+            double alpha = Math.pow(mAlpha, weight);
+            mEstimate = value * (1 - alpha) + alpha * mEstimate;
+            mTotalWeight += weight;
+        }
+
+        double get() {
+            double zeroFactor = 1 - Math.pow(mAlpha, mTotalWeight);
+            return zeroFactor > 0 ? mEstimate / zeroFactor : 0;
+        }
+
+        void reset() {
+            mEstimate = 0;
+            mTotalWeight = 0;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.utils.ijkplayer.stats;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Fixed-size ring of player events for post-mortem analysis.
+ * <p>
+ * Each event is a timestamp, an event code and two int arguments stored in preallocated
+ * parallel arrays, so logging one allocates nothing and costs a few array writes; once the
+ * ring is full the oldest events are overwritten. Events are turned into text only when the
+ * ring is dumped, on demand or after an error, oldest first with wall-clock times.
+ */
+public class EventLog {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // event codes, with what their two arguments hold
+    public static final int EVENT_PLAY = 1;             // live 0/1, low latency 0/1
+    public static final int EVENT_STATUS = 2;           // new status, old status
+    public static final int EVENT_INFO = 3;             // what, extra
+    public static final int EVENT_ERROR = 4;            // what, extra
+    public static final int EVENT_COMPLETE = 5;         // position ms
+    public static final int EVENT_PAUSE = 6;            // position ms
+    public static final int EVENT_RESUME = 7;           // position ms
+    public static final int EVENT_SEEK = 8;             // target ms, position ms
+    public static final int EVENT_RECONNECT = 9;        // attempt, delay ms
+    public static final int EVENT_RECONNECTED = 10;     // outages recovered, longest outage ms
+    public static final int EVENT_LIVE_REOPEN = 11;     // paused or latency ms, REOPEN_*
+    public static final int EVENT_LIVE_SPEED = 12;      // speed percent, latency ms
+    public static final int EVENT_VOLUME = 13;          // volume percent, stream volume
+    public static final int EVENT_BRIGHTNESS = 14;      // brightness percent, change percent
+    public static final int EVENT_PROGRESS_SLIDE = 15;  // seconds moved, target ms
+    public static final int EVENT_STOP = 16;            // position ms
+    public static final int EVENT_DECODER = 17;         // DecoderPolicy.DECODER_*, 1 if the format was known
+    public static final int EVENT_DECODER_FALLBACK = 18; // what, extra
+    public static final int EVENT_RETAIN = 19;          // status, 1 if released unclaimed
+    public static final int EVENT_REATTACH = 20;        // ms detached, player state
+
+    public static final int REOPEN_RESUME = 0;
+    public static final int REOPEN_LATENCY = 1;
+
+    private static final String[] NAMES = {
+            "?", "play", "status", "info", "error", "complete", "pause", "resume", "seek",
+            "reconnect", "reconnected", "liveReopen", "liveSpeed", "volume", "brightness",
+            "progressSlide", "stop", "decoder", "decoderFallback", "retain", "reattach"
+    };
+
+    private final long[] mTimes;
+    private final int[] mCodes;
+    private final int[] mArgs1;
+    private final int[] mArgs2;
+    private final int mMask;
+    // total events logged, the next one goes to mCount & mMask
+    private long mCount;
+
+    public EventLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity events kept, rounded up to a power of two
+     */
+    public EventLog(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        mTimes = new long[size];
+        mCodes = new int[size];
+        mArgs1 = new int[size];
+        mArgs2 = new int[size];
+        mMask = size - 1;
+    }
+
+    public void log(int code, int arg1, int arg2) {
+        log(System.nanoTime() / 1000000, code, arg1, arg2);
+    }
+
+    synchronized void log(long timeMs, int code, int arg1, int arg2) {
+        int index = (int) (mCount & mMask);
+        mTimes[index] = timeMs;
+        mCodes[index] = code;
+        mArgs1[index] = arg1;
+        mArgs2[index] = arg2;
+        mCount++;
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return events currently held, at most the capacity
+     */
+    public synchronized int size() {
+        return (int) Math.min(mCount, mMask + 1);
+    }
+
+    /**
+     * @return events logged since creation or the last {@link #clear}, overwritten ones included
+     */
+    public synchronized long getTotalCount() {
+        return mCount;
+    }
+
+    /**
+     * @param age 0 for the newest event held
+     */
+    public synchronized int getCode(int age) {
+        return mCodes[index(age)];
+    }
+
+    public synchronized int getArg1(int age) {
+        return mArgs1[index(age)];
+    }
+
+    public synchronized int getArg2(int age) {
+        return mArgs2[index(age)];
+    }
+
+    public synchronized void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Writes the events held, oldest first, one per line, e.g.
+     * {@code 10-17 09:30:12.345 error -10000 -110}.
+     */
+    public void dump(Writer writer) throws IOException {
+        writer.write(toString());
+    }
+
+    /**
+     * Appends the events held to {@code file}.
+     */
+    public void dump(File file) throws IOException {
+        Writer writer = new FileWriter(file, true);
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        StringBuilder sb = new StringBuilder();
+        synchronized (this) {
+            // monotonic times are turned into wall-clock times against a clock read now
+            long offset = System.currentTimeMillis() - System.nanoTime() / 1000000;
+            for (int age = size() - 1; age >= 0; age--) {
+                int index = index(age);
+                int code = mCodes[index];
+                sb.append(format.format(new Date(mTimes[index] + offset)))
+                        .append(' ').append(code > 0 && code < NAMES.length ? NAMES[code] : String.valueOf(code))
+                        .append(' ').append(mArgs1[index])
+                        .append(' ').append(mArgs2[index])
+                        .append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private int index(int age) {
+        if (age < 0 || age >= size())
+            throw new IndexOutOfBoundsException("age " + age + ", size " + size());
+        return (int) ((mCount - 1 - age) & mMask);
+    }
+}
@@ -0,0 +1,100 @@
+package com.utils.ijkplayer.stats;
+
+/**
+ * Fixed-size histogram of millisecond latencies with bounded relative error.
+ * <p>
+ * Values below {@link #SUB_BUCKETS} ms get a bucket each; above that every power of two is split
+ * into {@code SUB_BUCKETS} equal buckets, so a reported percentile is within 1/SUB_BUCKETS
+ * (about 6%) of the true value. Recording is a couple of shifts and an array increment, with
+ * no allocation.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // enough for values up to 2^31 ms
+    private static final int GROUPS = 32 - SUB_BUCKET_BITS;
+
+    private final long[] mCounts = new long[SUB_BUCKETS * (GROUPS + 1)];
+    private long mCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    public synchronized void record(long valueMs) {
+        long value = Math.max(0, Math.min(valueMs, Integer.MAX_VALUE));
+        mCounts[indexOf(value)]++;
+        mCount++;
+        mSum += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mCounts.length; i++)
+            mCounts[i] = 0;
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMin() {
+        return mCount > 0 ? mMin : 0;
+    }
+
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    public synchronized double getMean() {
+        return mCount > 0 ? (double) mSum / mCount : 0;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the upper bound of the bucket holding that percentile, capped at the maximum
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (mCount == 0)
+            return 0;
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * mCount);
+        rank = Math.max(1, rank);
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank)
+                return Math.min(mMax, Math.max(mMin, upperBound(i)));
+        }
+        return mMax;
+    }
+
+    /**
+     * @return e.g. {@code n=120 p50=640 p90=910 p99=1480 max=2010}
+     */
+    public synchronized String summary() {
+        return "n=" + mCount + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+                + " p99=" + getPercentile(99) + " max=" + mMax;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int group = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        int sub = (int) (value >>> (group - 1)) & (SUB_BUCKETS - 1);
+        return group * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int index) {
+        int group = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        if (group == 0)
+            return sub;
+        long base = (long) SUB_BUCKETS << (group - 1);
+        long width = 1L << (group - 1);
+        return base + (sub + 1) * width - 1;
+    }
+}
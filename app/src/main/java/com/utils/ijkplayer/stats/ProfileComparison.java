@@ -0,0 +1,114 @@
+package com.utils.ijkplayer.stats;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Results of playing the same streams under several player option profiles, one line per
+ * profile so they can be compared side by side.
+ * <p>
+ * Startup times go into a {@link LatencyHistogram} per profile; stalls and CPU time are summed
+ * and reported per minute played, so runs of different lengths stay comparable.
+ */
+public class ProfileComparison {
+    private final Map<String, Totals> mProfiles = new LinkedHashMap<String, Totals>();
+
+    private static final class Totals {
+        final LatencyHistogram startup = new LatencyHistogram();
+        int runs;
+        int failures;
+        long stalls;
+        long stallMs;
+        long playMs;
+        long cpuMs;
+    }
+
+    /**
+     * Adds one playback of one stream.
+     *
+     * @param startupMs time to the first frame, -1 if it never came
+     * @param stalls    playback stalls, startup and seek stalls excluded
+     * @param stallMs   time spent in those playback stalls
+     * @param cpuMs     process CPU time used during the run
+     */
+    public synchronized void addRun(String profile, long startupMs, int stalls, long stallMs, long playMs,
+                                    long cpuMs) {
+        Totals totals = mProfiles.get(profile);
+        if (totals == null) {
+            totals = new Totals();
+            mProfiles.put(profile, totals);
+        }
+        totals.runs++;
+        if (startupMs < 0) {
+            totals.failures++;
+            return;
+        }
+        totals.startup.record(startupMs);
+        totals.stalls += stalls;
+        totals.stallMs += stallMs;
+        totals.playMs += playMs;
+        totals.cpuMs += cpuMs;
+    }
+
+    public synchronized List<String> getProfiles() {
+        return new ArrayList<String>(mProfiles.keySet());
+    }
+
+    public synchronized int getRunCount(String profile) {
+        Totals totals = mProfiles.get(profile);
+        return totals != null ? totals.runs : 0;
+    }
+
+    public synchronized int getFailureCount(String profile) {
+        Totals totals = mProfiles.get(profile);
+        return totals != null ? totals.failures : 0;
+    }
+
+    /**
+     * @return startup times of the profile's successful runs, null for an unknown profile
+     */
+    public synchronized LatencyHistogram getStartupHistogram(String profile) {
+        Totals totals = mProfiles.get(profile);
+        return totals != null ? totals.startup : null;
+    }
+
+    public synchronized double getStallsPerMinute(String profile) {
+        Totals totals = mProfiles.get(profile);
+        return totals != null && totals.playMs > 0 ? totals.stalls * 60000.0 / totals.playMs : 0;
+    }
+
+    /**
+     * @return CPU time per second played, 1000 is one core fully busy
+     */
+    public synchronized double getCpuMsPerSecond(String profile) {
+        Totals totals = mProfiles.get(profile);
+        return totals != null && totals.playMs > 0 ? totals.cpuMs * 1000.0 / totals.playMs : 0;
+    }
+
+    /**
+     * @return e.g. {@code default runs=6 failed=0 startup p50=640 p90=910 stalls/min=0.40
+     * rebuffer=1.20% cpu=310ms/s}, one line per profile in the order first seen
+     */
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Totals> entry : mProfiles.entrySet()) {
+            String profile = entry.getKey();
+            Totals totals = entry.getValue();
+            long total = totals.stallMs + totals.playMs;
+            sb.append(profile)
+                    .append(" runs=").append(totals.runs)
+                    .append(" failed=").append(totals.failures)
+                    .append(" startup p50=").append(totals.startup.getPercentile(50))
+                    .append(" p90=").append(totals.startup.getPercentile(90))
+                    .append(String.format(Locale.US, " stalls/min=%.2f", getStallsPerMinute(profile)))
+                    .append(String.format(Locale.US, " rebuffer=%.2f%%",
+                            total > 0 ? totals.stallMs * 100.0 / total : 0))
+                    .append(String.format(Locale.US, " cpu=%.0fms/s", getCpuMsPerSecond(profile)))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+}
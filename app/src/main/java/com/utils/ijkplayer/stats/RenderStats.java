@@ -0,0 +1,135 @@
+package com.utils.ijkplayer.stats;
+
+import java.util.Locale;
+
+/**
+ * Rendering cost and smoothness of one playback: the overlay format and its bytes per frame,
+ * the intervals between frames reaching the view, and the decode and output frame rates the
+ * player reports.
+ * <p>
+ * Frame intervals are only seen where the view reports frames ({@code TextureView}); with a
+ * {@code SurfaceView} the sampled output frame rate is all there is. A frame is late when it
+ * arrives more than {@link #LATE_FACTOR} frame durations after the previous one.
+ */
+public class RenderStats {
+    static final double LATE_FACTOR = 1.5;
+    // longer gaps are pauses or stalls, not rendering
+    static final long MAX_INTERVAL_MS = 1000;
+
+    private final LatencyHistogram mIntervals = new LatencyHistogram();
+    private String mFormat = "none";
+    private long mFrameBytes;
+    private float mFps;
+    private long mLastFrameAt = -1;
+    private long mFrameCount;
+    private long mLateCount;
+
+    private int mFpsSamples;
+    private double mOutputFpsSum;
+    private double mDecodeFpsSum;
+    private float mMinOutputFps = Float.MAX_VALUE;
+
+    public synchronized void reset() {
+        mIntervals.reset();
+        mFormat = "none";
+        mFrameBytes = 0;
+        mFps = 0;
+        mLastFrameAt = -1;
+        mFrameCount = 0;
+        mLateCount = 0;
+        mFpsSamples = 0;
+        mOutputFpsSum = 0;
+        mDecodeFpsSum = 0;
+        mMinOutputFps = Float.MAX_VALUE;
+    }
+
+    /**
+     * @param format     overlay format name, e.g. RV32, {@code none} if the decoder renders itself
+     * @param frameBytes bytes per frame in that format
+     * @param fps        stream frame rate, 0 if unknown
+     */
+    public synchronized void onFormat(String format, long frameBytes, float fps) {
+        mFormat = format;
+        mFrameBytes = frameBytes;
+        mFps = fps;
+    }
+
+    public void onFrame() {
+        onFrame(System.nanoTime() / 1000000);
+    }
+
+    synchronized void onFrame(long now) {
+        mFrameCount++;
+        if (mLastFrameAt >= 0) {
+            long interval = now - mLastFrameAt;
+            if (interval <= MAX_INTERVAL_MS) {
+                mIntervals.record(interval);
+                if (mFps > 0 && interval > LATE_FACTOR * 1000 / mFps)
+                    mLateCount++;
+            }
+        }
+        mLastFrameAt = now;
+    }
+
+    /**
+     * Adds the frame rates the player reports, sampled while playing.
+     */
+    public synchronized void onFpsSample(float outputFps, float decodeFps) {
+        if (outputFps <= 0 && decodeFps <= 0)
+            return;
+        mFpsSamples++;
+        mOutputFpsSum += outputFps;
+        mDecodeFpsSum += decodeFps;
+        mMinOutputFps = Math.min(mMinOutputFps, outputFps);
+    }
+
+    public synchronized String getFormat() {
+        return mFormat;
+    }
+
+    public synchronized long getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * @return overlay bytes written per second at the stream's frame rate
+     */
+    public synchronized long getBytesPerSecond() {
+        return (long) (mFrameBytes * (mFps > 0 ? mFps : getMeanOutputFps()));
+    }
+
+    public LatencyHistogram getFrameIntervalHistogram() {
+        return mIntervals;
+    }
+
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public synchronized long getLateFrameCount() {
+        return mLateCount;
+    }
+
+    public synchronized float getMeanOutputFps() {
+        return mFpsSamples > 0 ? (float) (mOutputFpsSum / mFpsSamples) : 0;
+    }
+
+    public synchronized float getMeanDecodeFps() {
+        return mFpsSamples > 0 ? (float) (mDecodeFpsSum / mFpsSamples) : 0;
+    }
+
+    public synchronized float getMinOutputFps() {
+        return mFpsSamples > 0 ? mMinOutputFps : 0;
+    }
+
+    /**
+     * @return e.g. {@code RV16 4147200B/frame 124.4MB/s fps out=29.8 min=27.0 decode=30.0
+     * interval p50=33 p90=41 late=1.2%}
+     */
+    public synchronized String report() {
+        return String.format(Locale.US, "%s %dB/frame %.1fMB/s fps out=%.1f min=%.1f decode=%.1f interval p50=%d p90=%d late=%.1f%%",
+                mFormat, mFrameBytes, getBytesPerSecond() / 1e6, getMeanOutputFps(), getMinOutputFps(),
+                getMeanDecodeFps(), mIntervals.getPercentile(50), mIntervals.getPercentile(90),
+                mIntervals.getCount() > 0 ? mLateCount * 100.0 / mIntervals.getCount() : 0);
+    }
+}
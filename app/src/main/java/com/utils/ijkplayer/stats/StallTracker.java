@@ -0,0 +1,285 @@
+package com.utils.ijkplayer.stats;
+
+/**
+ * Per-session rebuffering QoE built from the player's buffering start/end events.
+ * <p>
+ * Each stall is classified by what came before it: before or shortly after the first frame it
+ * is a {@link #TYPE_STARTUP} stall, shortly after a seek a {@link #TYPE_SEEK} stall, and
+ * otherwise a {@link #TYPE_PLAYBACK} stall, the one that counts as a real interruption. Play
+ * time excludes stalls and pauses, so the rebuffer ratio is stall time over stall plus play
+ * time.
+ * <p>
+ * All methods run on the thread that delivers player events; the overloads taking a
+ * timestamp exist for tests.
+ */
+public class StallTracker {
+    public static final int TYPE_STARTUP = 0;
+    public static final int TYPE_SEEK = 1;
+    public static final int TYPE_PLAYBACK = 2;
+
+    /**
+     * Stalls starting this long after the first frame or a seek are still blamed on it.
+     */
+    static final long STARTUP_WINDOW_MS = 3000;
+    static final long SEEK_WINDOW_MS = 2000;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private boolean mActive;
+    private long mFirstFrameAt = -1;
+    private long mLastSeekAt = -1;
+    private long mStallStartedAt = -1;
+    private int mStallType;
+    private long mPausedAt = -1;
+    // when play time last started counting, -1 while stalled, paused or before the first frame
+    private long mPlayingSince = -1;
+    private long mLastStallEndedAt = -1;
+
+    private long[] mStallDurations = new long[INITIAL_CAPACITY];
+    private int[] mStallTypes = new int[INITIAL_CAPACITY];
+    private int mStallCount;
+    private final int[] mTypeCounts = new int[3];
+    private final long[] mTypeStallMs = new long[3];
+    private long mStallMs;
+    private long mPlayMs;
+    private long mGapSumMs;
+    private int mGapCount;
+
+    public void onSessionStart() {
+        onSessionStart(now());
+    }
+
+    public void onFirstFrame() {
+        onFirstFrame(now());
+    }
+
+    public void onBufferingStart() {
+        onBufferingStart(now());
+    }
+
+    public void onBufferingEnd() {
+        onBufferingEnd(now());
+    }
+
+    public void onSeek() {
+        onSeek(now());
+    }
+
+    public void onPause() {
+        onPause(now());
+    }
+
+    public void onResume() {
+        onResume(now());
+    }
+
+    public void onSessionEnd() {
+        onSessionEnd(now());
+    }
+
+    synchronized void onSessionStart(long now) {
+        mActive = true;
+        mFirstFrameAt = -1;
+        mLastSeekAt = -1;
+        mStallStartedAt = -1;
+        mPausedAt = -1;
+        mPlayingSince = -1;
+        mLastStallEndedAt = -1;
+        mStallCount = 0;
+        mTypeCounts[TYPE_STARTUP] = mTypeCounts[TYPE_SEEK] = mTypeCounts[TYPE_PLAYBACK] = 0;
+        mTypeStallMs[TYPE_STARTUP] = mTypeStallMs[TYPE_SEEK] = mTypeStallMs[TYPE_PLAYBACK] = 0;
+        mStallMs = 0;
+        mPlayMs = 0;
+        mGapSumMs = 0;
+        mGapCount = 0;
+    }
+
+    synchronized void onFirstFrame(long now) {
+        if (!mActive || mFirstFrameAt >= 0)
+            return;
+        mFirstFrameAt = now;
+        // a stall reported before the first frame ends with it
+        if (mStallStartedAt >= 0)
+            endStall(now);
+        else if (mPausedAt < 0)
+            mPlayingSince = now;
+    }
+
+    synchronized void onBufferingStart(long now) {
+        if (!mActive || mStallStartedAt >= 0)
+            return;
+        stopPlayClock(now);
+        mStallStartedAt = now;
+        if (mFirstFrameAt < 0 || now - mFirstFrameAt < STARTUP_WINDOW_MS)
+            mStallType = TYPE_STARTUP;
+        else if (mLastSeekAt >= 0 && now - mLastSeekAt < SEEK_WINDOW_MS)
+            mStallType = TYPE_SEEK;
+        else
+            mStallType = TYPE_PLAYBACK;
+    }
+
+    synchronized void onBufferingEnd(long now) {
+        if (!mActive || mStallStartedAt < 0)
+            return;
+        endStall(now);
+    }
+
+    synchronized void onSeek(long now) {
+        if (mActive)
+            mLastSeekAt = now;
+    }
+
+    synchronized void onPause(long now) {
+        if (!mActive || mPausedAt >= 0)
+            return;
+        stopPlayClock(now);
+        mPausedAt = now;
+    }
+
+    synchronized void onResume(long now) {
+        if (!mActive || mPausedAt < 0)
+            return;
+        mPausedAt = -1;
+        if (mFirstFrameAt >= 0 && mStallStartedAt < 0)
+            mPlayingSince = now;
+    }
+
+    synchronized void onSessionEnd(long now) {
+        if (!mActive)
+            return;
+        if (mStallStartedAt >= 0)
+            endStall(now);
+        stopPlayClock(now);
+        mActive = false;
+    }
+
+    private void endStall(long now) {
+        long duration = now - mStallStartedAt;
+        if (mStallCount == mStallDurations.length) {
+            long[] durations = new long[mStallCount * 2];
+            int[] types = new int[mStallCount * 2];
+            System.arraycopy(mStallDurations, 0, durations, 0, mStallCount);
+            System.arraycopy(mStallTypes, 0, types, 0, mStallCount);
+            mStallDurations = durations;
+            mStallTypes = types;
+        }
+        mStallDurations[mStallCount] = duration;
+        mStallTypes[mStallCount] = mStallType;
+        mStallCount++;
+        mTypeCounts[mStallType]++;
+        mTypeStallMs[mStallType] += duration;
+        mStallMs += duration;
+
+        long previous = mLastStallEndedAt >= 0 ? mLastStallEndedAt : mFirstFrameAt;
+        if (previous >= 0 && mStallType == TYPE_PLAYBACK) {
+            mGapSumMs += mStallStartedAt - previous;
+            mGapCount++;
+        }
+        mLastStallEndedAt = now;
+        mStallStartedAt = -1;
+        if (mFirstFrameAt >= 0 && mPausedAt < 0)
+            mPlayingSince = now;
+    }
+
+    private void stopPlayClock(long now) {
+        if (mPlayingSince >= 0) {
+            mPlayMs += now - mPlayingSince;
+            mPlayingSince = -1;
+        }
+    }
+
+    /**
+     * @return true between session start and end
+     */
+    public synchronized boolean isActive() {
+        return mActive;
+    }
+
+    public synchronized boolean isStalled() {
+        return mStallStartedAt >= 0;
+    }
+
+    /**
+     * @return finished stalls of all types
+     */
+    public synchronized int getStallCount() {
+        return mStallCount;
+    }
+
+    public synchronized int getStallCount(int type) {
+        return mTypeCounts[type];
+    }
+
+    /**
+     * @return duration of the {@code index}th finished stall of the session
+     */
+    public synchronized long getStallDurationMs(int index) {
+        if (index < 0 || index >= mStallCount)
+            throw new IndexOutOfBoundsException("stall " + index + " of " + mStallCount);
+        return mStallDurations[index];
+    }
+
+    public synchronized int getStallType(int index) {
+        if (index < 0 || index >= mStallCount)
+            throw new IndexOutOfBoundsException("stall " + index + " of " + mStallCount);
+        return mStallTypes[index];
+    }
+
+    public synchronized long getTotalStallMs() {
+        return mStallMs;
+    }
+
+    /**
+     * @return time spent in finished stalls of {@code type}
+     */
+    public synchronized long getStallMs(int type) {
+        return mTypeStallMs[type];
+    }
+
+    public synchronized long getLongestStallMs() {
+        long longest = 0;
+        for (int i = 0; i < mStallCount; i++)
+            longest = Math.max(longest, mStallDurations[i]);
+        return longest;
+    }
+
+    public synchronized long getPlayMs() {
+        return mPlayMs;
+    }
+
+    /**
+     * @return stall time / (stall time + play time), 0 before anything was played
+     */
+    public synchronized double getRebufferRatio() {
+        long total = mStallMs + mPlayMs;
+        return total > 0 ? (double) mStallMs / total : 0;
+    }
+
+    /**
+     * @return mean time from the first frame or the end of a stall to the next playback stall,
+     * -1 if there was none
+     */
+    public synchronized long getMeanTimeBetweenStallsMs() {
+        return mGapCount > 0 ? mGapSumMs / mGapCount : -1;
+    }
+
+    /**
+     * @return e.g. {@code stalls=3 startup=1 seek=0 rebuffer=2 stall=4200ms max=2100ms
+     * played=190000ms ratio=2.16% mtbs=61000ms}
+     */
+    public synchronized String report() {
+        long ratio = Math.round(getRebufferRatio() * 10000);
+        return "stalls=" + mStallCount
+                + " startup=" + mTypeCounts[TYPE_STARTUP]
+                + " seek=" + mTypeCounts[TYPE_SEEK]
+                + " rebuffer=" + mTypeCounts[TYPE_PLAYBACK]
+                + " stall=" + mStallMs + "ms"
+                + " max=" + getLongestStallMs() + "ms"
+                + " played=" + mPlayMs + "ms"
+                + " ratio=" + ratio / 100 + "." + (ratio % 100 < 10 ? "0" : "") + ratio % 100 + "%"
+                + " mtbs=" + getMeanTimeBetweenStallsMs() + "ms";
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
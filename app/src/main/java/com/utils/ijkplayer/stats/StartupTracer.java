@@ -0,0 +1,175 @@
+package com.utils.ijkplayer.stats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Time-to-first-frame instrumentation. A session starts at {@link #begin()} (the app's
+ * {@code play()}) and ends at the first rendered video frame; every stage in between is stamped
+ * with {@link System#nanoTime()} as an offset from the start.
+ * <p>
+ * Finished sessions feed one {@link LatencyHistogram} per stage, so each stage's percentiles
+ * describe how long after {@code play()} it was reached; {@link #getLastBreakdown()} shows the
+ * gaps between stages of the latest session. Stages may be skipped (the surface usually
+ * exists already when a second video is played) and are then left out.
+ */
+public class StartupTracer {
+    public static final int STAGE_PLAY = 0;
+    public static final int STAGE_SURFACE_CREATED = 1;
+    public static final int STAGE_OPEN_VIDEO = 2;
+    public static final int STAGE_SET_DATA_SOURCE = 3;
+    public static final int STAGE_PREPARE_ASYNC = 4;
+    public static final int STAGE_PREPARED = 5;
+    public static final int STAGE_AUDIO_RENDERING = 6;
+    public static final int STAGE_VIDEO_RENDERING = 7;
+    public static final int STAGE_COUNT = 8;
+
+    private static final String[] STAGE_NAMES = {
+            "play", "surfaceCreated", "openVideo", "setDataSource",
+            "prepareAsync", "prepared", "firstAudio", "firstVideo"
+    };
+
+    private final long[] mStamps = new long[STAGE_COUNT];
+    private final long[] mLastOffsets = new long[STAGE_COUNT];
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_COUNT];
+    private boolean mActive;
+    private boolean mHasLast;
+    private long mSessionCount;
+
+    public StartupTracer() {
+        for (int i = 0; i < STAGE_COUNT; i++)
+            mHistograms[i] = new LatencyHistogram();
+    }
+
+    public static String stageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Starts a new session, abandoning an unfinished one.
+     */
+    public synchronized void begin() {
+        for (int i = 0; i < STAGE_COUNT; i++)
+            mStamps[i] = -1;
+        mStamps[STAGE_PLAY] = System.nanoTime();
+        mActive = true;
+    }
+
+    /**
+     * Stamps {@code stage} if it hasn't been reached yet in this session. An
+     * {@link #STAGE_OPEN_VIDEO} outside a session starts one, so reopens that don't go through
+     * {@code play()} (resume, retry) are measured from there.
+     */
+    public synchronized void mark(int stage) {
+        if (!mActive) {
+            if (stage != STAGE_OPEN_VIDEO)
+                return;
+            begin();
+        }
+        if (mStamps[stage] >= 0)
+            return;
+        mStamps[stage] = System.nanoTime();
+        if (stage == STAGE_VIDEO_RENDERING)
+            finish();
+    }
+
+    public synchronized boolean isActive() {
+        return mActive;
+    }
+
+    private void finish() {
+        long start = mStamps[STAGE_PLAY];
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            if (mStamps[i] < 0 || mStamps[i] < start) {
+                mLastOffsets[i] = -1;
+                continue;
+            }
+            mLastOffsets[i] = (mStamps[i] - start) / 1000000;
+            if (i != STAGE_PLAY)
+                mHistograms[i].record(mLastOffsets[i]);
+        }
+        mActive = false;
+        mHasLast = true;
+        mSessionCount++;
+    }
+
+    /**
+     * @return ms from {@code play()} to the first video frame in the last finished session, or
+     * -1 if there is none
+     */
+    public synchronized long getLastTtffMs() {
+        return mHasLast ? mLastOffsets[STAGE_VIDEO_RENDERING] : -1;
+    }
+
+    /**
+     * @return ms from {@code play()} to {@code stage} in the last finished session, -1 if the
+     * stage was skipped
+     */
+    public synchronized long getLastOffsetMs(int stage) {
+        return mHasLast ? mLastOffsets[stage] : -1;
+    }
+
+    /**
+     * @return the last session as stage gaps, e.g.
+     * {@code openVideo +3ms, setDataSource +12ms, ..., firstVideo +210ms = 684ms}
+     */
+    public synchronized String getLastBreakdown() {
+        if (!mHasLast)
+            return "";
+        StringBuilder sb = new StringBuilder();
+        long previous = 0;
+        for (int i = 1; i < STAGE_COUNT; i++) {
+            long offset = mLastOffsets[i];
+            if (offset < 0)
+                continue;
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(STAGE_NAMES[i]).append(" +").append(offset - previous).append("ms");
+            previous = offset;
+        }
+        return sb.append(" = ").append(mLastOffsets[STAGE_VIDEO_RENDERING]).append("ms").toString();
+    }
+
+    public synchronized long getSessionCount() {
+        return mSessionCount;
+    }
+
+    /**
+     * @return time from {@code play()} to {@code stage} over all finished sessions
+     */
+    public LatencyHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    public LatencyHistogram getTtffHistogram() {
+        return mHistograms[STAGE_VIDEO_RENDERING];
+    }
+
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("sessions=").append(mSessionCount).append('\n');
+        for (int i = 1; i < STAGE_COUNT; i++)
+            sb.append(STAGE_NAMES[i]).append(' ').append(mHistograms[i].summary()).append('\n');
+        if (mHasLast)
+            sb.append("last ").append(getLastBreakdown()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Appends a time-stamped {@link #report()} to {@code file}, so reports from several runs
+     * or releases can be compared.
+     */
+    public void dump(File file) throws IOException {
+        String report = report();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            writer.write("# " + System.currentTimeMillis() + '\n');
+            writer.write(report);
+        } finally {
+            writer.close();
+        }
+    }
+}
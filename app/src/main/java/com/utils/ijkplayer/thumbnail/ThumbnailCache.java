@@ -0,0 +1,274 @@
+package com.utils.ijkplayer.thumbnail;
+
+import com.utils.ijkplayer.hls.SegmentDiskCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encoded preview thumbnails of VOD sources, keyed by source and time bucket.
+ * <p>
+ * A thumbnail is kept as the few kilobytes of its JPEG rather than as a bitmap, both in a
+ * memory LRU bounded by bytes and in a size-bounded directory that survives the process, so a
+ * video scrubbed again later doesn't have to be decoded again. Bucket {@code n} stands for the
+ * frame at {@code n} intervals into the video, see {@link #bucketOf(long, long)}.
+ * <p>
+ * {@link #getFromMemory} never touches the disk and is what the UI thread asks; {@link #get}
+ * falls back to the directory and belongs on a background thread. Disk writes and trimming
+ * hold a lock of their own, so they never keep the memory side waiting.
+ */
+public class ThumbnailCache {
+    private static final String SUFFIX = ".jpg";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDir;
+    private final long mMaxDiskBytes;
+    private final long mMaxMemoryBytes;
+    // serializes writes and trims of mDir; never held together with the memory lock
+    private final Object mDiskLock = new Object();
+
+    // access ordered, least recently used first
+    private final LinkedHashMap<String, byte[]> mEntries = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+    private long mMemoryBytes;
+
+    private long mHitCount;
+    private long mDiskHitCount;
+    private long mMissCount;
+
+    /**
+     * @param dir null keeps thumbnails in memory only
+     */
+    public ThumbnailCache(File dir, long maxMemoryBytes, long maxDiskBytes) {
+        if (maxMemoryBytes <= 0)
+            throw new IllegalArgumentException("maxMemoryBytes must be positive");
+        mDir = dir;
+        mMaxMemoryBytes = maxMemoryBytes;
+        mMaxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * @return the bucket nearest to {@code positionMs}
+     */
+    public static int bucketOf(long positionMs, long intervalMs) {
+        if (positionMs <= 0)
+            return 0;
+        return (int) ((positionMs + intervalMs / 2) / intervalMs);
+    }
+
+    /**
+     * @return the key {@code source} is stored under, to be passed to the other methods
+     */
+    public static String sourceKey(String source) {
+        return SegmentDiskCache.keyFor(source);
+    }
+
+    /**
+     * @return the JPEG of the thumbnail if it is in memory, null otherwise
+     */
+    public synchronized byte[] getFromMemory(String sourceKey, int bucket) {
+        byte[] data = mEntries.get(entryKey(sourceKey, bucket));
+        if (data != null)
+            mHitCount++;
+        else
+            mMissCount++;
+        return data;
+    }
+
+    /**
+     * Looks in memory, then on disk; a thumbnail found on disk is brought into memory.
+     *
+     * @return the JPEG of the thumbnail, null if it was never stored or has been evicted
+     */
+    public byte[] get(String sourceKey, int bucket) {
+        String key = entryKey(sourceKey, bucket);
+        synchronized (this) {
+            byte[] data = mEntries.get(key);
+            if (data != null)
+                return data;
+        }
+        if (mDir == null)
+            return null;
+        File file = new File(mDir, key + SUFFIX);
+        byte[] data;
+        try {
+            data = readFile(file);
+        } catch (IOException e) {
+            return null;
+        }
+        if (data == null)
+            return null;
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        synchronized (this) {
+            mDiskHitCount++;
+            putInMemory(key, data);
+        }
+        return data;
+    }
+
+    /**
+     * @return true if the thumbnail is in memory or on disk
+     */
+    public boolean contains(String sourceKey, int bucket) {
+        String key = entryKey(sourceKey, bucket);
+        synchronized (this) {
+            if (mEntries.containsKey(key))
+                return true;
+        }
+        return mDir != null && new File(mDir, key + SUFFIX).isFile();
+    }
+
+    /**
+     * Stores {@code jpeg} in memory and writes it through to disk. The array is kept, not copied.
+     */
+    public void put(String sourceKey, int bucket, byte[] jpeg) {
+        String key = entryKey(sourceKey, bucket);
+        synchronized (this) {
+            putInMemory(key, jpeg);
+        }
+        if (mDir != null) {
+            try {
+                write(key, jpeg);
+            } catch (IOException e) {
+                // the memory copy still serves this session
+            }
+        }
+    }
+
+    public synchronized void clearMemory() {
+        mEntries.clear();
+        mMemoryBytes = 0;
+    }
+
+    public synchronized int getMemoryCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return thumbnails brought back into memory from disk
+     */
+    public synchronized long getDiskHitCount() {
+        return mDiskHitCount;
+    }
+
+    public long getDiskBytes() {
+        long total = 0;
+        File[] files = mDir != null ? mDir.listFiles() : null;
+        if (files != null) {
+            for (File file : files)
+                total += file.length();
+        }
+        return total;
+    }
+
+    private static String entryKey(String sourceKey, int bucket) {
+        return sourceKey + '-' + bucket;
+    }
+
+    private void putInMemory(String key, byte[] data) {
+        byte[] old = mEntries.put(key, data);
+        if (old != null)
+            mMemoryBytes -= old.length;
+        mMemoryBytes += data.length;
+        Iterator<Map.Entry<String, byte[]>> it = mEntries.entrySet().iterator();
+        while (mMemoryBytes > mMaxMemoryBytes && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            if (eldest.getValue() == data)
+                break;
+            mMemoryBytes -= eldest.getValue().length;
+            it.remove();
+        }
+    }
+
+    private void write(String key, byte[] data) throws IOException {
+        synchronized (mDiskLock) {
+            if (!mDir.isDirectory() && !mDir.mkdirs())
+                throw new IOException("cannot create cache dir " + mDir);
+            File temp = File.createTempFile(key, TEMP_SUFFIX, mDir);
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            File file = new File(mDir, key + SUFFIX);
+            if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                throw new IOException("cannot commit " + file);
+            }
+            trim();
+        }
+    }
+
+    private void trim() {
+        File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        if (total <= mMaxDiskBytes)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= mMaxDiskBytes)
+                break;
+            if (file.getName().endsWith(TEMP_SUFFIX))
+                continue;
+            long length = file.length();
+            if (file.delete())
+                total -= length;
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        if (!file.isFile())
+            return null;
+        long length = file.length();
+        if (length <= 0 || length > Integer.MAX_VALUE)
+            return null;
+        byte[] data = new byte[(int) length];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0)
+                    return null;
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
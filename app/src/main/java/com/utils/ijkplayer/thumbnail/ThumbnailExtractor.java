@@ -0,0 +1,350 @@
+package com.utils.ijkplayer.thumbnail;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Decodes preview thumbnails of one VOD source at fixed intervals, on a background thread of
+ * the lowest priority, into a {@link ThumbnailCache}.
+ * <p>
+ * Frames come from a {@link MediaMetadataRetriever} of their own, with its own connection and
+ * decoder, so the player's buffers and position are never touched. Only the key frame nearest
+ * to each bucket is decoded, which is much cheaper than seeking to the exact time. The thread
+ * sweeps the buckets from the start and skips those already cached; a bucket asked for with
+ * {@link #request(long)} jumps the queue and is reported to the {@link Callback} once ready.
+ * Network sources pause between sweep steps so the extra connection doesn't compete with the
+ * player for bandwidth.
+ */
+public class ThumbnailExtractor {
+    public static final long DEFAULT_INTERVAL_MS = 10000;
+    public static final int DEFAULT_MAX_SIZE = 240;
+    static final int MAX_BUCKETS = 360;
+    static final int JPEG_QUALITY = 70;
+    static final long NETWORK_SWEEP_PAUSE_MS = 500;
+
+    public interface Callback {
+        /**
+         * Called on the main thread when a requested thumbnail that wasn't in memory is ready.
+         */
+        void onThumbnail(int bucket, byte[] jpeg);
+    }
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ThumbnailCache mCache;
+    private final String mSource;
+    private final String mSourceKey;
+    private final Map<String, String> mHeaders;
+    private final boolean mLocal;
+    private long mMinIntervalMs = DEFAULT_INTERVAL_MS;
+    private int mMaxSize = DEFAULT_MAX_SIZE;
+    private volatile Callback mCallback;
+
+    // guarded by this
+    private Thread mThread;
+    private boolean mClosed;
+    private long mIntervalMs;
+    private int mBucketCount;
+    private int mRequestedBucket = -1;
+    private long mExtractCount;
+    private long mExtractNanos;
+    private long mFailureCount;
+
+    /**
+     * @param source  a file path, {@code file://} or {@code http(s)://} url
+     * @param headers request headers for network sources, may be null
+     */
+    public ThumbnailExtractor(ThumbnailCache cache, String source, Map<String, String> headers) {
+        mCache = cache;
+        mSource = source;
+        mSourceKey = ThumbnailCache.sourceKey(source);
+        mHeaders = headers;
+        mLocal = isLocal(source);
+    }
+
+    public static boolean isLocal(String source) {
+        return source.startsWith("/") || source.startsWith("file:");
+    }
+
+    /**
+     * @return true for sources a retriever can read without a Context
+     */
+    public static boolean isSupported(String source) {
+        return isLocal(source) || source.startsWith("http://") || source.startsWith("https://");
+    }
+
+    /**
+     * @param intervalMs shortest time between thumbnails, longer videos get a longer interval so
+     *                   that there are at most {@link #MAX_BUCKETS}; set before {@link #start}
+     */
+    public void setMinIntervalMs(long intervalMs) {
+        if (intervalMs <= 0)
+            throw new IllegalArgumentException("intervalMs must be positive");
+        mMinIntervalMs = intervalMs;
+    }
+
+    /**
+     * @param maxSize longest side of a thumbnail in pixels; set before {@link #start}
+     */
+    public void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Starts the extraction thread; does nothing if started or closed before.
+     *
+     * @param durationMs duration the player reports, 0 to have the retriever read it
+     */
+    public synchronized void start(long durationMs) {
+        if (mThread != null || mClosed)
+            return;
+        if (durationMs > 0)
+            setDuration(durationMs);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                extractLoop();
+            }
+        }, "thumbnail-extractor");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops the thread after the frame it is decoding; the cache keeps what was extracted.
+     */
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    public String getSource() {
+        return mSource;
+    }
+
+    /**
+     * @return milliseconds between thumbnails, 0 until the duration is known
+     */
+    public synchronized long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    /**
+     * @return the bucket shown for {@code positionMs}, -1 until the duration is known
+     */
+    public synchronized int bucketOf(long positionMs) {
+        if (mIntervalMs <= 0)
+            return -1;
+        return Math.min(ThumbnailCache.bucketOf(positionMs, mIntervalMs), mBucketCount - 1);
+    }
+
+    /**
+     * Returns the thumbnail for {@code positionMs} if it is in memory; otherwise has it loaded
+     * or decoded next and reported to the callback. Doesn't block, call it from the UI thread.
+     *
+     * @return the JPEG of the thumbnail, null if it isn't in memory yet
+     */
+    public byte[] request(long positionMs) {
+        int bucket = bucketOf(positionMs);
+        if (bucket < 0)
+            return null;
+        byte[] data = mCache.getFromMemory(mSourceKey, bucket);
+        if (data == null) {
+            synchronized (this) {
+                mRequestedBucket = bucket;
+                notifyAll();
+            }
+        }
+        return data;
+    }
+
+    public synchronized long getExtractCount() {
+        return mExtractCount;
+    }
+
+    public synchronized long getMeanExtractMs() {
+        return mExtractCount > 0 ? mExtractNanos / mExtractCount / 1000000 : 0;
+    }
+
+    public synchronized long getFailureCount() {
+        return mFailureCount;
+    }
+
+    private synchronized void setDuration(long durationMs) {
+        long interval = Math.max(mMinIntervalMs, (durationMs + MAX_BUCKETS - 1) / MAX_BUCKETS);
+        mIntervalMs = interval;
+        mBucketCount = (int) (durationMs / interval) + 1;
+    }
+
+    private void extractLoop() {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            if (!open(retriever))
+                return;
+            int next = 0;
+            while (true) {
+                int bucket;
+                boolean requested;
+                synchronized (this) {
+                    while (!mClosed && mRequestedBucket < 0 && next >= mBucketCount) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mClosed)
+                        return;
+                    requested = mRequestedBucket >= 0;
+                    if (requested) {
+                        bucket = mRequestedBucket;
+                        mRequestedBucket = -1;
+                    } else {
+                        bucket = next++;
+                    }
+                }
+                if (requested) {
+                    byte[] data = mCache.get(mSourceKey, bucket);
+                    if (data == null)
+                        data = extract(retriever, bucket);
+                    if (data != null)
+                        deliver(bucket, data);
+                } else if (!mCache.contains(mSourceKey, bucket)) {
+                    extract(retriever, bucket);
+                    if (!mLocal && !pause())
+                        return;
+                }
+            }
+        } finally {
+            retriever.release();
+        }
+    }
+
+    /**
+     * @return false if the source can't be opened or its duration is unknown
+     */
+    private boolean open(MediaMetadataRetriever retriever) {
+        try {
+            if (mLocal) {
+                String path = mSource.startsWith("file:") ? Uri.parse(mSource).getPath() : mSource;
+                retriever.setDataSource(path);
+            } else {
+                retriever.setDataSource(mSource, mHeaders != null ? mHeaders : Collections.<String, String>emptyMap());
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                mFailureCount++;
+            }
+            return false;
+        }
+        synchronized (this) {
+            if (mIntervalMs > 0)
+                return true;
+        }
+        String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+        try {
+            long durationMs = duration != null ? Long.parseLong(duration) : 0;
+            if (durationMs <= 0)
+                return false;
+            setDuration(durationMs);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Waits between sweep steps, or until a request comes in.
+     *
+     * @return false if closed meanwhile
+     */
+    private synchronized boolean pause() {
+        if (!mClosed && mRequestedBucket < 0) {
+            try {
+                wait(NETWORK_SWEEP_PAUSE_MS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return !mClosed;
+    }
+
+    private byte[] extract(MediaMetadataRetriever retriever, int bucket) {
+        long start = System.nanoTime();
+        long timeUs;
+        synchronized (this) {
+            timeUs = bucket * mIntervalMs * 1000;
+        }
+        Bitmap frame;
+        try {
+            frame = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1
+                    ? getScaledFrame(retriever, timeUs) : getFrame(retriever, timeUs);
+        } catch (RuntimeException e) {
+            frame = null;
+        }
+        if (frame == null) {
+            synchronized (this) {
+                mFailureCount++;
+            }
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        frame.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        frame.recycle();
+        byte[] data = out.toByteArray();
+        mCache.put(mSourceKey, bucket, data);
+        synchronized (this) {
+            mExtractCount++;
+            mExtractNanos += System.nanoTime() - start;
+        }
+        return data;
+    }
+
+    @TargetApi(Build.VERSION_CODES.O_MR1)
+    private Bitmap getScaledFrame(MediaMetadataRetriever retriever, long timeUs) {
+        // the retriever scales while converting, the full-size frame is never allocated
+        return retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, mMaxSize, mMaxSize);
+    }
+
+    private Bitmap getFrame(MediaMetadataRetriever retriever, long timeUs) {
+        Bitmap frame = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        if (frame == null)
+            return null;
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (width <= mMaxSize && height <= mMaxSize)
+            return frame;
+        float scale = (float) mMaxSize / Math.max(width, height);
+        Bitmap scaled = Bitmap.createScaledBitmap(frame, Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)), true);
+        if (scaled != frame)
+            frame.recycle();
+        return scaled;
+    }
+
+    private void deliver(final int bucket, final byte[] data) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callback callback = mCallback;
+                if (callback != null)
+                    callback.onThumbnail(bucket, data);
+            }
+        });
+    }
+}
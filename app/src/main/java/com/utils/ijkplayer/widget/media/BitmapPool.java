@@ -0,0 +1,111 @@
+package com.utils.ijkplayer.widget.media;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A few mutable bitmaps of one config kept for reuse, so that grabbing frames over and over
+ * doesn't allocate and free a full-size bitmap each time.
+ * <p>
+ * {@link #acquire} prefers an idle bitmap of exactly the requested size, then, from KitKat on,
+ * one large enough to be reconfigured to it, and only then creates one. Bitmaps handed back
+ * beyond the capacity are recycled.
+ */
+public class BitmapPool {
+    private final int mCapacity;
+    private final Bitmap.Config mConfig;
+    private final ArrayDeque<Bitmap> mIdle = new ArrayDeque<Bitmap>();
+
+    private long mAcquireCount;
+    private long mReuseCount;
+    private long mCreateCount;
+
+    public BitmapPool(int capacity, Bitmap.Config config) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        mCapacity = capacity;
+        mConfig = config;
+    }
+
+    /**
+     * @return a mutable bitmap of {@code width} x {@code height}, with undefined content
+     */
+    public synchronized Bitmap acquire(int width, int height) {
+        mAcquireCount++;
+        Iterator<Bitmap> it = mIdle.iterator();
+        while (it.hasNext()) {
+            Bitmap bitmap = it.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                it.remove();
+                mReuseCount++;
+                return bitmap;
+            }
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Bitmap bitmap = reconfigureIdle(width, height);
+            if (bitmap != null) {
+                mReuseCount++;
+                return bitmap;
+            }
+        }
+        mCreateCount++;
+        return Bitmap.createBitmap(width, height, mConfig);
+    }
+
+    /**
+     * Takes {@code bitmap} back for reuse; the caller must not touch it afterwards.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled())
+            return;
+        if (mIdle.size() < mCapacity)
+            mIdle.addFirst(bitmap);
+        else
+            bitmap.recycle();
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : mIdle)
+            bitmap.recycle();
+        mIdle.clear();
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    public synchronized long getAcquireCount() {
+        return mAcquireCount;
+    }
+
+    public synchronized long getReuseCount() {
+        return mReuseCount;
+    }
+
+    /**
+     * @return bitmaps allocated because no idle one fitted
+     */
+    public synchronized long getCreateCount() {
+        return mCreateCount;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private Bitmap reconfigureIdle(int width, int height) {
+        int bytesPerPixel = mConfig == Bitmap.Config.RGB_565 ? 2 : 4;
+        long needed = (long) width * height * bytesPerPixel;
+        Iterator<Bitmap> it = mIdle.iterator();
+        while (it.hasNext()) {
+            Bitmap bitmap = it.next();
+            if (bitmap.getAllocationByteCount() >= needed) {
+                it.remove();
+                bitmap.reconfigure(width, height, mConfig);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+}
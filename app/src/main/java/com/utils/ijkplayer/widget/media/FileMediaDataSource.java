@@ -19,38 +19,128 @@ package com.utils.ijkplayer.widget.media;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 
 import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
 
+/**
+ * Reads a local file with positional {@link FileChannel} reads, so there is no shared file
+ * pointer and any number of threads may call {@link #readAt} on the same instance at once.
+ * <p>
+ * Readers that need their own lifetime (the player closes its data source on release) should
+ * use {@link #share()}: every shared handle must be closed, and the file is closed with the
+ * last one.
+ * <p>
+ * A file channel closes itself when a thread blocked in it is interrupted, for every handle at
+ * once. The interrupted reader gets its {@link java.nio.channels.ClosedByInterruptException};
+ * the other readers reopen the file and carry on.
+ */
 public class FileMediaDataSource implements IMediaDataSource {
-    private RandomAccessFile mFile;
-    private long mFileSize;
+    /**
+     * The open file behind all handles of one {@link FileMediaDataSource}.
+     */
+    private static final class SharedFile {
+        final File file;
+        final long size;
+        RandomAccessFile raf;
+        volatile FileChannel channel;
+        int refCount = 1;
+
+        SharedFile(File file) throws IOException {
+            this.file = file;
+            raf = new RandomAccessFile(file, "r");
+            channel = raf.getChannel();
+            size = channel.size();
+        }
+
+        /**
+         * Opens the file again if {@code broken} is still the current channel.
+         *
+         * @return the channel to retry with
+         */
+        synchronized FileChannel reopen(FileChannel broken) throws IOException {
+            if (refCount == 0)
+                throw new IOException("data source closed");
+            if (channel == broken) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+                raf = new RandomAccessFile(file, "r");
+                channel = raf.getChannel();
+            }
+            return channel;
+        }
+
+        synchronized void retain() throws IOException {
+            if (refCount == 0)
+                throw new IOException("data source closed");
+            refCount++;
+        }
+
+        synchronized void release() throws IOException {
+            if (--refCount == 0)
+                raf.close();
+        }
+    }
+
+    private final SharedFile mShared;
+    private volatile boolean mClosed;
 
     public FileMediaDataSource(File file) throws IOException {
-        mFile = new RandomAccessFile(file, "r");
-        mFileSize = mFile.length();
+        mShared = new SharedFile(file);
+    }
+
+    private FileMediaDataSource(SharedFile shared) {
+        mShared = shared;
+    }
+
+    /**
+     * Returns another handle on the same open file, e.g. for a thumbnail or probe thread.
+     */
+    public FileMediaDataSource share() throws IOException {
+        if (mClosed)
+            throw new IOException("data source closed");
+        mShared.retain();
+        return new FileMediaDataSource(mShared);
     }
 
     @Override
     public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
-        if (mFile.getFilePointer() != position)
-            mFile.seek(position);
-
+        if (mClosed)
+            throw new IOException("data source closed");
         if (size == 0)
             return 0;
+        if (position >= mShared.size)
+            return -1;
 
-        return mFile.read(buffer, 0, size);
+        // the ByteBuffer wrapper is the only per-call state, the channel keeps no cursor for us
+        ByteBuffer target = ByteBuffer.wrap(buffer, offset, size);
+        FileChannel channel = mShared.channel;
+        while (true) {
+            try {
+                return channel.read(target, position);
+            } catch (ClosedChannelException e) {
+                // closed by our own interrupt or close(): nothing to retry
+                if (mClosed || Thread.currentThread().isInterrupted())
+                    throw e;
+                channel = mShared.reopen(channel);
+            }
+        }
     }
 
     @Override
     public long getSize() throws IOException {
-        return mFileSize;
+        return mClosed ? 0 : mShared.size;
     }
 
     @Override
-    public void close() throws IOException {
-        mFileSize = 0;
-        mFile.close();
-        mFile = null;
+    public synchronized void close() throws IOException {
+        if (mClosed)
+            return;
+        mClosed = true;
+        mShared.release();
     }
 }
@@ -0,0 +1,413 @@
+package com.utils.ijkplayer.widget.media;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.PixelCopy;
+import android.view.SurfaceView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.utils.ijkplayer.stats.LatencyHistogram;
+
+/**
+ * Grabs the frame an {@link IjkVideoView} is showing, for sharing, cover images or a
+ * placeholder while the player reconnects.
+ * <p>
+ * The frame is read straight at the output size, so the GPU does the scaling: a
+ * {@link TextureRenderView} copies its texture into the bitmap, a {@link SurfaceRenderView}
+ * goes through {@link PixelCopy} from Nougat on. Bitmaps come from a {@link BitmapPool} and every
+ * snapshot slot keeps its encode buffer, encode and delivery tasks and PixelCopy listener, so
+ * steady capture creates no bitmaps, buffers or callbacks of its own; only
+ * {@link Bitmap#compress} still allocates its working buffer per call. JPEG or WebP encoding runs on a background executor and the result is delivered on the main
+ * thread. At most {@link #MAX_IN_FLIGHT} snapshots exist at a time; a capture while all are
+ * taken, or while the caller still holds them, is skipped rather than queued, which together
+ * with {@link #MIN_INTERVAL_MS} rate-limits periodic capture.
+ */
+public class FrameSnapshotter {
+    private static final String TAG = "FrameSnapshotter";
+
+    public static final int MAX_IN_FLIGHT = 2;
+    public static final long MIN_INTERVAL_MS = 100;
+    public static final int DEFAULT_MAX_SIZE = 640;
+    public static final int DEFAULT_QUALITY = 80;
+
+    public interface Callback {
+        /**
+         * Called on the main thread; hand the snapshot back with {@link Snapshot#release()}
+         * once done with it.
+         */
+        void onSnapshot(Snapshot snapshot);
+
+        /**
+         * Called on the main thread when there was no frame to read: no video size yet, no
+         * render view, or the readback failed.
+         */
+        void onSnapshotFailed();
+    }
+
+    /**
+     * A grabbed frame and, unless encoding is off, its encoded bytes. Both belong to the
+     * snapshotter again after {@link #release()}.
+     */
+    public static final class Snapshot {
+        private final FrameSnapshotter mOwner;
+        private final EncodeBuffer mEncoded = new EncodeBuffer();
+        private Bitmap mBitmap;
+        private boolean mInUse;
+
+        // the capture in progress, read by the tasks below
+        private Callback mCallback;
+        private Bitmap.CompressFormat mEncodeFormat;
+        private int mEncodeQuality;
+        private long mReadbackStart;
+        // a PixelCopy.OnPixelCopyFinishedListener, created on first use since the type is Nougat's
+        private Object mPixelCopyListener;
+
+        private final Runnable mEncodeTask = new Runnable() {
+            @Override
+            public void run() {
+                mOwner.encodeNow(Snapshot.this);
+            }
+        };
+
+        private final Runnable mDeliverTask = new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onSnapshot(Snapshot.this);
+            }
+        };
+
+        private Snapshot(FrameSnapshotter owner) {
+            mOwner = owner;
+        }
+
+        public Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        /**
+         * @return the buffer holding the encoded frame in its first {@link #getEncodedLength()}
+         * bytes; valid until {@link #release()}
+         */
+        public byte[] getEncodedBytes() {
+            return mEncoded.getBuffer();
+        }
+
+        /**
+         * @return 0 if encoding is off
+         */
+        public int getEncodedLength() {
+            return mEncoded.size();
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            mEncoded.writeTo(out);
+        }
+
+        public void release() {
+            mOwner.release(this);
+        }
+    }
+
+    private static final class EncodeBuffer extends ByteArrayOutputStream {
+        EncodeBuffer() {
+            super(64 * 1024);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private static Executor sEncoder;
+
+    private final IjkVideoView mVideoView;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mExecutor;
+    private final BitmapPool mBitmapPool = new BitmapPool(MAX_IN_FLIGHT, Bitmap.Config.ARGB_8888);
+    private final Snapshot[] mSnapshots = new Snapshot[MAX_IN_FLIGHT];
+    private int mMaxWidth = DEFAULT_MAX_SIZE;
+    private int mMaxHeight = DEFAULT_MAX_SIZE;
+    private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+    private int mQuality = DEFAULT_QUALITY;
+
+    private Callback mPeriodicCallback;
+    private long mPeriodMs;
+    private final Runnable mPeriodicTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mPeriodicCallback == null)
+                return;
+            capture(mPeriodicCallback);
+            mMainHandler.postDelayed(this, mPeriodMs);
+        }
+    };
+
+    private final LatencyHistogram mReadbackTimes = new LatencyHistogram();
+    private final LatencyHistogram mEncodeTimes = new LatencyHistogram();
+    private long mCaptureCount;
+    private long mSkipCount;
+    private long mFailCount;
+    private long mEncodedCount;
+    private long mEncodedBytes;
+    private long mEncodeNanos;
+
+    /**
+     * Encodes on a shared background thread.
+     */
+    public FrameSnapshotter(IjkVideoView videoView) {
+        this(videoView, sharedEncoder());
+    }
+
+    public FrameSnapshotter(IjkVideoView videoView, Executor executor) {
+        mVideoView = videoView;
+        mExecutor = executor;
+        for (int i = 0; i < MAX_IN_FLIGHT; i++)
+            mSnapshots[i] = new Snapshot(this);
+    }
+
+    /**
+     * Frames are scaled down to fit {@code maxWidth} x {@code maxHeight}, never up.
+     */
+    public void setMaxSize(int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0)
+            throw new IllegalArgumentException("max size must be positive");
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+    }
+
+    /**
+     * @param format JPEG or WEBP, null to skip encoding and deliver only the bitmap
+     */
+    public void setFormat(Bitmap.CompressFormat format, int quality) {
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    /**
+     * Grabs the current frame. Must be called on the main thread.
+     *
+     * @return false if the capture was skipped because all snapshots are in use
+     */
+    public boolean capture(Callback callback) {
+        final Snapshot snapshot = acquire();
+        if (snapshot == null) {
+            mSkipCount++;
+            return false;
+        }
+        mCaptureCount++;
+        snapshot.mCallback = callback;
+        int videoWidth = mVideoView.getVideoWidth();
+        int videoHeight = mVideoView.getVideoHeight();
+        IRenderView renderView = mVideoView.getCurrentRenderView();
+        if (videoWidth <= 0 || videoHeight <= 0 || renderView == null) {
+            fail(snapshot, callback);
+            return true;
+        }
+        long size = outputSize(videoWidth, videoHeight, mVideoView.getVideoSarNum(), mVideoView.getVideoSarDen(),
+                mMaxWidth, mMaxHeight);
+        snapshot.mBitmap = mBitmapPool.acquire(MeasureHelper.width(size), MeasureHelper.height(size));
+
+        snapshot.mReadbackStart = System.nanoTime();
+        if (renderView instanceof TextureRenderView) {
+            ((TextureRenderView) renderView).getBitmap(snapshot.mBitmap);
+            mReadbackTimes.record((System.nanoTime() - snapshot.mReadbackStart) / 1000000);
+            encode(snapshot);
+        } else if (renderView instanceof SurfaceView && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            pixelCopy((SurfaceView) renderView, snapshot);
+        } else {
+            fail(snapshot, callback);
+        }
+        return true;
+    }
+
+    /**
+     * Captures every {@code periodMs}, at least {@link #MIN_INTERVAL_MS}, until
+     * {@link #stopPeriodicCapture()}; captures are skipped while all snapshots are in use.
+     */
+    public void startPeriodicCapture(long periodMs, Callback callback) {
+        stopPeriodicCapture();
+        mPeriodMs = Math.max(MIN_INTERVAL_MS, periodMs);
+        mPeriodicCallback = callback;
+        mMainHandler.post(mPeriodicTask);
+    }
+
+    public void stopPeriodicCapture() {
+        mPeriodicCallback = null;
+        mMainHandler.removeCallbacks(mPeriodicTask);
+    }
+
+    public boolean isCapturingPeriodically() {
+        return mPeriodicCallback != null;
+    }
+
+    public long getCaptureCount() {
+        return mCaptureCount;
+    }
+
+    /**
+     * @return captures skipped because all snapshots were in use
+     */
+    public long getSkipCount() {
+        return mSkipCount;
+    }
+
+    public long getFailCount() {
+        return mFailCount;
+    }
+
+    public LatencyHistogram getReadbackHistogram() {
+        return mReadbackTimes;
+    }
+
+    public LatencyHistogram getEncodeHistogram() {
+        return mEncodeTimes;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * @return frames encoded per second of encoder time
+     */
+    public synchronized double getEncodeThroughput() {
+        return mEncodeNanos > 0 ? mEncodedCount * 1e9 / mEncodeNanos : 0;
+    }
+
+    /**
+     * @return e.g. {@code captured=120 skipped=3 failed=0 readback p50=4 p90=9 encode p50=11 p90=18
+     * 85.3 frames/s 41KB/frame bitmaps created=2 reused=118}
+     */
+    public synchronized String report() {
+        return String.format(Locale.US, "captured=%d skipped=%d failed=%d readback p50=%d p90=%d encode p50=%d p90=%d %.1f frames/s %dKB/frame bitmaps created=%d reused=%d",
+                mCaptureCount, mSkipCount, mFailCount, mReadbackTimes.getPercentile(50), mReadbackTimes.getPercentile(90),
+                mEncodeTimes.getPercentile(50), mEncodeTimes.getPercentile(90), getEncodeThroughput(),
+                mEncodedCount > 0 ? mEncodedBytes / mEncodedCount / 1024 : 0,
+                mBitmapPool.getCreateCount(), mBitmapPool.getReuseCount());
+    }
+
+    /**
+     * Stops periodic capture and frees the idle bitmaps; snapshots still held stay valid.
+     */
+    public void release() {
+        stopPeriodicCapture();
+        mBitmapPool.clear();
+    }
+
+    /**
+     * @return the video's display size fitted into {@code maxWidth} x {@code maxHeight} without
+     * upscaling, packed as by {@link MeasureHelper#measure}
+     */
+    static long outputSize(int videoWidth, int videoHeight, int sarNum, int sarDen, int maxWidth, int maxHeight) {
+        double width = videoWidth;
+        double height = videoHeight;
+        if (sarNum > 0 && sarDen > 0)
+            width = width * sarNum / sarDen;
+        double scale = Math.min(1, Math.min(maxWidth / width, maxHeight / height));
+        int outWidth = Math.max(1, (int) Math.round(width * scale));
+        int outHeight = Math.max(1, (int) Math.round(height * scale));
+        return ((long) outWidth << 32) | (outHeight & 0xFFFFFFFFL);
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void pixelCopy(SurfaceView surfaceView, final Snapshot snapshot) {
+        if (snapshot.mPixelCopyListener == null) {
+            snapshot.mPixelCopyListener = new PixelCopy.OnPixelCopyFinishedListener() {
+                @Override
+                public void onPixelCopyFinished(int result) {
+                    if (result != PixelCopy.SUCCESS) {
+                        fail(snapshot, snapshot.mCallback);
+                        return;
+                    }
+                    mReadbackTimes.record((System.nanoTime() - snapshot.mReadbackStart) / 1000000);
+                    encode(snapshot);
+                }
+            };
+        }
+        try {
+            PixelCopy.request(surfaceView, snapshot.mBitmap,
+                    (PixelCopy.OnPixelCopyFinishedListener) snapshot.mPixelCopyListener, mMainHandler);
+        } catch (IllegalArgumentException e) {
+            // the surface isn't valid any more
+            Log.w(TAG, "pixel copy failed", e);
+            fail(snapshot, snapshot.mCallback);
+        }
+    }
+
+    private void encode(Snapshot snapshot) {
+        // settings at capture time, a later setFormat() doesn't affect this snapshot
+        snapshot.mEncodeFormat = mFormat;
+        snapshot.mEncodeQuality = mQuality;
+        mExecutor.execute(snapshot.mEncodeTask);
+    }
+
+    /**
+     * Runs on the encoder executor.
+     */
+    private void encodeNow(Snapshot snapshot) {
+        snapshot.mEncoded.reset();
+        if (snapshot.mEncodeFormat != null) {
+            long start = System.nanoTime();
+            snapshot.mBitmap.compress(snapshot.mEncodeFormat, snapshot.mEncodeQuality, snapshot.mEncoded);
+            long elapsed = System.nanoTime() - start;
+            mEncodeTimes.record(elapsed / 1000000);
+            synchronized (this) {
+                mEncodedCount++;
+                mEncodedBytes += snapshot.mEncoded.size();
+                mEncodeNanos += elapsed;
+            }
+        }
+        mMainHandler.post(snapshot.mDeliverTask);
+    }
+
+    private void fail(Snapshot snapshot, Callback callback) {
+        mFailCount++;
+        release(snapshot);
+        callback.onSnapshotFailed();
+    }
+
+    private synchronized Snapshot acquire() {
+        for (Snapshot snapshot : mSnapshots) {
+            if (!snapshot.mInUse) {
+                snapshot.mInUse = true;
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void release(Snapshot snapshot) {
+        if (!snapshot.mInUse)
+            return;
+        mBitmapPool.release(snapshot.mBitmap);
+        snapshot.mBitmap = null;
+        snapshot.mEncoded.reset();
+        snapshot.mCallback = null;
+        snapshot.mInUse = false;
+    }
+
+    private static synchronized Executor sharedEncoder() {
+        if (sEncoder == null) {
+            sEncoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sEncoder;
+    }
+}
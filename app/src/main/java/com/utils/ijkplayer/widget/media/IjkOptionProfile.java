@@ -0,0 +1,172 @@
+package com.utils.ijkplayer.widget.media;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tv.danmaku.ijk.media.player.IjkMediaPlayer;
+
+/**
+ * A named set of ijkplayer options applied when a stream is opened.
+ * <p>
+ * The predefined profiles cover the common cases; a stream that needs something different
+ * takes a {@link #copy} of one and {@link #set}s or {@link #remove}s single options. Options
+ * are applied after the decoder, audio output and pixel format settings of
+ * {@link IjkVideoView}, so a profile can override those too.
+ */
+public class IjkOptionProfile {
+    /**
+     * What openVideo has always used: drop late frames, skip the loop filter (48 is
+     * AVDISCARD_ALL), 10 s network timeout with reconnect.
+     */
+    public static final IjkOptionProfile DEFAULT = new IjkOptionProfile("default")
+            .set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "framedrop", 1)
+            .set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared", 0)
+            .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "http-detect-range-support", 0)
+            .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "timeout", 10000000)
+            .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "reconnect", 1)
+            .set(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter", 48)
+            .freeze();
+
+    /**
+     * Live playback close to the edge: no pre-buffering, short probing, a small buffer.
+     */
+    public static final IjkOptionProfile LOW_LATENCY_LIVE = DEFAULT.copy("lowLatencyLive")
+            .set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "packet-buffering", 0)
+            .set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "max-buffer-size", 1024 * 1024)
+            .set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "min-frames", 2)
+            .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "fflags", "nobuffer")
+            .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "analyzeduration", 100000)
+            .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "probesize", 64 * 1024)
+            .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "flush_packets", 1)
+            .freeze();
+
+    /**
+     * VOD where picture quality beats CPU time: full loop filtering, seeks land on the exact
+     * frame, byte-range requests so seeks don't restart downloads.
+     */
+    public static final IjkOptionProfile VOD_QUALITY = DEFAULT.copy("vodQuality")
+            .set(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter", 0)
+            .set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "enable-accurate-seek", 1)
+            .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "http-detect-range-support", 1)
+            .freeze();
+
+    /**
+     * Battery first: hardware decoding, 16-bit overlays, more frames dropped when behind.
+     */
+    public static final IjkOptionProfile LOW_POWER = DEFAULT.copy("lowPower")
+            .set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "overlay-format", IjkMediaPlayer.SDL_FCC_RV16)
+            .set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec", 1)
+            .set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "framedrop", 2)
+            .freeze();
+
+    /**
+     * One option, a long or a string value.
+     */
+    public static final class Option {
+        public final int category;
+        public final String name;
+        public final String stringValue;
+        public final long longValue;
+
+        Option(int category, String name, String stringValue, long longValue) {
+            this.category = category;
+            this.name = name;
+            this.stringValue = stringValue;
+            this.longValue = longValue;
+        }
+
+        public boolean isString() {
+            return stringValue != null;
+        }
+
+        @Override
+        public String toString() {
+            return category + ":" + name + "=" + (isString() ? stringValue : String.valueOf(longValue));
+        }
+    }
+
+    private final String mName;
+    private final Map<String, Option> mOptions = new LinkedHashMap<String, Option>();
+    private boolean mFrozen;
+
+    public IjkOptionProfile(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return a modifiable profile with the same options, e.g. for one stream's overrides
+     */
+    public IjkOptionProfile copy(String name) {
+        IjkOptionProfile copy = new IjkOptionProfile(name);
+        copy.mOptions.putAll(mOptions);
+        return copy;
+    }
+
+    public IjkOptionProfile set(int category, String name, long value) {
+        return put(new Option(category, name, null, value));
+    }
+
+    public IjkOptionProfile set(int category, String name, String value) {
+        if (value == null)
+            throw new IllegalArgumentException("null value for " + name);
+        return put(new Option(category, name, value, 0));
+    }
+
+    public IjkOptionProfile remove(int category, String name) {
+        checkMutable();
+        mOptions.remove(key(category, name));
+        return this;
+    }
+
+    /**
+     * @return the option, or null if the profile leaves it at ijkplayer's default
+     */
+    public Option get(int category, String name) {
+        return mOptions.get(key(category, name));
+    }
+
+    public List<Option> getOptions() {
+        return Collections.unmodifiableList(new ArrayList<Option>(mOptions.values()));
+    }
+
+    public void applyTo(IjkMediaPlayer player) {
+        for (Option option : mOptions.values()) {
+            if (option.isString())
+                player.setOption(option.category, option.name, option.stringValue);
+            else
+                player.setOption(option.category, option.name, option.longValue);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName + mOptions.values();
+    }
+
+    private IjkOptionProfile put(Option option) {
+        checkMutable();
+        mOptions.put(key(option.category, option.name), option);
+        return this;
+    }
+
+    private IjkOptionProfile freeze() {
+        mFrozen = true;
+        return this;
+    }
+
+    private void checkMutable() {
+        if (mFrozen)
+            throw new UnsupportedOperationException(mName + " is predefined, change a copy");
+    }
+
+    private static String key(int category, String name) {
+        return category + ":" + name;
+    }
+}
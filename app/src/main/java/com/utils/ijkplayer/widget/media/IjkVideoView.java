@@ -20,10 +20,12 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.res.Resources;
+import android.graphics.SurfaceTexture;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.AttributeSet;
@@ -35,16 +37,25 @@ import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.MediaController;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
+import com.utils.ijkplayer.stats.LatencyHistogram;
+import com.utils.ijkplayer.stats.RenderStats;
+import com.utils.ijkplayer.stats.StartupTracer;
+
 import tv.danmaku.ijk.media.player.AndroidMediaPlayer;
 import tv.danmaku.ijk.media.player.IMediaPlayer;
+import tv.danmaku.ijk.media.player.ISurfaceTextureHolder;
 import tv.danmaku.ijk.media.player.IjkMediaPlayer;
+import tv.danmaku.ijk.media.player.MediaInfo;
+import tv.danmaku.ijk.media.player.MediaPlayerProxy;
 import tv.danmaku.ijk.media.player.TextureMediaPlayer;
+import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
 
 public class IjkVideoView extends FrameLayout implements MediaController.MediaPlayerControl {
     private String TAG = "IjkVideoView";
@@ -103,12 +114,35 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
 
     private Context mAppContext;
     private IRenderView mRenderView;
+    // render view added by handOverRenderView(), replaces mRenderView once its surface exists
+    private IRenderView mPendingRenderView;
+    // SurfaceTexture moved to the new TextureRenderView with the player still drawing into it
+    private SurfaceTexture mHandedOverSurfaceTexture;
+    private long mRenderSwitchStartedAt;
     private int mVideoSarNum;
     private int mVideoSarDen;
     private boolean usingAndroidPlayer=false;
     private boolean usingMediaCodec=false;
     private boolean usingMediaCodecAutoRotate=false;
     private boolean usingOpenSLES=false;
+    private int mediaDataSource=MEDIA_DATA_SOURCE_NONE;//本地文件通过哪种IMediaDataSource读取
+    private IjkOptionProfile optionProfile=IjkOptionProfile.DEFAULT;//打开时设置的ijk选项
+    private MediaPlayerPool mPlayerPool;
+    private IMediaPlayer mPooledPlayer;
+    private boolean mPlayerFailed;
+    private StartupTracer mStartupTracer;
+    private int mNativeLogLevel = IjkMediaPlayer.IJK_LOG_WARN;
+    private int mOverlayFormat = IjkMediaPlayer.SDL_FCC_RV32;
+    private RenderStats mRenderStats;
+    private FrameSnapshotter mSnapshotter;
+    private boolean mKeyframeIndexEnabled = true;
+    // local file of mUri and its key frames, null until the background indexer is done
+    private File mIndexedFile;
+    private KeyframeIndex mKeyframeIndex;
+    private long mSeekStartedAt;
+    private boolean mSeekIndexed;
+    private final LatencyHistogram mSeekHistogram = new LatencyHistogram();
+    private final LatencyHistogram mIndexedSeekHistogram = new LatencyHistogram();
     private String pixelFormat="";//Auto Select=,RGB 565=fcc-rv16,RGB 888X=fcc-rv32,YV12=fcc-yv12,默认为RGB 888X
     private boolean enableBackgroundPlay=false;
     private boolean enableSurfaceView=true;
@@ -160,27 +194,79 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
     }
 
     public void setRenderView(IRenderView renderView) {
+        cancelRenderHandover();
         if (mRenderView != null) {
             if (mMediaPlayer != null)
                 mMediaPlayer.setDisplay(null);
 
-            View renderUIView = mRenderView.getView();
-            mRenderView.removeRenderCallback(mSHCallback);
+            IRenderView oldRenderView = mRenderView;
             mRenderView = null;
-            removeView(renderUIView);
+            detachRenderView(oldRenderView);
         }
 
         if (renderView == null)
             return;
 
         mRenderView = renderView;
+        attachRenderView(renderView);
+    }
+
+    /**
+     * Replaces the render view of a running player without reopening it. A TextureView's
+     * SurfaceTexture moves to the new {@link TextureRenderView} as is; otherwise the new view is
+     * added next to the old one and the player is switched over once the new surface exists, so
+     * it is never left without a surface and the decoder keeps running.
+     */
+    private void handOverRenderView(IRenderView renderView) {
+        cancelRenderHandover();
+        mRenderSwitchStartedAt = SystemClock.elapsedRealtime();
+        if (mRenderView instanceof TextureRenderView && renderView instanceof TextureRenderView
+                && ((TextureRenderView) renderView).takeOverSurfaceTexture((TextureRenderView) mRenderView)) {
+            IRenderView oldRenderView = mRenderView;
+            mHandedOverSurfaceTexture = ((TextureRenderView) renderView).getSurfaceTexture();
+            // detach first: the texture can only be attached to one TextureView at a time
+            detachRenderView(oldRenderView);
+            mRenderView = renderView;
+            attachRenderView(renderView);
+            return;
+        }
+
+        mPendingRenderView = renderView;
+        attachRenderView(renderView);
+    }
+
+    private void completeRenderHandover(IRenderView.ISurfaceHolder holder) {
+        IRenderView oldRenderView = mRenderView;
+        mRenderView = mPendingRenderView;
+        mPendingRenderView = null;
+        mSurfaceHolder = holder;
+        // straight from the old surface to the new one
+        if (mMediaPlayer != null)
+            bindSurfaceHolder(mMediaPlayer, holder);
+        else
+            openVideo();
+        if (oldRenderView != null)
+            detachRenderView(oldRenderView);
+        Log.d(TAG, "render switched in " + (SystemClock.elapsedRealtime() - mRenderSwitchStartedAt) + "ms");
+    }
+
+    private void cancelRenderHandover() {
+        mHandedOverSurfaceTexture = null;
+        if (mPendingRenderView != null) {
+            IRenderView pendingRenderView = mPendingRenderView;
+            mPendingRenderView = null;
+            detachRenderView(pendingRenderView);
+        }
+    }
+
+    private void attachRenderView(IRenderView renderView) {
         renderView.setAspectRatio(mCurrentAspectRatio);
         if (mVideoWidth > 0 && mVideoHeight > 0)
             renderView.setVideoSize(mVideoWidth, mVideoHeight);
         if (mVideoSarNum > 0 && mVideoSarDen > 0)
             renderView.setVideoSampleAspectRatio(mVideoSarNum, mVideoSarDen);
 
-        View renderUIView = mRenderView.getView();
+        View renderUIView = renderView.getView();
         LayoutParams lp = new LayoutParams(
                 LayoutParams.WRAP_CONTENT,
                 LayoutParams.WRAP_CONTENT,
@@ -188,8 +274,13 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
         renderUIView.setLayoutParams(lp);
         addView(renderUIView);
 
-        mRenderView.addRenderCallback(mSHCallback);
-        mRenderView.setVideoRotation(mVideoRotationDegree);
+        renderView.addRenderCallback(mSHCallback);
+        renderView.setVideoRotation(mVideoRotationDegree);
+    }
+
+    private void detachRenderView(IRenderView renderView) {
+        renderView.removeRenderCallback(mSHCallback);
+        removeView(renderView.getView());
     }
 
     public void setRender(int render) {
@@ -199,6 +290,11 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
                 break;
             case RENDER_TEXTURE_VIEW: {
                 TextureRenderView renderView = new TextureRenderView(getContext());
+                renderView.setRenderStats(mRenderStats);
+                if (mMediaPlayer != null && mRenderView != null && !(mMediaPlayer instanceof ISurfaceTextureHolder)) {
+                    handOverRenderView(renderView);
+                    break;
+                }
                 if (mMediaPlayer != null) {
                     renderView.getSurfaceHolder().bindToMediaPlayer(mMediaPlayer);
                     renderView.setVideoSize(mMediaPlayer.getVideoWidth(), mMediaPlayer.getVideoHeight());
@@ -210,7 +306,10 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
             }
             case RENDER_SURFACE_VIEW: {
                 SurfaceRenderView renderView = new SurfaceRenderView(getContext());
-                setRenderView(renderView);
+                if (mMediaPlayer != null && mRenderView != null)
+                    handOverRenderView(renderView);
+                else
+                    setRenderView(renderView);
                 break;
             }
             default:
@@ -228,6 +327,16 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
         setVideoURI(Uri.parse(path));
     }
 
+    /**
+     * Sets video path using specific headers.
+     *
+     * @param path    the path of the video.
+     * @param headers the headers for the URI request, may be null.
+     */
+    public void setVideoPath(String path, Map<String, String> headers) {
+        setVideoURI(Uri.parse(path), headers);
+    }
+
     /**
      * Sets video URI.
      *
@@ -251,6 +360,7 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
         mUri = uri;
         mHeaders = headers;
         mSeekWhenPrepared = 0;
+        indexLocalFile(uri);
         openVideo();
         requestLayout();
         invalidate();
@@ -262,13 +372,14 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
     public void stopPlayback() {
         if (mMediaPlayer != null) {
             mMediaPlayer.stop();
-            mMediaPlayer.release();
-            mMediaPlayer = null;
+            releasePlayer();
             mCurrentState = STATE_IDLE;
             mTargetState = STATE_IDLE;
             AudioManager am = (AudioManager) mAppContext.getSystemService(Context.AUDIO_SERVICE);
             am.abandonAudioFocus(null);
         }
+        if (mSnapshotter != null)
+            mSnapshotter.stopPeriodicCapture();
     }
 
     private void openVideo() {
@@ -278,7 +389,10 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
         }
         // we shouldn't clear the target state, because somebody might have
         // called start() previously
+        if (mStartupTracer != null)
+            mStartupTracer.mark(StartupTracer.STAGE_OPEN_VIDEO);
         release(false);
+        mPlayerFailed = false;
 
         AudioManager am = (AudioManager) mAppContext.getSystemService(Context.AUDIO_SERVICE);
         am.requestAudioFocus(null, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
@@ -289,11 +403,14 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
             } else {
                 IjkMediaPlayer ijkMediaPlayer = null;
                 if (mUri != null) {
-                    ijkMediaPlayer = new IjkMediaPlayer();
-                    ijkMediaPlayer.native_setLogLevel(IjkMediaPlayer.IJK_LOG_DEBUG);
+                    ijkMediaPlayer = createIjkMediaPlayer();
+                    ijkMediaPlayer.native_setLogLevel(mNativeLogLevel);
 
                     if (usingMediaCodec) {
                         ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec", 1);
+                        //"mediacodec"只对h264生效,格式已经由调用方确认过硬件支持
+                        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec-all-videos", 1);
+                        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec-handle-resolution-change", 1);
                         if (usingMediaCodecAutoRotate) {
                             ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec-auto-rotate", 1);
                         } else {
@@ -301,6 +418,7 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
                         }
                     } else {
                         ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec", 0);
+                        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "mediacodec-all-videos", 0);
                     }
 
                     if (usingOpenSLES) {
@@ -310,18 +428,11 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
                     }
 
                     if (TextUtils.isEmpty(pixelFormat)) {
-                        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "overlay-format", IjkMediaPlayer.SDL_FCC_RV32);
+                        ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "overlay-format", mOverlayFormat);
                     } else {
                         ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "overlay-format", pixelFormat);
                     }
-                    ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "framedrop", 1);
-                    ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared", 0);
-
-                    ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "http-detect-range-support", 0);
-                    ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "timeout", 10000000);
-                    ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "reconnect", 1);
-
-                    ijkMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter", 48);
+                    optionProfile.applyTo(ijkMediaPlayer);
                 }
                 mMediaPlayer = ijkMediaPlayer;
             }
@@ -342,8 +453,17 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
             mMediaPlayer.setOnErrorListener(mErrorListener);
             mMediaPlayer.setOnInfoListener(mInfoListener);
             mMediaPlayer.setOnBufferingUpdateListener(mBufferingUpdateListener);
+            mMediaPlayer.setOnSeekCompleteListener(mSeekCompleteListener);
             mCurrentBufferPercentage = 0;
-            if (Build.VERSION.SDK_INT > Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            if (mStartupTracer != null)
+                mStartupTracer.mark(StartupTracer.STAGE_SET_DATA_SOURCE);
+            String scheme = mUri.getScheme();
+            if (mediaDataSource != MEDIA_DATA_SOURCE_NONE && (TextUtils.isEmpty(scheme) || scheme.equalsIgnoreCase("file"))) {
+                File file = new File(mUri.getPath());
+                IMediaDataSource dataSource = mediaDataSource == MEDIA_DATA_SOURCE_READ_AHEAD
+                        ? new ReadAheadMediaDataSource(file) : new MappedFileMediaDataSource(file);
+                mMediaPlayer.setDataSource(dataSource);
+            } else if (Build.VERSION.SDK_INT > Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
                 mMediaPlayer.setDataSource(mAppContext, mUri, mHeaders);
             } else {
                 mMediaPlayer.setDataSource(mUri.toString());
@@ -351,6 +471,8 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
             bindSurfaceHolder(mMediaPlayer, mSurfaceHolder);
             mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
             mMediaPlayer.setScreenOnWhilePlaying(true);
+            if (mStartupTracer != null)
+                mStartupTracer.mark(StartupTracer.STAGE_PREPARE_ASYNC);
             mMediaPlayer.prepareAsync();
 
             // REMOVED: mPendingSubtitleTracks
@@ -361,12 +483,14 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
             attachMediaController();
         } catch (IOException ex) {
             Log.w(TAG, "Unable to open content: " + mUri, ex);
+            mPlayerFailed = true;
             mCurrentState = STATE_ERROR;
             mTargetState = STATE_ERROR;
             mErrorListener.onError(mMediaPlayer, MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
             return;
         } catch (IllegalArgumentException ex) {
             Log.w(TAG, "Unable to open content: " + mUri, ex);
+            mPlayerFailed = true;
             mCurrentState = STATE_ERROR;
             mTargetState = STATE_ERROR;
             mErrorListener.onError(mMediaPlayer, MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
@@ -376,6 +500,129 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
         }
     }
 
+    /**
+     * Takes ijk players from {@code pool} and hands them back on release instead of building
+     * and destroying one per open. Not used with background play, whose player wraps the
+     * ijk one.
+     */
+    public void setPlayerPool(MediaPlayerPool pool) {
+        mPlayerPool = pool;
+    }
+
+    /**
+     * Stamps the open pipeline's stages (surface, openVideo, setDataSource, prepareAsync,
+     * prepared, first audio/video frame) into {@code tracer}.
+     */
+    public void setStartupTracer(StartupTracer tracer) {
+        mStartupTracer = tracer;
+    }
+
+    /**
+     * Decodes video with MediaCodec instead of ffmpeg from the next {@link #openVideo()} on.
+     */
+    public void setUsingMediaCodec(boolean usingMediaCodec) {
+        this.usingMediaCodec = usingMediaCodec;
+    }
+
+    public boolean isUsingMediaCodec() {
+        return usingMediaCodec;
+    }
+
+    /**
+     * Reads local files through an {@link IMediaDataSource} instead of letting ffmpeg open them,
+     * from the next {@link #openVideo()} on. Other schemes are not affected.
+     *
+     * @param type {@link #MEDIA_DATA_SOURCE_NONE}, {@link #MEDIA_DATA_SOURCE_MAPPED} or
+     *             {@link #MEDIA_DATA_SOURCE_READ_AHEAD}
+     */
+    public void setMediaDataSource(int type) {
+        mediaDataSource = type;
+    }
+
+    public int getMediaDataSource() {
+        return mediaDataSource;
+    }
+
+    /**
+     * @return what the player probed and which decoders it picked, null before it is opened
+     */
+    public MediaInfo getMediaInfo() {
+        return mMediaPlayer != null ? mMediaPlayer.getMediaInfo() : null;
+    }
+
+    /**
+     * Sets the overlay fourcc, e.g. {@link IjkMediaPlayer#SDL_FCC_RV16}, used from the next
+     * {@link #openVideo()} unless a pixel format was configured explicitly.
+     */
+    public void setOverlayFormat(int overlayFormat) {
+        mOverlayFormat = overlayFormat;
+    }
+
+    /**
+     * @return the overlay fourcc the next open uses: the option profile's if it sets one,
+     * otherwise the one given to {@link #setOverlayFormat(int)}
+     */
+    public int getOverlayFormat() {
+        IjkOptionProfile.Option option = optionProfile.get(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "overlay-format");
+        if (option != null && !option.isString())
+            return (int) option.longValue;
+        return mOverlayFormat;
+    }
+
+    /**
+     * Has a {@link TextureRenderView} report every frame it receives to {@code stats}.
+     */
+    public void setRenderStats(RenderStats stats) {
+        mRenderStats = stats;
+        if (mRenderView instanceof TextureRenderView)
+            ((TextureRenderView) mRenderView).setRenderStats(stats);
+    }
+
+    /**
+     * Sets the ijkplayer native log level, e.g. {@link IjkMediaPlayer#IJK_LOG_WARN}; used from the
+     * next {@link #openVideo()}.
+     */
+    public void setNativeLogLevel(int level) {
+        mNativeLogLevel = level;
+    }
+
+    /**
+     * Sets the ijk options used from the next open on, null restores
+     * {@link IjkOptionProfile#DEFAULT}.
+     */
+    public void setOptionProfile(IjkOptionProfile profile) {
+        optionProfile = profile != null ? profile : IjkOptionProfile.DEFAULT;
+    }
+
+    public IjkOptionProfile getOptionProfile() {
+        return optionProfile;
+    }
+
+    private IjkMediaPlayer createIjkMediaPlayer() {
+        if (mPlayerPool != null && !enableBackgroundPlay) {
+            IMediaPlayer player = mPlayerPool.acquire();
+            if (player instanceof IjkMediaPlayer) {
+                mPooledPlayer = player;
+                return (IjkMediaPlayer) player;
+            }
+            mPlayerPool.recycle(player, false);
+        }
+        return new IjkMediaPlayer();
+    }
+
+    /*
+     * give the player back to the pool, or release it if it isn't pooled
+     */
+    private void releasePlayer() {
+        if (mPooledPlayer != null) {
+            mPlayerPool.recycle(mPooledPlayer, !mPlayerFailed);
+            mPooledPlayer = null;
+        } else {
+            mMediaPlayer.release();
+        }
+        mMediaPlayer = null;
+    }
+
     public void setMediaController(IMediaController controller) {
         if (mMediaController != null) {
             mMediaController.hide();
@@ -415,6 +662,8 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
     IMediaPlayer.OnPreparedListener mPreparedListener = new IMediaPlayer.OnPreparedListener() {
         public void onPrepared(IMediaPlayer mp) {
             mCurrentState = STATE_PREPARED;
+            if (mStartupTracer != null)
+                mStartupTracer.mark(StartupTracer.STAGE_PREPARED);
 
             // Get the capabilities of the player for this stream
             // REMOVED: Metadata
@@ -483,6 +732,12 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
     private IMediaPlayer.OnInfoListener mInfoListener =
             new IMediaPlayer.OnInfoListener() {
                 public boolean onInfo(IMediaPlayer mp, int arg1, int arg2) {
+                    if (mStartupTracer != null) {
+                        if (arg1 == IMediaPlayer.MEDIA_INFO_AUDIO_RENDERING_START)
+                            mStartupTracer.mark(StartupTracer.STAGE_AUDIO_RENDERING);
+                        else if (arg1 == IMediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START)
+                            mStartupTracer.mark(StartupTracer.STAGE_VIDEO_RENDERING);
+                    }
                     if (mOnInfoListener != null) {
                         mOnInfoListener.onInfo(mp, arg1, arg2);
                     }
@@ -502,6 +757,7 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
             new IMediaPlayer.OnErrorListener() {
                 public boolean onError(IMediaPlayer mp, int framework_err, int impl_err) {
                     Log.d(TAG, "Error: " + framework_err + "," + impl_err);
+                    mPlayerFailed = true;
                     mCurrentState = STATE_ERROR;
                     mTargetState = STATE_ERROR;
                     if (mMediaController != null) {
@@ -555,6 +811,17 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
                 }
             };
 
+    private IMediaPlayer.OnSeekCompleteListener mSeekCompleteListener =
+            new IMediaPlayer.OnSeekCompleteListener() {
+                public void onSeekComplete(IMediaPlayer mp) {
+                    if (mSeekStartedAt == 0)
+                        return;
+                    long latency = SystemClock.elapsedRealtime() - mSeekStartedAt;
+                    mSeekStartedAt = 0;
+                    (mSeekIndexed ? mIndexedSeekHistogram : mSeekHistogram).record(latency);
+                }
+            };
+
     /**
      * Register a callback to be invoked when the media file
      * is loaded and ready to go.
@@ -632,12 +899,24 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
 
         @Override
         public void onSurfaceCreated(@NonNull IRenderView.ISurfaceHolder holder, int width, int height) {
+            if (mPendingRenderView != null && holder.getRenderView() == mPendingRenderView) {
+                completeRenderHandover(holder);
+                return;
+            }
             if (holder.getRenderView() != mRenderView) {
                 Log.e(TAG, "onSurfaceCreated: unmatched render callback\n");
                 return;
             }
 
             mSurfaceHolder = holder;
+            if (mHandedOverSurfaceTexture != null && holder.getSurfaceTexture() == mHandedOverSurfaceTexture) {
+                // the player is still drawing into this texture, a new Surface would restart its decoder
+                mHandedOverSurfaceTexture = null;
+                Log.d(TAG, "render switched in " + (SystemClock.elapsedRealtime() - mRenderSwitchStartedAt) + "ms");
+                return;
+            }
+            if (mStartupTracer != null)
+                mStartupTracer.mark(StartupTracer.STAGE_SURFACE_CREATED);
             if (mMediaPlayer != null)
                 bindSurfaceHolder(mMediaPlayer, holder);
             else
@@ -664,14 +943,103 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
             mMediaPlayer.setDisplay(null);
     }
 
+    /**
+     * Takes the player off this view without stopping it, so that another view can carry on
+     * with it through {@link #attachPlayer(RetainedPlayer)}, e.g. the view of an Activity
+     * recreated after a configuration change. This view is left idle.
+     *
+     * @return null if there is no player
+     */
+    public RetainedPlayer detachPlayer() {
+        if (mMediaPlayer == null)
+            return null;
+        cancelRenderHandover();
+        mMediaPlayer.setDisplay(null);
+        RetainedPlayer retained = new RetainedPlayer(mMediaPlayer, mPooledPlayer, mPlayerPool, mPlayerFailed);
+        retained.mUri = mUri;
+        retained.mHeaders = mHeaders;
+        retained.mCurrentState = mCurrentState;
+        retained.mTargetState = mTargetState;
+        retained.mVideoWidth = mVideoWidth;
+        retained.mVideoHeight = mVideoHeight;
+        retained.mVideoSarNum = mVideoSarNum;
+        retained.mVideoSarDen = mVideoSarDen;
+        retained.mVideoRotationDegree = mVideoRotationDegree;
+        retained.mBufferPercentage = mCurrentBufferPercentage;
+        retained.mSeekWhenPrepared = mSeekWhenPrepared;
+        retained.mUsingMediaCodec = usingMediaCodec;
+        retained.mOverlayFormat = mOverlayFormat;
+        retained.mOptionProfile = optionProfile;
+
+        mMediaPlayer = null;
+        mPooledPlayer = null;
+        mCurrentState = STATE_IDLE;
+        mTargetState = STATE_IDLE;
+        return retained;
+    }
+
+    /**
+     * Carries on with a player another view detached: it is bound to this view's surface as
+     * soon as there is one and the events it reported meanwhile are handled as if it had been
+     * here all along. Any player of this view is released first.
+     *
+     * @return false if {@code retained} was already attached or released
+     */
+    public boolean attachPlayer(RetainedPlayer retained) {
+        IMediaPlayer player = retained != null ? retained.take() : null;
+        if (player == null)
+            return false;
+        release(true);
+
+        mMediaPlayer = player;
+        // a player from another pool is released rather than handed to the wrong one
+        mPooledPlayer = retained.getPool() == mPlayerPool ? retained.getPooledPlayer() : null;
+        mPlayerFailed = retained.isPlayerFailed();
+        mUri = retained.mUri;
+        mHeaders = retained.mHeaders;
+        mCurrentState = retained.mCurrentState;
+        mTargetState = retained.mTargetState;
+        mVideoWidth = retained.mVideoWidth;
+        mVideoHeight = retained.mVideoHeight;
+        mVideoSarNum = retained.mVideoSarNum;
+        mVideoSarDen = retained.mVideoSarDen;
+        mVideoRotationDegree = retained.mVideoRotationDegree;
+        mCurrentBufferPercentage = retained.mBufferPercentage;
+        mSeekWhenPrepared = retained.mSeekWhenPrepared;
+        usingMediaCodec = retained.mUsingMediaCodec;
+        mOverlayFormat = retained.mOverlayFormat;
+        optionProfile = retained.mOptionProfile;
+
+        player.setOnPreparedListener(mPreparedListener);
+        player.setOnVideoSizeChangedListener(mSizeChangedListener);
+        player.setOnCompletionListener(mCompletionListener);
+        player.setOnErrorListener(mErrorListener);
+        player.setOnInfoListener(mInfoListener);
+        player.setOnBufferingUpdateListener(mBufferingUpdateListener);
+        player.setOnSeekCompleteListener(mSeekCompleteListener);
+        if (mRenderView != null) {
+            if (mVideoWidth > 0 && mVideoHeight > 0)
+                mRenderView.setVideoSize(mVideoWidth, mVideoHeight);
+            if (mVideoSarNum > 0 && mVideoSarDen > 0)
+                mRenderView.setVideoSampleAspectRatio(mVideoSarNum, mVideoSarDen);
+            mRenderView.setVideoRotation(mVideoRotationDegree);
+        }
+        requestLayout();
+        // without a surface yet, onSurfaceCreated() binds it instead of opening the video
+        bindSurfaceHolder(mMediaPlayer, mSurfaceHolder);
+        attachMediaController();
+        retained.replay(player, mPreparedListener, mSizeChangedListener, mCompletionListener, mErrorListener, mInfoListener);
+        return true;
+    }
+
     /*
      * release the media player in any state
      */
     public void release(boolean cleartargetstate) {
         if (mMediaPlayer != null) {
-            mMediaPlayer.reset();
-            mMediaPlayer.release();
-            mMediaPlayer = null;
+            if (mPooledPlayer == null)
+                mMediaPlayer.reset();
+            releasePlayer();
             // REMOVED: mPendingSubtitleTracks.clear();
             mCurrentState = STATE_IDLE;
             if (cleartargetstate) {
@@ -795,6 +1163,8 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
     @Override
     public void seekTo(int msec) {
         if (isInPlaybackState()) {
+            warmSeekTarget(msec);
+            mSeekStartedAt = SystemClock.elapsedRealtime();
             mMediaPlayer.seekTo(msec);
             mSeekWhenPrepared = 0;
         } else {
@@ -851,6 +1221,53 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
     // REMOVED: setSubtitleWidget();
     // REMOVED: getSubtitleLooper();
 
+    //-------------------------
+    // Extend: Speed and buffer
+    //-------------------------
+
+    private IjkMediaPlayer getIjkMediaPlayer() {
+        IMediaPlayer player = mMediaPlayer;
+        if (player instanceof MediaPlayerProxy)
+            player = ((MediaPlayerProxy) player).getInternalMediaPlayer();
+        return player instanceof IjkMediaPlayer ? (IjkMediaPlayer) player : null;
+    }
+
+    /**
+     * Changes the playback speed, ijk players only.
+     */
+    public void setSpeed(float speed) {
+        IjkMediaPlayer player = getIjkMediaPlayer();
+        if (player != null && isInPlaybackState())
+            player.setSpeed(speed);
+    }
+
+    /**
+     * @return ms of media buffered ahead of the playhead, the longer of audio and video, or -1
+     * if the player can't tell
+     */
+    public long getCachedDuration() {
+        IjkMediaPlayer player = getIjkMediaPlayer();
+        if (player == null || !isInPlaybackState())
+            return -1;
+        return Math.max(player.getVideoCachedDuration(), player.getAudioCachedDuration());
+    }
+
+    /**
+     * @return frames per second the player rendered over the last second, 0 if unknown
+     */
+    public float getVideoOutputFps() {
+        IjkMediaPlayer player = getIjkMediaPlayer();
+        return player != null && isInPlaybackState() ? player.getVideoOutputFramesPerSecond() : 0;
+    }
+
+    /**
+     * @return frames per second the player decoded over the last second, 0 if unknown
+     */
+    public float getVideoDecodeFps() {
+        IjkMediaPlayer player = getIjkMediaPlayer();
+        return player != null && isInPlaybackState() ? player.getVideoDecodeFramesPerSecond() : 0;
+    }
+
     //-------------------------
     // Extend: Aspect Ratio
     //-------------------------
@@ -878,6 +1295,13 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
     //-------------------------
     // Extend: Render
     //-------------------------
+    // local files read by ffmpeg itself
+    public static final int MEDIA_DATA_SOURCE_NONE = 0;
+    // local files read through MappedFileMediaDataSource
+    public static final int MEDIA_DATA_SOURCE_MAPPED = 1;
+    // local files read through ReadAheadMediaDataSource, which loads blocks ahead of the demuxer
+    public static final int MEDIA_DATA_SOURCE_READ_AHEAD = 2;
+
     public static final int RENDER_NONE = 0;
     public static final int RENDER_SURFACE_VIEW = 1;
     public static final int RENDER_TEXTURE_VIEW = 2;
@@ -902,6 +1326,118 @@ public class IjkVideoView extends FrameLayout implements MediaController.MediaPl
         setRender(mCurrentRender);
     }
 
+    /**
+     * @return the snapshotter grabbing this view's frames, see {@link FrameSnapshotter}
+     */
+    public FrameSnapshotter getSnapshotter() {
+        if (mSnapshotter == null)
+            mSnapshotter = new FrameSnapshotter(this);
+        return mSnapshotter;
+    }
+
+    /**
+     * Grabs the current frame into a pooled bitmap and encodes it in the background, see
+     * {@link FrameSnapshotter#capture}. Must be called on the main thread.
+     *
+     * @return false if skipped because earlier snapshots are still in use
+     */
+    public boolean takeSnapshot(FrameSnapshotter.Callback callback) {
+        return getSnapshotter().capture(callback);
+    }
+
+    /**
+     * Index the key frames of local files in the background, so that seeks can warm the bytes
+     * they are about to read, see {@link KeyframeIndexer}. Applies from the next video opened.
+     *
+     * @param enabled default is true
+     */
+    public void setKeyframeIndexEnabled(boolean enabled) {
+        mKeyframeIndexEnabled = enabled;
+    }
+
+    /**
+     * @return the key frames of the local file playing, null for other sources, formats the
+     * indexer doesn't understand and until indexing is done
+     */
+    public KeyframeIndex getKeyframeIndex() {
+        return mKeyframeIndex;
+    }
+
+    /**
+     * @return milliseconds from seekTo() to the player's seek complete, for seeks without a key
+     * frame index
+     */
+    public LatencyHistogram getSeekHistogram() {
+        return mSeekHistogram;
+    }
+
+    /**
+     * @return like {@link #getSeekHistogram()}, for seeks that went through the key frame index
+     */
+    public LatencyHistogram getIndexedSeekHistogram() {
+        return mIndexedSeekHistogram;
+    }
+
+    private void indexLocalFile(Uri uri) {
+        mIndexedFile = null;
+        mKeyframeIndex = null;
+        String scheme = uri.getScheme();
+        if (!mKeyframeIndexEnabled || !(TextUtils.isEmpty(scheme) || scheme.equalsIgnoreCase("file")))
+            return;
+        final File file = new File(uri.getPath());
+        mIndexedFile = file;
+        File indexFile = KeyframeIndexer.indexFileFor(file, new File(mAppContext.getCacheDir(), "keyframes"));
+        KeyframeIndexer.loadAsync(file, indexFile, new KeyframeIndexer.Callback() {
+            @Override
+            public void onIndexed(File media, KeyframeIndex index) {
+                // a different video may have been opened meanwhile
+                if (media == mIndexedFile)
+                    mKeyframeIndex = index;
+            }
+        });
+    }
+
+    /**
+     * Has the group of pictures the seek lands in read ahead of the demuxer.
+     */
+    private void warmSeekTarget(int msec) {
+        KeyframeIndex index = mKeyframeIndex;
+        mSeekIndexed = index != null && index.size() > 0;
+        if (!mSeekIndexed)
+            return;
+        int keyframe = index.floor(msec);
+        long offset = index.getOffset(keyframe);
+        // the last group runs to the end of the file, which the warm read stops at
+        KeyframeIndexer.warm(mIndexedFile, offset, index.getEndOffset(keyframe, Long.MAX_VALUE) - offset);
+    }
+
+    IRenderView getCurrentRenderView() {
+        return mRenderView;
+    }
+
+    int getVideoWidth() {
+        return mVideoWidth;
+    }
+
+    int getVideoHeight() {
+        return mVideoHeight;
+    }
+
+    int getVideoSarNum() {
+        return mVideoSarNum;
+    }
+
+    int getVideoSarDen() {
+        return mVideoSarDen;
+    }
+
+    /**
+     * @return {@link #RENDER_SURFACE_VIEW}, {@link #RENDER_TEXTURE_VIEW} or {@link #RENDER_NONE}
+     */
+    public int getRenderType() {
+        return mCurrentRender;
+    }
+
     public int toggleRender() {
         mCurrentRenderIndex++;
         mCurrentRenderIndex %= mAllRenders.size();
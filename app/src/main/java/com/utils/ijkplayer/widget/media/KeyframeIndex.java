@@ -0,0 +1,155 @@
+package com.utils.ijkplayer.widget.media;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sorted table of the key frames of a local media file: the time of each, in milliseconds from
+ * the first, and the byte offset of the packet it starts in.
+ * <p>
+ * Entries live in one {@code long[]}, time and offset interleaved, so a two-hour recording with
+ * a key frame every two seconds is about 60 KB and a lookup is a binary search without any
+ * objects. The table is written next to the file it describes together with that file's length
+ * and modification time, and {@link #readFrom} refuses it once the file has changed.
+ */
+public class KeyframeIndex {
+    private static final int MAGIC = 0x4b464931; // "KFI1"
+
+    private final long[] mEntries;
+    private final int mCount;
+
+    private KeyframeIndex(long[] entries, int count) {
+        mEntries = entries;
+        mCount = count;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public long getTimeMs(int i) {
+        return mEntries[2 * i];
+    }
+
+    public long getOffset(int i) {
+        return mEntries[2 * i + 1];
+    }
+
+    /**
+     * @return the last key frame at or before {@code timeMs}, 0 for times before the first and
+     * -1 if the index is empty
+     */
+    public int floor(long timeMs) {
+        int low = 0;
+        int high = mCount - 1;
+        if (high < 0)
+            return -1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mEntries[2 * mid] <= timeMs)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * @return the byte offset where the group of pictures starting at key frame {@code i} ends
+     */
+    public long getEndOffset(int i, long fileSize) {
+        return i + 1 < mCount ? getOffset(i + 1) : fileSize;
+    }
+
+    public long getDurationMs() {
+        return mCount > 0 ? getTimeMs(mCount - 1) : 0;
+    }
+
+    /**
+     * Writes the index atomically: to a temp file first, renamed over {@code file} when complete.
+     *
+     * @param sourceLength   length of the indexed file
+     * @param sourceModified last modification time of the indexed file
+     */
+    public void writeTo(File file, long sourceLength, long sourceModified) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeInt(mCount);
+            for (int i = 0; i < 2 * mCount; i++)
+                out.writeLong(mEntries[i]);
+        } finally {
+            out.close();
+        }
+        if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("cannot write " + file);
+        }
+    }
+
+    /**
+     * @return the index stored in {@code file}, null if there is none or it was built from a
+     * different version of the source
+     */
+    public static KeyframeIndex readFrom(File file, long sourceLength, long sourceModified) throws IOException {
+        if (!file.isFile())
+            return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readLong() != sourceLength || in.readLong() != sourceModified)
+                return null;
+            int count = in.readInt();
+            // an entry is 16 bytes, anything claiming more than the file holds is corrupt
+            if (count < 0 || count > (file.length() - 24) / 16)
+                return null;
+            long[] entries = new long[2 * count];
+            for (int i = 0; i < entries.length; i++)
+                entries[i] = in.readLong();
+            return new KeyframeIndex(entries, count);
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Collects entries in file order; times that don't increase are dropped to keep the table
+     * sorted.
+     */
+    public static class Builder {
+        private long[] mEntries = new long[256];
+        private int mCount;
+
+        public Builder add(long timeMs, long offset) {
+            if (mCount > 0 && timeMs <= mEntries[2 * mCount - 2])
+                return this;
+            if (2 * mCount == mEntries.length)
+                mEntries = Arrays.copyOf(mEntries, mEntries.length * 2);
+            mEntries[2 * mCount] = timeMs;
+            mEntries[2 * mCount + 1] = offset;
+            mCount++;
+            return this;
+        }
+
+        public int size() {
+            return mCount;
+        }
+
+        public KeyframeIndex build() {
+            return new KeyframeIndex(Arrays.copyOf(mEntries, 2 * mCount), mCount);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.utils.ijkplayer.widget.media;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.utils.ijkplayer.hls.SegmentDiskCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds and keeps {@link KeyframeIndex}es of local files on a background thread, and warms
+ * the byte range a seek is about to read.
+ * <p>
+ * A file is scanned once; the index is written next to it as {@code <name>.kfi}, or into a
+ * fallback directory where the file's own directory isn't writable, and read back on later
+ * opens as long as the file is unchanged. Warming reads the group of pictures at the seek
+ * target ahead of the demuxer so its reads are served from the page cache; only the newest
+ * warm request is carried out.
+ */
+public class KeyframeIndexer {
+    private static final String TAG = "KeyframeIndexer";
+    public static final String INDEX_SUFFIX = ".kfi";
+    static final long MAX_WARM_BYTES = 4 * 1024 * 1024;
+    private static final int WARM_BUFFER_SIZE = 64 * 1024;
+
+    public interface Callback {
+        /**
+         * Called on the main thread.
+         *
+         * @param index null if the file can't be indexed
+         */
+        void onIndexed(File media, KeyframeIndex index);
+    }
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final AtomicLong sWarmGeneration = new AtomicLong();
+    private static ExecutorService sExecutor;
+    // only used on the executor thread
+    private static ByteBuffer sWarmBuffer;
+
+    /**
+     * @param fallbackDir where the index goes if the directory of {@code media} isn't writable
+     */
+    public static File indexFileFor(File media, File fallbackDir) {
+        File dir = media.getAbsoluteFile().getParentFile();
+        if (dir != null && dir.canWrite())
+            return new File(dir, media.getName() + INDEX_SUFFIX);
+        return new File(fallbackDir, SegmentDiskCache.keyFor(media.getAbsolutePath()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * Reads the stored index of {@code media}, or scans the file and stores it. Blocks for as
+     * long as the scan takes, call it off the main thread.
+     *
+     * @return null if the file isn't a format the scanner understands
+     */
+    public static KeyframeIndex load(File media, File indexFile) throws IOException {
+        if (!media.isFile())
+            return null;
+        long length = media.length();
+        long modified = media.lastModified();
+        KeyframeIndex index = KeyframeIndex.readFrom(indexFile, length, modified);
+        if (index != null)
+            return index;
+
+        long start = System.nanoTime();
+        RandomAccessFile file = new RandomAccessFile(media, "r");
+        try {
+            index = TsKeyframeScanner.scan(file.getChannel());
+        } finally {
+            file.close();
+        }
+        if (index == null)
+            return null;
+        Log.d(TAG, "indexed " + media + ": " + index.size() + " key frames in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+        File dir = indexFile.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("cannot create " + dir);
+        index.writeTo(indexFile, length, modified);
+        return index;
+    }
+
+    /**
+     * Runs {@link #load} on the indexer thread and reports the result on the main thread.
+     */
+    public static void loadAsync(final File media, final File indexFile, final Callback callback) {
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                KeyframeIndex index;
+                try {
+                    index = load(media, indexFile);
+                } catch (IOException e) {
+                    Log.w(TAG, "cannot index " + media, e);
+                    index = null;
+                }
+                final KeyframeIndex result = index;
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onIndexed(media, result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads {@code [offset, offset + length)} of {@code media} in the background, at most
+     * {@link #MAX_WARM_BYTES}, dropping any warm request still waiting.
+     */
+    public static void warm(final File media, final long offset, long length) {
+        final long generation = sWarmGeneration.incrementAndGet();
+        final long end = offset + Math.min(length, MAX_WARM_BYTES);
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (sWarmGeneration.get() != generation)
+                    return;
+                try {
+                    read(media, offset, end, generation);
+                } catch (IOException e) {
+                    Log.w(TAG, "cannot warm " + media, e);
+                }
+            }
+        });
+    }
+
+    private static void read(File media, long offset, long end, long generation) throws IOException {
+        if (sWarmBuffer == null)
+            sWarmBuffer = ByteBuffer.allocateDirect(WARM_BUFFER_SIZE);
+        RandomAccessFile file = new RandomAccessFile(media, "r");
+        try {
+            long position = offset;
+            while (position < end && sWarmGeneration.get() == generation) {
+                sWarmBuffer.clear();
+                if (end - position < WARM_BUFFER_SIZE)
+                    sWarmBuffer.limit((int) (end - position));
+                int read = file.getChannel().read(sWarmBuffer, position);
+                if (read <= 0)
+                    break;
+                position += read;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,94 @@
+package com.utils.ijkplayer.widget.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
+
+/**
+ * {@link IMediaDataSource} that serves reads from memory-mapped windows of a local file.
+ * <p>
+ * The file is mapped lazily, one window at a time, so large recordings don't have to be mapped
+ * whole in the address space of 32-bit devices. Reads that hit the current window are a plain
+ * memory copy; only crossing into another window costs a mapping syscall.
+ * <p>
+ * Android has no public way to unmap a buffer: a window left behind stays mapped until it is
+ * garbage collected, so seeking across the file can briefly leave several windows mapped. The
+ * address space in use is bounded by the collector, not by the window size.
+ * <p>
+ * Unlike {@link FileMediaDataSource}, an instance is meant to be driven by a single reader: the
+ * current window and its position are not synchronized.
+ */
+public class MappedFileMediaDataSource implements IMediaDataSource {
+    public static final long DEFAULT_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private long mFileSize;
+    private final long mWindowSize;
+
+    private MappedByteBuffer mWindow;
+    private long mWindowStart;
+    private long mWindowEnd;
+
+    public MappedFileMediaDataSource(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param file       local media file
+     * @param windowSize bytes mapped at a time, between 1 and {@link Integer#MAX_VALUE}
+     */
+    public MappedFileMediaDataSource(File file, long windowSize) throws IOException {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("invalid window size " + windowSize);
+
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        mFileSize = mChannel.size();
+        mWindowSize = windowSize;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0)
+            return 0;
+        if (position < 0 || position >= mFileSize)
+            return -1;
+
+        if (mWindow == null || position < mWindowStart || position >= mWindowEnd)
+            mapWindow(position);
+
+        int count = (int) Math.min(size, mWindowEnd - position);
+        mWindow.position((int) (position - mWindowStart));
+        mWindow.get(buffer, offset, count);
+        return count;
+    }
+
+    private void mapWindow(long position) throws IOException {
+        long start = position - position % mWindowSize;
+        long length = Math.min(mWindowSize, mFileSize - start);
+
+        // the previous window is unmapped once it is garbage collected
+        mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        mWindowStart = start;
+        mWindowEnd = start + length;
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return mFileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFileSize = 0;
+        mWindow = null;
+        mChannel = null;
+        mFile.close();
+        mFile = null;
+    }
+}
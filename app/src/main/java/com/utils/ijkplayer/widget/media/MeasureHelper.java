@@ -22,7 +22,19 @@ import android.view.View;
 
 import java.lang.ref.WeakReference;
 
+/**
+ * Sizes a render view for the video's size, sample aspect ratio, rotation and the chosen
+ * aspect ratio mode.
+ * <p>
+ * The size is a pure function of those inputs and the two measure specs, see
+ * {@link #measure}. Layout passes during fullscreen toggles and orientation changes repeat
+ * the same inputs many times, so {@link #doMeasure} keeps the last inputs and result and
+ * only recomputes when one of them changed.
+ */
 public final class MeasureHelper {
+    // View.MeasureSpec layout: mode in the top two bits, size in the rest
+    private static final int MODE_MASK = 0x3 << 30;
+
     private WeakReference<View> mWeakView;
 
     private int mVideoWidth;
@@ -37,6 +49,11 @@ public final class MeasureHelper {
 
     private int mCurrentAspectRatio = IRenderView.AR_ASPECT_FIT_PARENT;
 
+    // inputs of the last doMeasure, valid while mMeasureValid
+    private boolean mMeasureValid;
+    private int mLastWidthMeasureSpec;
+    private int mLastHeightMeasureSpec;
+
     public MeasureHelper(View view) {
         mWeakView = new WeakReference<View>(view);
     }
@@ -48,16 +65,22 @@ public final class MeasureHelper {
     }
 
     public void setVideoSize(int videoWidth, int videoHeight) {
+        if (mVideoWidth != videoWidth || mVideoHeight != videoHeight)
+            mMeasureValid = false;
         mVideoWidth = videoWidth;
         mVideoHeight = videoHeight;
     }
 
     public void setVideoSampleAspectRatio(int videoSarNum, int videoSarDen) {
+        if (mVideoSarNum != videoSarNum || mVideoSarDen != videoSarDen)
+            mMeasureValid = false;
         mVideoSarNum = videoSarNum;
         mVideoSarDen = videoSarDen;
     }
 
     public void setVideoRotation(int videoRotationDegree) {
+        if (mVideoRotationDegree != videoRotationDegree)
+            mMeasureValid = false;
         mVideoRotationDegree = videoRotationDegree;
     }
 
@@ -68,51 +91,72 @@ public final class MeasureHelper {
      * @param heightMeasureSpec
      */
     public void doMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        //Log.i("@@@@", "onMeasure(" + MeasureSpec.toString(widthMeasureSpec) + ", "
-        //        + MeasureSpec.toString(heightMeasureSpec) + ")");
-        if (mVideoRotationDegree == 90 || mVideoRotationDegree == 270) {
+        if (mMeasureValid && widthMeasureSpec == mLastWidthMeasureSpec
+                && heightMeasureSpec == mLastHeightMeasureSpec)
+            return;
+        long size = measure(mVideoWidth, mVideoHeight, mVideoSarNum, mVideoSarDen, mVideoRotationDegree,
+                mCurrentAspectRatio, widthMeasureSpec, heightMeasureSpec);
+        mMeasuredWidth = width(size);
+        mMeasuredHeight = height(size);
+        mLastWidthMeasureSpec = widthMeasureSpec;
+        mLastHeightMeasureSpec = heightMeasureSpec;
+        mMeasureValid = true;
+    }
+
+    /**
+     * Computes the size of a render view without touching any state.
+     *
+     * @param aspectRatio one of the {@code IRenderView.AR_*} modes
+     * @return the width in the high and the height in the low 32 bits, see {@link #width} and
+     * {@link #height}
+     */
+    static long measure(int videoWidth, int videoHeight, int videoSarNum, int videoSarDen,
+                        int videoRotationDegree, int aspectRatio, int widthMeasureSpec, int heightMeasureSpec) {
+        boolean rotated = videoRotationDegree == 90 || videoRotationDegree == 270;
+        if (rotated) {
             int tempSpec = widthMeasureSpec;
-            widthMeasureSpec  = heightMeasureSpec;
+            widthMeasureSpec = heightMeasureSpec;
             heightMeasureSpec = tempSpec;
         }
 
-        int width = View.getDefaultSize(mVideoWidth, widthMeasureSpec);
-        int height = View.getDefaultSize(mVideoHeight, heightMeasureSpec);
-        if (mCurrentAspectRatio == IRenderView.AR_MATCH_PARENT) {
-            width = widthMeasureSpec;
-            height = heightMeasureSpec;
-        } else if (mVideoWidth > 0 && mVideoHeight > 0) {
-            int widthSpecMode = View.MeasureSpec.getMode(widthMeasureSpec);
-            int widthSpecSize = View.MeasureSpec.getSize(widthMeasureSpec);
-            int heightSpecMode = View.MeasureSpec.getMode(heightMeasureSpec);
-            int heightSpecSize = View.MeasureSpec.getSize(heightMeasureSpec);
+        int widthSpecMode = widthMeasureSpec & MODE_MASK;
+        int widthSpecSize = widthMeasureSpec & ~MODE_MASK;
+        int heightSpecMode = heightMeasureSpec & MODE_MASK;
+        int heightSpecSize = heightMeasureSpec & ~MODE_MASK;
 
+        // View.getDefaultSize()
+        int width = widthSpecMode == View.MeasureSpec.UNSPECIFIED ? videoWidth : widthSpecSize;
+        int height = heightSpecMode == View.MeasureSpec.UNSPECIFIED ? videoHeight : heightSpecSize;
+        if (aspectRatio == IRenderView.AR_MATCH_PARENT) {
+            width = widthSpecSize;
+            height = heightSpecSize;
+        } else if (videoWidth > 0 && videoHeight > 0) {
             if (widthSpecMode == View.MeasureSpec.AT_MOST && heightSpecMode == View.MeasureSpec.AT_MOST) {
                 float specAspectRatio = (float) widthSpecSize / (float) heightSpecSize;
                 float displayAspectRatio;
-                switch (mCurrentAspectRatio) {
+                switch (aspectRatio) {
                     case IRenderView.AR_16_9_FIT_PARENT:
                         displayAspectRatio = 16.0f / 9.0f;
-                        if (mVideoRotationDegree == 90 || mVideoRotationDegree == 270)
+                        if (rotated)
                             displayAspectRatio = 1.0f / displayAspectRatio;
                         break;
                     case IRenderView.AR_4_3_FIT_PARENT:
                         displayAspectRatio = 4.0f / 3.0f;
-                        if (mVideoRotationDegree == 90 || mVideoRotationDegree == 270)
+                        if (rotated)
                             displayAspectRatio = 1.0f / displayAspectRatio;
                         break;
                     case IRenderView.AR_ASPECT_FIT_PARENT:
                     case IRenderView.AR_ASPECT_FILL_PARENT:
                     case IRenderView.AR_ASPECT_WRAP_CONTENT:
                     default:
-                        displayAspectRatio = (float) mVideoWidth / (float) mVideoHeight;
-                        if (mVideoSarNum > 0 && mVideoSarDen > 0)
-                            displayAspectRatio = displayAspectRatio * mVideoSarNum / mVideoSarDen;
+                        displayAspectRatio = (float) videoWidth / (float) videoHeight;
+                        if (videoSarNum > 0 && videoSarDen > 0)
+                            displayAspectRatio = displayAspectRatio * videoSarNum / videoSarDen;
                         break;
                 }
                 boolean shouldBeWider = displayAspectRatio > specAspectRatio;
 
-                switch (mCurrentAspectRatio) {
+                switch (aspectRatio) {
                     case IRenderView.AR_ASPECT_FIT_PARENT:
                     case IRenderView.AR_16_9_FIT_PARENT:
                     case IRenderView.AR_4_3_FIT_PARENT:
@@ -141,11 +185,11 @@ public final class MeasureHelper {
                     default:
                         if (shouldBeWider) {
                             // too wide, fix width
-                            width = Math.min(mVideoWidth, widthSpecSize);
+                            width = Math.min(videoWidth, widthSpecSize);
                             height = (int) (width / displayAspectRatio);
                         } else {
                             // too high, fix height
-                            height = Math.min(mVideoHeight, heightSpecSize);
+                            height = Math.min(videoHeight, heightSpecSize);
                             width = (int) (height * displayAspectRatio);
                         }
                         break;
@@ -156,17 +200,17 @@ public final class MeasureHelper {
                 height = heightSpecSize;
 
                 // for compatibility, we adjust size based on aspect ratio
-                if (mVideoWidth * height < width * mVideoHeight) {
+                if (videoWidth * height < width * videoHeight) {
                     //Log.i("@@@", "image too wide, correcting");
-                    width = height * mVideoWidth / mVideoHeight;
-                } else if (mVideoWidth * height > width * mVideoHeight) {
+                    width = height * videoWidth / videoHeight;
+                } else if (videoWidth * height > width * videoHeight) {
                     //Log.i("@@@", "image too tall, correcting");
-                    height = width * mVideoHeight / mVideoWidth;
+                    height = width * videoHeight / videoWidth;
                 }
             } else if (widthSpecMode == View.MeasureSpec.EXACTLY) {
                 // only the width is fixed, adjust the height to match aspect ratio if possible
                 width = widthSpecSize;
-                height = width * mVideoHeight / mVideoWidth;
+                height = width * videoHeight / videoWidth;
                 if (heightSpecMode == View.MeasureSpec.AT_MOST && height > heightSpecSize) {
                     // couldn't match aspect ratio within the constraints
                     height = heightSpecSize;
@@ -174,32 +218,38 @@ public final class MeasureHelper {
             } else if (heightSpecMode == View.MeasureSpec.EXACTLY) {
                 // only the height is fixed, adjust the width to match aspect ratio if possible
                 height = heightSpecSize;
-                width = height * mVideoWidth / mVideoHeight;
+                width = height * videoWidth / videoHeight;
                 if (widthSpecMode == View.MeasureSpec.AT_MOST && width > widthSpecSize) {
                     // couldn't match aspect ratio within the constraints
                     width = widthSpecSize;
                 }
             } else {
                 // neither the width nor the height are fixed, try to use actual video size
-                width = mVideoWidth;
-                height = mVideoHeight;
+                width = videoWidth;
+                height = videoHeight;
                 if (heightSpecMode == View.MeasureSpec.AT_MOST && height > heightSpecSize) {
                     // too tall, decrease both width and height
                     height = heightSpecSize;
-                    width = height * mVideoWidth / mVideoHeight;
+                    width = height * videoWidth / videoHeight;
                 }
                 if (widthSpecMode == View.MeasureSpec.AT_MOST && width > widthSpecSize) {
                     // too wide, decrease both width and height
                     width = widthSpecSize;
-                    height = width * mVideoHeight / mVideoWidth;
+                    height = width * videoHeight / videoWidth;
                 }
             }
         } else {
             // no size yet, just adopt the given spec sizes
         }
+        return ((long) width << 32) | (height & 0xFFFFFFFFL);
+    }
+
+    static int width(long size) {
+        return (int) (size >>> 32);
+    }
 
-        mMeasuredWidth = width;
-        mMeasuredHeight = height;
+    static int height(long size) {
+        return (int) size;
     }
 
     public int getMeasuredWidth() {
@@ -211,6 +261,8 @@ public final class MeasureHelper {
     }
 
     public void setAspectRatio(int aspectRatio) {
+        if (mCurrentAspectRatio != aspectRatio)
+            mMeasureValid = false;
         mCurrentAspectRatio = aspectRatio;
     }
 
@@ -0,0 +1,268 @@
+package com.utils.ijkplayer.widget.media;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import tv.danmaku.ijk.media.player.IMediaPlayer;
+import tv.danmaku.ijk.media.player.IjkMediaPlayer;
+
+/**
+ * Keeps a few idle, never-prepared players around so that opening a video doesn't pay for
+ * native player construction, and moves the teardown of the previous player off the caller's
+ * thread.
+ * <p>
+ * Idle players carry no options: ijkplayer drops them on {@code reset()}, so the caller applies
+ * its option profile to every player it acquires, pooled or not. A player handed back with
+ * {@link #recycle(IMediaPlayer, boolean)} is reset and reused only if it never reported a
+ * fatal error; otherwise it is released and replaced by a fresh one.
+ */
+public class MediaPlayerPool {
+    private static final String TAG = "MediaPlayerPool";
+
+    public static final int DEFAULT_CAPACITY = 2;
+
+    public interface Factory {
+        IMediaPlayer create();
+    }
+
+    private final Factory mFactory;
+    private final int mCapacity;
+    private final Executor mExecutor;
+    private final ArrayDeque<IMediaPlayer> mIdle = new ArrayDeque<IMediaPlayer>();
+    // players being built or reset on their way into the pool
+    private int mPending;
+    private boolean mClosed;
+
+    private long mAcquireCount;
+    private long mHitCount;
+    private long mAcquireNanos;
+    private long mMaxAcquireNanos;
+    private long mConstructionCount;
+    private long mConstructionNanos;
+    private long mDiscardCount;
+
+    /**
+     * Pool of {@link IjkMediaPlayer}s with its own background thread.
+     */
+    public MediaPlayerPool() {
+        this(new Factory() {
+            @Override
+            public IMediaPlayer create() {
+                return new IjkMediaPlayer();
+            }
+        }, DEFAULT_CAPACITY, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    public MediaPlayerPool(Factory factory, int capacity, Executor executor) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        mFactory = factory;
+        mCapacity = capacity;
+        mExecutor = executor;
+    }
+
+    /**
+     * Fills the pool in the background.
+     */
+    public void prewarm() {
+        int missing;
+        synchronized (this) {
+            if (mClosed)
+                return;
+            missing = mCapacity - mIdle.size() - mPending;
+            mPending += Math.max(0, missing);
+        }
+        for (int i = 0; i < missing; i++) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    IMediaPlayer player = construct();
+                    synchronized (MediaPlayerPool.this) {
+                        mPending--;
+                    }
+                    offer(player);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return an idle player, or a newly built one if the pool is empty
+     */
+    public IMediaPlayer acquire() {
+        long start = System.nanoTime();
+        IMediaPlayer player;
+        synchronized (this) {
+            player = mIdle.pollFirst();
+        }
+        boolean hit = player != null;
+        if (player == null)
+            player = construct();
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            mAcquireCount++;
+            if (hit)
+                mHitCount++;
+            mAcquireNanos += elapsed;
+            mMaxAcquireNanos = Math.max(mMaxAcquireNanos, elapsed);
+        }
+        prewarm();
+        return player;
+    }
+
+    /**
+     * Takes a player back from its user. The reset or release runs in the background.
+     *
+     * @param healthy false if the player reported an error; it is released instead of reused
+     */
+    public void recycle(final IMediaPlayer player, final boolean healthy) {
+        if (player == null)
+            return;
+        player.setDisplay(null);
+        clearListeners(player);
+        if (healthy) {
+            // counted now so an acquire right after this doesn't build a replacement for it
+            synchronized (this) {
+                mPending++;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!healthy) {
+                    discard(player);
+                    return;
+                }
+                boolean reset = false;
+                try {
+                    player.reset();
+                    reset = true;
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "reset failed, dropping player", e);
+                }
+                synchronized (MediaPlayerPool.this) {
+                    mPending--;
+                }
+                if (reset)
+                    offer(player);
+                else
+                    discard(player);
+            }
+        });
+        if (!healthy)
+            prewarm();
+    }
+
+    /**
+     * Releases the idle players; later recycled players are released too.
+     */
+    public void close() {
+        final IMediaPlayer[] idle;
+        synchronized (this) {
+            mClosed = true;
+            idle = mIdle.toArray(new IMediaPlayer[mIdle.size()]);
+            mIdle.clear();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (IMediaPlayer player : idle)
+                    player.release();
+            }
+        });
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    public synchronized long getAcquireCount() {
+        return mAcquireCount;
+    }
+
+    /**
+     * @return acquires served by an idle player
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized double getAverageAcquireMs() {
+        return mAcquireCount > 0 ? mAcquireNanos / 1e6 / mAcquireCount : 0;
+    }
+
+    public synchronized double getMaxAcquireMs() {
+        return mMaxAcquireNanos / 1e6;
+    }
+
+    public synchronized long getConstructionCount() {
+        return mConstructionCount;
+    }
+
+    public synchronized double getAverageConstructionMs() {
+        return mConstructionCount > 0 ? mConstructionNanos / 1e6 / mConstructionCount : 0;
+    }
+
+    /**
+     * @return players released instead of reused, after an error or with the pool full
+     */
+    public synchronized long getDiscardCount() {
+        return mDiscardCount;
+    }
+
+    private IMediaPlayer construct() {
+        long start = System.nanoTime();
+        IMediaPlayer player = mFactory.create();
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            mConstructionCount++;
+            mConstructionNanos += elapsed;
+        }
+        return player;
+    }
+
+    private void offer(IMediaPlayer player) {
+        synchronized (this) {
+            if (!mClosed && mIdle.size() < mCapacity) {
+                mIdle.addLast(player);
+                return;
+            }
+        }
+        discard(player);
+    }
+
+    private void discard(IMediaPlayer player) {
+        synchronized (this) {
+            mDiscardCount++;
+        }
+        try {
+            player.release();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "release failed", e);
+        }
+    }
+
+    /**
+     * Drops the previous owner's callbacks so an idle player doesn't keep its view alive.
+     */
+    private static void clearListeners(IMediaPlayer player) {
+        player.setOnPreparedListener(null);
+        player.setOnVideoSizeChangedListener(null);
+        player.setOnCompletionListener(null);
+        player.setOnErrorListener(null);
+        player.setOnInfoListener(null);
+        player.setOnBufferingUpdateListener(null);
+        player.setOnSeekCompleteListener(null);
+    }
+}
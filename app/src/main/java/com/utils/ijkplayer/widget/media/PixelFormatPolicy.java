@@ -0,0 +1,104 @@
+package com.utils.ijkplayer.widget.media;
+
+import tv.danmaku.ijk.media.player.IjkMediaPlayer;
+
+/**
+ * Picks the overlay pixel format ijkplayer converts decoded frames into before they are
+ * handed to the surface.
+ * <p>
+ * Every frame is written into the overlay and read again by the compositor, so the overlay's
+ * bytes per pixel (4 for RV32, 2 for RV16, 1.5 for YV12) scale the memory traffic of software
+ * decoding directly. YV12 skips the colour conversion and is the cheapest, but only a
+ * {@link SurfaceRenderView}'s window takes it reliably; a {@link TextureRenderView} gets RV16
+ * instead. RV16 bands on gradients, so RV32 is kept wherever the pixel rate is low enough or
+ * the device fast enough that the traffic doesn't matter. Frames MediaCodec renders itself
+ * don't go through an overlay at all.
+ */
+public class PixelFormatPolicy {
+    public static final int DEVICE_LOW = 0;
+    public static final int DEVICE_MID = 1;
+    public static final int DEVICE_HIGH = 2;
+
+    // pixels per second from which the cheaper formats are used, by device class
+    static final long MID_YV12_PIXEL_RATE = 1280L * 720 * 30;
+    static final long MID_RV16_PIXEL_RATE = 1920L * 1080 * 30;
+    static final long HIGH_YV12_PIXEL_RATE = 1920L * 1080 * 60;
+    static final long HIGH_RV16_PIXEL_RATE = 3840L * 2160 * 30;
+    private static final float DEFAULT_FPS = 30;
+
+    /**
+     * @param lowRamDevice  ActivityManager.isLowRamDevice()
+     * @param memoryClassMb ActivityManager.getMemoryClass()
+     * @param cores         available processors
+     */
+    public static int classifyDevice(boolean lowRamDevice, int memoryClassMb, int cores) {
+        if (lowRamDevice || memoryClassMb <= 96 || cores <= 2)
+            return DEVICE_LOW;
+        if (memoryClassMb >= 256 && cores >= 8)
+            return DEVICE_HIGH;
+        return DEVICE_MID;
+    }
+
+    /**
+     * @param fps    0 if unknown
+     * @param render {@link IjkVideoView#RENDER_SURFACE_VIEW} or {@link IjkVideoView#RENDER_TEXTURE_VIEW}
+     * @return the overlay fourcc, one of {@code IjkMediaPlayer.SDL_FCC_*}
+     */
+    public static int choose(int width, int height, float fps, int render, int deviceClass) {
+        long pixelRate = (long) ((long) width * height * (fps > 0 ? fps : DEFAULT_FPS));
+        long yv12Rate;
+        long rv16Rate;
+        switch (deviceClass) {
+            case DEVICE_LOW:
+                yv12Rate = rv16Rate = 0;
+                break;
+            case DEVICE_HIGH:
+                yv12Rate = HIGH_YV12_PIXEL_RATE;
+                rv16Rate = HIGH_RV16_PIXEL_RATE;
+                break;
+            default:
+                yv12Rate = MID_YV12_PIXEL_RATE;
+                rv16Rate = MID_RV16_PIXEL_RATE;
+                break;
+        }
+        if (render == IjkVideoView.RENDER_SURFACE_VIEW) {
+            if (pixelRate >= yv12Rate)
+                return IjkMediaPlayer.SDL_FCC_YV12;
+        } else if (pixelRate >= rv16Rate) {
+            return IjkMediaPlayer.SDL_FCC_RV16;
+        }
+        return IjkMediaPlayer.SDL_FCC_RV32;
+    }
+
+    /**
+     * @return bytes of one frame in the overlay format
+     */
+    public static long frameBytes(int format, int width, int height) {
+        long pixels = (long) width * height;
+        switch (format) {
+            case IjkMediaPlayer.SDL_FCC_RV32:
+                return pixels * 4;
+            case IjkMediaPlayer.SDL_FCC_RV16:
+                return pixels * 2;
+            case IjkMediaPlayer.SDL_FCC_YV12:
+                return pixels * 3 / 2;
+            default:
+                return 0;
+        }
+    }
+
+    public static String name(int format) {
+        switch (format) {
+            case IjkMediaPlayer.SDL_FCC_RV32:
+                return "RV32";
+            case IjkMediaPlayer.SDL_FCC_RV16:
+                return "RV16";
+            case IjkMediaPlayer.SDL_FCC_YV12:
+                return "YV12";
+            case 0:
+                return "none";
+            default:
+                return Integer.toHexString(format);
+        }
+    }
+}
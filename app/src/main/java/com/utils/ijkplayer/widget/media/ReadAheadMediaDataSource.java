@@ -0,0 +1,360 @@
+package com.utils.ijkplayer.widget.media;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
+
+/**
+ * {@link IMediaDataSource} that keeps a fixed pool of block-aligned buffers in front of a local
+ * file and fills the blocks ahead of a sequential reader on a background thread.
+ * <p>
+ * A read that continues exactly where the previous one stopped is treated as sequential and
+ * schedules the next {@code readAhead} blocks; any other read is a seek and drops whatever is
+ * still queued. Blocks are recycled least-recently-used first, and evicting a prefetched block
+ * that was never read counts as prefetch waste.
+ * <p>
+ * A read is a hit when its block is ready, a wait when the block is still being filled and a
+ * miss when the reader has to load the block itself.
+ * <p>
+ * Blocks are read through a {@link FileMediaDataSource}, so an interrupt on the reader's thread
+ * fails only the read it interrupted; the file is reopened for everything after it.
+ */
+public class ReadAheadMediaDataSource implements IMediaDataSource {
+    private static final String TAG = "ReadAheadMediaDataSource";
+
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    public static final int DEFAULT_BLOCK_COUNT = 8;
+    public static final int DEFAULT_READ_AHEAD = 2;
+
+    private static final int BLOCK_EMPTY = 0;
+    private static final int BLOCK_LOADING = 1;
+    private static final int BLOCK_READY = 2;
+
+    private static final class Block {
+        final byte[] data;
+        long index = -1;
+        int length;
+        int state = BLOCK_EMPTY;
+        long lastUse;
+        boolean prefetched;
+        boolean used;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final FileMediaDataSource mFile;
+    private final long mFileSize;
+    private final int mBlockSize;
+    private final int mReadAhead;
+    private final Block[] mBlocks;
+    // blocks waiting for the prefetcher, [mQueueStart, mQueueEnd); sequential reads only ever
+    // move forward, so the queue is always a range
+    private long mQueueStart;
+    private long mQueueEnd;
+    private final Thread mPrefetchThread;
+
+    private boolean mClosed;
+    private long mUseClock;
+    private long mNextSequentialPosition;
+
+    private long mHitCount;
+    private long mWaitCount;
+    private long mMissCount;
+    private long mPrefetchCount;
+    private long mPrefetchHitCount;
+    private long mPrefetchWasteCount;
+
+    public ReadAheadMediaDataSource(File file) throws IOException {
+        this(file, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT, DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * @param file       local media file
+     * @param blockSize  size of each cached block in bytes
+     * @param blockCount number of blocks in the pool, at least 2 and larger than {@code readAhead}
+     * @param readAhead  blocks kept in flight ahead of a sequential reader
+     */
+    public ReadAheadMediaDataSource(File file, int blockSize, int blockCount, int readAhead) throws IOException {
+        if (blockSize <= 0 || readAhead < 0 || blockCount < 2 || blockCount <= readAhead)
+            throw new IllegalArgumentException("invalid block configuration");
+
+        mFile = new FileMediaDataSource(file);
+        mFileSize = mFile.getSize();
+        mBlockSize = blockSize;
+        mReadAhead = readAhead;
+        mBlocks = new Block[blockCount];
+        for (int i = 0; i < blockCount; i++)
+            mBlocks[i] = new Block(blockSize);
+
+        mPrefetchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prefetchLoop();
+            }
+        }, TAG);
+        mPrefetchThread.setDaemon(true);
+        mPrefetchThread.start();
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0)
+            return 0;
+        if (position < 0 || position >= mFileSize)
+            return -1;
+
+        long index = position / mBlockSize;
+        Block block;
+        synchronized (mLock) {
+            checkOpen();
+            if (position == mNextSequentialPosition) {
+                // blocks before mQueueEnd were scheduled already, the ones the reader has
+                // reached are no use to prefetch any more
+                long end = Math.min(index + mReadAhead + 1, (mFileSize + mBlockSize - 1) / mBlockSize);
+                mQueueStart = Math.max(mQueueStart, index + 1);
+                mQueueEnd = Math.max(mQueueEnd, end);
+                if (mQueueStart < mQueueEnd)
+                    mLock.notifyAll();
+            } else {
+                clearQueue();
+            }
+
+            boolean counted = false;
+            while (true) {
+                block = findBlock(index);
+                if (block == null) {
+                    if (!counted)
+                        mMissCount++;
+                    block = claimBlock(index, false);
+                    if (block != null) {
+                        if (index == mQueueStart)
+                            mQueueStart++;
+                        break;
+                    }
+                } else if (block.state == BLOCK_READY) {
+                    if (!counted)
+                        mHitCount++;
+                    return copyOut(block, position, buffer, offset, size);
+                } else if (!counted) {
+                    mWaitCount++;
+                }
+                counted = true;
+
+                // the prefetcher is filling this block (or holds the last free one), waiting is
+                // cheaper than issuing a second read for the same bytes
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for block " + index);
+                }
+                checkOpen();
+            }
+        }
+
+        // miss: fill the claimed block on the caller's thread, without holding the lock
+        int length = fill(block, index);
+        synchronized (mLock) {
+            finish(block, length);
+            if (length <= 0)
+                throw new IOException("failed to read block " + index);
+            return copyOut(block, position, buffer, offset, size);
+        }
+    }
+
+    private int copyOut(Block block, long position, byte[] buffer, int offset, int size) {
+        int start = (int) (position - block.index * mBlockSize);
+        int count = Math.min(size, block.length - start);
+        System.arraycopy(block.data, start, buffer, offset, count);
+        if (block.prefetched && !block.used)
+            mPrefetchHitCount++;
+        block.used = true;
+        block.lastUse = ++mUseClock;
+        mNextSequentialPosition = position + count;
+        return count;
+    }
+
+    private void clearQueue() {
+        mQueueStart = 0;
+        mQueueEnd = 0;
+    }
+
+    private void checkOpen() throws IOException {
+        if (mClosed)
+            throw new IOException("data source closed");
+    }
+
+    private Block findBlock(long index) {
+        for (Block block : mBlocks) {
+            if (block.index == index && block.state != BLOCK_EMPTY)
+                return block;
+        }
+        return null;
+    }
+
+    /**
+     * Takes an empty or the least recently used ready block and marks it as loading
+     * {@code index}. Must be called with {@code mLock} held.
+     */
+    private Block claimBlock(long index, boolean prefetch) {
+        Block victim = null;
+        for (Block block : mBlocks) {
+            if (block.state == BLOCK_EMPTY) {
+                victim = block;
+                break;
+            }
+            if (block.state == BLOCK_READY && (victim == null || block.lastUse < victim.lastUse))
+                victim = block;
+        }
+        if (victim == null)
+            return null;
+        if (victim.state == BLOCK_READY && victim.prefetched && !victim.used)
+            mPrefetchWasteCount++;
+
+        victim.index = index;
+        victim.state = BLOCK_LOADING;
+        victim.length = 0;
+        victim.prefetched = prefetch;
+        victim.used = false;
+        victim.lastUse = ++mUseClock;
+        return victim;
+    }
+
+    /**
+     * Reads a whole block from the file. Only the thread that claimed the block calls this, so
+     * no lock is needed; the positional reads mean the demuxer and the prefetcher never share a
+     * file cursor.
+     *
+     * @return bytes read, or -1 on failure
+     */
+    private int fill(Block block, long index) {
+        long position = index * mBlockSize;
+        int length = (int) Math.min(mBlockSize, mFileSize - position);
+        int read = 0;
+        try {
+            while (read < length) {
+                int count = mFile.readAt(position + read, block.data, read, length - read);
+                if (count < 0)
+                    break;
+                read += count;
+            }
+        } catch (IOException e) {
+            if (!mClosed)
+                Log.w(TAG, "read failed at block " + index, e);
+            return -1;
+        }
+        return read;
+    }
+
+    /**
+     * Publishes a filled block, or frees it again if the read failed.
+     * Must be called with {@code mLock} held.
+     */
+    private void finish(Block block, int length) {
+        if (length > 0) {
+            block.length = length;
+            block.state = BLOCK_READY;
+        } else {
+            block.index = -1;
+            block.state = BLOCK_EMPTY;
+        }
+        mLock.notifyAll();
+    }
+
+    private void prefetchLoop() {
+        while (true) {
+            Block block;
+            long index;
+            synchronized (mLock) {
+                while (!mClosed && mQueueStart >= mQueueEnd) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mClosed)
+                    return;
+
+                index = mQueueStart++;
+                if (findBlock(index) != null)
+                    continue;
+                block = claimBlock(index, true);
+                if (block == null)
+                    continue;
+            }
+
+            int length = fill(block, index);
+            synchronized (mLock) {
+                if (length > 0)
+                    mPrefetchCount++;
+                finish(block, length);
+            }
+        }
+    }
+
+    public long getHitCount() {
+        synchronized (mLock) {
+            return mHitCount;
+        }
+    }
+
+    /**
+     * @return reads that found their block still being filled and waited for it
+     */
+    public long getWaitCount() {
+        synchronized (mLock) {
+            return mWaitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (mLock) {
+            return mMissCount;
+        }
+    }
+
+    public long getPrefetchCount() {
+        synchronized (mLock) {
+            return mPrefetchCount;
+        }
+    }
+
+    /**
+     * @return prefetched blocks that a read used
+     */
+    public long getPrefetchHitCount() {
+        synchronized (mLock) {
+            return mPrefetchHitCount;
+        }
+    }
+
+    public long getPrefetchWasteCount() {
+        synchronized (mLock) {
+            return mPrefetchWasteCount;
+        }
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return mFileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mLock) {
+            if (mClosed)
+                return;
+            mClosed = true;
+            clearQueue();
+            mLock.notifyAll();
+        }
+        mFile.close();
+    }
+}
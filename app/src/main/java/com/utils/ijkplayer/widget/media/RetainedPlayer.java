@@ -0,0 +1,225 @@
+package com.utils.ijkplayer.widget.media;
+
+import android.net.Uri;
+
+import java.util.Map;
+
+import tv.danmaku.ijk.media.player.IMediaPlayer;
+
+/**
+ * A running player taken off an {@link IjkVideoView} with {@link IjkVideoView#detachPlayer()}
+ * so that another IjkVideoView, typically the one of an Activity recreated after a
+ * configuration change, picks it up with {@link IjkVideoView#attachPlayer(RetainedPlayer)} and
+ * only has to give it a new surface: the connection, the probed streams and the buffers stay.
+ * <p>
+ * Without a view the player keeps reading and decoding and renders nowhere. The events it
+ * reports in the meantime are recorded, the last {@link #MAX_EVENTS} of them, and replayed to
+ * the view that attaches it. A retained player nobody attaches must be {@link #release()}d.
+ */
+public class RetainedPlayer implements IMediaPlayer.OnPreparedListener, IMediaPlayer.OnVideoSizeChangedListener,
+        IMediaPlayer.OnCompletionListener, IMediaPlayer.OnErrorListener, IMediaPlayer.OnInfoListener,
+        IMediaPlayer.OnBufferingUpdateListener {
+    static final int MAX_EVENTS = 32;
+
+    private static final int EVENT_PREPARED = 1;
+    private static final int EVENT_SIZE = 2;
+    private static final int EVENT_COMPLETION = 3;
+    private static final int EVENT_ERROR = 4;
+    private static final int EVENT_INFO = 5;
+
+    private IMediaPlayer mPlayer;
+    private final IMediaPlayer mPooledPlayer;
+    private final MediaPlayerPool mPool;
+    private boolean mPlayerFailed;
+    private final long mDetachedAt = System.nanoTime() / 1000000;
+
+    // the view's playback state, restored by IjkVideoView.attachPlayer()
+    Uri mUri;
+    Map<String, String> mHeaders;
+    int mCurrentState;
+    int mTargetState;
+    int mVideoWidth;
+    int mVideoHeight;
+    int mVideoSarNum;
+    int mVideoSarDen;
+    int mVideoRotationDegree;
+    int mBufferPercentage;
+    long mSeekWhenPrepared;
+    boolean mUsingMediaCodec;
+    int mOverlayFormat;
+    IjkOptionProfile mOptionProfile;
+
+    // events reported while detached, a ring of the newest MAX_EVENTS
+    private final int[] mEvents = new int[MAX_EVENTS];
+    private final int[] mArgs1 = new int[MAX_EVENTS];
+    private final int[] mArgs2 = new int[MAX_EVENTS];
+    private int mEventCount;
+
+    /**
+     * Starts listening to {@code player} in place of the view it is taken from.
+     *
+     * @param pooledPlayer the player as it was acquired from {@code pool}, null if not pooled
+     */
+    RetainedPlayer(IMediaPlayer player, IMediaPlayer pooledPlayer, MediaPlayerPool pool, boolean playerFailed) {
+        mPlayer = player;
+        mPooledPlayer = pooledPlayer;
+        mPool = pool;
+        mPlayerFailed = playerFailed;
+        player.setOnPreparedListener(this);
+        player.setOnVideoSizeChangedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnErrorListener(this);
+        player.setOnInfoListener(this);
+        player.setOnBufferingUpdateListener(this);
+        // the view's seek listener would keep the old view alive
+        player.setOnSeekCompleteListener(null);
+    }
+
+    /**
+     * @return milliseconds since the player was taken off its view
+     */
+    public long getDetachedMs() {
+        return System.nanoTime() / 1000000 - mDetachedAt;
+    }
+
+    /**
+     * @return false once attached or released
+     */
+    public synchronized boolean isAlive() {
+        return mPlayer != null;
+    }
+
+    /**
+     * @return events recorded since the player was detached, at most {@link #MAX_EVENTS}
+     */
+    public synchronized int getEventCount() {
+        return Math.min(mEventCount, MAX_EVENTS);
+    }
+
+    /**
+     * Stops or pools the player, unless a view has attached it.
+     */
+    public void release() {
+        IMediaPlayer player = take();
+        if (player == null)
+            return;
+        if (mPooledPlayer != null && mPool != null) {
+            mPool.recycle(mPooledPlayer, !mPlayerFailed);
+        } else {
+            player.setDisplay(null);
+            player.reset();
+            player.release();
+        }
+    }
+
+    /**
+     * @return the player, null if it was already taken or released
+     */
+    synchronized IMediaPlayer take() {
+        IMediaPlayer player = mPlayer;
+        mPlayer = null;
+        return player;
+    }
+
+    IMediaPlayer getPooledPlayer() {
+        return mPooledPlayer;
+    }
+
+    MediaPlayerPool getPool() {
+        return mPool;
+    }
+
+    synchronized boolean isPlayerFailed() {
+        return mPlayerFailed;
+    }
+
+    /**
+     * Reports the recorded events to the listeners of the view that took the player, in the
+     * order they happened.
+     */
+    void replay(IMediaPlayer player, IMediaPlayer.OnPreparedListener preparedListener,
+                IMediaPlayer.OnVideoSizeChangedListener sizeChangedListener,
+                IMediaPlayer.OnCompletionListener completionListener,
+                IMediaPlayer.OnErrorListener errorListener, IMediaPlayer.OnInfoListener infoListener) {
+        int count;
+        int first;
+        int[] events;
+        int[] args1;
+        int[] args2;
+        synchronized (this) {
+            count = Math.min(mEventCount, MAX_EVENTS);
+            first = mEventCount - count;
+            events = mEvents.clone();
+            args1 = mArgs1.clone();
+            args2 = mArgs2.clone();
+            mEventCount = 0;
+        }
+        for (int i = first; i < first + count; i++) {
+            int index = i % MAX_EVENTS;
+            switch (events[index]) {
+                case EVENT_PREPARED:
+                    preparedListener.onPrepared(player);
+                    break;
+                case EVENT_SIZE:
+                    sizeChangedListener.onVideoSizeChanged(player, args1[index], args2[index],
+                            player.getVideoSarNum(), player.getVideoSarDen());
+                    break;
+                case EVENT_COMPLETION:
+                    completionListener.onCompletion(player);
+                    break;
+                case EVENT_ERROR:
+                    errorListener.onError(player, args1[index], args2[index]);
+                    break;
+                case EVENT_INFO:
+                    infoListener.onInfo(player, args1[index], args2[index]);
+                    break;
+            }
+        }
+    }
+
+    private synchronized void record(int event, int arg1, int arg2) {
+        int index = mEventCount % MAX_EVENTS;
+        mEvents[index] = event;
+        mArgs1[index] = arg1;
+        mArgs2[index] = arg2;
+        mEventCount++;
+        // keep the index small while still telling a full ring from a partial one
+        if (mEventCount >= 2 * MAX_EVENTS)
+            mEventCount -= MAX_EVENTS;
+    }
+
+    @Override
+    public void onPrepared(IMediaPlayer mp) {
+        record(EVENT_PREPARED, 0, 0);
+    }
+
+    @Override
+    public void onVideoSizeChanged(IMediaPlayer mp, int width, int height, int sarNum, int sarDen) {
+        record(EVENT_SIZE, width, height);
+    }
+
+    @Override
+    public void onCompletion(IMediaPlayer mp) {
+        record(EVENT_COMPLETION, 0, 0);
+    }
+
+    @Override
+    public boolean onError(IMediaPlayer mp, int what, int extra) {
+        synchronized (this) {
+            mPlayerFailed = true;
+        }
+        record(EVENT_ERROR, what, extra);
+        return true;
+    }
+
+    @Override
+    public boolean onInfo(IMediaPlayer mp, int what, int extra) {
+        record(EVENT_INFO, what, extra);
+        return true;
+    }
+
+    @Override
+    public synchronized void onBufferingUpdate(IMediaPlayer mp, int percent) {
+        mBufferPercentage = percent;
+    }
+}
@@ -35,6 +35,8 @@ import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.utils.ijkplayer.stats.RenderStats;
+
 import tv.danmaku.ijk.media.player.IMediaPlayer;
 import tv.danmaku.ijk.media.player.ISurfaceTextureHolder;
 import tv.danmaku.ijk.media.player.ISurfaceTextureHost;
@@ -43,6 +45,7 @@ import tv.danmaku.ijk.media.player.ISurfaceTextureHost;
 public class TextureRenderView extends TextureView implements IRenderView {
     private static final String TAG = "TextureRenderView";
     private MeasureHelper mMeasureHelper;
+    private volatile RenderStats mRenderStats;
 
     public TextureRenderView(Context context) {
         super(context);
@@ -76,6 +79,36 @@ public class TextureRenderView extends TextureView implements IRenderView {
         return this;
     }
 
+    /**
+     * Reports every frame the texture receives to {@code stats}, null stops reporting.
+     */
+    public void setRenderStats(RenderStats stats) {
+        mRenderStats = stats;
+    }
+
+    /**
+     * Moves {@code from}'s SurfaceTexture to this view, so a player drawing into it keeps its
+     * surface while this view replaces {@code from}. Must be called before this view is attached
+     * and {@code from} detached; {@code from} then detaches the texture instead of releasing it.
+     *
+     * @return false if {@code from} has no live SurfaceTexture or one can't be moved here
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public boolean takeOverSurfaceTexture(@NonNull TextureRenderView from) {
+        SurfaceCallback source = from.mSurfaceCallback;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN || !from.isAvailable()
+                || source.mSurfaceTexture == null || !source.mOwnSurfaceTexture)
+            return false;
+
+        source.setOwnSurfaceTexture(false);
+        setSurfaceTexture(source.mSurfaceTexture);
+        mSurfaceCallback.mSurfaceTexture = source.mSurfaceTexture;
+        mSurfaceCallback.mIsFormatChanged = source.mIsFormatChanged;
+        mSurfaceCallback.mWidth = source.mWidth;
+        mSurfaceCallback.mHeight = source.mHeight;
+        return true;
+    }
+
     @Override
     public boolean shouldWaitForResize() {
         return false;
@@ -297,6 +330,10 @@ public class TextureRenderView extends TextureView implements IRenderView {
 
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+            TextureRenderView renderView = mWeakRenderView.get();
+            RenderStats stats = renderView != null ? renderView.mRenderStats : null;
+            if (stats != null)
+                stats.onFrame();
         }
 
         //-------------------------
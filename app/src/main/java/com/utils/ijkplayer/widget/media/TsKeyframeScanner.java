@@ -0,0 +1,217 @@
+package com.utils.ijkplayer.widget.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Builds a {@link KeyframeIndex} for an MPEG-TS file in one sequential pass.
+ * <p>
+ * TS carries no index, which is why ffmpeg has to bisect the file on timestamps to seek in it.
+ * The scanner follows the PAT to the first program's PMT, takes its first video stream and
+ * looks at every packet of that stream that starts a PES: the packet is a key frame if the
+ * muxer set its random access indicator or if the start of the payload holds an IDR picture
+ * (H.264), an IRAP picture (HEVC) or a sequence header (MPEG-1/2). Timestamps are unwrapped
+ * across the 33-bit PTS rollover. Both plain 188-byte packets and 192-byte M2TS packets are
+ * recognized; sync is searched again after a damaged packet.
+ */
+public class TsKeyframeScanner {
+    static final int PACKET_SIZE = 188;
+    static final int M2TS_PACKET_SIZE = 192;
+    private static final int SYNC = 0x47;
+    private static final int PACKETS_PER_READ = 1024;
+    private static final long PTS_WRAP = 1L << 33;
+
+    private static final int STREAM_MPEG1 = 0x01;
+    private static final int STREAM_MPEG2 = 0x02;
+    private static final int STREAM_H264 = 0x1b;
+    private static final int STREAM_HEVC = 0x24;
+
+    private final KeyframeIndex.Builder mBuilder = new KeyframeIndex.Builder();
+    private int mPmtPid = -1;
+    private int mVideoPid = -1;
+    private int mStreamType;
+    private long mFirstPts = -1;
+    private long mLastPts;
+    private long mPtsOffset;
+
+    private TsKeyframeScanner() {
+    }
+
+    /**
+     * @return the key frames of the video stream, null if the file isn't a transport stream or
+     * has no video
+     */
+    public static KeyframeIndex scan(FileChannel channel) throws IOException {
+        byte[] probe = new byte[3 * M2TS_PACKET_SIZE];
+        if (readFully(channel, ByteBuffer.wrap(probe), 0) < probe.length)
+            return null;
+        int packetSize;
+        int prefix;
+        if (isSync(probe, 0, PACKET_SIZE)) {
+            packetSize = PACKET_SIZE;
+            prefix = 0;
+        } else if (isSync(probe, 4, M2TS_PACKET_SIZE)) {
+            packetSize = M2TS_PACKET_SIZE;
+            prefix = 4;
+        } else {
+            return null;
+        }
+
+        TsKeyframeScanner scanner = new TsKeyframeScanner();
+        scanner.scan(channel, packetSize, prefix);
+        if (scanner.mVideoPid < 0)
+            return null;
+        return scanner.mBuilder.build();
+    }
+
+    private static boolean isSync(byte[] data, int first, int packetSize) {
+        return (data[first] & 0xff) == SYNC && (data[first + packetSize] & 0xff) == SYNC
+                && (data[first + 2 * packetSize] & 0xff) == SYNC;
+    }
+
+    private void scan(FileChannel channel, int packetSize, int prefix) throws IOException {
+        byte[] data = new byte[packetSize * PACKETS_PER_READ];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = 0;
+        while (true) {
+            buffer.clear();
+            int length = readFully(channel, buffer, position);
+            if (length < packetSize)
+                break;
+            int offset = 0;
+            while (offset + packetSize <= length) {
+                if ((data[offset + prefix] & 0xff) != SYNC) {
+                    offset++;
+                    continue;
+                }
+                onPacket(data, offset + prefix, position + offset);
+                offset += packetSize;
+            }
+            position += offset;
+        }
+    }
+
+    private void onPacket(byte[] b, int p, long offset) {
+        int pid = ((b[p + 1] & 0x1f) << 8) | (b[p + 2] & 0xff);
+        boolean unitStart = (b[p + 1] & 0x40) != 0;
+        if (!unitStart)
+            return;
+        int control = (b[p + 3] >> 4) & 0x3;
+        int payload = p + 4;
+        boolean randomAccess = false;
+        if ((control & 0x2) != 0) {
+            int adaptationLength = b[p + 4] & 0xff;
+            if (adaptationLength > 0)
+                randomAccess = (b[p + 5] & 0x40) != 0;
+            payload = p + 5 + adaptationLength;
+        }
+        int end = p + PACKET_SIZE;
+        if ((control & 0x1) == 0 || payload >= end)
+            return;
+
+        if (pid == 0) {
+            if (mPmtPid < 0)
+                parsePat(b, payload, end);
+        } else if (pid == mPmtPid) {
+            if (mVideoPid < 0)
+                parsePmt(b, payload, end);
+        } else if (pid == mVideoPid) {
+            parsePes(b, payload, end, randomAccess, offset);
+        }
+    }
+
+    private void parsePat(byte[] b, int payload, int end) {
+        int t = payload + 1 + (b[payload] & 0xff);
+        if (t + 8 > end || b[t] != 0)
+            return;
+        int sectionEnd = Math.min(end, t + 3 + (((b[t + 1] & 0x0f) << 8) | (b[t + 2] & 0xff)) - 4);
+        for (int i = t + 8; i + 4 <= sectionEnd; i += 4) {
+            int program = ((b[i] & 0xff) << 8) | (b[i + 1] & 0xff);
+            // program 0 points at the network information table
+            if (program != 0) {
+                mPmtPid = ((b[i + 2] & 0x1f) << 8) | (b[i + 3] & 0xff);
+                return;
+            }
+        }
+    }
+
+    private void parsePmt(byte[] b, int payload, int end) {
+        int t = payload + 1 + (b[payload] & 0xff);
+        if (t + 12 > end || b[t] != 2)
+            return;
+        int sectionEnd = Math.min(end, t + 3 + (((b[t + 1] & 0x0f) << 8) | (b[t + 2] & 0xff)) - 4);
+        int i = t + 12 + (((b[t + 10] & 0x0f) << 8) | (b[t + 11] & 0xff));
+        while (i + 5 <= sectionEnd) {
+            int type = b[i] & 0xff;
+            if (type == STREAM_H264 || type == STREAM_HEVC || type == STREAM_MPEG2 || type == STREAM_MPEG1) {
+                mStreamType = type;
+                mVideoPid = ((b[i + 1] & 0x1f) << 8) | (b[i + 2] & 0xff);
+                return;
+            }
+            i += 5 + (((b[i + 3] & 0x0f) << 8) | (b[i + 4] & 0xff));
+        }
+    }
+
+    private void parsePes(byte[] b, int payload, int end, boolean randomAccess, long offset) {
+        if (payload + 14 > end || b[payload] != 0 || b[payload + 1] != 0 || b[payload + 2] != 1)
+            return;
+        if ((b[payload + 7] & 0x80) == 0)
+            return;
+        int q = payload + 9;
+        long pts = ((long) ((b[q] >> 1) & 0x07) << 30) | ((b[q + 1] & 0xff) << 22)
+                | (((b[q + 2] & 0xff) >> 1) << 15) | ((b[q + 3] & 0xff) << 7) | ((b[q + 4] & 0xff) >> 1);
+        long time = unwrap(pts);
+        if (randomAccess || startsKeyframe(b, payload + 9 + (b[payload + 8] & 0xff), end))
+            mBuilder.add(Math.max(0, (time - mFirstPts) / 90), offset);
+    }
+
+    private long unwrap(long pts) {
+        if (mFirstPts < 0) {
+            mFirstPts = pts;
+            mLastPts = pts;
+            return pts;
+        }
+        long time = pts + mPtsOffset;
+        if (time < mLastPts - PTS_WRAP / 2) {
+            mPtsOffset += PTS_WRAP;
+            time += PTS_WRAP;
+        }
+        mLastPts = time;
+        return time;
+    }
+
+    private boolean startsKeyframe(byte[] b, int from, int end) {
+        for (int i = from; i + 3 < end; i++) {
+            if (b[i] != 0 || b[i + 1] != 0 || b[i + 2] != 1)
+                continue;
+            int header = b[i + 3] & 0xff;
+            switch (mStreamType) {
+                case STREAM_H264:
+                    if ((header & 0x1f) == 5)
+                        return true;
+                    break;
+                case STREAM_HEVC:
+                    int type = (header >> 1) & 0x3f;
+                    if (type >= 16 && type <= 21)
+                        return true;
+                    break;
+                default:
+                    if (header == 0xb3)
+                        return true;
+                    break;
+            }
+            i += 2;
+        }
+        return false;
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - start) < 0)
+                break;
+        }
+        return buffer.position() - start;
+    }
+}
@@ -0,0 +1,27 @@
+package com.utils.ijkplayer.common;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Heap bytes allocated by the calling thread, for tests that check a path does not allocate.
+ * A test using it is skipped on a JVM that cannot count allocations, rather than passing on a
+ * count that is always 0.
+ */
+public final class AllocationCounter {
+    private AllocationCounter() {
+    }
+
+    public static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("no allocation counting on this JVM", bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue("thread allocation counting not supported", threads.isThreadAllocatedMemorySupported());
+        if (!threads.isThreadAllocatedMemoryEnabled())
+            threads.setThreadAllocatedMemoryEnabled(true);
+        long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        Assume.assumeTrue("thread allocation counting disabled", bytes >= 0);
+        return bytes;
+    }
+}
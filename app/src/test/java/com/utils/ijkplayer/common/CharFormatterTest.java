@@ -0,0 +1,132 @@
+package com.utils.ijkplayer.common;
+
+import org.junit.Test;
+
+import static com.utils.ijkplayer.common.AllocationCounter.allocatedBytes;
+import static org.junit.Assert.*;
+
+public class CharFormatterTest {
+    @Test
+    public void formatsTimes() {
+        CharFormatter formatter = new CharFormatter(32);
+
+        assertEquals("00:00", formatter.clear().appendTime(0).toString());
+        assertEquals("00:00", formatter.clear().appendTime(-500).toString());
+        assertEquals("00:59", formatter.clear().appendTime(59999).toString());
+        assertEquals("01:23", formatter.clear().appendTime(83000).toString());
+        assertEquals("59:59", formatter.clear().appendTime(3599000).toString());
+        assertEquals("01:00:00", formatter.clear().appendTime(3600000).toString());
+        assertEquals("123:04:05", formatter.clear().appendTime((123 * 3600 + 4 * 60 + 5) * 1000L).toString());
+    }
+
+    @Test
+    public void matchesStringFormat() {
+        CharFormatter formatter = new CharFormatter(32);
+        for (long ms = 0; ms < 10 * 3600 * 1000L; ms += 7919) {
+            int totalSeconds = (int) (ms / 1000);
+            int seconds = totalSeconds % 60;
+            int minutes = (totalSeconds / 60) % 60;
+            int hours = totalSeconds / 3600;
+            String expected = hours > 0 ? String.format("%02d:%02d:%02d", hours, minutes, seconds)
+                    : String.format("%02d:%02d", minutes, seconds);
+            assertEquals(expected, formatter.clear().appendTime(ms).toString());
+        }
+    }
+
+    @Test
+    public void formatsNumbers() {
+        CharFormatter formatter = new CharFormatter(64);
+
+        assertEquals("0", formatter.clear().append(0).toString());
+        assertEquals("-42", formatter.clear().append(-42).toString());
+        assertEquals("007", formatter.clear().append(7, 3).toString());
+        assertEquals("-007", formatter.clear().append(-7, 3).toString());
+        assertEquals("+12", formatter.clear().appendSigned(12).toString());
+        assertEquals("+0", formatter.clear().appendSigned(0).toString());
+        assertEquals("-5", formatter.clear().appendSigned(-5).toString());
+        assertEquals("50%", formatter.clear().appendPercent(50).toString());
+        assertEquals(String.valueOf(Long.MAX_VALUE), formatter.clear().append(Long.MAX_VALUE).toString());
+        assertEquals(String.valueOf(Long.MIN_VALUE), formatter.clear().append(Long.MIN_VALUE).toString());
+    }
+
+    @Test
+    public void appendsInPlace() {
+        CharFormatter formatter = new CharFormatter(32);
+        char[] chars = formatter.getChars();
+        formatter.clear().appendSigned(-12).append('s').append(' ')
+                .appendTime(83000).append('/').appendTime(600000).append(" vod");
+
+        assertEquals("-12s 01:23/10:00 vod", formatter.toString());
+        assertSame(chars, formatter.getChars());
+        assertEquals(20, formatter.length());
+        assertEquals("", formatter.clear().toString());
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void overflowThrows() {
+        new CharFormatter(4).appendTime(83000);
+    }
+
+    /**
+     * One progress, volume and brightness text per simulated scroll event, against the
+     * String.format and concatenation they replace.
+     */
+    @Test
+    public void gestureTextDoesNotAllocate() {
+        CharFormatter formatter = new CharFormatter(32);
+        long duration = 2 * 3600 * 1000L;
+        long sink = formatGestures(formatter, duration, 20000);
+        sink += formatWithStrings(duration, 20000);
+
+        int count = 200000;
+        long before = allocatedBytes();
+        long start = System.nanoTime();
+        sink += formatGestures(formatter, duration, count);
+        long chars = System.nanoTime() - start;
+        long allocated = allocatedBytes() - before;
+
+        before = allocatedBytes();
+        start = System.nanoTime();
+        sink += formatWithStrings(duration, count);
+        long strings = System.nanoTime() - start;
+        long stringAllocated = allocatedBytes() - before;
+
+        System.out.println(String.format("gesture text per event: char[] %.1f ns %d B, String.format %.1f ns %d B (%d)",
+                (double) chars / count, allocated / count, (double) strings / count, stringAllocated / count,
+                sink & 1));
+        assertTrue("allocated " + allocated, allocated < 100000);
+    }
+
+    private static long formatGestures(CharFormatter formatter, long duration, int count) {
+        long sink = 0;
+        for (int i = 0; i < count; i++) {
+            long position = (i * 7919L) % duration;
+            formatter.clear().appendSigned(i % 200 - 100).append('s').append(' ')
+                    .appendTime(position).append('/').appendTime(duration);
+            sink += formatter.getChars()[formatter.length() - 1];
+            formatter.clear().appendPercent(i % 101);
+            sink += formatter.length();
+        }
+        return sink;
+    }
+
+    private static long formatWithStrings(long duration, int count) {
+        long sink = 0;
+        for (int i = 0; i < count; i++) {
+            long position = (i * 7919L) % duration;
+            String text = (i % 200 - 100) + "s " + time(position) + "/" + time(duration);
+            sink += text.length();
+            sink += ((i % 101) + "%").length();
+        }
+        return sink;
+    }
+
+    private static String time(long ms) {
+        int totalSeconds = (int) (ms / 1000);
+        int seconds = totalSeconds % 60;
+        int minutes = (totalSeconds / 60) % 60;
+        int hours = totalSeconds / 3600;
+        return hours > 0 ? String.format("%02d:%02d:%02d", hours, minutes, seconds)
+                : String.format("%02d:%02d", minutes, seconds);
+    }
+}
@@ -0,0 +1,98 @@
+package com.utils.ijkplayer.common;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import tv.danmaku.ijk.media.player.IMediaPlayer;
+
+import static org.junit.Assert.*;
+
+public class ReconnectPolicyTest {
+    private final ReconnectPolicy mPolicy = new ReconnectPolicy(new Random(42));
+
+    @Test
+    public void classifiesErrors() {
+        assertEquals(ReconnectPolicy.ERROR_RETRYABLE, ReconnectPolicy.classify(IMediaPlayer.MEDIA_ERROR_IO, 0));
+        assertEquals(ReconnectPolicy.ERROR_RETRYABLE, ReconnectPolicy.classify(IMediaPlayer.MEDIA_ERROR_UNKNOWN, -110));
+        assertEquals(ReconnectPolicy.ERROR_RETRYABLE,
+                ReconnectPolicy.classify(-10000, ReconnectPolicy.AVERROR_HTTP_SERVER_ERROR));
+        assertEquals(ReconnectPolicy.ERROR_FATAL, ReconnectPolicy.classify(IMediaPlayer.MEDIA_ERROR_UNSUPPORTED, 0));
+        assertEquals(ReconnectPolicy.ERROR_FATAL, ReconnectPolicy.classify(-10000, ReconnectPolicy.AVERROR_HTTP_NOT_FOUND));
+        assertEquals(ReconnectPolicy.ERROR_FATAL, ReconnectPolicy.classify(-10000, ReconnectPolicy.AVERROR_INVALIDDATA));
+        // the tag values ffmpeg defines
+        assertEquals(-1094995529, ReconnectPolicy.AVERROR_INVALIDDATA);
+        assertEquals(-875574520, ReconnectPolicy.AVERROR_HTTP_NOT_FOUND);
+    }
+
+    @Test
+    public void backsOffExponentiallyWithJitterUpToTheCap() {
+        long previousMax = 0;
+        for (int attempt = 0; attempt < ReconnectPolicy.DEFAULT_MAX_ATTEMPTS; attempt++) {
+            long delay = mPolicy.onError(IMediaPlayer.MEDIA_ERROR_IO, 0, attempt * 1000);
+            long full = Math.min(ReconnectPolicy.DEFAULT_MAX_DELAY_MS, ReconnectPolicy.DEFAULT_BASE_DELAY_MS << attempt);
+            assertTrue(delay + " at " + attempt, delay >= full / 2 && delay <= full);
+            assertTrue(full >= previousMax);
+            previousMax = full;
+        }
+        assertEquals(ReconnectPolicy.DEFAULT_MAX_ATTEMPTS, mPolicy.getAttempt());
+        assertEquals(-1, mPolicy.onError(IMediaPlayer.MEDIA_ERROR_IO, 0, 9000));
+        assertFalse(mPolicy.isReconnecting());
+        assertEquals(1, mPolicy.getGiveUpCount());
+        assertEquals(0, mPolicy.getSuccessRate(), 0);
+    }
+
+    @Test
+    public void jitterSpreadsDelays() {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 50; i++) {
+            long delay = mPolicy.delay(3);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 500);
+    }
+
+    @Test
+    public void recoveryRecordsLatencyAndResetsBackoff() {
+        mPolicy.onError(IMediaPlayer.MEDIA_ERROR_IO, 0, 0);
+        mPolicy.onError(IMediaPlayer.MEDIA_ERROR_IO, 0, 600);
+        assertTrue(mPolicy.isReconnecting());
+        mPolicy.onRecovered(1800);
+        assertFalse(mPolicy.isReconnecting());
+        assertEquals(1, mPolicy.getRecoveredCount());
+        assertEquals(2, mPolicy.getAttemptCount());
+        assertEquals(1800, mPolicy.getReconnectHistogram().getMax());
+        assertEquals(1, mPolicy.getSuccessRate(), 0);
+
+        // a later, unrelated outage starts from the first delay again
+        long delay = mPolicy.onError(IMediaPlayer.MEDIA_ERROR_IO, 0, 1800 + ReconnectPolicy.STABLE_MS);
+        assertTrue(delay <= ReconnectPolicy.DEFAULT_BASE_DELAY_MS);
+        assertEquals(1, mPolicy.getAttempt());
+    }
+
+    @Test
+    public void flappingStreamKeepsBackingOff() {
+        mPolicy.setMaxAttempts(3);
+        long now = 0;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(mPolicy.onError(IMediaPlayer.MEDIA_ERROR_IO, 0, now) >= 0);
+            mPolicy.onRecovered(now + 500);
+            now += 1000;
+        }
+        assertEquals(-1, mPolicy.onError(IMediaPlayer.MEDIA_ERROR_IO, 0, now));
+        assertEquals(3, mPolicy.getRecoveredCount());
+        assertEquals(1, mPolicy.getGiveUpCount());
+    }
+
+    @Test
+    public void fatalOrDisabledIsReportedAtOnce() {
+        assertEquals(-1, mPolicy.onError(IMediaPlayer.MEDIA_ERROR_MALFORMED, 0, 0));
+        assertEquals(1, mPolicy.getFatalCount());
+        mPolicy.setMaxDelayMs(0);
+        assertEquals(-1, mPolicy.onError(IMediaPlayer.MEDIA_ERROR_IO, 0, 0));
+        assertEquals(0, mPolicy.getAttemptCount());
+        assertTrue(mPolicy.report(), mPolicy.report().startsWith("recovered=0 gaveUp=0 fatal=1 attempts=0"));
+    }
+}
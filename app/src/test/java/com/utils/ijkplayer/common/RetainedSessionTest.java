@@ -0,0 +1,65 @@
+package com.utils.ijkplayer.common;
+
+import com.utils.ijkplayer.stats.RenderStats;
+import com.utils.ijkplayer.stats.StallTracker;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The hand-off between the PlayerManager of a destroyed Activity and the one of its
+ * recreation: onDestroy() keeps the session, play() of the same url takes it back.
+ */
+public class RetainedSessionTest {
+    private static final String URL = "http://example.com/live.m3u8";
+
+    @After
+    public void tearDown() {
+        RetainedSession.take(null);
+    }
+
+    @Test
+    public void playOfTheSameUrlTakesTheKeptSession() {
+        RetainedSession kept = session(URL);
+        StallTracker stallTracker = kept.stallTracker;
+        RenderStats renderStats = kept.renderStats;
+        RetainedSession.keep(kept);
+
+        RetainedSession taken = RetainedSession.take(URL);
+        // the new PlayerManager carries on with the same session, nothing is recreated
+        assertSame(kept, taken);
+        assertSame(stallTracker, taken.stallTracker);
+        assertSame(renderStats, taken.renderStats);
+        assertNull(RetainedSession.take(URL));
+    }
+
+    @Test
+    public void playOfAnotherUrlLeavesTheSessionToBeReleased() {
+        RetainedSession kept = session(URL);
+        RetainedSession.keep(kept);
+
+        assertNull(RetainedSession.take("http://example.com/other.m3u8"));
+        assertSame(kept, RetainedSession.take(null));
+        assertNull(RetainedSession.take(null));
+    }
+
+    @Test
+    public void onlyTheLastSessionIsKept() {
+        RetainedSession.keep(session(URL));
+        RetainedSession last = session(URL);
+        RetainedSession.keep(last);
+
+        assertSame(last, RetainedSession.take(URL));
+        assertNull(RetainedSession.take(null));
+    }
+
+    private static RetainedSession session(String url) {
+        RetainedSession session = new RetainedSession();
+        session.url = url;
+        session.stallTracker = new StallTracker();
+        session.renderStats = new RenderStats();
+        return session;
+    }
+}
@@ -0,0 +1,173 @@
+package com.utils.ijkplayer.decoder;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import tv.danmaku.ijk.media.player.IMediaPlayer;
+
+import static org.junit.Assert.*;
+
+public class DecoderPolicyTest {
+    private static final int AVC_HIGH = 8;
+    private static final int HEVC_MAIN = 1;
+    private static final int HEVC_MAIN10 = 2;
+
+    private static final VideoFormat AVC_1080 = new VideoFormat("h264", "High", 1920, 1080, 30);
+    private static final VideoFormat AVC_4K = new VideoFormat("h264", "High", 3840, 2160, 30);
+    private static final VideoFormat HEVC_10BIT = new VideoFormat("hevc", "Main 10", 1920, 1080, 30);
+    private static final VideoFormat MPEG4 = new VideoFormat("mpeg4", "Simple Profile", 640, 480, 25);
+
+    private final MapStore mStore = new MapStore();
+    // a typical mid-range device: 1080p AVC, HEVC 8-bit only, nothing else
+    private final CapabilityTable mTable = new CapabilityTable()
+            .add("video/avc", 1920, 1088, 60, 1, 2, AVC_HIGH)
+            .add("video/hevc", 1920, 1088, 60, HEVC_MAIN);
+
+    private static class MapStore implements DecoderPolicy.Store {
+        final Map<String, String> values = new HashMap<String, String>();
+
+        @Override
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void put(String key, String value) {
+            values.put(key, value);
+        }
+    }
+
+    @Test
+    public void choosesFromCapabilities() {
+        DecoderPolicy policy = new DecoderPolicy(mTable, mStore);
+        assertEquals(DecoderPolicy.DECODER_MEDIACODEC, policy.choose(AVC_1080));
+        assertEquals(DecoderPolicy.DECODER_SOFTWARE, policy.choose(AVC_4K));
+        assertEquals(DecoderPolicy.DECODER_SOFTWARE, policy.choose(HEVC_10BIT));
+        assertEquals(DecoderPolicy.DECODER_SOFTWARE, policy.choose(MPEG4));
+        // portrait video fits the same decoder
+        assertEquals(DecoderPolicy.DECODER_MEDIACODEC, policy.choose(new VideoFormat("h264", "High", 1080, 1920, 30)));
+
+        DecoderPolicy noHardware = new DecoderPolicy(new CapabilityTable(), new MapStore());
+        assertEquals(DecoderPolicy.DECODER_SOFTWARE, noHardware.choose(AVC_1080));
+    }
+
+    @Test
+    public void unknownUrlsUseTheDefaultFormatUntilProbed() {
+        DecoderPolicy policy = new DecoderPolicy(mTable, mStore);
+        assertEquals(DecoderPolicy.DECODER_MEDIACODEC, policy.choose("http://a/4k.mp4"));
+        policy.onFormat("http://a/4k.mp4", AVC_4K);
+        assertEquals(DecoderPolicy.DECODER_SOFTWARE, policy.choose("http://a/4k.mp4"));
+        assertEquals(AVC_4K, policy.getFormat("http://a/4k.mp4"));
+    }
+
+    @Test
+    public void failuresMoveTheFormatClassToSoftware() {
+        DecoderPolicy policy = new DecoderPolicy(mTable, mStore);
+        policy.onOutcome(AVC_1080, true);
+        policy.onOutcome(AVC_1080, false);
+        assertEquals(DecoderPolicy.DECODER_MEDIACODEC, policy.choose(AVC_1080));
+        policy.onOutcome(AVC_1080, false);
+        assertEquals(DecoderPolicy.DECODER_SOFTWARE, policy.choose(AVC_1080));
+        // the same class at another exact size shares the history, other classes don't
+        assertEquals(DecoderPolicy.DECODER_SOFTWARE, policy.choose(new VideoFormat("h264", "High", 1920, 800, 24)));
+        assertEquals(DecoderPolicy.DECODER_MEDIACODEC, policy.choose(new VideoFormat("h264", "High", 1280, 720, 30)));
+    }
+
+    @Test
+    public void recentOutcomesOutweighOldOnes() {
+        DecoderPolicy policy = new DecoderPolicy(mTable, mStore);
+        for (int i = 0; i < DecoderPolicy.MAX_OUTCOMES; i++)
+            policy.onOutcome(AVC_1080, false);
+        assertTrue(policy.getFailureCount(AVC_1080) <= DecoderPolicy.MAX_OUTCOMES);
+        // after a firmware fix the successes win within a bounded number of sessions
+        int sessions = 0;
+        while (policy.choose(AVC_1080) == DecoderPolicy.DECODER_SOFTWARE && sessions < 100) {
+            policy.onOutcome(AVC_1080, true);
+            sessions++;
+        }
+        assertTrue(sessions + " sessions", sessions <= DecoderPolicy.MAX_OUTCOMES);
+    }
+
+    @Test
+    public void decisionsSurviveARestart() {
+        DecoderPolicy policy = new DecoderPolicy(mTable, mStore);
+        policy.onFormat("http://a/hevc.mp4", HEVC_10BIT);
+        policy.onFormat("http://a/avc.mp4", AVC_1080);
+        policy.onOutcome(AVC_1080, false);
+        policy.onOutcome(AVC_1080, false);
+
+        DecoderPolicy restarted = new DecoderPolicy(mTable, mStore);
+        assertEquals(HEVC_10BIT, restarted.getFormat("http://a/hevc.mp4"));
+        assertEquals(DecoderPolicy.DECODER_SOFTWARE, restarted.choose("http://a/avc.mp4"));
+        assertEquals(2, restarted.getFailureCount(AVC_1080));
+    }
+
+    @Test
+    public void oneFailureIsNotEnough() {
+        DecoderPolicy policy = new DecoderPolicy(mTable, mStore);
+        policy.onOutcome(AVC_1080, false);
+        assertEquals(DecoderPolicy.DECODER_MEDIACODEC, policy.choose(AVC_1080));
+    }
+
+    @Test
+    public void aClassOnSoftwareRecoversAfterAFirmwareFix() {
+        DecoderPolicy policy = new DecoderPolicy(mTable, mStore);
+        for (int i = 0; i < DecoderPolicy.MAX_OUTCOMES; i++)
+            policy.onOutcome(AVC_1080, false);
+
+        // MediaCodec is retried every REPROBE_INTERVAL plays, and now it works
+        int plays = 0;
+        int retries = 0;
+        int mediaCodecInARow = 0;
+        while (mediaCodecInARow < DecoderPolicy.REPROBE_INTERVAL && plays < 1000) {
+            plays++;
+            if (new DecoderPolicy(mTable, mStore).choose(AVC_1080) == DecoderPolicy.DECODER_MEDIACODEC) {
+                policy.onOutcome(AVC_1080, true);
+                mediaCodecInARow++;
+                retries++;
+            } else {
+                mediaCodecInARow = 0;
+            }
+        }
+        assertEquals(DecoderPolicy.DECODER_MEDIACODEC, policy.choose(AVC_1080));
+        // a handful of successful retries bring the class back, not dozens
+        assertTrue(retries + " retries in " + plays + " plays", plays - retries <= 4 * DecoderPolicy.REPROBE_INTERVAL);
+    }
+
+    @Test
+    public void aClassThatKeepsFailingStaysOnSoftware() {
+        DecoderPolicy policy = new DecoderPolicy(mTable, mStore);
+        policy.onOutcome(AVC_1080, false);
+        policy.onOutcome(AVC_1080, false);
+        int mediaCodec = 0;
+        for (int i = 0; i < 10 * DecoderPolicy.REPROBE_INTERVAL; i++) {
+            if (policy.choose(AVC_1080) == DecoderPolicy.DECODER_MEDIACODEC) {
+                policy.onOutcome(AVC_1080, false);
+                mediaCodec++;
+            }
+        }
+        assertEquals(10, mediaCodec);
+    }
+
+    @Test
+    public void remembersABoundedNumberOfUrls() {
+        DecoderPolicy policy = new DecoderPolicy(mTable, mStore);
+        for (int i = 0; i <= DecoderPolicy.MAX_URLS; i++)
+            policy.onFormat("http://a/" + i, AVC_4K);
+        assertNull(policy.getFormat("http://a/0"));
+        assertEquals(AVC_4K, new DecoderPolicy(mTable, mStore).getFormat("http://a/" + DecoderPolicy.MAX_URLS));
+    }
+
+    @Test
+    public void networkErrorsAreNotBlamedOnTheDecoder() {
+        assertFalse(DecoderPolicy.isDecoderError(IMediaPlayer.MEDIA_ERROR_IO, 0));
+        assertFalse(DecoderPolicy.isDecoderError(-10000, -110));
+        // AVERROR_HTTP_NOT_FOUND and AVERROR_HTTP_SERVER_ERROR
+        assertFalse(DecoderPolicy.isDecoderError(-10000, -875574520));
+        assertFalse(DecoderPolicy.isDecoderError(-10000, -(0xF8 | '5' << 8 | 'X' << 16 | 'X' << 24)));
+        assertTrue(DecoderPolicy.isDecoderError(-10000, 0));
+        assertTrue(DecoderPolicy.isDecoderError(IMediaPlayer.MEDIA_ERROR_UNKNOWN, -1094995529));
+    }
+}
@@ -0,0 +1,54 @@
+package com.utils.ijkplayer.decoder;
+
+import org.junit.Test;
+
+import tv.danmaku.ijk.media.player.IjkMediaMeta;
+
+import static org.junit.Assert.*;
+
+public class VideoFormatTest {
+
+    @Test
+    public void mapsFfmpegNamesToMediaCodec() {
+        VideoFormat avc = new VideoFormat("h264", "Constrained Baseline", 640, 360, 25);
+        assertEquals("video/avc", avc.getMimeType());
+        assertEquals(1, avc.getAndroidProfile());
+        assertEquals(8, new VideoFormat("h264", "High", 1920, 1080, 30).getAndroidProfile());
+        assertEquals(2, new VideoFormat("hevc", "Main 10", 3840, 2160, 60).getAndroidProfile());
+        assertEquals(4, new VideoFormat("vp9", "Profile 2", 1920, 1080, 30).getAndroidProfile());
+        assertEquals(-1, new VideoFormat("hevc", null, 1920, 1080, 30).getAndroidProfile());
+        assertNull(new VideoFormat("flv1", null, 320, 240, 15).getMimeType());
+    }
+
+    @Test
+    public void outcomeKeyRoundsToResolutionClass() {
+        assertEquals("h264/High/1080", new VideoFormat("h264", "High", 1920, 800, 24).getOutcomeKey());
+        assertEquals("h264/High/1080", new VideoFormat("h264", "High", 1080, 1920, 30).getOutcomeKey());
+        assertEquals("hevc//2160", new VideoFormat("hevc", "", 3840, 2160, 30).getOutcomeKey());
+        assertEquals("h264/Main/4320", new VideoFormat("h264", "Main", 8192, 8192, 30).getOutcomeKey());
+    }
+
+    @Test
+    public void encodesAndDecodes() {
+        VideoFormat format = new VideoFormat("hevc", "Main", 1280, 720, 29.97f);
+        assertEquals(format, VideoFormat.decode(format.encode()));
+        VideoFormat noProfile = new VideoFormat("vp8", null, 640, 480, 0);
+        assertEquals(noProfile, VideoFormat.decode(noProfile.encode()));
+        assertNull(VideoFormat.decode("garbage"));
+        assertNull(VideoFormat.decode("h264|High|x|1080|30"));
+    }
+
+    @Test
+    public void readsIjkStreamMeta() {
+        assertNull(VideoFormat.from(null));
+        IjkMediaMeta.IjkStreamMeta stream = new IjkMediaMeta.IjkStreamMeta();
+        stream.mCodecName = "h264";
+        stream.mCodecProfile = "Main";
+        stream.mWidth = 1280;
+        stream.mHeight = 720;
+        stream.mFpsNum = 30000;
+        stream.mFpsDen = 1001;
+        VideoFormat format = VideoFormat.from(stream);
+        assertEquals(new VideoFormat("h264", "Main", 1280, 720, 30000f / 1001), format);
+    }
+}
@@ -0,0 +1,84 @@
+package com.utils.ijkplayer.hls;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AbrControllerTest {
+    private static final long[] BITRATES = {1000000, 3000000, 10000000};
+
+    @Test
+    public void throughputPicksHighestFittingVariant() {
+        AbrController controller = new AbrController(BITRATES);
+        assertEquals(0, controller.select(2000000, 0));
+        assertEquals(1, controller.select(4000000, 0));
+        // 10 Mbit/s needs 11.1 Mbit/s of bandwidth with the safety margin
+        assertEquals(1, controller.select(10500000, 0));
+        assertEquals(2, controller.select(12000000, 0));
+        assertEquals(0, controller.select(100000, 0));
+        assertEquals(2, controller.getUpSwitchCount());
+        assertEquals(1, controller.getDownSwitchCount());
+        assertFalse(controller.isBolaMode());
+    }
+
+    @Test
+    public void bolaClimbsWithBuffer() {
+        AbrController controller = new AbrController(BITRATES);
+        assertEquals(0, controller.bolaChoice(10));
+        assertEquals(1, controller.bolaChoice(20));
+        assertEquals(2, controller.bolaChoice(30));
+    }
+
+    @Test
+    public void bolaUpSwitchIsCappedByThroughput() {
+        AbrController controller = new AbrController(BITRATES);
+        assertEquals(0, controller.select(2000000, 0));
+        // a full buffer alone doesn't justify 10 Mbit/s on a 4 Mbit/s link
+        assertEquals(1, controller.select(4000000, 30000));
+        assertTrue(controller.isBolaMode());
+        assertEquals(1, controller.select(4000000, 30000));
+        assertEquals(2, controller.select(20000000, 30000));
+        // BOLA holds the top variant through a throughput dip while the buffer is long
+        assertEquals(2, controller.select(2000000, 28000));
+        // and drops back to the throughput rule once it runs low
+        assertEquals(0, controller.select(2000000, 8000));
+        assertFalse(controller.isBolaMode());
+    }
+
+    @Test
+    public void enteringBolaOnAFastLinkDoesNotSwitchDown() {
+        AbrController controller = new AbrController(BITRATES);
+        for (long bufferMs = 0; bufferMs <= 30000; bufferMs += 2000)
+            assertEquals("buffer " + bufferMs, 2, controller.select(20000000, bufferMs));
+        assertTrue(controller.isBolaMode());
+        assertEquals(0, controller.getDownSwitchCount());
+        // the placeholder is used up by now, a draining buffer still switches down
+        assertEquals(1, controller.select(20000000, 20000));
+        assertEquals(1, controller.getDownSwitchCount());
+    }
+
+    @Test
+    public void bolaEntersAtTheCurrentVariant() {
+        for (int i = 0; i < BITRATES.length; i++) {
+            AbrController controller = new AbrController(BITRATES);
+            long bandwidth = (long) (BITRATES[i] / AbrController.SAFETY_FACTOR) + 1;
+            assertEquals(i, controller.select(bandwidth, 0));
+            assertEquals(i, controller.select(bandwidth, 12000));
+            assertTrue(controller.isBolaMode());
+            assertEquals(0, controller.getSwitchCount());
+        }
+    }
+
+    @Test
+    public void singleVariant() {
+        AbrController controller = new AbrController(new long[]{500000});
+        assertEquals(0, controller.select(100, 0));
+        assertEquals(0, controller.select(100000000, 60000));
+        assertEquals(0, controller.getSwitchCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsortedBitrates() {
+        new AbrController(new long[]{3000000, 1000000});
+    }
+}
@@ -0,0 +1,325 @@
+package com.utils.ijkplayer.hls;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HlsCacheProxyTest {
+    private static final int SEGMENT_COUNT = 3;
+    private static final long[] ABR_BITRATES = {1000000, 3000000, 10000000};
+    private static final int ABR_SEGMENT_COUNT = 6;
+
+    private TestOrigin mOrigin;
+    private HlsCacheProxy mProxy;
+    private File mCacheDir;
+    private byte[][] mSegments = new byte[SEGMENT_COUNT][];
+
+    @Before
+    public void setUp() throws Exception {
+        mOrigin = new TestOrigin();
+        mOrigin.put("/live/index.m3u8", "#EXTM3U\n"
+                + "#EXT-X-TARGETDURATION:2\n"
+                + "#EXT-X-MEDIA-SEQUENCE:7\n"
+                + "#EXT-X-KEY:METHOD=AES-128,URI=\"key.bin\"\n"
+                + "#EXTINF:2.0,\n"
+                + "seg0.ts\n"
+                + "#EXTINF:2.0,\n"
+                + "/live/seg1.ts\n"
+                + "#EXTINF:1.5,\n"
+                + mOrigin.url("/live/seg2.ts") + "\n"
+                + "#EXT-X-ENDLIST\n");
+        mOrigin.put("/live/key.bin", new byte[16]);
+        Random random = new Random(11);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            mSegments[i] = new byte[100 * 1024 + i];
+            random.nextBytes(mSegments[i]);
+            mOrigin.put("/live/seg" + i + ".ts", mSegments[i]);
+        }
+
+        mCacheDir = new File(System.getProperty("java.io.tmpdir"), "hls-proxy-test-" + System.nanoTime());
+        mProxy = new HlsCacheProxy(mCacheDir, 10 * 1024 * 1024);
+        mProxy.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mProxy.stop();
+        mOrigin.stop();
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        mCacheDir.delete();
+    }
+
+    @Test
+    public void playlistUrisPointAtProxy() throws Exception {
+        String proxyUrl = mProxy.getProxyUrl(mOrigin.url("/live/index.m3u8"));
+        assertTrue(proxyUrl.endsWith("/index.m3u8"));
+
+        String text = new String(TestOrigin.get(proxyUrl), "UTF-8");
+        HlsPlaylist playlist = HlsPlaylist.parse(proxyUrl, text);
+        assertEquals(SEGMENT_COUNT, playlist.getSegments().size());
+        assertEquals(7, playlist.getSegments().get(0).sequence);
+        assertTrue(playlist.hasEndList());
+        String proxyPrefix = "http://127.0.0.1:" + mProxy.getPort() + "/";
+        for (HlsPlaylist.Segment segment : playlist.getSegments())
+            assertTrue(segment.url, segment.url.startsWith(proxyPrefix));
+        assertTrue(text.contains("URI=\"" + proxyPrefix));
+    }
+
+    @Test
+    public void urlsWithoutAValidTokenAreRefused() throws Exception {
+        String proxyUrl = mProxy.getProxyUrl(mOrigin.url("/live/index.m3u8"));
+        String token = tokenOf(proxyUrl);
+        String prefix = "http://127.0.0.1:" + mProxy.getPort() + "/";
+        String hex = HlsCacheProxy.toHex(mOrigin.url("/live/seg0.ts"));
+
+        assertStatus(403, prefix + "s/" + hex + "/seg0.ts");
+        assertStatus(403, prefix + "0123456789abcdef0123456789abcdef/s/" + hex + "/seg0.ts");
+        assertStatus(403, proxyUrl.replace(token, token.substring(1) + "0"));
+        assertEquals(0, mOrigin.requestCount("/live/seg0.ts"));
+        assertArrayEquals(mSegments[0], TestOrigin.get(prefix + token + "/s/" + hex + "/seg0.ts"));
+    }
+
+    @Test
+    public void onlyHttpOriginsAreFetched() throws Exception {
+        String token = tokenOf(mProxy.getProxyUrl(mOrigin.url("/live/index.m3u8")));
+        String prefix = "http://127.0.0.1:" + mProxy.getPort() + "/" + token + "/";
+        for (String kind : new String[]{"p", "s", "k"}) {
+            assertStatus(400, prefix + kind + "/" + HlsCacheProxy.toHex("file:///etc/hosts") + "/hosts");
+            assertStatus(400, prefix + kind + "/" + HlsCacheProxy.toHex("ftp://127.0.0.1/a.ts") + "/a.ts");
+        }
+    }
+
+    @Test
+    public void headersAreSentToTheOrigin() throws Exception {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Cookie", "session=42");
+        headers.put("Referer", "https://example.com/");
+        String proxyUrl = mProxy.getProxyUrl(mOrigin.url("/live/index.m3u8"), headers);
+        String text = new String(TestOrigin.get(proxyUrl), "UTF-8");
+        List<HlsPlaylist.Segment> segments = HlsPlaylist.parse(proxyUrl, text).getSegments();
+        // the first is a cache miss, the others come from the prefetcher
+        for (int i = 0; i < SEGMENT_COUNT; i++)
+            TestOrigin.get(segments.get(i).url);
+        TestOrigin.get(keyUrlOf(text));
+        assertEquals(SEGMENT_COUNT - 1, mProxy.getPrefetchCount());
+
+        String[] paths = {"/live/index.m3u8", "/live/seg0.ts", "/live/seg1.ts", "/live/seg2.ts", "/live/key.bin"};
+        for (String path : paths) {
+            assertEquals(path, "session=42", mOrigin.lastHeader(path, "Cookie"));
+            assertEquals(path, "https://example.com/", mOrigin.lastHeader(path, "Referer"));
+        }
+        // equal headers share a session, others get their own
+        assertEquals(tokenOf(proxyUrl), tokenOf(mProxy.getProxyUrl(mOrigin.url("/live/index.m3u8"), headers)));
+        assertFalse(tokenOf(proxyUrl).equals(tokenOf(mProxy.getProxyUrl(mOrigin.url("/live/index.m3u8")))));
+    }
+
+    @Test
+    public void keysAreNeverCached() throws Exception {
+        String proxyUrl = mProxy.getProxyUrl(mOrigin.url("/live/index.m3u8"));
+        String keyUrl = keyUrlOf(new String(TestOrigin.get(proxyUrl), "UTF-8"));
+        assertTrue(keyUrl, keyUrl.contains("/k/"));
+
+        assertArrayEquals(new byte[16], TestOrigin.get(keyUrl));
+        assertArrayEquals(new byte[16], TestOrigin.get(keyUrl));
+        assertEquals(2, mOrigin.requestCount("/live/key.bin"));
+        assertNull(mProxy.getCache().get(mOrigin.url("/live/key.bin")));
+    }
+
+    @Test
+    public void replayIsServedFromDiskCache() throws Exception {
+        mProxy.setPrefetchEnabled(false);
+        List<HlsPlaylist.Segment> segments = fetchSegments();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < SEGMENT_COUNT; i++)
+                assertArrayEquals(mSegments[i], TestOrigin.get(segments.get(i).url));
+        }
+
+        for (int i = 0; i < SEGMENT_COUNT; i++)
+            assertEquals(1, mOrigin.requestCount("/live/seg" + i + ".ts"));
+        assertEquals(SEGMENT_COUNT, mProxy.getMissCount());
+        assertEquals(SEGMENT_COUNT, mProxy.getHitCount());
+        assertTrue(mProxy.getCacheBytes() > 0);
+    }
+
+    @Test
+    public void followingSegmentsArePrefetched() throws Exception {
+        List<HlsPlaylist.Segment> segments = fetchSegments();
+        assertArrayEquals(mSegments[0], TestOrigin.get(segments.get(0).url));
+        // the rest are either on disk already or in flight, the player never goes to the origin
+        for (int i = 1; i < SEGMENT_COUNT; i++)
+            assertArrayEquals(mSegments[i], TestOrigin.get(segments.get(i).url));
+
+        for (int i = 0; i < SEGMENT_COUNT; i++)
+            assertEquals(1, mOrigin.requestCount("/live/seg" + i + ".ts"));
+        assertEquals(1, mProxy.getMissCount());
+        assertEquals(SEGMENT_COUNT - 1, mProxy.getHitCount());
+        assertEquals(SEGMENT_COUNT - 1, mProxy.getPrefetchCount());
+        assertEquals(SEGMENT_COUNT, mProxy.getSegmentWaitCount());
+    }
+
+    @Test
+    public void replayIsServedFromMemoryCache() throws Exception {
+        SegmentMemoryCache memoryCache = new SegmentMemoryCache(4 * 1024 * 1024);
+        mProxy.setMemoryCache(memoryCache);
+        List<HlsPlaylist.Segment> segments = fetchSegments();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < SEGMENT_COUNT; i++)
+                assertArrayEquals(mSegments[i], TestOrigin.get(segments.get(i).url));
+        }
+
+        assertEquals(SEGMENT_COUNT, memoryCache.getEntryCount());
+        assertTrue(memoryCache.getHitCount() >= SEGMENT_COUNT);
+        byte[] part = TestOrigin.get(segments.get(1).url, "bytes=10-19");
+        for (int i = 0; i < part.length; i++)
+            assertEquals(mSegments[1][10 + i], part[i]);
+    }
+
+    @Test
+    public void rangeRequestOnCachedSegment() throws Exception {
+        String url = fetchSegments().get(0).url;
+        TestOrigin.get(url);
+
+        byte[] part = TestOrigin.get(url, "bytes=100-199");
+        assertEquals(100, part.length);
+        for (int i = 0; i < part.length; i++)
+            assertEquals(mSegments[0][100 + i], part[i]);
+    }
+
+    @Test
+    public void playlistFallsBackToLastGoodCopy() throws Exception {
+        String proxyUrl = mProxy.getProxyUrl(mOrigin.url("/live/index.m3u8"));
+        byte[] first = TestOrigin.get(proxyUrl);
+        mOrigin.stop();
+
+        assertArrayEquals(first, TestOrigin.get(proxyUrl));
+    }
+
+    @Test
+    public void warmUpFetchesLiveEdgeForTheNextOpen() throws Exception {
+        StringBuilder live = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:2\n#EXT-X-MEDIA-SEQUENCE:40\n");
+        for (int i = 0; i < 5; i++) {
+            live.append("#EXTINF:2.0,\nedge").append(i).append(".ts\n");
+            mOrigin.put("/live/edge" + i + ".ts", mSegments[i % SEGMENT_COUNT]);
+        }
+        mOrigin.put("/live/edge.m3u8", live.toString());
+        String url = mOrigin.url("/live/edge.m3u8");
+
+        mProxy.warmUp(url);
+        String proxyUrl = mProxy.getProxyUrl(url);
+        List<HlsPlaylist.Segment> segments =
+                HlsPlaylist.parse(proxyUrl, new String(TestOrigin.get(proxyUrl), "UTF-8")).getSegments();
+        // the player's request took over the warm-up's fetch
+        assertEquals(1, mOrigin.requestCount("/live/edge.m3u8"));
+        for (int i = 2; i < 5; i++)
+            assertArrayEquals(mSegments[i % SEGMENT_COUNT], TestOrigin.get(segments.get(i).url));
+        assertEquals(0, mProxy.getMissCount());
+        for (int i = 0; i < 5; i++)
+            assertEquals(i >= 2 ? 1 : 0, mOrigin.requestCount("/live/edge" + i + ".ts"));
+
+        // without a warm-up the playlist comes from the origin again
+        TestOrigin.get(proxyUrl);
+        assertEquals(2, mOrigin.requestCount("/live/edge.m3u8"));
+    }
+
+    @Test
+    public void adaptiveStreamClimbsOnFastLink() throws Exception {
+        List<HlsPlaylist.Segment> segments = fetchAdaptiveSegments(false);
+        for (HlsPlaylist.Segment segment : segments)
+            assertTrue(segment.url, segment.url.contains("/v/"));
+
+        int last = -1;
+        for (HlsPlaylist.Segment segment : segments)
+            last = TestOrigin.get(segment.url)[0];
+        AbrController controller = mProxy.getAbrController(mOrigin.url("/abr/master.m3u8"));
+        assertEquals(ABR_BITRATES.length - 1, last);
+        assertEquals(ABR_BITRATES.length - 1, controller.getCurrentIndex());
+        assertTrue(controller.getUpSwitchCount() >= 1);
+        assertEquals(0, controller.getDownSwitchCount());
+    }
+
+    @Test
+    public void adaptiveStreamStaysLowOnSlowLink() throws Exception {
+        List<HlsPlaylist.Segment> segments = fetchAdaptiveSegments(false);
+        // 2 Mbit/s, enough for the lowest variant only
+        mOrigin.throttle(250000);
+        for (HlsPlaylist.Segment segment : segments)
+            assertEquals(0, TestOrigin.get(segment.url)[0]);
+        assertEquals(0, mProxy.getAbrController(mOrigin.url("/abr/master.m3u8")).getSwitchCount());
+    }
+
+    @Test
+    public void encryptedVariantsArePinned() throws Exception {
+        List<HlsPlaylist.Segment> segments = fetchAdaptiveSegments(true);
+        for (HlsPlaylist.Segment segment : segments) {
+            assertTrue(segment.url, segment.url.contains("/s/"));
+            assertEquals(0, TestOrigin.get(segment.url)[0]);
+        }
+    }
+
+    /**
+     * Publishes a master with variants of {@link #ABR_BITRATES}, one second per segment, and
+     * returns the segments of the playlist the proxy answers it with.
+     */
+    private List<HlsPlaylist.Segment> fetchAdaptiveSegments(boolean encrypted) throws Exception {
+        mProxy.setPrefetchEnabled(false);
+        StringBuilder master = new StringBuilder("#EXTM3U\n");
+        for (int v = 0; v < ABR_BITRATES.length; v++) {
+            master.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(ABR_BITRATES[v]).append('\n')
+                    .append(v).append("/index.m3u8\n");
+            StringBuilder media = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:1\n");
+            if (encrypted)
+                media.append("#EXT-X-KEY:METHOD=AES-128,URI=\"/live/key.bin\"\n");
+            for (int i = 0; i < ABR_SEGMENT_COUNT; i++) {
+                media.append("#EXTINF:1.0,\nseg").append(i).append(".ts\n");
+                byte[] body = new byte[(int) (ABR_BITRATES[v] / 8)];
+                body[0] = (byte) v;
+                mOrigin.put("/abr/" + v + "/seg" + i + ".ts", body);
+            }
+            mOrigin.put("/abr/" + v + "/index.m3u8", media.append("#EXT-X-ENDLIST\n").toString());
+        }
+        mOrigin.put("/abr/master.m3u8", master.toString());
+
+        String proxyUrl = mProxy.getProxyUrl(mOrigin.url("/abr/master.m3u8"));
+        HlsPlaylist playlist = HlsPlaylist.parse(proxyUrl, new String(TestOrigin.get(proxyUrl), "UTF-8"));
+        assertFalse(playlist.isMaster());
+        assertEquals(ABR_SEGMENT_COUNT, playlist.getSegments().size());
+        return playlist.getSegments();
+    }
+
+    private static String tokenOf(String proxyUrl) {
+        // http://127.0.0.1:port/<token>/...
+        return proxyUrl.split("/")[3];
+    }
+
+    private static String keyUrlOf(String playlist) {
+        int start = playlist.indexOf("URI=\"") + "URI=\"".length();
+        return playlist.substring(start, playlist.indexOf('"', start));
+    }
+
+    private static void assertStatus(int code, String url) {
+        try {
+            TestOrigin.get(url);
+            fail("no error for " + url);
+        } catch (IOException e) {
+            assertEquals(url, "HTTP " + code, e.getMessage());
+        }
+    }
+
+    private List<HlsPlaylist.Segment> fetchSegments() throws Exception {
+        String proxyUrl = mProxy.getProxyUrl(mOrigin.url("/live/index.m3u8"));
+        return HlsPlaylist.parse(proxyUrl, new String(TestOrigin.get(proxyUrl), "UTF-8")).getSegments();
+    }
+}
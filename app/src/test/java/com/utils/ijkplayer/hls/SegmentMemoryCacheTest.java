@@ -0,0 +1,176 @@
+package com.utils.ijkplayer.hls;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.utils.ijkplayer.common.AllocationCounter.allocatedBytes;
+import static org.junit.Assert.*;
+
+public class SegmentMemoryCacheTest {
+    private static final int SLAB_SIZE = 4096;
+    private static final int SEGMENT_SIZE = 3 * SLAB_SIZE + 100;
+
+    private File mDir;
+    private File[] mFiles = new File[6];
+    private byte[][] mContent = new byte[mFiles.length][];
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = new File(System.getProperty("java.io.tmpdir"), "memory-cache-test-" + System.nanoTime());
+        assertTrue(mDir.mkdirs());
+        Random random = new Random(5);
+        for (int i = 0; i < mFiles.length; i++) {
+            mContent[i] = new byte[SEGMENT_SIZE + i];
+            random.nextBytes(mContent[i]);
+            mFiles[i] = new File(mDir, "seg" + i + ".ts");
+            FileOutputStream out = new FileOutputStream(mFiles[i]);
+            try {
+                out.write(mContent[i]);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles)
+            file.delete();
+        mDir.delete();
+    }
+
+    @Test
+    public void readsAcrossSlabBoundaries() throws Exception {
+        SegmentMemoryCache cache = new SegmentMemoryCache(16 * SLAB_SIZE, SLAB_SIZE);
+        assertTrue(cache.put("a", mFiles[0]));
+
+        SegmentMemoryCache.Entry entry = cache.acquire("a");
+        assertEquals(mContent[0].length, entry.getSize());
+        byte[] buffer = new byte[SLAB_SIZE + 10];
+        Random random = new Random(9);
+        for (int i = 0; i < 200; i++) {
+            int position = random.nextInt(mContent[0].length);
+            int offset = random.nextInt(10);
+            int count = entry.readAt(position, buffer, offset, 1 + random.nextInt(SLAB_SIZE));
+            assertTrue(count > 0);
+            for (int j = 0; j < count; j++)
+                assertEquals(mContent[0][position + j], buffer[offset + j]);
+        }
+        assertEquals(-1, entry.readAt(mContent[0].length, buffer, 0, 1));
+        entry.close();
+        assertNull(cache.acquire("b"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWithinBudget() throws Exception {
+        // room for two segments of four slabs each
+        SegmentMemoryCache cache = new SegmentMemoryCache(8 * SLAB_SIZE, SLAB_SIZE);
+        assertTrue(cache.put("0", mFiles[0]));
+        assertTrue(cache.put("1", mFiles[1]));
+        cache.acquire("0").close();
+        assertTrue(cache.put("2", mFiles[2]));
+
+        assertTrue(cache.contains("0"));
+        assertFalse(cache.contains("1"));
+        assertTrue(cache.contains("2"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(8 * SLAB_SIZE, cache.getAllocatedBytes());
+        assertEquals(8 * SLAB_SIZE, cache.getUsedBytes());
+    }
+
+    @Test
+    public void pinnedEntryOutlivesEviction() throws Exception {
+        SegmentMemoryCache cache = new SegmentMemoryCache(8 * SLAB_SIZE, SLAB_SIZE);
+        assertTrue(cache.put("0", mFiles[0]));
+        assertTrue(cache.put("1", mFiles[1]));
+        SegmentMemoryCache.Entry pinned = cache.acquire("0");
+        SegmentMemoryCache.Entry second = cache.acquire("0");
+        second.close();
+
+        // "0" is older but pinned, so "1" has to go
+        assertTrue(cache.put("2", mFiles[2]));
+        assertFalse(cache.contains("1"));
+        // removing a pinned entry doesn't free its slabs, so "3" still costs "2" its place
+        cache.remove("0");
+        assertFalse(cache.contains("0"));
+        assertTrue(cache.put("3", mFiles[3]));
+        assertFalse(cache.contains("2"));
+        assertEquals(1, cache.getEntryCount());
+
+        byte[] buffer = new byte[mContent[0].length];
+        assertEquals(buffer.length, pinned.readAt(0, buffer, 0, buffer.length));
+        assertArrayEquals(mContent[0], buffer);
+        pinned.close();
+
+        assertTrue(cache.put("4", mFiles[4]));
+        assertTrue(cache.put("5", mFiles[5]));
+        assertEquals(8 * SLAB_SIZE, cache.getAllocatedBytes());
+    }
+
+    /**
+     * Prints what a playback-like churn of segments costs on the heap with byte[] entries and
+     * with slabs; the numbers are only compared with each other.
+     */
+    @Test
+    public void slabCacheAllocatesLessThanHeapCache() throws Exception {
+        int rounds = 2000;
+        byte[] buffer = new byte[SLAB_SIZE];
+
+        final Map<String, byte[]> heap = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > 2;
+            }
+        };
+        long heapBytes = allocatedBytes();
+        long heapGcs = gcCount();
+        for (int i = 0; i < rounds; i++) {
+            File file = mFiles[i % mFiles.length];
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.read(data);
+            } finally {
+                in.close();
+            }
+            heap.put("seg" + i, data);
+            System.arraycopy(data, 0, buffer, 0, buffer.length);
+        }
+        heapBytes = allocatedBytes() - heapBytes;
+        heapGcs = gcCount() - heapGcs;
+
+        SegmentMemoryCache cache = new SegmentMemoryCache(8 * SLAB_SIZE, SLAB_SIZE);
+        long slabBytes = allocatedBytes();
+        long slabGcs = gcCount();
+        for (int i = 0; i < rounds; i++) {
+            String url = "seg" + i;
+            assertTrue(cache.put(url, mFiles[i % mFiles.length]));
+            SegmentMemoryCache.Entry entry = cache.acquire(url);
+            entry.readAt(0, buffer, 0, buffer.length);
+            entry.close();
+        }
+        slabBytes = allocatedBytes() - slabBytes;
+        slabGcs = gcCount() - slabGcs;
+
+        System.out.println("SegmentMemoryCache heap allocation per segment: byte[] " + heapBytes / rounds
+                + " B (" + heapGcs + " GCs), slabs " + slabBytes / rounds + " B (" + slabGcs + " GCs)");
+        assertTrue(slabBytes < heapBytes);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, bean.getCollectionCount());
+        return count;
+    }
+}
@@ -0,0 +1,136 @@
+package com.utils.ijkplayer.hls;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP server standing in for the CDN in HLS tests.
+ */
+class TestOrigin {
+    private final HttpServer mServer;
+    private final Map<String, byte[]> mBodies = new ConcurrentHashMap<String, byte[]>();
+    private final Map<String, AtomicInteger> mRequests = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Map<String, Headers> mRequestHeaders = new ConcurrentHashMap<String, Headers>();
+    private volatile long mBytesPerSecond;
+
+    TestOrigin() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    void put(String path, String body) throws IOException {
+        mBodies.put(path, body.getBytes("UTF-8"));
+    }
+
+    void put(String path, byte[] body) {
+        mBodies.put(path, body);
+    }
+
+    /**
+     * Limits the response rate, 0 means unlimited.
+     */
+    void throttle(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    int requestCount(String path) {
+        AtomicInteger count = mRequests.get(path);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * @return the value of header {@code name} in the last request for {@code path}, or null
+     */
+    String lastHeader(String path, String name) {
+        Headers headers = mRequestHeaders.get(path);
+        return headers != null ? headers.getFirst(name) : null;
+    }
+
+    void stop() {
+        mServer.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        AtomicInteger count = mRequests.get(path);
+        if (count == null) {
+            mRequests.put(path, new AtomicInteger());
+            count = mRequests.get(path);
+        }
+        count.incrementAndGet();
+        mRequestHeaders.put(path, exchange.getRequestHeaders());
+
+        byte[] body = mBodies.get(path);
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            long rate = mBytesPerSecond;
+            if (rate <= 0) {
+                out.write(body);
+            } else {
+                int chunk = (int) Math.max(1, rate / 50);
+                for (int offset = 0; offset < body.length; offset += chunk) {
+                    out.write(body, offset, Math.min(chunk, body.length - offset));
+                    out.flush();
+                    Thread.sleep(20);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            out.close();
+        }
+    }
+
+    static byte[] get(String url) throws IOException {
+        return get(url, null);
+    }
+
+    static byte[] get(String url, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null)
+            connection.setRequestProperty("Range", range);
+        try {
+            if (connection.getResponseCode() >= 400)
+                throw new IOException("HTTP " + connection.getResponseCode());
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1)
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.utils.ijkplayer.live;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LiveLatencyControllerTest {
+    private final LiveLatencyController mController = new LiveLatencyController();
+
+    @Test
+    public void holdsRealTimeNearTarget() {
+        assertEquals(LiveLatencyController.ACTION_NONE, mController.update(2500, 0));
+        // within the tolerance above the target
+        assertEquals(LiveLatencyController.ACTION_NONE, mController.update(2900, 500));
+        assertEquals(1f, mController.getSpeed(), 0);
+        assertFalse(mController.isCatchingUp());
+    }
+
+    @Test
+    public void catchUpSpeedGrowsWithLatency() {
+        assertEquals(LiveLatencyController.ACTION_SET_SPEED, mController.update(3500, 0));
+        float slow = mController.getSpeed();
+        assertTrue(slow >= LiveLatencyController.DEFAULT_MIN_SPEED);
+
+        assertEquals(LiveLatencyController.ACTION_SET_SPEED, mController.update(8000, 500));
+        float fast = mController.getSpeed();
+        assertTrue(fast > slow);
+        assertTrue(fast <= LiveLatencyController.DEFAULT_MAX_SPEED + 0.001f);
+
+        // keeps catching up below the tolerance, stops once the target is reached
+        mController.update(2800, 1000);
+        assertTrue(mController.getSpeed() > 1);
+        assertEquals(LiveLatencyController.ACTION_SET_SPEED, mController.update(2400, 1500));
+        assertEquals(1f, mController.getSpeed(), 0);
+        assertEquals(1500, mController.getCatchUpMs());
+    }
+
+    @Test
+    public void jumpsPastThresholdAtMostOncePerInterval() {
+        assertEquals(LiveLatencyController.ACTION_JUMP, mController.update(12000, 0));
+        assertEquals(1f, mController.getSpeed(), 0);
+        // the reopened player reports the old buffer once more before it drains
+        assertEquals(LiveLatencyController.ACTION_SET_SPEED, mController.update(12000, 500));
+        assertEquals(LiveLatencyController.DEFAULT_MAX_SPEED, mController.getSpeed(), 0.001f);
+        assertEquals(LiveLatencyController.ACTION_JUMP,
+                mController.update(12000, LiveLatencyController.MIN_JUMP_INTERVAL_MS));
+        assertEquals(2, mController.getJumpCount());
+    }
+
+    @Test
+    public void configurableTargetAndSpeeds() {
+        mController.setTargetLatencyMs(1000);
+        mController.setCatchUpSpeeds(1.1f, 1.5f);
+        mController.setJumpThresholdMs(0);
+        assertEquals(LiveLatencyController.ACTION_SET_SPEED, mController.update(60000, 0));
+        assertEquals(1.5f, mController.getSpeed(), 0.001f);
+        assertEquals(0, mController.getJumpCount());
+    }
+
+    @Test
+    public void unknownLatencyIsIgnored() {
+        assertEquals(LiveLatencyController.ACTION_NONE, mController.update(-1, 0));
+        assertEquals(-1, mController.getLatencyMs());
+        assertEquals(0, mController.getLatencyHistogram().getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSlowDown() {
+        mController.setCatchUpSpeeds(0.9f, 1.2f);
+    }
+}
@@ -0,0 +1,73 @@
+package com.utils.ijkplayer.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BandwidthEstimatorTest {
+    private static final long SEGMENT_BYTES = 500 * 1024;
+
+    @Test
+    public void reportsDefaultUntilEnoughIsMeasured() {
+        BandwidthEstimator estimator = new BandwidthEstimator(123);
+        estimator.addSample(1000, 1000000);
+        assertEquals(0, estimator.getSampleCount());
+        estimator.addSample(64 * 1024, 100000000);
+        assertEquals(123, estimator.getEstimate());
+    }
+
+    @Test
+    public void convergesOnSteadyThroughput() {
+        BandwidthEstimator estimator = new BandwidthEstimator();
+        for (int i = 0; i < 10; i++)
+            addAtRate(estimator, 4000000);
+        assertEquals(4000000, estimator.getEstimate(), 40000);
+    }
+
+    @Test
+    public void dropsQuicklyAndRecoversSlowly() {
+        BandwidthEstimator estimator = new BandwidthEstimator();
+        for (int i = 0; i < 10; i++)
+            addAtRate(estimator, 8000000);
+
+        addAtRate(estimator, 2000000);
+        long afterDrop = estimator.getEstimate();
+        // one slow segment (2 s at the new rate, one fast half-life) halves the gap
+        assertTrue(afterDrop + "", afterDrop < 5000000);
+
+        for (int i = 0; i < 10; i++)
+            addAtRate(estimator, 2000000);
+        addAtRate(estimator, 8000000);
+        long afterRecovery = estimator.getEstimate();
+        // the slow average holds the estimate back after a single fast segment
+        assertTrue(afterRecovery + "", afterRecovery < 3000000);
+    }
+
+    @Test
+    public void clampsOutliers() {
+        BandwidthEstimator estimator = new BandwidthEstimator();
+        for (int i = 0; i < 10; i++)
+            addAtRate(estimator, 4000000);
+
+        // a segment from a local cache arrives at 4 Gbit/s
+        addAtRate(estimator, 4000000000L);
+        assertEquals(1, estimator.getClampedCount());
+        assertTrue(estimator.getEstimate() <= 4000000 * BandwidthEstimator.OUTLIER_FACTOR);
+    }
+
+    @Test
+    public void playerRateReportsCount() {
+        BandwidthEstimator estimator = new BandwidthEstimator();
+        for (int i = 0; i < 10; i++)
+            estimator.addRate(3000000);
+        assertEquals(3000000, estimator.getEstimate(), 30000);
+
+        estimator.reset();
+        assertEquals(BandwidthEstimator.DEFAULT_ESTIMATE, estimator.getEstimate());
+    }
+
+    private static void addAtRate(BandwidthEstimator estimator, long bitsPerSecond) {
+        long nanos = (long) (SEGMENT_BYTES * 8 * 1e9 / bitsPerSecond);
+        estimator.addSample(SEGMENT_BYTES, nanos);
+    }
+}
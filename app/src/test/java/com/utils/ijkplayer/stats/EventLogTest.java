@@ -0,0 +1,66 @@
+package com.utils.ijkplayer.stats;
+
+import org.junit.Test;
+
+import static com.utils.ijkplayer.common.AllocationCounter.allocatedBytes;
+import static org.junit.Assert.*;
+
+public class EventLogTest {
+
+    @Test
+    public void capacityRoundsUpToAPowerOfTwo() {
+        assertEquals(8, new EventLog(5).getCapacity());
+        assertEquals(8, new EventLog(8).getCapacity());
+        assertEquals(EventLog.DEFAULT_CAPACITY, new EventLog().getCapacity());
+    }
+
+    @Test
+    public void keepsTheNewestEvents() {
+        EventLog log = new EventLog(4);
+        for (int i = 0; i < 6; i++)
+            log.log(i * 10, EventLog.EVENT_STATUS, i, -i);
+        assertEquals(4, log.size());
+        assertEquals(6, log.getTotalCount());
+        assertEquals(5, log.getArg1(0));
+        assertEquals(-5, log.getArg2(0));
+        assertEquals(2, log.getArg1(3));
+        assertEquals(EventLog.EVENT_STATUS, log.getCode(3));
+
+        log.clear();
+        assertEquals(0, log.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsAgesBeyondTheHeldEvents() {
+        EventLog log = new EventLog(4);
+        log.log(EventLog.EVENT_PLAY, 0, 0);
+        log.getCode(1);
+    }
+
+    @Test
+    public void dumpsOldestFirstWithNames() {
+        EventLog log = new EventLog(4);
+        log.log(EventLog.EVENT_PLAY, 1, 0);
+        log.log(EventLog.EVENT_ERROR, -10000, -110);
+        log.log(99, 7, 8);
+        String[] lines = log.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].matches("\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3} play 1 0"));
+        assertTrue(lines[1], lines[1].endsWith(" error -10000 -110"));
+        assertTrue(lines[2], lines[2].endsWith(" 99 7 8"));
+    }
+
+    @Test
+    public void loggingDoesNotAllocate() {
+        EventLog log = new EventLog(256);
+        // warm up so class loading and compilation don't count
+        for (int i = 0; i < 20000; i++)
+            log.log(EventLog.EVENT_INFO, i, i);
+        long before = allocatedBytes();
+        for (int i = 0; i < 100000; i++)
+            log.log(EventLog.EVENT_INFO, i, i);
+        long allocated = allocatedBytes() - before;
+        // a few bytes of noise from the measurement itself at most, nowhere near one object per event
+        assertTrue("allocated " + allocated, allocated < 100000);
+    }
+}
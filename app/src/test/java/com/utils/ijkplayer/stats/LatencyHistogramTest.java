@@ -0,0 +1,61 @@
+package com.utils.ijkplayer.stats;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesStayWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(4);
+        long[] values = new long[5000];
+        for (int i = 0; i < values.length; i++) {
+            // log-normal-ish spread from a few ms to tens of seconds
+            values[i] = (long) Math.exp(2 + random.nextDouble() * 8);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double p : new double[]{1, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long reported = histogram.getPercentile(p);
+            assertTrue(p + ": " + reported + " vs " + exact, reported >= exact);
+            assertTrue(p + ": " + reported + " vs " + exact,
+                    reported <= exact + exact / LatencyHistogram.SUB_BUCKETS + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getPercentile(100));
+        assertEquals(values[0], histogram.getMin());
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value + "", LatencyHistogram.upperBound(index) >= value);
+            if (index > 0)
+                assertTrue(value + "", LatencyHistogram.upperBound(index - 1) < value);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        assertEquals(Integer.MAX_VALUE, histogram.getMax());
+        assertEquals(0, histogram.getMin());
+    }
+
+    @Test
+    public void emptyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        histogram.record(42);
+        assertEquals(42, histogram.getPercentile(50));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+}
@@ -0,0 +1,33 @@
+package com.utils.ijkplayer.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProfileComparisonTest {
+
+    @Test
+    public void aggregatesRunsPerProfile() {
+        ProfileComparison comparison = new ProfileComparison();
+        comparison.addRun("default", 600, 1, 500, 30000, 9000);
+        comparison.addRun("lowPower", 800, 0, 0, 30000, 4500);
+        comparison.addRun("default", 700, 1, 700, 30000, 9000);
+        comparison.addRun("default", -1, 0, 0, 0, 2000);
+
+        assertEquals(2, comparison.getProfiles().size());
+        assertEquals("default", comparison.getProfiles().get(0));
+        assertEquals(3, comparison.getRunCount("default"));
+        assertEquals(1, comparison.getFailureCount("default"));
+        assertEquals(2, comparison.getStartupHistogram("default").getCount());
+        assertEquals(2.0, comparison.getStallsPerMinute("default"), 0.001);
+        assertEquals(300, comparison.getCpuMsPerSecond("default"), 0.001);
+        assertEquals(150, comparison.getCpuMsPerSecond("lowPower"), 0.001);
+        assertEquals(0, comparison.getRunCount("vodQuality"));
+        assertNull(comparison.getStartupHistogram("vodQuality"));
+
+        String report = comparison.report();
+        assertTrue(report, report.startsWith("default runs=3 failed=1 startup p50="));
+        assertTrue(report, report.contains("stalls/min=2.00 rebuffer=1.96% cpu=300ms/s\n"));
+        assertTrue(report, report.contains("lowPower runs=1 failed=0"));
+    }
+}
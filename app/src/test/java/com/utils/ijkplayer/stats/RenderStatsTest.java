@@ -0,0 +1,67 @@
+package com.utils.ijkplayer.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RenderStatsTest {
+
+    @Test
+    public void countsFramesArrivingLate() {
+        RenderStats stats = new RenderStats();
+        stats.onFormat("RV32", 1920 * 1080 * 4, 30);
+        long now = 1000;
+        for (int i = 0; i < 10; i++) {
+            stats.onFrame(now);
+            now += 33;
+        }
+        // 33 * 1.5 = 50, so 60 is late and 45 isn't
+        stats.onFrame(now += 27);
+        stats.onFrame(now += 45);
+
+        assertEquals(12, stats.getFrameCount());
+        assertEquals(1, stats.getLateFrameCount());
+        assertEquals(11, stats.getFrameIntervalHistogram().getCount());
+    }
+
+    @Test
+    public void ignoresGapsLongerThanASecond() {
+        RenderStats stats = new RenderStats();
+        stats.onFormat("RV16", 100, 25);
+        stats.onFrame(0);
+        stats.onFrame(5000);
+        stats.onFrame(5040);
+        assertEquals(1, stats.getFrameIntervalHistogram().getCount());
+        assertEquals(0, stats.getLateFrameCount());
+    }
+
+    @Test
+    public void averagesFrameRateSamples() {
+        RenderStats stats = new RenderStats();
+        stats.onFormat("YV12", 1000, 0);
+        stats.onFpsSample(0, 0);
+        stats.onFpsSample(30, 30);
+        stats.onFpsSample(24, 30);
+        assertEquals(27, stats.getMeanOutputFps(), 0.01);
+        assertEquals(30, stats.getMeanDecodeFps(), 0.01);
+        assertEquals(24, stats.getMinOutputFps(), 0.01);
+        // without a stream frame rate the measured one counts
+        assertEquals(27000, stats.getBytesPerSecond());
+    }
+
+    @Test
+    public void resetStartsOver() {
+        RenderStats stats = new RenderStats();
+        stats.onFormat("RV32", 1000, 30);
+        stats.onFrame(0);
+        stats.onFrame(100);
+        stats.onFpsSample(30, 30);
+        stats.reset();
+        assertEquals("none", stats.getFormat());
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getLateFrameCount());
+        assertEquals(0, stats.getMinOutputFps(), 0);
+        assertEquals(0, stats.getFrameIntervalHistogram().getCount());
+        assertNotNull(stats.report());
+    }
+}
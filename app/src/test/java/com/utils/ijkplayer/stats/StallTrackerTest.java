@@ -0,0 +1,96 @@
+package com.utils.ijkplayer.stats;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StallTrackerTest {
+    private StallTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mTracker = new StallTracker();
+        mTracker.onSessionStart(0);
+    }
+
+    @Test
+    public void classifiesStallsByWhatCameBefore() {
+        // initial load buffering, ended by the first frame
+        mTracker.onBufferingStart(100);
+        mTracker.onFirstFrame(900);
+        // right after startup
+        mTracker.onBufferingStart(2000);
+        mTracker.onBufferingEnd(2500);
+        // a genuine interruption
+        mTracker.onBufferingStart(20000);
+        mTracker.onBufferingEnd(21000);
+        // after a seek
+        mTracker.onSeek(30000);
+        mTracker.onBufferingStart(30200);
+        mTracker.onBufferingEnd(30600);
+        mTracker.onSessionEnd(40000);
+
+        assertEquals(4, mTracker.getStallCount());
+        assertEquals(2, mTracker.getStallCount(StallTracker.TYPE_STARTUP));
+        assertEquals(1, mTracker.getStallCount(StallTracker.TYPE_SEEK));
+        assertEquals(1, mTracker.getStallCount(StallTracker.TYPE_PLAYBACK));
+        assertEquals(StallTracker.TYPE_PLAYBACK, mTracker.getStallType(2));
+        assertEquals(800, mTracker.getStallDurationMs(0));
+        assertEquals(1000, mTracker.getLongestStallMs());
+        assertEquals(2700, mTracker.getTotalStallMs());
+        assertEquals(1300, mTracker.getStallMs(StallTracker.TYPE_STARTUP));
+        assertEquals(400, mTracker.getStallMs(StallTracker.TYPE_SEEK));
+        assertEquals(1000, mTracker.getStallMs(StallTracker.TYPE_PLAYBACK));
+        // first frame to the end of the session, minus the stalls after it
+        assertEquals(39100 - 1900, mTracker.getPlayMs());
+        assertEquals(2700.0 / (2700 + 37200), mTracker.getRebufferRatio(), 1e-9);
+        // from the end of the previous stall to the playback stall
+        assertEquals(20000 - 2500, mTracker.getMeanTimeBetweenStallsMs());
+    }
+
+    @Test
+    public void pausesDontCountAsPlayTime() {
+        mTracker.onFirstFrame(0);
+        mTracker.onPause(10000);
+        mTracker.onResume(60000);
+        mTracker.onSessionEnd(70000);
+
+        assertEquals(20000, mTracker.getPlayMs());
+        assertEquals(0, mTracker.getRebufferRatio(), 0);
+        assertEquals(-1, mTracker.getMeanTimeBetweenStallsMs());
+    }
+
+    @Test
+    public void unfinishedStallEndsWithSession() {
+        mTracker.onFirstFrame(0);
+        mTracker.onBufferingStart(10000);
+        assertTrue(mTracker.isStalled());
+        mTracker.onBufferingStart(11000);
+        mTracker.onSessionEnd(14000);
+
+        assertFalse(mTracker.isActive());
+        assertEquals(1, mTracker.getStallCount());
+        assertEquals(4000, mTracker.getStallDurationMs(0));
+        assertEquals("stalls=1 startup=0 seek=0 rebuffer=1 stall=4000ms max=4000ms played=10000ms"
+                + " ratio=28.57% mtbs=10000ms", mTracker.report());
+
+        // a new session starts from scratch
+        mTracker.onSessionStart(20000);
+        assertEquals(0, mTracker.getStallCount());
+        assertEquals(0, mTracker.getPlayMs());
+    }
+
+    @Test
+    public void keepsEveryStallOfALongSession() {
+        mTracker.onFirstFrame(0);
+        long now = 10000;
+        for (int i = 0; i < 40; i++) {
+            mTracker.onBufferingStart(now);
+            mTracker.onBufferingEnd(now + i);
+            now += 10000;
+        }
+        assertEquals(40, mTracker.getStallCount());
+        assertEquals(39, mTracker.getStallDurationMs(39));
+    }
+}
@@ -0,0 +1,83 @@
+package com.utils.ijkplayer.stats;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import static org.junit.Assert.*;
+
+public class StartupTracerTest {
+
+    @Test
+    public void sessionEndsAtFirstVideoFrame() throws Exception {
+        StartupTracer tracer = new StartupTracer();
+        tracer.begin();
+        tracer.mark(StartupTracer.STAGE_OPEN_VIDEO);
+        tracer.mark(StartupTracer.STAGE_SET_DATA_SOURCE);
+        tracer.mark(StartupTracer.STAGE_PREPARE_ASYNC);
+        Thread.sleep(20);
+        tracer.mark(StartupTracer.STAGE_PREPARED);
+        tracer.mark(StartupTracer.STAGE_AUDIO_RENDERING);
+        assertTrue(tracer.isActive());
+        tracer.mark(StartupTracer.STAGE_VIDEO_RENDERING);
+
+        assertFalse(tracer.isActive());
+        assertEquals(1, tracer.getSessionCount());
+        long ttff = tracer.getLastTtffMs();
+        assertTrue(ttff >= 20);
+        assertTrue(tracer.getLastOffsetMs(StartupTracer.STAGE_PREPARED) >= 20);
+        // the surface already existed, so that stage is left out
+        assertEquals(-1, tracer.getLastOffsetMs(StartupTracer.STAGE_SURFACE_CREATED));
+        assertEquals(0, tracer.getHistogram(StartupTracer.STAGE_SURFACE_CREATED).getCount());
+        assertEquals(1, tracer.getTtffHistogram().getCount());
+        assertFalse(tracer.getLastBreakdown().contains("surfaceCreated"));
+        assertTrue(tracer.getLastBreakdown().endsWith("= " + ttff + "ms"));
+
+        // later frames and stages outside a session are ignored
+        tracer.mark(StartupTracer.STAGE_VIDEO_RENDERING);
+        tracer.mark(StartupTracer.STAGE_PREPARED);
+        assertEquals(1, tracer.getSessionCount());
+    }
+
+    @Test
+    public void reopenWithoutPlayStartsAtOpenVideo() {
+        StartupTracer tracer = new StartupTracer();
+        tracer.mark(StartupTracer.STAGE_OPEN_VIDEO);
+        assertTrue(tracer.isActive());
+        tracer.mark(StartupTracer.STAGE_VIDEO_RENDERING);
+        assertEquals(1, tracer.getSessionCount());
+        assertEquals(0, tracer.getLastOffsetMs(StartupTracer.STAGE_OPEN_VIDEO));
+    }
+
+    @Test
+    public void dumpAppendsReports() throws Exception {
+        StartupTracer tracer = new StartupTracer();
+        for (int i = 0; i < 3; i++) {
+            tracer.begin();
+            tracer.mark(StartupTracer.STAGE_VIDEO_RENDERING);
+        }
+        File file = File.createTempFile("ttff", ".txt");
+        try {
+            tracer.dump(file);
+            tracer.dump(file);
+            int reports = 0;
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("sessions=3"))
+                        reports++;
+                    if (line.startsWith("firstVideo "))
+                        assertTrue(line, line.contains("n=3"));
+                }
+            } finally {
+                reader.close();
+            }
+            assertEquals(2, reports);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.utils.ijkplayer.thumbnail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailCacheTest {
+    private static final String SOURCE = ThumbnailCache.sourceKey("http://example.com/movie.mp4");
+    private static final String OTHER = ThumbnailCache.sourceKey("http://example.com/other.mp4");
+
+    private File mDir;
+
+    @Before
+    public void setUp() {
+        mDir = new File(System.getProperty("java.io.tmpdir"), "thumbnail-cache-test-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                assertTrue(file.delete());
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void bucketOfRoundsToNearest() {
+        assertEquals(0, ThumbnailCache.bucketOf(-5, 10000));
+        assertEquals(0, ThumbnailCache.bucketOf(0, 10000));
+        assertEquals(0, ThumbnailCache.bucketOf(4999, 10000));
+        assertEquals(1, ThumbnailCache.bucketOf(5000, 10000));
+        assertEquals(1, ThumbnailCache.bucketOf(14999, 10000));
+        assertEquals(36, ThumbnailCache.bucketOf(360000, 10000));
+    }
+
+    @Test
+    public void memoryHitAndMiss() {
+        ThumbnailCache cache = new ThumbnailCache(null, 1024, 0);
+        byte[] jpeg = bytes(100, 1);
+        cache.put(SOURCE, 3, jpeg);
+
+        assertSame(jpeg, cache.getFromMemory(SOURCE, 3));
+        assertNull(cache.getFromMemory(SOURCE, 4));
+        assertNull(cache.getFromMemory(OTHER, 3));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertTrue(cache.contains(SOURCE, 3));
+        assertFalse(cache.contains(OTHER, 3));
+    }
+
+    @Test
+    public void memoryEvictsLeastRecentlyUsedByBytes() {
+        ThumbnailCache cache = new ThumbnailCache(null, 300, 0);
+        cache.put(SOURCE, 0, bytes(100, 0));
+        cache.put(SOURCE, 1, bytes(100, 1));
+        cache.put(SOURCE, 2, bytes(100, 2));
+        // touch 0 so that 1 is the eldest
+        assertNotNull(cache.getFromMemory(SOURCE, 0));
+        cache.put(SOURCE, 3, bytes(100, 3));
+
+        assertEquals(3, cache.getMemoryCount());
+        assertEquals(300, cache.getMemoryBytes());
+        assertNull(cache.getFromMemory(SOURCE, 1));
+        assertNotNull(cache.getFromMemory(SOURCE, 0));
+        assertNotNull(cache.getFromMemory(SOURCE, 3));
+    }
+
+    @Test
+    public void oversizedEntryStaysAlone() {
+        ThumbnailCache cache = new ThumbnailCache(null, 100, 0);
+        cache.put(SOURCE, 0, bytes(50, 0));
+        cache.put(SOURCE, 1, bytes(500, 1));
+
+        assertEquals(1, cache.getMemoryCount());
+        assertNotNull(cache.getFromMemory(SOURCE, 1));
+    }
+
+    @Test
+    public void replacingAnEntryKeepsTheByteCount() {
+        ThumbnailCache cache = new ThumbnailCache(null, 1000, 0);
+        cache.put(SOURCE, 0, bytes(100, 0));
+        cache.put(SOURCE, 0, bytes(40, 1));
+
+        assertEquals(1, cache.getMemoryCount());
+        assertEquals(40, cache.getMemoryBytes());
+    }
+
+    @Test
+    public void diskSurvivesAClearedMemory() {
+        ThumbnailCache cache = new ThumbnailCache(mDir, 1024, 1024 * 1024);
+        byte[] jpeg = bytes(200, 7);
+        cache.put(SOURCE, 12, jpeg);
+        cache.clearMemory();
+
+        assertNull(cache.getFromMemory(SOURCE, 12));
+        assertTrue(cache.contains(SOURCE, 12));
+        byte[] read = cache.get(SOURCE, 12);
+        assertTrue(Arrays.equals(jpeg, read));
+        assertEquals(1, cache.getDiskHitCount());
+        // brought back into memory
+        assertSame(read, cache.getFromMemory(SOURCE, 12));
+    }
+
+    @Test
+    public void anotherInstanceReadsTheSameDirectory() {
+        new ThumbnailCache(mDir, 1024, 1024 * 1024).put(SOURCE, 2, bytes(64, 2));
+
+        ThumbnailCache cache = new ThumbnailCache(mDir, 1024, 1024 * 1024);
+        assertTrue(Arrays.equals(bytes(64, 2), cache.get(SOURCE, 2)));
+        assertNull(cache.get(OTHER, 2));
+    }
+
+    @Test
+    public void diskIsTrimmedToItsBudget() throws Exception {
+        ThumbnailCache cache = new ThumbnailCache(mDir, 100 * 1024, 1000);
+        for (int i = 0; i < 10; i++) {
+            cache.put(SOURCE, i, bytes(300, i));
+            // lastModified has a coarse resolution on some file systems
+            new File(mDir, SOURCE + "-" + i + ".jpg").setLastModified(1000000L * (i + 1));
+        }
+
+        assertTrue(cache.getDiskBytes() <= 1000);
+        cache.clearMemory();
+        assertNotNull(cache.get(SOURCE, 9));
+        assertNull(cache.get(SOURCE, 0));
+        File[] files = mDir.listFiles();
+        assertNotNull(files);
+        for (File file : files)
+            assertTrue(file.getName(), file.getName().endsWith(".jpg"));
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (seed * 31 + i);
+        return data;
+    }
+}
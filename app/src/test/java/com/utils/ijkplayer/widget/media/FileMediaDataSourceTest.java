@@ -0,0 +1,166 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FileMediaDataSourceTest {
+    private static final int FILE_SIZE = 1024 * 1024 + 31;
+
+    private File mFile;
+    private byte[] mContent;
+    private FileMediaDataSource mSource;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("media", ".mp4");
+        mContent = new byte[FILE_SIZE];
+        new Random(5).nextBytes(mContent);
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(mContent);
+        } finally {
+            out.close();
+        }
+        mSource = new FileMediaDataSource(mFile);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mSource.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void readHonoursOffset() throws Exception {
+        byte[] buffer = new byte[100];
+        int count = mSource.readAt(1000, buffer, 40, 60);
+        assertEquals(60, count);
+        for (int i = 0; i < 40; i++)
+            assertEquals(0, buffer[i]);
+        for (int i = 0; i < 60; i++)
+            assertEquals(mContent[1000 + i], buffer[40 + i]);
+    }
+
+    @Test
+    public void readPastEndReturnsEof() throws Exception {
+        byte[] buffer = new byte[10];
+        assertEquals(-1, mSource.readAt(FILE_SIZE, buffer, 0, buffer.length));
+        assertEquals(1, mSource.readAt(FILE_SIZE - 1, buffer, 0, buffer.length));
+    }
+
+    @Test
+    public void sharedHandleOutlivesOriginal() throws Exception {
+        FileMediaDataSource shared = mSource.share();
+        mSource.close();
+        byte[] buffer = new byte[8];
+        assertEquals(8, shared.readAt(16, buffer, 0, buffer.length));
+        shared.close();
+        try {
+            shared.readAt(16, buffer, 0, buffer.length);
+            fail("read after close");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void interruptedReaderDoesNotBreakOtherHandles() throws Exception {
+        final FileMediaDataSource probe = mSource.share();
+        final AtomicReference<Throwable> probeFailure = new AtomicReference<Throwable>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // a cancelled thumbnail or probe thread
+                Thread.currentThread().interrupt();
+                try {
+                    probe.readAt(0, new byte[16], 0, 16);
+                } catch (Throwable t) {
+                    probeFailure.set(t);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertTrue(String.valueOf(probeFailure.get()), probeFailure.get() instanceof ClosedByInterruptException);
+
+        byte[] buffer = new byte[64];
+        assertEquals(64, mSource.readAt(5000, buffer, 0, buffer.length));
+        for (int i = 0; i < buffer.length; i++)
+            assertEquals(mContent[5000 + i], buffer[i]);
+        // the probe's handle works again once its thread is no longer interrupted
+        assertEquals(64, probe.readAt(5000, buffer, 0, buffer.length));
+        probe.close();
+    }
+
+    @Test
+    public void concurrentReadersScale() throws Exception {
+        // warm up the page cache and the JIT before timing
+        runReaders(1);
+        int[] readerCounts = {1, 2, 4};
+        long[] bytesPerMs = new long[readerCounts.length];
+        StringBuilder report = new StringBuilder("FileMediaDataSource bytes/ms (")
+                .append(Runtime.getRuntime().availableProcessors()).append(" cpus):");
+        for (int i = 0; i < readerCounts.length; i++) {
+            bytesPerMs[i] = runReaders(readerCounts[i]);
+            report.append(' ').append(readerCounts[i]).append(readerCounts[i] == 1 ? " reader " : " readers ")
+                    .append(bytesPerMs[i]).append(String.format(" (x%.2f),", (double) bytesPerMs[i] / bytesPerMs[0]));
+        }
+        report.setLength(report.length() - 1);
+        // no assertion on timing, which depends on the machine's cores; every reader has checked
+        // its bytes, the report shows how aggregate throughput scales with the reader count
+        System.out.println(report);
+    }
+
+    private long runReaders(int readerCount) throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicLong bytes = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int r = 0; r < readerCount; r++) {
+            final FileMediaDataSource reader = mSource.share();
+            final long seed = r;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    byte[] buffer = new byte[64 * 1024];
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            long position = random.nextInt(FILE_SIZE);
+                            int count = reader.readAt(position, buffer, 0, buffer.length);
+                            for (int k = 0; k < count; k += 511) {
+                                if (buffer[k] != mContent[(int) position + k])
+                                    throw new AssertionError("mismatch at " + (position + k));
+                            }
+                            bytes.addAndGet(count);
+                        }
+                        reader.close();
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        return bytes.get() / elapsedMs;
+    }
+}
@@ -0,0 +1,37 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameSnapshotterTest {
+
+    @Test
+    public void scalesDownToFitTheMaxSize() {
+        assertSize(640, 360, FrameSnapshotter.outputSize(1920, 1080, 0, 0, 640, 640));
+        assertSize(360, 640, FrameSnapshotter.outputSize(1080, 1920, 0, 0, 640, 640));
+        assertSize(320, 180, FrameSnapshotter.outputSize(1920, 1080, 0, 0, 640, 180));
+    }
+
+    @Test
+    public void neverScalesUp() {
+        assertSize(320, 240, FrameSnapshotter.outputSize(320, 240, 0, 0, 640, 640));
+    }
+
+    @Test
+    public void appliesTheSampleAspectRatio() {
+        // PAL 720x576 with 16:15 pixels is 768x576 on screen
+        assertSize(640, 480, FrameSnapshotter.outputSize(720, 576, 16, 15, 640, 640));
+        assertSize(768, 576, FrameSnapshotter.outputSize(720, 576, 16, 15, 1920, 1080));
+    }
+
+    @Test
+    public void keepsAtLeastOnePixel() {
+        assertSize(100, 1, FrameSnapshotter.outputSize(10000, 1, 0, 0, 100, 100));
+    }
+
+    private static void assertSize(int width, int height, long size) {
+        assertEquals("width", width, MeasureHelper.width(size));
+        assertEquals("height", height, MeasureHelper.height(size));
+    }
+}
@@ -0,0 +1,52 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.Test;
+
+import tv.danmaku.ijk.media.player.IjkMediaPlayer;
+
+import static org.junit.Assert.*;
+
+public class IjkOptionProfileTest {
+
+    @Test
+    public void defaultMatchesTheOldHardCodedOptions() {
+        IjkOptionProfile profile = IjkOptionProfile.DEFAULT;
+        assertEquals(1, profile.get(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "framedrop").longValue);
+        assertEquals(0, profile.get(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared").longValue);
+        assertEquals(0, profile.get(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "http-detect-range-support").longValue);
+        assertEquals(10000000, profile.get(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "timeout").longValue);
+        assertEquals(1, profile.get(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "reconnect").longValue);
+        assertEquals(48, profile.get(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter").longValue);
+        assertEquals(6, profile.getOptions().size());
+    }
+
+    @Test
+    public void derivedProfilesKeepTheBase() {
+        IjkOptionProfile profile = IjkOptionProfile.LOW_LATENCY_LIVE;
+        assertEquals("nobuffer", profile.get(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "fflags").stringValue);
+        assertTrue(profile.get(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "fflags").isString());
+        assertEquals(1, profile.get(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "reconnect").longValue);
+        assertEquals(0, IjkOptionProfile.VOD_QUALITY.get(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter").longValue);
+        assertNull(IjkOptionProfile.DEFAULT.get(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "fflags"));
+    }
+
+    @Test
+    public void perStreamOverrides() {
+        IjkOptionProfile profile = IjkOptionProfile.DEFAULT.copy("slowCdn")
+                .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "timeout", 30000000)
+                .remove(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter")
+                .set(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "user_agent", "test");
+        assertEquals("slowCdn", profile.getName());
+        assertEquals(30000000, profile.get(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "timeout").longValue);
+        assertNull(profile.get(IjkMediaPlayer.OPT_CATEGORY_CODEC, "skip_loop_filter"));
+        // overriding keeps the option's position, new ones go last
+        assertEquals("timeout", profile.getOptions().get(3).name);
+        assertEquals("user_agent", profile.getOptions().get(5).name);
+        assertEquals(10000000, IjkOptionProfile.DEFAULT.get(IjkMediaPlayer.OPT_CATEGORY_FORMAT, "timeout").longValue);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void predefinedProfilesAreReadOnly() {
+        IjkOptionProfile.DEFAULT.set(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "framedrop", 0);
+    }
+}
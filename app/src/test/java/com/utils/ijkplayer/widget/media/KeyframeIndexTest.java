@@ -0,0 +1,122 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class KeyframeIndexTest {
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(System.getProperty("java.io.tmpdir"), "keyframe-index-test-" + System.nanoTime() + ".kfi");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void floorFindsTheKeyframeAtOrBefore() {
+        KeyframeIndex index = build(0, 2000, 4000, 6000);
+
+        assertEquals(0, index.floor(-100));
+        assertEquals(0, index.floor(0));
+        assertEquals(0, index.floor(1999));
+        assertEquals(1, index.floor(2000));
+        assertEquals(2, index.floor(5999));
+        assertEquals(3, index.floor(6000));
+        assertEquals(3, index.floor(Long.MAX_VALUE));
+        assertEquals(6000, index.getDurationMs());
+    }
+
+    @Test
+    public void emptyIndex() {
+        KeyframeIndex index = new KeyframeIndex.Builder().build();
+
+        assertEquals(0, index.size());
+        assertEquals(-1, index.floor(1000));
+        assertEquals(0, index.getDurationMs());
+    }
+
+    @Test
+    public void groupEndsWhereTheNextStarts() {
+        KeyframeIndex index = build(0, 2000, 4000);
+
+        assertEquals(index.getOffset(1), index.getEndOffset(0, 1000000));
+        assertEquals(1000000, index.getEndOffset(2, 1000000));
+    }
+
+    @Test
+    public void builderKeepsTheTableSorted() {
+        KeyframeIndex index = new KeyframeIndex.Builder()
+                .add(0, 0)
+                .add(2000, 188)
+                .add(2000, 376)
+                .add(1000, 564)
+                .add(3000, 752)
+                .build();
+
+        assertEquals(3, index.size());
+        assertEquals(188, index.getOffset(1));
+        assertEquals(752, index.getOffset(2));
+    }
+
+    @Test
+    public void builderGrows() {
+        KeyframeIndex.Builder builder = new KeyframeIndex.Builder();
+        for (int i = 0; i < 10000; i++)
+            builder.add(i * 2000L, i * 188L * 100);
+        KeyframeIndex index = builder.build();
+
+        assertEquals(10000, index.size());
+        assertEquals(9999 * 2000L, index.getTimeMs(9999));
+        assertEquals(5000, index.floor(5000 * 2000L + 1));
+    }
+
+    @Test
+    public void roundTripsThroughAFile() throws Exception {
+        KeyframeIndex index = build(0, 2000, 4000, 6000);
+        index.writeTo(mFile, 123456, 789);
+
+        KeyframeIndex read = KeyframeIndex.readFrom(mFile, 123456, 789);
+        assertNotNull(read);
+        assertEquals(index.size(), read.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(index.getTimeMs(i), read.getTimeMs(i));
+            assertEquals(index.getOffset(i), read.getOffset(i));
+        }
+        assertEquals(24 + 16 * 4, mFile.length());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void staleOrDamagedIndexIsRefused() throws Exception {
+        build(0, 2000).writeTo(mFile, 1000, 5);
+
+        assertNull(KeyframeIndex.readFrom(mFile, 1001, 5));
+        assertNull(KeyframeIndex.readFrom(mFile, 1000, 6));
+        assertNull(KeyframeIndex.readFrom(new File(mFile.getPath() + ".missing"), 1000, 5));
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 8);
+        } finally {
+            file.close();
+        }
+        assertNull(KeyframeIndex.readFrom(mFile, 1000, 5));
+    }
+
+    private static KeyframeIndex build(long... times) {
+        KeyframeIndex.Builder builder = new KeyframeIndex.Builder();
+        for (int i = 0; i < times.length; i++)
+            builder.add(times[i], i * 188L * 50);
+        return builder.build();
+    }
+}
@@ -0,0 +1,173 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the mapped path byte-for-byte against the RandomAccessFile path for the access
+ * patterns the demuxer produces: sequential reads, back-and-forth seeks and random probes,
+ * and times both on the same patterns.
+ */
+public class MappedFileMediaDataSourceTest {
+    private static final int FILE_SIZE = 3 * 64 * 1024 + 123;
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    private File mFile;
+    private IMediaDataSource mExpected;
+    private IMediaDataSource mMapped;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("media", ".ts");
+        byte[] content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        mExpected = new FileMediaDataSource(mFile);
+        mMapped = new MappedFileMediaDataSource(mFile, WINDOW_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExpected.close();
+        mMapped.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void sequentialReadsMatch() throws Exception {
+        for (long position = 0; position < FILE_SIZE; position += 4096) {
+            assertSameRead(position, 4096);
+        }
+    }
+
+    @Test
+    public void seekHeavyReadsMatch() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            long position = (i % 2 == 0) ? (i * 997L) % FILE_SIZE : FILE_SIZE - 1 - (i * 991L) % FILE_SIZE;
+            assertSameRead(position, 1880);
+        }
+    }
+
+    @Test
+    public void randomReadsMatch() throws Exception {
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            assertSameRead(random.nextInt(FILE_SIZE), 1 + random.nextInt(32 * 1024));
+        }
+    }
+
+    @Test
+    public void readPastEndReturnsEof() throws Exception {
+        byte[] buffer = new byte[16];
+        assertEquals(0, mMapped.readAt(FILE_SIZE, buffer, 0, 0));
+        assertEquals(-1, mMapped.readAt(FILE_SIZE, buffer, 0, buffer.length));
+        assertEquals(FILE_SIZE, mMapped.getSize());
+    }
+
+    @Test
+    public void readHonoursOffset() throws Exception {
+        byte[] expected = new byte[64];
+        byte[] actual = new byte[64 + 10];
+        readFully(mExpected, 100, expected, 0, expected.length);
+        readFully(mMapped, 100, actual, 10, expected.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[10 + i]);
+        }
+    }
+
+    /**
+     * Times both paths on the three patterns; the checksums make sure the work isn't optimized
+     * away and that both read the same bytes.
+     */
+    @Test
+    public void readPatternsBenchmark() throws Exception {
+        int reads = 20000;
+        long[][] patterns = {new long[reads], new long[reads], new long[reads]};
+        int[][] sizes = {new int[reads], new int[reads], new int[reads]};
+        Random random = new Random(11);
+        for (int i = 0; i < reads; i++) {
+            patterns[0][i] = (i * 4096L) % FILE_SIZE;
+            sizes[0][i] = 4096;
+            patterns[1][i] = (i % 2 == 0) ? (i * 997L) % FILE_SIZE : FILE_SIZE - 1 - (i * 991L) % FILE_SIZE;
+            sizes[1][i] = 1880;
+            patterns[2][i] = random.nextInt(FILE_SIZE);
+            sizes[2][i] = 1 + random.nextInt(32 * 1024);
+        }
+        String[] names = {"sequential", "seek-heavy", "random"};
+        byte[] buffer = new byte[32 * 1024];
+        // the whole file in one window, as with the default window size on real videos
+        IMediaDataSource oneWindow = new MappedFileMediaDataSource(mFile);
+        StringBuilder report = new StringBuilder(
+                "MappedFileMediaDataSource ns/read (RandomAccessFile / 64 KiB windows / one window):");
+        try {
+            for (int p = 0; p < patterns.length; p++) {
+                long expected = 0;
+                long[] nanos = new long[3];
+                IMediaDataSource[] sources = {mExpected, mMapped, oneWindow};
+                for (int k = 0; k < sources.length; k++) {
+                    // warm up before timing
+                    runPattern(sources[k], patterns[p], sizes[p], buffer);
+                    long start = System.nanoTime();
+                    long checksum = runPattern(sources[k], patterns[p], sizes[p], buffer);
+                    nanos[k] = System.nanoTime() - start;
+                    if (k == 0)
+                        expected = checksum;
+                    else
+                        assertEquals(names[p], expected, checksum);
+                }
+                report.append(' ').append(names[p]).append(' ').append(nanos[0] / reads)
+                        .append(" / ").append(nanos[1] / reads).append(" / ").append(nanos[2] / reads).append(',');
+            }
+        } finally {
+            oneWindow.close();
+        }
+        report.setLength(report.length() - 1);
+        System.out.println(report);
+    }
+
+    private static long runPattern(IMediaDataSource source, long[] positions, int[] sizes, byte[] buffer)
+            throws IOException {
+        long checksum = 0;
+        for (int i = 0; i < positions.length; i++) {
+            // the mapped path stops short at window ends, read on like the demuxer does
+            int length = (int) Math.min(sizes[i], FILE_SIZE - positions[i]);
+            readFully(source, positions[i], buffer, 0, length);
+            checksum = checksum * 31 + length + buffer[0] + buffer[length - 1];
+        }
+        return checksum;
+    }
+
+    private void assertSameRead(long position, int size) throws IOException {
+        int length = (int) Math.min(size, FILE_SIZE - position);
+        byte[] expected = new byte[length];
+        byte[] actual = new byte[length];
+        readFully(mExpected, position, expected, 0, length);
+        readFully(mMapped, position, actual, 0, length);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static void readFully(IMediaDataSource source, long position, byte[] buffer, int offset, int size)
+            throws IOException {
+        int done = 0;
+        while (done < size) {
+            int count = source.readAt(position + done, buffer, offset + done, size - done);
+            assertTrue("unexpected eof", count > 0);
+            done += count;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.utils.ijkplayer.widget.media;
+
+import android.view.View;
+
+import org.junit.Test;
+
+import static com.utils.ijkplayer.common.AllocationCounter.allocatedBytes;
+import static org.junit.Assert.*;
+
+public class MeasureHelperTest {
+    private static final int AT_MOST = View.MeasureSpec.AT_MOST;
+    private static final int EXACTLY = View.MeasureSpec.EXACTLY;
+    private static final int UNSPECIFIED = View.MeasureSpec.UNSPECIFIED;
+
+    @Test
+    public void fitsAndFillsAPortraitScreen() {
+        // 1080p video on a 1080x1920 portrait screen
+        assertSize(1080, 607, 1920, 1080, 0, IRenderView.AR_ASPECT_FIT_PARENT, AT_MOST, 1080, AT_MOST, 1920);
+        assertSize(3413, 1920, 1920, 1080, 0, IRenderView.AR_ASPECT_FILL_PARENT, AT_MOST, 1080, AT_MOST, 1920);
+        assertSize(1080, 607, 1920, 1080, 0, IRenderView.AR_ASPECT_WRAP_CONTENT, AT_MOST, 1080, AT_MOST, 1920);
+        assertSize(1080, 1920, 1920, 1080, 0, IRenderView.AR_MATCH_PARENT, AT_MOST, 1080, AT_MOST, 1920);
+        assertSize(1080, 607, 1920, 1080, 0, IRenderView.AR_16_9_FIT_PARENT, AT_MOST, 1080, AT_MOST, 1920);
+        assertSize(1080, 810, 1920, 1080, 0, IRenderView.AR_4_3_FIT_PARENT, AT_MOST, 1080, AT_MOST, 1920);
+    }
+
+    @Test
+    public void fitsAndFillsALandscapeScreen() {
+        // 4:3 video on a 1920x1080 landscape screen
+        assertSize(1440, 1080, 640, 480, 0, IRenderView.AR_ASPECT_FIT_PARENT, AT_MOST, 1920, AT_MOST, 1080);
+        assertSize(1920, 1440, 640, 480, 0, IRenderView.AR_ASPECT_FILL_PARENT, AT_MOST, 1920, AT_MOST, 1080);
+        // wrap content doesn't scale up
+        assertSize(640, 480, 640, 480, 0, IRenderView.AR_ASPECT_WRAP_CONTENT, AT_MOST, 1920, AT_MOST, 1080);
+        assertSize(1920, 1080, 640, 480, 0, IRenderView.AR_MATCH_PARENT, AT_MOST, 1920, AT_MOST, 1080);
+        assertSize(1920, 1080, 640, 480, 0, IRenderView.AR_16_9_FIT_PARENT, AT_MOST, 1920, AT_MOST, 1080);
+        assertSize(1440, 1080, 640, 480, 0, IRenderView.AR_4_3_FIT_PARENT, AT_MOST, 1920, AT_MOST, 1080);
+    }
+
+    @Test
+    public void appliesTheSampleAspectRatio() {
+        // PAL 720x576 with 16:15 pixels is 4:3
+        long size = MeasureHelper.measure(720, 576, 16, 15, 0, IRenderView.AR_ASPECT_FIT_PARENT,
+                spec(AT_MOST, 1920), spec(AT_MOST, 1080));
+        assertEquals(1440, MeasureHelper.width(size));
+        assertEquals(1080, MeasureHelper.height(size));
+    }
+
+    @Test
+    public void swapsTheSpecsForRotatedVideo() {
+        // a 90 degree 1080p video is measured unrotated and turned by the view
+        assertSize(1920, 1080, 1920, 1080, 90, IRenderView.AR_ASPECT_FIT_PARENT, AT_MOST, 1080, AT_MOST, 1920);
+        assertSize(607, 1080, 1920, 1080, 270, IRenderView.AR_16_9_FIT_PARENT, AT_MOST, 1080, AT_MOST, 1920);
+    }
+
+    @Test
+    public void followsFixedSpecs() {
+        assertSize(1440, 1080, 640, 480, 0, IRenderView.AR_ASPECT_FIT_PARENT, EXACTLY, 1920, EXACTLY, 1080);
+        assertSize(1920, 1080, 640, 480, 0, IRenderView.AR_ASPECT_FIT_PARENT, EXACTLY, 1920, AT_MOST, 1080);
+        assertSize(1280, 960, 640, 480, 0, IRenderView.AR_ASPECT_FIT_PARENT, AT_MOST, 1920, EXACTLY, 960);
+        assertSize(640, 480, 640, 480, 0, IRenderView.AR_ASPECT_FIT_PARENT, UNSPECIFIED, 0, UNSPECIFIED, 0);
+        assertSize(400, 300, 640, 480, 0, IRenderView.AR_ASPECT_FIT_PARENT, UNSPECIFIED, 0, AT_MOST, 300);
+    }
+
+    @Test
+    public void adoptsTheSpecsWithoutAVideoSize() {
+        assertSize(1920, 1080, 0, 0, 0, IRenderView.AR_ASPECT_FIT_PARENT, AT_MOST, 1920, AT_MOST, 1080);
+        assertSize(0, 0, 0, 0, 0, IRenderView.AR_ASPECT_FIT_PARENT, UNSPECIFIED, 100, UNSPECIFIED, 100);
+    }
+
+    @Test
+    public void recomputesOnlyWhenAnInputChanges() {
+        MeasureHelper helper = new MeasureHelper(null);
+        helper.setVideoSize(1920, 1080);
+        helper.doMeasure(spec(AT_MOST, 1080), spec(AT_MOST, 1920));
+        assertEquals(1080, helper.getMeasuredWidth());
+        assertEquals(607, helper.getMeasuredHeight());
+
+        helper.setAspectRatio(IRenderView.AR_MATCH_PARENT);
+        helper.doMeasure(spec(AT_MOST, 1080), spec(AT_MOST, 1920));
+        assertEquals(1920, helper.getMeasuredHeight());
+
+        helper.setAspectRatio(IRenderView.AR_ASPECT_FIT_PARENT);
+        helper.setVideoSize(1920, 1080);
+        helper.doMeasure(spec(AT_MOST, 1920), spec(AT_MOST, 1080));
+        assertEquals(1920, helper.getMeasuredWidth());
+        assertEquals(1080, helper.getMeasuredHeight());
+
+        helper.setVideoRotation(90);
+        helper.doMeasure(spec(AT_MOST, 1920), spec(AT_MOST, 1080));
+        assertEquals(1080, helper.getMeasuredWidth());
+        assertEquals(607, helper.getMeasuredHeight());
+    }
+
+    @Test
+    public void measuringDoesNotAllocate() {
+        MeasureHelper helper = new MeasureHelper(null);
+        helper.setVideoSize(1920, 1080);
+        int[] modes = {IRenderView.AR_ASPECT_FIT_PARENT, IRenderView.AR_ASPECT_FILL_PARENT,
+                IRenderView.AR_ASPECT_WRAP_CONTENT, IRenderView.AR_MATCH_PARENT,
+                IRenderView.AR_16_9_FIT_PARENT, IRenderView.AR_4_3_FIT_PARENT};
+        int portraitWidth = spec(AT_MOST, 1080);
+        int portraitHeight = spec(AT_MOST, 1920);
+        // warm up so class loading and compilation don't count
+        long sink = measureAll(modes, 20000, portraitWidth, portraitHeight);
+        for (int i = 0; i < 20000; i++)
+            helper.doMeasure(portraitWidth, portraitHeight);
+
+        int count = 1000000;
+        long before = allocatedBytes();
+        long start = System.nanoTime();
+        sink += measureAll(modes, count, portraitWidth, portraitHeight);
+        long computed = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            helper.doMeasure(portraitWidth, portraitHeight);
+        long cached = System.nanoTime() - start;
+        long allocated = allocatedBytes() - before;
+
+        System.out.println(String.format("MeasureHelper ns/measure: computed %.1f, cached %.1f (%d)",
+                (double) computed / count, (double) cached / count, sink & 1));
+        assertTrue("allocated " + allocated, allocated < 100000);
+    }
+
+    private static long measureAll(int[] modes, int count, int widthSpec, int heightSpec) {
+        long sink = 0;
+        for (int i = 0; i < count; i++)
+            sink += MeasureHelper.measure(1920, 1080, 1, 1, 0, modes[i % modes.length], widthSpec, heightSpec);
+        return sink;
+    }
+
+    private static void assertSize(int expectedWidth, int expectedHeight, int videoWidth, int videoHeight,
+                                   int rotation, int aspectRatio, int widthMode, int width, int heightMode, int height) {
+        long size = MeasureHelper.measure(videoWidth, videoHeight, 0, 0, rotation, aspectRatio,
+                spec(widthMode, width), spec(heightMode, height));
+        assertEquals("width", expectedWidth, MeasureHelper.width(size));
+        assertEquals("height", expectedHeight, MeasureHelper.height(size));
+    }
+
+    private static int spec(int mode, int size) {
+        return mode | size;
+    }
+}
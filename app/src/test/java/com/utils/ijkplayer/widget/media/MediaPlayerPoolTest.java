@@ -0,0 +1,134 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import tv.danmaku.ijk.media.player.IMediaPlayer;
+
+import static org.junit.Assert.*;
+
+public class MediaPlayerPoolTest {
+    private final List<FakePlayer> mCreated = new ArrayList<FakePlayer>();
+    // stands in for the pool thread, run by drain()
+    private final List<Runnable> mTasks = new ArrayList<Runnable>();
+    private MediaPlayerPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new MediaPlayerPool(new MediaPlayerPool.Factory() {
+            @Override
+            public IMediaPlayer create() {
+                FakePlayer fake = new FakePlayer();
+                mCreated.add(fake);
+                return fake.player;
+            }
+        }, 2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mTasks.add(command);
+            }
+        });
+    }
+
+    @Test
+    public void prewarmedPlayersServeAcquires() {
+        mPool.prewarm();
+        mPool.prewarm();
+        drain();
+        assertEquals(2, mPool.getIdleCount());
+        assertEquals(2, mPool.getConstructionCount());
+
+        IMediaPlayer player = mPool.acquire();
+        assertSame(mCreated.get(0).player, player);
+        assertEquals(1, mPool.getHitCount());
+        // the acquire tops the pool up again
+        drain();
+        assertEquals(2, mPool.getIdleCount());
+        assertEquals(3, mPool.getConstructionCount());
+    }
+
+    @Test
+    public void healthyPlayerIsResetAndReused() {
+        IMediaPlayer player = mPool.acquire();
+        FakePlayer fake = mCreated.get(0);
+        assertEquals(0, mPool.getHitCount());
+        drain();
+
+        // what openVideo does: hand the old player back, then take the next one
+        mPool.recycle(player, true);
+        assertTrue(fake.listenersCleared);
+        assertNotSame(player, mPool.acquire());
+        drain();
+        assertEquals(1, fake.resets);
+        assertEquals(0, fake.releases);
+        assertEquals(0, mPool.getDiscardCount());
+        // the recycled player took the free slot, so no replacement was built
+        assertEquals(3, mPool.getConstructionCount());
+
+        mPool.acquire();
+        assertSame(player, mPool.acquire());
+    }
+
+    @Test
+    public void failedPlayerIsNeverReused() {
+        IMediaPlayer player = mPool.acquire();
+        FakePlayer fake = mCreated.get(0);
+
+        mPool.recycle(player, false);
+        drain();
+        assertEquals(0, fake.resets);
+        assertEquals(1, fake.releases);
+        assertEquals(1, mPool.getDiscardCount());
+        for (int i = 0; i < 4; i++) {
+            assertNotSame(player, mPool.acquire());
+            drain();
+        }
+    }
+
+    @Test
+    public void closeReleasesIdlePlayers() {
+        mPool.prewarm();
+        drain();
+        mPool.close();
+        drain();
+        assertEquals(0, mPool.getIdleCount());
+        for (FakePlayer fake : mCreated)
+            assertEquals(1, fake.releases);
+    }
+
+    private void drain() {
+        while (!mTasks.isEmpty())
+            mTasks.remove(0).run();
+    }
+
+    private static class FakePlayer implements InvocationHandler {
+        final IMediaPlayer player = (IMediaPlayer) Proxy.newProxyInstance(
+                IMediaPlayer.class.getClassLoader(), new Class<?>[]{IMediaPlayer.class}, this);
+        int resets;
+        int releases;
+        boolean listenersCleared;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("reset"))
+                resets++;
+            else if (name.equals("release"))
+                releases++;
+            else if (name.equals("setOnErrorListener"))
+                listenersCleared = args[0] == null;
+            else if (name.equals("equals"))
+                return proxy == args[0];
+            else if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+            return null;
+        }
+    }
+}
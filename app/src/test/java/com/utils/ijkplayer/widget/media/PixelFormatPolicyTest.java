@@ -0,0 +1,56 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.Test;
+
+import tv.danmaku.ijk.media.player.IjkMediaPlayer;
+
+import static org.junit.Assert.*;
+
+public class PixelFormatPolicyTest {
+
+    @Test
+    public void classifiesDevices() {
+        assertEquals(PixelFormatPolicy.DEVICE_LOW, PixelFormatPolicy.classifyDevice(true, 512, 8));
+        assertEquals(PixelFormatPolicy.DEVICE_LOW, PixelFormatPolicy.classifyDevice(false, 96, 8));
+        assertEquals(PixelFormatPolicy.DEVICE_LOW, PixelFormatPolicy.classifyDevice(false, 512, 2));
+        assertEquals(PixelFormatPolicy.DEVICE_MID, PixelFormatPolicy.classifyDevice(false, 192, 8));
+        assertEquals(PixelFormatPolicy.DEVICE_MID, PixelFormatPolicy.classifyDevice(false, 256, 4));
+        assertEquals(PixelFormatPolicy.DEVICE_HIGH, PixelFormatPolicy.classifyDevice(false, 256, 8));
+    }
+
+    @Test
+    public void lowDevicesAlwaysUseTheCheapestFormat() {
+        int low = PixelFormatPolicy.DEVICE_LOW;
+        assertEquals(IjkMediaPlayer.SDL_FCC_YV12, PixelFormatPolicy.choose(320, 240, 15, IjkVideoView.RENDER_SURFACE_VIEW, low));
+        assertEquals(IjkMediaPlayer.SDL_FCC_RV16, PixelFormatPolicy.choose(320, 240, 15, IjkVideoView.RENDER_TEXTURE_VIEW, low));
+    }
+
+    @Test
+    public void midDevicesSwitchByPixelRate() {
+        int mid = PixelFormatPolicy.DEVICE_MID;
+        assertEquals(IjkMediaPlayer.SDL_FCC_RV32, PixelFormatPolicy.choose(854, 480, 30, IjkVideoView.RENDER_SURFACE_VIEW, mid));
+        assertEquals(IjkMediaPlayer.SDL_FCC_YV12, PixelFormatPolicy.choose(1280, 720, 30, IjkVideoView.RENDER_SURFACE_VIEW, mid));
+        assertEquals(IjkMediaPlayer.SDL_FCC_RV32, PixelFormatPolicy.choose(1280, 720, 30, IjkVideoView.RENDER_TEXTURE_VIEW, mid));
+        assertEquals(IjkMediaPlayer.SDL_FCC_RV16, PixelFormatPolicy.choose(1920, 1080, 30, IjkVideoView.RENDER_TEXTURE_VIEW, mid));
+        // unknown frame rates count as 30
+        assertEquals(IjkMediaPlayer.SDL_FCC_RV16, PixelFormatPolicy.choose(1920, 1080, 0, IjkVideoView.RENDER_TEXTURE_VIEW, mid));
+    }
+
+    @Test
+    public void highDevicesKeepRv32Longer() {
+        int high = PixelFormatPolicy.DEVICE_HIGH;
+        assertEquals(IjkMediaPlayer.SDL_FCC_RV32, PixelFormatPolicy.choose(1920, 1080, 30, IjkVideoView.RENDER_SURFACE_VIEW, high));
+        assertEquals(IjkMediaPlayer.SDL_FCC_YV12, PixelFormatPolicy.choose(1920, 1080, 60, IjkVideoView.RENDER_SURFACE_VIEW, high));
+        assertEquals(IjkMediaPlayer.SDL_FCC_RV32, PixelFormatPolicy.choose(1920, 1080, 60, IjkVideoView.RENDER_TEXTURE_VIEW, high));
+        assertEquals(IjkMediaPlayer.SDL_FCC_RV16, PixelFormatPolicy.choose(3840, 2160, 30, IjkVideoView.RENDER_TEXTURE_VIEW, high));
+    }
+
+    @Test
+    public void estimatesFrameBytes() {
+        assertEquals(1920 * 1080 * 4, PixelFormatPolicy.frameBytes(IjkMediaPlayer.SDL_FCC_RV32, 1920, 1080));
+        assertEquals(1920 * 1080 * 2, PixelFormatPolicy.frameBytes(IjkMediaPlayer.SDL_FCC_RV16, 1920, 1080));
+        assertEquals(1920 * 1080 * 3 / 2, PixelFormatPolicy.frameBytes(IjkMediaPlayer.SDL_FCC_YV12, 1920, 1080));
+        assertEquals(0, PixelFormatPolicy.frameBytes(0, 1920, 1080));
+        assertEquals("RV16", PixelFormatPolicy.name(IjkMediaPlayer.SDL_FCC_RV16));
+    }
+}
@@ -0,0 +1,177 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadMediaDataSourceTest {
+    private static final int BLOCK_SIZE = 16 * 1024;
+    private static final int FILE_SIZE = 20 * BLOCK_SIZE + 77;
+
+    private File mFile;
+    private byte[] mContent;
+    private ReadAheadMediaDataSource mSource;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("media", ".mp4");
+        mContent = new byte[FILE_SIZE];
+        new Random(1).nextBytes(mContent);
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(mContent);
+        } finally {
+            out.close();
+        }
+        mSource = new ReadAheadMediaDataSource(mFile, BLOCK_SIZE, 4, 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mSource.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void sequentialReadIsServedFromPrefetchedBlocks() throws Exception {
+        int reads = 0;
+        long position = 0;
+        byte[] buffer = new byte[4096];
+        while (position < FILE_SIZE) {
+            // block n was scheduled while reading block n - 2 at the latest
+            long index = position / BLOCK_SIZE;
+            if (index > 0)
+                awaitPrefetch(index);
+            int count = mSource.readAt(position, buffer, 0, buffer.length);
+            assertTrue(count > 0);
+            assertRange(buffer, 0, position, count);
+            position += count;
+            reads++;
+        }
+        assertEquals(-1, mSource.readAt(position, buffer, 0, buffer.length));
+
+        long blocks = (FILE_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        assertEquals(reads, mSource.getHitCount() + mSource.getWaitCount() + mSource.getMissCount());
+        // only the first block is loaded by the reader, every later one by the prefetcher
+        assertEquals(1, mSource.getMissCount());
+        assertEquals(blocks - 1, mSource.getPrefetchHitCount());
+        assertEquals(0, mSource.getPrefetchWasteCount());
+    }
+
+    @Test
+    public void wholeBlockReadsAreCountedOnce() throws Exception {
+        ReadAheadMediaDataSource source = new ReadAheadMediaDataSource(mFile, BLOCK_SIZE, 4, 1);
+        try {
+            byte[] buffer = new byte[BLOCK_SIZE];
+            int reads = 0;
+            long position = 0;
+            // whole blocks back to back, so the reader keeps catching the prefetcher mid-block
+            while (position < FILE_SIZE) {
+                int count = source.readAt(position, buffer, 0, buffer.length);
+                assertRange(buffer, 0, position, count);
+                position += count;
+                reads++;
+            }
+            assertEquals(reads, source.getHitCount() + source.getWaitCount() + source.getMissCount());
+            // a block found still loading is never reported as a hit
+            assertTrue(source.getHitCount() <= source.getPrefetchHitCount());
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void noReadAheadMeansNoPrefetch() throws Exception {
+        ReadAheadMediaDataSource source = new ReadAheadMediaDataSource(mFile, BLOCK_SIZE, 4, 0);
+        try {
+            byte[] buffer = new byte[4096];
+            for (long position = 0; position < FILE_SIZE; position += 4096)
+                source.readAt(position, buffer, 0, buffer.length);
+            assertEquals(0, source.getPrefetchCount());
+            assertEquals(0, source.getPrefetchHitCount());
+            assertEquals((FILE_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE, source.getMissCount());
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void randomReadsReturnFileContent() throws Exception {
+        Random random = new Random(3);
+        byte[] buffer = new byte[BLOCK_SIZE + 32];
+        for (int i = 0; i < 300; i++) {
+            long position = random.nextInt(FILE_SIZE);
+            int offset = random.nextInt(32);
+            int count = mSource.readAt(position, buffer, offset, 1 + random.nextInt(BLOCK_SIZE));
+            assertTrue(count > 0);
+            assertRange(buffer, offset, position, count);
+        }
+    }
+
+    @Test
+    public void seekAwayCountsUnreadPrefetchAsWaste() throws Exception {
+        byte[] buffer = new byte[1024];
+        mSource.readAt(0, buffer, 0, buffer.length);
+        awaitPrefetch(2);
+        // jump around so the read-ahead blocks 1 and 2 are evicted without being read
+        for (int i = 10; i < 18; i++) {
+            mSource.readAt(i * (long) BLOCK_SIZE + 100, buffer, 0, buffer.length);
+        }
+        assertEquals(2, mSource.getPrefetchCount());
+        assertEquals(2, mSource.getPrefetchWasteCount());
+        assertEquals(0, mSource.getPrefetchHitCount());
+    }
+
+    @Test
+    public void interruptedReaderDoesNotBreakTheSource() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // a miss is filled on the reader's thread, where the interrupt closes the channel
+                Thread.currentThread().interrupt();
+                try {
+                    mSource.readAt(10L * BLOCK_SIZE, new byte[16], 0, 16);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertTrue(String.valueOf(failure.get()), failure.get() instanceof IOException);
+
+        // both the reader and the prefetcher carry on with the reopened file
+        byte[] buffer = new byte[4096];
+        assertEquals(buffer.length, mSource.readAt(0, buffer, 0, buffer.length));
+        assertRange(buffer, 0, 0, buffer.length);
+        awaitPrefetch(2);
+        assertEquals(buffer.length, mSource.readAt(BLOCK_SIZE + 100, buffer, 0, buffer.length));
+        assertRange(buffer, 0, BLOCK_SIZE + 100, buffer.length);
+    }
+
+    /**
+     * Waits until {@code count} blocks have been prefetched.
+     */
+    private void awaitPrefetch(long count) throws InterruptedException {
+        // a demuxer spends time between reads; give the prefetcher the same head start
+        long deadline = System.currentTimeMillis() + 2000;
+        while (mSource.getPrefetchCount() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertTrue(mSource.getPrefetchCount() >= count);
+    }
+
+    private void assertRange(byte[] buffer, int offset, long position, int count) {
+        for (int i = 0; i < count; i++) {
+            assertEquals(mContent[(int) position + i], buffer[offset + i]);
+        }
+    }
+}
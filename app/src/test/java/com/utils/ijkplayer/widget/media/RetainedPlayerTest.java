@@ -0,0 +1,186 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import tv.danmaku.ijk.media.player.IMediaPlayer;
+
+import static org.junit.Assert.*;
+
+public class RetainedPlayerTest {
+
+    @Test
+    public void takesOverThePlayersListeners() {
+        FakePlayer fake = new FakePlayer();
+        RetainedPlayer retained = new RetainedPlayer(fake.player, null, null, false);
+        assertSame(retained, fake.listeners.get("setOnPreparedListener"));
+        assertSame(retained, fake.listeners.get("setOnErrorListener"));
+        assertSame(retained, fake.listeners.get("setOnInfoListener"));
+        assertSame(retained, fake.listeners.get("setOnBufferingUpdateListener"));
+        assertTrue(retained.isAlive());
+    }
+
+    @Test
+    public void replaysEventsInOrder() {
+        FakePlayer fake = new FakePlayer();
+        RetainedPlayer retained = new RetainedPlayer(fake.player, null, null, false);
+        retained.onPrepared(fake.player);
+        retained.onVideoSizeChanged(fake.player, 1920, 1080, 1, 1);
+        retained.onInfo(fake.player, IMediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START, 0);
+        retained.onBufferingUpdate(fake.player, 40);
+        retained.onCompletion(fake.player);
+        assertEquals(4, retained.getEventCount());
+        assertEquals(40, retained.mBufferPercentage);
+
+        IMediaPlayer player = retained.take();
+        Recorder recorder = new Recorder();
+        retained.replay(player, recorder, recorder, recorder, recorder, recorder);
+        assertEquals("[prepared, size 1920x1080, info " + IMediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START + " 0, completion]",
+                recorder.events.toString());
+        assertFalse(retained.isAlive());
+        assertEquals(0, retained.getEventCount());
+    }
+
+    @Test
+    public void keepsTheNewestEvents() {
+        FakePlayer fake = new FakePlayer();
+        RetainedPlayer retained = new RetainedPlayer(fake.player, null, null, false);
+        int total = RetainedPlayer.MAX_EVENTS * 3 + 5;
+        for (int i = 0; i < total; i++)
+            retained.onInfo(fake.player, IMediaPlayer.MEDIA_INFO_BUFFERING_START, i);
+        assertEquals(RetainedPlayer.MAX_EVENTS, retained.getEventCount());
+
+        Recorder recorder = new Recorder();
+        retained.replay(retained.take(), recorder, recorder, recorder, recorder, recorder);
+        assertEquals(RetainedPlayer.MAX_EVENTS, recorder.events.size());
+        assertEquals("info " + IMediaPlayer.MEDIA_INFO_BUFFERING_START + " " + (total - RetainedPlayer.MAX_EVENTS),
+                recorder.events.get(0));
+        assertEquals("info " + IMediaPlayer.MEDIA_INFO_BUFFERING_START + " " + (total - 1),
+                recorder.events.get(RetainedPlayer.MAX_EVENTS - 1));
+    }
+
+    @Test
+    public void releasesAnUnpooledPlayerOnce() {
+        FakePlayer fake = new FakePlayer();
+        RetainedPlayer retained = new RetainedPlayer(fake.player, null, null, false);
+        retained.release();
+        retained.release();
+        assertEquals(1, fake.resets);
+        assertEquals(1, fake.releases);
+        assertNull(retained.take());
+    }
+
+    @Test
+    public void attachedPlayerIsNotReleased() {
+        FakePlayer fake = new FakePlayer();
+        RetainedPlayer retained = new RetainedPlayer(fake.player, null, null, false);
+        assertSame(fake.player, retained.take());
+        retained.release();
+        assertEquals(0, fake.releases);
+    }
+
+    @Test
+    public void pooledPlayerGoesBackToThePoolUnlessItFailed() {
+        final List<FakePlayer> created = new ArrayList<FakePlayer>();
+        MediaPlayerPool pool = new MediaPlayerPool(new MediaPlayerPool.Factory() {
+            @Override
+            public IMediaPlayer create() {
+                FakePlayer fake = new FakePlayer();
+                created.add(fake);
+                return fake.player;
+            }
+        }, 2, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+
+        IMediaPlayer healthy = pool.acquire();
+        new RetainedPlayer(healthy, healthy, pool, false).release();
+        // the pool resets a healthy player for reuse
+        assertEquals(1, created.get(0).resets);
+
+        IMediaPlayer failing = pool.acquire();
+        FakePlayer failingFake = null;
+        for (FakePlayer fake : created) {
+            if (fake.player == failing)
+                failingFake = fake;
+        }
+        RetainedPlayer retained = new RetainedPlayer(failing, failing, pool, false);
+        retained.onError(failing, IMediaPlayer.MEDIA_ERROR_UNKNOWN, -5);
+        assertTrue(retained.isPlayerFailed());
+        retained.release();
+        assertEquals(0, failingFake.resets);
+        assertEquals(1, failingFake.releases);
+    }
+
+    private static class Recorder implements IMediaPlayer.OnPreparedListener, IMediaPlayer.OnVideoSizeChangedListener,
+            IMediaPlayer.OnCompletionListener, IMediaPlayer.OnErrorListener, IMediaPlayer.OnInfoListener {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void onPrepared(IMediaPlayer mp) {
+            events.add("prepared");
+        }
+
+        @Override
+        public void onVideoSizeChanged(IMediaPlayer mp, int width, int height, int sarNum, int sarDen) {
+            events.add("size " + width + "x" + height);
+        }
+
+        @Override
+        public void onCompletion(IMediaPlayer mp) {
+            events.add("completion");
+        }
+
+        @Override
+        public boolean onError(IMediaPlayer mp, int what, int extra) {
+            events.add("error " + what + " " + extra);
+            return true;
+        }
+
+        @Override
+        public boolean onInfo(IMediaPlayer mp, int what, int extra) {
+            events.add("info " + what + " " + extra);
+            return true;
+        }
+    }
+
+    private static class FakePlayer implements InvocationHandler {
+        final IMediaPlayer player = (IMediaPlayer) Proxy.newProxyInstance(
+                IMediaPlayer.class.getClassLoader(), new Class<?>[]{IMediaPlayer.class}, this);
+        final java.util.Map<String, Object> listeners = new java.util.HashMap<String, Object>();
+        int resets;
+        int releases;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("reset"))
+                resets++;
+            else if (name.equals("release"))
+                releases++;
+            else if (name.startsWith("setOn"))
+                listeners.put(name, args[0]);
+            else if (name.equals("equals"))
+                return proxy == args[0];
+            else if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+            Class<?> type = method.getReturnType();
+            if (type == int.class)
+                return 0;
+            if (type == long.class)
+                return 0L;
+            if (type == boolean.class)
+                return false;
+            return null;
+        }
+    }
+}
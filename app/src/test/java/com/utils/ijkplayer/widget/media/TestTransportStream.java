@@ -0,0 +1,123 @@
+package com.utils.ijkplayer.widget.media;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes minimal MPEG-TS files for the key frame index tests: a PAT, a PMT with an audio and
+ * an H.264 stream, and one PES per frame.
+ */
+class TestTransportStream {
+    static final int PMT_PID = 0x100;
+    static final int VIDEO_PID = 0x101;
+    static final int AUDIO_PID = 0x102;
+
+    private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+    private final boolean mM2ts;
+    private final byte[] mPacket = new byte[TsKeyframeScanner.PACKET_SIZE];
+    private int mContinuity;
+
+    TestTransportStream(boolean m2ts) {
+        mM2ts = m2ts;
+    }
+
+    void writeTables() {
+        byte[] pat = {
+                0, // pointer field
+                0x00, (byte) 0xb0, 13, 0x00, 0x01, (byte) 0xc1, 0, 0,
+                0x00, 0x01, (byte) (0xe0 | (PMT_PID >> 8)), (byte) PMT_PID,
+                0, 0, 0, 0 // CRC, not checked
+        };
+        writePacket(0, true, false, pat, 0xff);
+        byte[] pmt = {
+                0,
+                0x02, (byte) 0xb0, 23, 0x00, 0x01, (byte) 0xc1, 0, 0,
+                (byte) (0xe0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xf0, 0,
+                0x0f, (byte) (0xe0 | (AUDIO_PID >> 8)), (byte) AUDIO_PID, (byte) 0xf0, 0,
+                0x1b, (byte) (0xe0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xf0, 0,
+                0, 0, 0, 0
+        };
+        writePacket(PMT_PID, true, false, pmt, 0xff);
+    }
+
+    /**
+     * @param idr          whether the payload holds an IDR slice
+     * @param randomAccess whether to set the random access indicator
+     * @return offset of the frame's first packet
+     */
+    long writeVideoFrame(long pts, boolean idr, boolean randomAccess, int extraPackets) {
+        long offset = mOut.size();
+        byte[] nal = {0, 0, 0, 1, 0x09, (byte) 0xf0, 0, 0, 0, 1, (byte) (idr ? 0x65 : 0x41), (byte) 0x88};
+        writePacket(VIDEO_PID, true, randomAccess, concat(pesHeader(0xe0, pts), nal), 0xff);
+        for (int i = 0; i < extraPackets; i++)
+            writePacket(VIDEO_PID, false, false, new byte[0], 0xab);
+        return offset;
+    }
+
+    void writeAudioFrame(long pts) {
+        // an IDR-looking payload on another PID must not count
+        writePacket(AUDIO_PID, true, true, concat(pesHeader(0xc0, pts), new byte[]{0, 0, 1, 0x65}), 0xff);
+    }
+
+    void writeGarbage(int length) {
+        for (int i = 0; i < length; i++)
+            mOut.write(0x11);
+    }
+
+    int size() {
+        return mOut.size();
+    }
+
+    byte[] toByteArray() {
+        return mOut.toByteArray();
+    }
+
+    void writeTo(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            mOut.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writePacket(int pid, boolean unitStart, boolean randomAccess, byte[] payload, int fill) {
+        Arrays.fill(mPacket, (byte) fill);
+        mPacket[0] = 0x47;
+        mPacket[1] = (byte) ((unitStart ? 0x40 : 0) | (pid >> 8));
+        mPacket[2] = (byte) pid;
+        int p = 4;
+        if (randomAccess) {
+            mPacket[3] = (byte) (0x30 | (mContinuity++ & 0xf));
+            mPacket[4] = 1;
+            mPacket[5] = 0x40;
+            p = 6;
+        } else {
+            mPacket[3] = (byte) (0x10 | (mContinuity++ & 0xf));
+        }
+        System.arraycopy(payload, 0, mPacket, p, payload.length);
+        if (mM2ts) {
+            // arrival timestamp, never looked at
+            for (int i = 0; i < 4; i++)
+                mOut.write(0);
+        }
+        mOut.write(mPacket, 0, mPacket.length);
+    }
+
+    private static byte[] pesHeader(int streamId, long pts) {
+        return new byte[]{
+                0, 0, 1, (byte) streamId, 0, 0, (byte) 0x80, (byte) 0x80, 5,
+                (byte) (0x21 | ((pts >> 29) & 0x0e)), (byte) (pts >> 22),
+                (byte) (((pts >> 14) & 0xfe) | 1), (byte) (pts >> 7), (byte) (((pts << 1) & 0xfe) | 1)
+        };
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+}
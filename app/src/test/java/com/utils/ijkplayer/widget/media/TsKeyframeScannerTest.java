@@ -0,0 +1,229 @@
+package com.utils.ijkplayer.widget.media;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TsKeyframeScannerTest {
+    // 25 fps in 90 kHz ticks
+    private static final long FRAME_TICKS = 3600;
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(System.getProperty("java.io.tmpdir"), "ts-scanner-test-" + System.nanoTime() + ".ts");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void idrFramesAreIndexed() throws Exception {
+        TestTransportStream ts = new TestTransportStream(false);
+        List<Long> offsets = writeGops(ts, 90000, 30, 10, true, false);
+        KeyframeIndex index = scan(ts);
+
+        assertNotNull(index);
+        assertEquals(3, index.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i * 400, index.getTimeMs(i));
+            assertEquals((long) offsets.get(i), index.getOffset(i));
+        }
+    }
+
+    @Test
+    public void randomAccessIndicatorMarksKeyframes() throws Exception {
+        TestTransportStream ts = new TestTransportStream(false);
+        List<Long> offsets = writeGops(ts, 0, 20, 5, false, true);
+        KeyframeIndex index = scan(ts);
+
+        assertEquals(4, index.size());
+        assertEquals(600, index.getTimeMs(3));
+        assertEquals((long) offsets.get(3), index.getOffset(3));
+    }
+
+    @Test
+    public void m2tsPacketsAreRecognized() throws Exception {
+        TestTransportStream ts = new TestTransportStream(true);
+        List<Long> offsets = writeGops(ts, 0, 30, 10, true, false);
+        KeyframeIndex index = scan(ts);
+
+        assertEquals(3, index.size());
+        assertEquals((long) offsets.get(2), index.getOffset(2));
+        assertEquals(0, index.getOffset(0) % TsKeyframeScanner.M2TS_PACKET_SIZE);
+    }
+
+    @Test
+    public void ptsRolloverIsUnwrapped() throws Exception {
+        TestTransportStream ts = new TestTransportStream(false);
+        // two seconds before the 33-bit wrap, a key frame every second for ten seconds
+        long start = (1L << 33) - 2 * 90000;
+        writeGops(ts, start, 250, 25, true, false);
+        KeyframeIndex index = scan(ts);
+
+        assertEquals(10, index.size());
+        for (int i = 0; i < 10; i++)
+            assertEquals(i * 1000, index.getTimeMs(i));
+    }
+
+    @Test
+    public void syncIsFoundAgainAfterGarbage() throws Exception {
+        TestTransportStream ts = new TestTransportStream(false);
+        ts.writeTables();
+        long first = ts.writeVideoFrame(0, true, false, 3);
+        ts.writeGarbage(57);
+        long second = ts.writeVideoFrame(90000, true, false, 3);
+        KeyframeIndex index = scan(ts);
+
+        assertEquals(2, index.size());
+        assertEquals(first, index.getOffset(0));
+        assertEquals(second, index.getOffset(1));
+        assertEquals(1000, index.getTimeMs(1));
+    }
+
+    @Test
+    public void otherFilesAreNotIndexed() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.write(new byte[4096]);
+            assertNull(TsKeyframeScanner.scan(file.getChannel()));
+        } finally {
+            file.close();
+        }
+
+        // a transport stream without a PMT has no video stream to index
+        TestTransportStream ts = new TestTransportStream(false);
+        for (int i = 0; i < 5; i++)
+            ts.writeAudioFrame(i * FRAME_TICKS);
+        assertNull(scan(ts));
+    }
+
+    /**
+     * Locating the packet of a seek target by bisecting the file on timestamps, as a demuxer
+     * without an index does, against a lookup in the index and one read.
+     */
+    @Test
+    public void indexedLookupBeatsBisection() throws Exception {
+        TestTransportStream ts = new TestTransportStream(false);
+        // an hour at 25 fps with two-second GOPs, frames a few packets long
+        writeGops(ts, 0, 25 * 3600, 50, true, false);
+        ts.writeTo(mFile);
+        KeyframeIndex index = KeyframeIndexer.load(mFile, new File(mFile.getPath() + KeyframeIndexer.INDEX_SUFFIX));
+        new File(mFile.getPath() + KeyframeIndexer.INDEX_SUFFIX).delete();
+        assertEquals(1800, index.size());
+
+        FileMediaDataSource source = new FileMediaDataSource(mFile);
+        try {
+            long[] targets = new long[200];
+            for (int i = 0; i < targets.length; i++)
+                targets[i] = (i * 7919L) % 3600000;
+            byte[] packet = new byte[TsKeyframeScanner.PACKET_SIZE];
+            int[] reads = new int[1];
+
+            // warm up both paths before timing
+            for (long target : targets) {
+                bisect(source, target, packet, reads);
+                source.readAt(index.getOffset(index.floor(target)), packet, 0, packet.length);
+            }
+
+            reads[0] = 0;
+            long start = System.nanoTime();
+            for (long target : targets)
+                bisect(source, target, packet, reads);
+            long bisectNanos = System.nanoTime() - start;
+            int bisectReads = reads[0];
+
+            start = System.nanoTime();
+            for (long target : targets) {
+                int keyframe = index.floor(target);
+                assertTrue(index.getTimeMs(keyframe) <= target);
+                source.readAt(index.getOffset(keyframe), packet, 0, packet.length);
+                assertEquals(0x47, packet[0] & 0xff);
+            }
+            long indexNanos = System.nanoTime() - start;
+
+            System.out.println("TS seek lookup us/seek: bisect " + bisectNanos / targets.length / 1000
+                    + " (" + bisectReads / targets.length + " reads), index " + indexNanos / targets.length / 1000
+                    + " (1 read)");
+            assertTrue(bisectReads > 10 * targets.length);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * @return offsets of the key frames written
+     */
+    private static List<Long> writeGops(TestTransportStream ts, long startPts, int frames, int gop,
+                                        boolean idr, boolean randomAccess) {
+        List<Long> offsets = new ArrayList<Long>();
+        ts.writeTables();
+        for (int i = 0; i < frames; i++) {
+            long pts = (startPts + i * FRAME_TICKS) & ((1L << 33) - 1);
+            boolean key = i % gop == 0;
+            long offset = ts.writeVideoFrame(pts, key && idr, key && randomAccess, key ? 6 : 2);
+            if (key)
+                offsets.add(offset);
+            if (i % 2 == 0)
+                ts.writeAudioFrame(pts);
+        }
+        return offsets;
+    }
+
+    private KeyframeIndex scan(TestTransportStream ts) throws IOException {
+        ts.writeTo(mFile);
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            return TsKeyframeScanner.scan(file.getChannel());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return offset of the last video PES packet with a time at or before {@code targetMs}
+     */
+    private static long bisect(FileMediaDataSource source, long targetMs, byte[] packet, int[] reads) throws IOException {
+        long packets = source.getSize() / TsKeyframeScanner.PACKET_SIZE;
+        long low = 0;
+        long high = packets - 1;
+        while (low < high) {
+            long mid = (low + high + 1) >>> 1;
+            long time = nextVideoTime(source, mid, packets, packet, reads);
+            if (time >= 0 && time <= targetMs)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low * TsKeyframeScanner.PACKET_SIZE;
+    }
+
+    private static long nextVideoTime(FileMediaDataSource source, long from, long packets, byte[] packet,
+                                      int[] reads) throws IOException {
+        for (long i = from; i < packets; i++) {
+            source.readAt(i * TsKeyframeScanner.PACKET_SIZE, packet, 0, packet.length);
+            reads[0]++;
+            int pid = ((packet[1] & 0x1f) << 8) | (packet[2] & 0xff);
+            if (pid != TestTransportStream.VIDEO_PID || (packet[1] & 0x40) == 0)
+                continue;
+            int p = (packet[3] & 0x20) != 0 ? 5 + (packet[4] & 0xff) : 4;
+            int q = p + 9;
+            long pts = ((long) ((packet[q] >> 1) & 0x07) << 30) | ((packet[q + 1] & 0xff) << 22)
+                    | (((packet[q + 2] & 0xff) >> 1) << 15) | ((packet[q + 3] & 0xff) << 7)
+                    | ((packet[q + 4] & 0xff) >> 1);
+            return pts / 90;
+        }
+        return -1;
+    }
+}